@@ -0,0 +1,250 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JSON export and restore between two DbHelpers, on a device, where
+ * android.util.JsonReader/JsonWriter are real; DrinkBackupTest in
+ * src/test covers CSV. Each store lives in its own directory with its
+ * own preferences, so the app's data is untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrinkBackupJsonTest {
+    private static final String TAG = "DrinkBackupJsonTest";
+    private static final int DAYS = 5000;
+
+    private File root;
+    private File prefsDir;
+    private DbHelper source;
+    private DbHelper target;
+
+    @Before
+    public void setUp() {
+        Context app = InstrumentationRegistry.getTargetContext();
+        root = new File(app.getCacheDir(), TAG);
+        prefsDir = new File(app.getApplicationInfo().dataDir, "shared_prefs");
+        // Whatever a killed run left behind
+        deleteFiles();
+        source = new DbHelper(new StoreContext(new File(root, "source")));
+        source.open();
+        target = new DbHelper(new StoreContext(new File(root, "target")));
+        target.open();
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+        deleteFiles();
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        int firstDay = DayKeys.today() - DAYS + 1;
+        seed(source, firstDay, new Random(11));
+        byte[] backup = export(source, DrinkBackup.FORMAT_JSON);
+
+        assertEquals(DAYS, DrinkBackup.restore(target,
+                new ByteArrayInputStream(backup)));
+
+        assertEquals(firstDay, target.getCreatedDay());
+        assertArrayEquals(dump(source), dump(target));
+        assertEquals(source.getDashboardStats().getTotalDrinks(),
+                target.getDashboardStats().getTotalDrinks());
+        assertTrue(target.checkTotals());
+        // Exporting the restored copy gives back the same file
+        assertEquals(text(backup),
+                text(export(target, DrinkBackup.FORMAT_JSON)));
+        // And the same days as a CSV export of the original
+        assertEquals(text(export(source, DrinkBackup.FORMAT_CSV)),
+                text(export(target, DrinkBackup.FORMAT_CSV)));
+    }
+
+    @Test
+    public void plainJsonRestores() throws Exception {
+        String json = "{\"created_date\": \"2016-07-24\",\n" +
+                " \"note\": [1, {\"x\": 2}],\n" +
+                " \"drink_log\": [\n" +
+                "  {\"log_date\": \"2016-07-24\", \"drink_count\": 2},\n" +
+                "  {\"drink_count\": 5, \"extra\": true," +
+                " \"log_date\": \"2016-07-26\"}\n" +
+                " ]}\n";
+
+        assertEquals(2, DrinkBackup.restore(target,
+                new ByteArrayInputStream(json.getBytes("UTF-8"))));
+
+        int created = DayKeys.fromSqlDate("2016-07-24");
+        assertEquals(created, target.getCreatedDay());
+        assertArrayEquals(new int[] {2, 0, 5},
+                target.getDailyCounts(created, 3));
+        assertTrue(target.checkTotals());
+    }
+
+    @Test
+    public void malformedJsonIsRejected() throws Exception {
+        String created = "{\"created_date\": \"2016-07-24\", \"drink_log\": ";
+        String[] files = {
+                created + "[{\"log_date\": \"2016-07-24\"}]}",
+                created + "[{\"drink_count\": 2}]}",
+                created + "[{\"log_date\": \"2016-7-24\", " +
+                        "\"drink_count\": 2}]}",
+                created + "[{\"log_date\": \"2016-07-24\", " +
+                        "\"drink_count\": -1}]}",
+                created + "[{\"log_date\": \"2016-07-24\", " +
+                        "\"drink_count\": \"two\"}]}",
+                created + "[{\"log_date\": \"2016-07-24\", "
+        };
+        for (String json : files) {
+            try {
+                DrinkBackup.restore(target,
+                        new ByteArrayInputStream(json.getBytes("UTF-8")));
+                fail("restored: " + json);
+            } catch (IOException expected) {
+                // Rejected, as it should be
+            } catch (IllegalStateException expected) {
+                // JsonReader's complaint about a value of the wrong type
+            } catch (NumberFormatException expected) {
+                // Or about a number that is not one
+            }
+        }
+    }
+
+    /**
+     * Restores DAYS days of random counts from firstDay, about a third of
+     * them dry, the way a backup would.
+     */
+    private static void seed(DbHelper db, int firstDay, Random random) {
+        int chunk = DrinkBackup.RESTORE_CHUNK;
+        int[] days = new int[chunk];
+        int[] counts = new int[chunk];
+        db.beginRestore(firstDay);
+        for (int done = 0; done < DAYS; ) {
+            int length = Math.min(chunk, DAYS - done);
+            for (int i = 0; i < length; i++) {
+                days[i] = firstDay + done + i;
+                counts[i] = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(12);
+            }
+            db.restoreChunk(days, counts, length);
+            done += length;
+        }
+        db.endRestore();
+    }
+
+    private static byte[] export(DbHelper db, int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(DAYS, DrinkBackup.export(db, out, format));
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns every drink_log row as day, count pairs, oldest first.
+     */
+    private static long[] dump(DbHelper db) throws IOException {
+        final long[] rows = new long[DAYS * 2];
+        final int[] next = {0};
+        db.visitDays(new DrinkStore.DayVisitor() {
+            @Override
+            public void visit(int day, int count) {
+                rows[next[0]++] = day;
+                rows[next[0]++] = count;
+            }
+        });
+        assertEquals(rows.length, next[0]);
+        return rows;
+    }
+
+    private static String text(byte[] gzipped) throws IOException {
+        InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(gzipped));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    private void deleteFiles() {
+        delete(root);
+        File[] prefs = prefsDir.listFiles();
+        if (prefs != null) {
+            for (File file : prefs) {
+                if (file.getName().startsWith(TAG)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The app's context with the database and preferences of one store
+     * moved under the test's own names.
+     */
+    private static class StoreContext extends ContextWrapper {
+        private final File dir;
+
+        StoreContext(File dir) {
+            super(InstrumentationRegistry.getTargetContext());
+            this.dir = dir;
+            dir.mkdirs();
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return new File(dir, name);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return super.getSharedPreferences(TAG + "_" + dir.getName() +
+                    "_" + name, mode);
+        }
+    }
+}
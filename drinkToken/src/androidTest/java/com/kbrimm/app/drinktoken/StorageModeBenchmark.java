@@ -0,0 +1,318 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * The same history and the same calls in plaintext and encrypted mode,
+ * on a device: the platform's SQLite against SQLCipher, whose page
+ * encryption really runs there; JdbcDatabase in src/test has no cipher.
+ * Each store lives in its own directory with its own preferences, so
+ * the app's data is untouched.
+ * Skipped unless asked for:
+ *     ./gradlew connectedDebugAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.drinktoken.benchmark=true
+ * Results go to logcat under the StorageModeBenchmark tag, as latency
+ * percentiles in microseconds. Fails if an encrypted tap is over budget:
+ * its median more than TAP_OVERHEAD times the plaintext one, or its 90th
+ * percentile over TAP_P90_MILLIS, one frame at 60 Hz.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageModeBenchmark {
+    private static final String TAG = "StorageModeBenchmark";
+    private static final int YEARS = 5;
+    // Days at the end of the history logged drink by drink
+    private static final int EVENT_DAYS = DbHelper.DEFAULT_EVENT_HORIZON_DAYS;
+    private static final int RESTORE_CHUNK = 1000;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+    private static final int COLD_RUNS = 10;
+    // Budget for an encrypted tap against a plaintext one
+    private static final double TAP_OVERHEAD = 1.5;
+    private static final double TAP_P90_MILLIS = 16;
+
+    private File root;
+    private File prefsDir;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("pass drinktoken.benchmark=true to run",
+                Boolean.parseBoolean(InstrumentationRegistry.getArguments()
+                        .getString("drinktoken.benchmark")));
+        Context app = InstrumentationRegistry.getTargetContext();
+        root = new File(app.getCacheDir(), TAG);
+        prefsDir = new File(app.getApplicationInfo().dataDir, "shared_prefs");
+        // Whatever a killed run left behind
+        tearDown();
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+        File[] prefs = prefsDir.listFiles();
+        if (prefs != null) {
+            for (File file : prefs) {
+                if (file.getName().startsWith(TAG)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void plaintextAgainstEncrypted() throws Exception {
+        long[] plaintext = run(false);
+        long[] encrypted = run(true);
+        double plainMedian = percentile(plaintext, 0.5) / 1000.0;
+        double median = percentile(encrypted, 0.5) / 1000.0;
+        double p90 = percentile(encrypted, 0.9) / 1e6;
+        Log.i(TAG, String.format(Locale.US,
+                "tap p50: plaintext %.1f us, encrypted %.1f us (%.2fx)",
+                plainMedian, median, median / plainMedian));
+        Assert.assertTrue(String.format(Locale.US,
+                "encrypted tap p50 %.1f us is over %.1fx plaintext's %.1f us",
+                median, TAP_OVERHEAD, plainMedian),
+                median <= TAP_OVERHEAD * plainMedian);
+        Assert.assertTrue(String.format(Locale.US,
+                "encrypted tap p90 %.2f ms is over %.0f ms", p90,
+                TAP_P90_MILLIS), p90 <= TAP_P90_MILLIS);
+    }
+
+    /**
+     * Seeds a store in one mode and times every operation.
+     *
+     * @return the sorted tap latencies, in nanoseconds
+     */
+    private long[] run(boolean encrypted) throws Exception {
+        final Context context = new BenchmarkContext(new File(root,
+                encrypted ? "encrypted" : "plaintext"));
+        DbHelper store = new DbHelper(context);
+        store.open();
+        seed(store, new Random(21));
+        if (encrypted) {
+            long start = System.nanoTime();
+            if (!store.setEncrypted(true)) {
+                throw new AssertionError("could not encrypt");
+            }
+            Log.i(TAG, String.format(Locale.US,
+                    "setEncrypted(true), %d years: %.1f ms", YEARS,
+                    (System.nanoTime() - start) / 1e6));
+            store.open();
+        }
+        final DbHelper[] current = {store};
+        final int today = DayKeys.today();
+        final long[] time = {System.currentTimeMillis()};
+        final int[] type = {BeverageType.BEER};
+        final int[] units = {BeverageType.getUnits(BeverageType.BEER)};
+
+        Log.i(TAG, (encrypted ? "encrypted" : "plaintext") + ", " + YEARS +
+                " years");
+        Log.i(TAG, String.format(Locale.US, "%-30s %6s %9s %9s %9s",
+                "operation", "runs", "p50 us", "p90 us", "max us"));
+        long[] taps = time("logDrinks (1 tap)", RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].logDrinks(time, type, units, 1);
+            }
+        });
+        time("decrement + getDashboardStats", RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].decrementCount();
+                current[0].getDashboardStats();
+            }
+        });
+        time("getDailyCounts (365 days)", RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].getDailyCounts(today - 364, 365);
+            }
+        });
+        time("getTypeTotals (30 days)", RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].getTypeTotals(today - 29, 30);
+            }
+        });
+        time("getHourlyCounts (30 days)", RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].getHourlyCounts(30);
+            }
+        });
+        time("visitDays (whole history)", COLD_RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].visitDays(new DrinkStore.DayVisitor() {
+                    @Override
+                    public void visit(int day, int count) {
+                    }
+                });
+            }
+        });
+        // A restart: nothing cached, every page read and decrypted again
+        time("open + first getDashboardStats", COLD_RUNS, new Operation() {
+            @Override
+            public void run() throws Exception {
+                current[0].close();
+                current[0] = new DbHelper(context);
+                current[0].open();
+                current[0].getDashboardStats();
+            }
+        });
+        current[0].close();
+        return taps;
+    }
+
+    /**
+     * Restores all but the last EVENT_DAYS of the history as daily
+     * counts, then logs the rest drink by drink, like the JVM
+     * benchmarks' Benchmarks.seedHistory().
+     */
+    private static void seed(DbHelper store, Random random) {
+        int days = YEARS * 365;
+        int today = DayKeys.today();
+        int firstDay = today - days + 1;
+        int restored = days - EVENT_DAYS;
+        int[] chunkDays = new int[RESTORE_CHUNK];
+        int[] chunkCounts = new int[RESTORE_CHUNK];
+        store.beginRestore(firstDay);
+        for (int done = 0; done < restored; ) {
+            int length = Math.min(RESTORE_CHUNK, restored - done);
+            for (int i = 0; i < length; i++) {
+                chunkDays[i] = firstDay + done + i;
+                chunkCounts[i] = drinksOn(random);
+            }
+            store.restoreChunk(chunkDays, chunkCounts, length);
+            done += length;
+        }
+        store.endRestore();
+
+        TimeZone zone = TimeZone.getDefault();
+        for (int day = today - EVENT_DAYS + 1; day < today; day++) {
+            int drinks = drinksOn(random);
+            if (drinks == 0) {
+                continue;
+            }
+            long start = DayKeys.startOfDay(day, zone);
+            long[] times = new long[drinks];
+            int[] types = new int[drinks];
+            int[] units = new int[drinks];
+            for (int i = 0; i < drinks; i++) {
+                times[i] = start + random.nextInt(24 * 60 * 60 * 1000);
+                types[i] = random.nextInt(BeverageType.COUNT);
+                units[i] = BeverageType.getUnits(types[i]);
+            }
+            store.logDrinks(times, types, units, drinks);
+        }
+    }
+
+    private static int drinksOn(Random random) {
+        return random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(6);
+    }
+
+    /**
+     * Runs operation WARMUP times untimed, or fewer for slow operations,
+     * then runs times timed and logs the percentiles.
+     *
+     * @return the sorted latencies, in nanoseconds
+     */
+    private static long[] time(String name, int runs, Operation operation)
+            throws Exception {
+        for (int i = 0; i < Math.min(WARMUP, runs); i++) {
+            operation.run();
+        }
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        Log.i(TAG, String.format(Locale.US, "%-30s %6d %9.1f %9.1f %9.1f",
+                name, runs, percentile(nanos, 0.5) / 1000.0,
+                percentile(nanos, 0.9) / 1000.0, nanos[runs - 1] / 1000.0));
+        return nanos;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted latencies.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1,
+                0)];
+    }
+
+    /**
+     * Something to time.
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The app's context with the database in a directory of its own and
+     * every preferences file, storage mode and key included, renamed
+     * into that directory's namespace.
+     */
+    private static class BenchmarkContext extends ContextWrapper {
+        private final File dir;
+
+        BenchmarkContext(File dir) {
+            super(InstrumentationRegistry.getTargetContext());
+            this.dir = dir;
+            dir.mkdirs();
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return new File(dir, name);
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return super.getSharedPreferences(TAG + "_" + dir.getName() +
+                    "_" + name, mode);
+        }
+    }
+}
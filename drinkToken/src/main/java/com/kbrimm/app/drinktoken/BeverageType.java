@@ -0,0 +1,87 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.Locale;
+
+/**
+ * Use: The beverage types a drink can be logged as, and the weight of
+ *      each in standard drinks. A type is stored as its small integer id
+ *      and a weight as fixed-point units, UNITS_PER_DRINK to one standard
+ *      drink, so every sum stays an exact integer in SQLite. Weights
+ *      follow the US standard drink (14 g of alcohol). Ids are stored in
+ *      the database, so they never change once shipped; new types go on
+ *      the end.
+ * Access points: getName() - returns a type's display name
+ *                getUnits() - returns a type's weight in units
+ *                formatUnits() - formats units as standard drinks
+ */
+public final class BeverageType {
+    // Fixed-point units in one standard drink
+    public static final int UNITS_PER_DRINK = 100;
+    // Type ids; STANDARD is what every drink logged before types was
+    public static final int STANDARD = 0;
+    public static final int LIGHT_BEER = 1;
+    public static final int BEER = 2;
+    public static final int STRONG_PINT = 3;
+    public static final int WINE = 4;
+    public static final int SPIRIT = 5;
+    public static final int COCKTAIL = 6;
+    private static final String[] NAMES = {"Drink", "Light beer", "Beer",
+            "Strong pint", "Wine", "Spirit", "Cocktail"};
+    private static final int[] UNITS = {100, 70, 100, 190, 100, 100, 150};
+    public static final int COUNT = NAMES.length;
+
+    private BeverageType() {
+    }
+
+    /**
+     * Returns a type's display name.
+     *
+     * @param type one of the type ids
+     * @return     the name, or the STANDARD name for an unknown id
+     */
+    public static String getName(int type) {
+        return NAMES[isValid(type) ? type : STANDARD];
+    }
+
+    /**
+     * Returns a type's weight in fixed-point units.
+     *
+     * @param type one of the type ids
+     * @return     the weight, UNITS_PER_DRINK for an unknown id
+     */
+    public static int getUnits(int type) {
+        return UNITS[isValid(type) ? type : STANDARD];
+    }
+
+    /**
+     * Returns the display names of every type, in id order.
+     *
+     * @return a new array of names
+     */
+    public static String[] getNames() {
+        return NAMES.clone();
+    }
+
+    /**
+     * Formats units as standard drinks with two decimals, e.g. "1.90".
+     *
+     * @param units the weight in fixed-point units
+     * @return      the formatted weight
+     */
+    public static String formatUnits(long units) {
+        return String.format(Locale.US, "%d.%02d", units / UNITS_PER_DRINK,
+                Math.abs(units % UNITS_PER_DRINK));
+    }
+
+    public static boolean isValid(int type) {
+        return type >= 0 && type < COUNT;
+    }
+}
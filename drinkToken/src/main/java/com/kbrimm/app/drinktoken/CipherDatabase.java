@@ -0,0 +1,178 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import net.sqlcipher.DatabaseUtils;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import java.io.File;
+
+/**
+ * Use: SqlDatabase over a SQLCipher connection. Every call goes straight
+ *      to SQLCipher's own method of the same name.
+ * Access points: Opener - opens files through SQLCipher, loading its
+ *                    native library on first use
+ *                the SqlDatabase interface
+ */
+final class CipherDatabase implements SqlDatabase {
+    private final SQLiteDatabase db;
+
+    private CipherDatabase(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Opens files with SQLCipher. The native library is loaded on the
+     * first open rather than when the Opener is built.
+     */
+    static final class Opener implements SqlDatabase.Opener {
+        private final Context context;
+
+        Opener(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public SqlDatabase open(File file, String key) {
+            SQLiteDatabase.loadLibs(context);
+            return new CipherDatabase(SQLiteDatabase.openOrCreateDatabase(
+                    file, key, null, null));
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        db.execSQL(sql);
+    }
+
+    @Override
+    public void execSQL(String sql, Object[] args) {
+        db.execSQL(sql, args);
+    }
+
+    @Override
+    public void rawExecSQL(String sql) {
+        db.rawExecSQL(sql);
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] args) {
+        return db.rawQuery(sql, args);
+    }
+
+    @Override
+    public SqlStatement compileStatement(String sql) {
+        return new Statement(db.compileStatement(sql));
+    }
+
+    @Override
+    public long longForQuery(String sql, String[] args) {
+        return DatabaseUtils.longForQuery(db, sql, args);
+    }
+
+    @Override
+    public String stringForQuery(String sql, String[] args) {
+        return DatabaseUtils.stringForQuery(db, sql, args);
+    }
+
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    /**
+     * SqlStatement over a SQLCipher statement.
+     */
+    private static final class Statement implements SqlStatement {
+        private final SQLiteStatement statement;
+
+        Statement(SQLiteStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            statement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            statement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            statement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            statement.bindBlob(index, value);
+        }
+
+        @Override
+        public void execute() {
+            statement.execute();
+        }
+
+        @Override
+        public long executeInsert() {
+            return statement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return statement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return statement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            statement.close();
+        }
+    }
+}
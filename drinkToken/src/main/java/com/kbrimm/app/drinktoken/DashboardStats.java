@@ -0,0 +1,135 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: Immutable snapshot of the numbers shown on the dashboard, as read
+ *      by DbHelper.getDashboardStats() in a single query.
+ * Access points: getDailyCount() - int for today's drink count
+ *                getWeeklyCount() - int for past 7 days' count
+ *                getDailyAvg() - double for total drinks/total days
+ *                getWeeklyAvg() - double for total drinks/total weeks
+ *                getTotalDrinks() - int for all drinks logged
+ *                getElapsedDays() - int for days since creation, inclusive
+ *                getDailyUnits()/getWeeklyUnits()/getTotalUnits() - the
+ *                    same counts weighted in standard-drink units
+ *                withDelta() - copy with drinks added to today
+ */
+public final class DashboardStats {
+    // Snapshot returned when the database cannot be read
+    public static final DashboardStats EMPTY =
+            new DashboardStats(0, 0, 0, 1, 0, 0, 0);
+
+    private final int dailyCount;
+    private final int weeklyCount;
+    private final int totalDrinks;
+    private final int elapsedDays;
+    private final int dailyUnits;
+    private final int weeklyUnits;
+    private final int totalUnits;
+
+    /**
+     * Builds a snapshot from the raw values read out of the database.
+     * Averages are derived from totalDrinks and elapsedDays on demand.
+     *
+     * @param dailyCount  drinks logged today
+     * @param weeklyCount drinks logged over the rolling 7 day window
+     * @param totalDrinks drinks logged since creation
+     * @param elapsedDays days since creation, counting today
+     * @param dailyUnits  today's drinks in BeverageType units
+     * @param weeklyUnits the rolling 7 days' drinks in units
+     * @param totalUnits  all drinks since creation in units
+     */
+    public DashboardStats(int dailyCount, int weeklyCount, int totalDrinks,
+                          int elapsedDays, int dailyUnits, int weeklyUnits,
+                          int totalUnits) {
+        this.dailyCount = dailyCount;
+        this.weeklyCount = weeklyCount;
+        this.totalDrinks = totalDrinks;
+        this.elapsedDays = elapsedDays;
+        this.dailyUnits = dailyUnits;
+        this.weeklyUnits = weeklyUnits;
+        this.totalUnits = totalUnits;
+    }
+
+    /**
+     * Returns a copy with delta drinks weighing units added to today, as
+     * used for optimistic updates before a write has committed.
+     *
+     * @param delta the number of drinks to add (negative to remove)
+     * @param units their combined weight in BeverageType units
+     * @return      a new snapshot including delta
+     */
+    public DashboardStats withDelta(int delta, int units) {
+        return new DashboardStats(dailyCount + delta, weeklyCount + delta,
+                totalDrinks + delta, elapsedDays, dailyUnits + units,
+                weeklyUnits + units, totalUnits + units);
+    }
+
+    public int getDailyCount() {
+        return dailyCount;
+    }
+
+    public int getWeeklyCount() {
+        return weeklyCount;
+    }
+
+    public int getTotalDrinks() {
+        return totalDrinks;
+    }
+
+    public int getElapsedDays() {
+        return elapsedDays;
+    }
+
+    public int getDailyUnits() {
+        return dailyUnits;
+    }
+
+    public int getWeeklyUnits() {
+        return weeklyUnits;
+    }
+
+    public int getTotalUnits() {
+        return totalUnits;
+    }
+
+    /**
+     * Returns the average number of drinks per day since creation.
+     *
+     * @return a double value representing the average drinks per day
+     */
+    public double getDailyAvg() {
+        return 1.0 * totalDrinks/elapsedDays;
+    }
+
+    /**
+     * Returns the average number of drinks per seven-day period since
+     * creation. The first week always counts as a whole week.
+     *
+     * @return a double value representing the average drinks per week
+     */
+    public double getWeeklyAvg() {
+        return totalDrinks/getElapsedWeeks();
+    }
+
+    /**
+     * Returns total number of seven-day periods since creation, never less
+     * than 1.
+     *
+     * @return double value for total number of weeks since creation
+     */
+    public double getElapsedWeeks() {
+        double result = ((elapsedDays-1.00)/7.00);
+        if (result < 1) {
+            result = 1;
+        }
+        return result;
+    }
+}
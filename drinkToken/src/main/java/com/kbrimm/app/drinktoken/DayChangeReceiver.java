@@ -0,0 +1,27 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Use: Drops the cached day in DayKeys when the user or network changes
+ *      the clock, date or time zone, and redraws the home-screen widget
+ *      so its counters move to the new day. Registered in
+ *      AndroidManifest.xml.
+ */
+public class DayChangeReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        DayKeys.invalidate();
+        DrinkWidget.requestUpdate(context);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Use: Day arithmetic on compact integer keys. A day key is the number of
+ *      days between 1970-01-01 and a local calendar date, so consecutive
+ *      days are consecutive ints. Today's key (and its yyyy-MM-dd form)
+ *      is cached until the next local midnight; DayChangeReceiver drops
+ *      the cache when the clock or time zone changes underneath us.
+ * Access points: today() - int key for today's local date
+ *                todayString() - today formatted as yyyy-MM-dd
+ *                invalidate() - forgets the cached day
+ *                forMillis() - int key for the local date of an instant
+ *                toSqlDate() - formats a key as yyyy-MM-dd
+ *                fromSqlDate() - parses yyyy-MM-dd into a key
+ *                dayOfWeek() - Calendar day of the week of a key
+ *                startOfMonth() - key of the first of a key's month
+ */
+public final class DayKeys {
+    public static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+
+    // Where today() reads the time; tests replace it with setClock()
+    private static Clock clock = Clock.SYSTEM;
+    // Cached day, valid while dayStart <= now < nextDayStart
+    private static int cachedKey;
+    private static String cachedString;
+    private static long dayStart = Long.MAX_VALUE;
+    private static long nextDayStart = Long.MIN_VALUE;
+
+    private DayKeys() {
+    }
+
+    /**
+     * The wall clock today() reads.
+     */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        long currentTimeMillis();
+    }
+
+    /**
+     * Replaces the clock today() reads and forgets the cached day. For
+     * tests; pass Clock.SYSTEM to go back to the wall clock.
+     *
+     * @param newClock the clock to read from now on
+     */
+    static synchronized void setClock(Clock newClock) {
+        clock = newClock;
+        invalidate();
+    }
+
+    /**
+     * Returns the key for today's local date. Only recomputed when the
+     * wall clock leaves the cached day, in either direction.
+     *
+     * @return the day key for today
+     */
+    public static synchronized int today() {
+        long now = clock.currentTimeMillis();
+        if (now < dayStart || now >= nextDayStart) {
+            TimeZone zone = TimeZone.getDefault();
+            cachedKey = forMillis(now, zone);
+            cachedString = toSqlDate(cachedKey);
+            dayStart = startOfDay(cachedKey, zone);
+            nextDayStart = startOfDay(cachedKey + 1, zone);
+        }
+        return cachedKey;
+    }
+
+    /**
+     * Returns today's date formatted for SQLite, cached with the key.
+     *
+     * @return today's date formatted as yyyy-MM-dd
+     */
+    public static synchronized String todayString() {
+        today();
+        return cachedString;
+    }
+
+    /**
+     * Forgets the cached day, so the next call to today() recomputes it
+     * against the current clock and default time zone.
+     */
+    public static synchronized void invalidate() {
+        dayStart = Long.MAX_VALUE;
+        nextDayStart = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the key for the local date of an instant.
+     *
+     * @param millis milliseconds since the epoch
+     * @param zone   the time zone the date is observed in
+     * @return       the day key for that local date
+     */
+    public static int forMillis(long millis, TimeZone zone) {
+        long local = millis + zone.getOffset(millis);
+        return (int) floorDiv(local, MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns the instant at which a local date begins. Uses the offset in
+     * effect at that instant, so days next to a DST change come out 23 or
+     * 25 hours long. Where the clocks skip midnight (Sao Paulo until 2018,
+     * for one) the day begins when they jump, e.g. at 01:00; where they go
+     * back over it, at the first midnight. A date the zone skipped
+     * entirely begins and ends at the jump.
+     *
+     * @param key  the day key
+     * @param zone the time zone the date is observed in
+     * @return     milliseconds since the epoch of the day's first instant
+     */
+    public static long startOfDay(int key, TimeZone zone) {
+        long localMidnight = key * MILLIS_PER_DAY;
+        long guess = localMidnight - zone.getOffset(localMidnight);
+        long start = localMidnight - zone.getOffset(guess);
+        if (forMillis(start, zone) != key) {
+            // Midnight is in a gap, and start landed before the jump on
+            // the previous day. The jump is local midnight in the offset
+            // in force before it
+            start = localMidnight - zone.getOffset(start);
+        } else {
+            // Where the clocks went back over midnight it comes twice;
+            // the day begins at the first, in the offset before the change
+            long earlier = localMidnight - zone.getOffset(start - 1);
+            if (earlier < start && forMillis(earlier, zone) == key) {
+                start = earlier;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Formats a key as yyyy-MM-dd without going through Calendar or
+     * SimpleDateFormat. Uses the proleptic Gregorian civil-from-days
+     * conversion.
+     *
+     * @param key the day key
+     * @return    the date formatted as yyyy-MM-dd
+     */
+    public static String toSqlDate(int key) {
+        long z = key + 719468L;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] out = new char[10];
+        out[0] = (char) ('0' + year / 1000 % 10);
+        out[1] = (char) ('0' + year / 100 % 10);
+        out[2] = (char) ('0' + year / 10 % 10);
+        out[3] = (char) ('0' + year % 10);
+        out[4] = '-';
+        out[5] = (char) ('0' + month / 10);
+        out[6] = (char) ('0' + month % 10);
+        out[7] = '-';
+        out[8] = (char) ('0' + day / 10);
+        out[9] = (char) ('0' + day % 10);
+        return new String(out);
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date, as stored by earlier versions, into a key.
+     *
+     * @param date the date formatted as yyyy-MM-dd
+     * @return     the day key for that date
+     */
+    public static int fromSqlDate(String date) {
+        int year = Integer.parseInt(date.substring(0, 4));
+        int month = Integer.parseInt(date.substring(5, 7));
+        int day = Integer.parseInt(date.substring(8, 10));
+
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return (int) (era * 146097 + doe - 719468);
+    }
+
+    /**
+     * Returns the day of the week of a key. 1970-01-01 was a Thursday.
+     *
+     * @param key the day key
+     * @return    Calendar.SUNDAY through Calendar.SATURDAY
+     */
+    public static int dayOfWeek(int key) {
+        return (int) (key + 4 - floorDiv(key + 4, 7) * 7) + Calendar.SUNDAY;
+    }
+
+    /**
+     * Returns the key of the first day of a key's month, by the same
+     * civil-from-days conversion as toSqlDate().
+     *
+     * @param key the day key
+     * @return    the key of the first of that month
+     */
+    public static int startOfMonth(int key) {
+        long z = key + 719468L;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        return key - day + 1;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
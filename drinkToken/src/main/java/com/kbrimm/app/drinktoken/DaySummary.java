@@ -0,0 +1,126 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: A run of days' drink counts as a short[], one entry per day from
+ *      firstDay on. Stored in drink_summary as BLOCK_DAYS-day blocks, each
+ *      a blob of big-endian shorts, so a whole year loads in one or two
+ *      rows and a day's entry sits at a fixed offset in its block. Counts
+ *      past Short.MAX_VALUE are stored as Short.MAX_VALUE. Has no Android
+ *      dependencies.
+ * Access points: getCount() - one day's count, 0 outside the range
+ *                blockOf()/offsetOf() - where a day is stored
+ *                encodeCount()/readBlock() - the blob format
+ */
+public final class DaySummary {
+    // Days per drink_summary row
+    public static final int BLOCK_DAYS = 512;
+    // Bytes per day in a row's blob
+    public static final int BYTES_PER_DAY = 2;
+    public static final int BLOCK_BYTES = BLOCK_DAYS * BYTES_PER_DAY;
+
+    private final int firstDay;
+    private final short[] counts;
+
+    /**
+     * @param firstDay the DayKeys key of counts[0]
+     * @param counts   one count per day, kept rather than copied
+     */
+    public DaySummary(int firstDay, short[] counts) {
+        this.firstDay = firstDay;
+        this.counts = counts;
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public int getLastDay() {
+        return firstDay + counts.length - 1;
+    }
+
+    public int getDays() {
+        return counts.length;
+    }
+
+    /**
+     * @param day a DayKeys key
+     * @return    the day's drink count, 0 if it is outside the range
+     */
+    public int getCount(int day) {
+        int index = day - firstDay;
+        if (index < 0 || index >= counts.length) {
+            return 0;
+        }
+        return counts[index];
+    }
+
+    /**
+     * Returns the counts themselves, for a pass over every day. Callers
+     * must not change them.
+     *
+     * @return one count per day from getFirstDay()
+     */
+    short[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @param day a DayKeys key
+     * @return    the drink_summary block the day is stored in
+     */
+    public static int blockOf(int day) {
+        return day >= 0 ? day / BLOCK_DAYS : (day + 1) / BLOCK_DAYS - 1;
+    }
+
+    /**
+     * @param day a DayKeys key
+     * @return    the byte offset of the day's count within its block
+     */
+    public static int offsetOf(int day) {
+        return (day - blockOf(day) * BLOCK_DAYS) * BYTES_PER_DAY;
+    }
+
+    /**
+     * Encodes one day's count as it is stored in a block.
+     *
+     * @param count the day's drink count
+     * @return      BYTES_PER_DAY bytes, big-endian
+     */
+    public static byte[] encodeCount(long count) {
+        int clamped = (int) Math.max(0, Math.min(count, Short.MAX_VALUE));
+        return new byte[] {(byte) (clamped >> 8), (byte) clamped};
+    }
+
+    /**
+     * Copies the days of one stored block that fall inside the range
+     * into counts. Short or missing blobs read as zeros.
+     *
+     * @param block    the block number
+     * @param blob     the block's stored bytes
+     * @param firstDay the DayKeys key of counts[0]
+     * @param counts   where the days are copied to
+     */
+    public static void readBlock(int block, byte[] blob, int firstDay,
+                                 short[] counts) {
+        if (blob == null) {
+            return;
+        }
+        int blockStart = block * BLOCK_DAYS;
+        int from = Math.max(firstDay, blockStart);
+        int to = Math.min(firstDay + counts.length,
+                blockStart + blob.length / BYTES_PER_DAY);
+        for (int day = from; day < to; day++) {
+            int offset = (day - blockStart) * BYTES_PER_DAY;
+            counts[day - firstDay] = (short) (((blob[offset] & 0xff) << 8) |
+                    (blob[offset + 1] & 0xff));
+        }
+    }
+}
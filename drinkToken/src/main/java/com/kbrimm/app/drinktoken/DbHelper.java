@@ -9,38 +9,667 @@
 package com.kbrimm.app.drinktoken;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Use: Handles app interactions with database
- * Access points: incrementCount() - adds one to today's drink count
+ * Use: Handles app interactions with database. The app's DrinkStore, on
+ *      SQLite, through SQLCipher once encryption is turned on; every read
+ *      and write works on the active profile only. Errors swallowed
+ *      here are counted in DbMetrics.
+ * Access points: open() - creates or upgrades the database
+ *                incrementCount() - logs one drink now
+ *                logDrinks() - logs a batch of timestamped drinks
+ *                decrementCount() - removes one from today's drink count
+ *                undo()/redo() - steps back or forward through the journal
  *                getDailyCount() - returns int for today's drink count
  *                getWeeklyCount() - returns int for past 7 days' count
  *                getDailyAvg() - returns double for total drinks/total days
  *                getWeeklyAvg() - returns double for total drinks/total weeks
+ *                getDashboardStats() - returns all of the above in one read,
+ *                    cached until the next write or midnight
+ *                addStatsListener() - registers for change notifications
+ *                getHourlyCounts() - returns int[24] of recent drinks by hour
+ *                getRollingStats() - returns the in-memory daily series
+ *                getDailyCounts() - returns int[] for a range of days
+ *                getDaySummary() - returns a range of days from the
+ *                    stored blocks
+ *                compactEvents() - drops events already past the horizon
+ *                visitDays() - streams all of drink_log, oldest day first
+ *                beginRestore()/restoreChunk()/endRestore() - replace all
+ *                    data from a backup, one chunk per transaction
+ *                checkTotals() - verifies meta_totals against drink_log
+ *                runMaintenance() - incremental vacuum, ANALYZE and a
+ *                    quick integrity check
+ *                getTypeTotals() - returns per-type sums for a range of days
+ *                getLimitStatus()/setLimits() - reads or sets the limits
+ *                getProfiles() - returns every tracker
+ *                createProfile()/deleteProfile() - adds or drops a tracker
+ *                setActiveProfile() - switches trackers
+ *                isEncrypted()/setEncrypted() - storage mode
+ *                getDeviceId()/getSyncVector()/visitCounters()/
+ *                    mergeCounters() - peer sync
  * Author: K Brimm
  * Date: 7/24/16
  */
-public class DbHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+public class DbHelper implements DrinkStore {
+    public static final int DATABASE_VERSION = 12;
     public static final String DATABASE_NAME = "DrinkTracker.db";
     // private static final String TAG = "DrinkTracker";
     // Table name strings
     public static final String META_TABLE = "meta_data";
     public static final String LOG_TABLE = "drink_log";
+    public static final String TOTALS_TABLE = "meta_totals";
+    public static final String EVENTS_TABLE = "drink_events";
+    public static final String TYPE_LOG_TABLE = "drink_type_log";
+    public static final String LIMITS_TABLE = "meta_limits";
+    public static final String JOURNAL_TABLE = "drink_journal";
+    public static final String SYNC_STATE_TABLE = "sync_state";
+    public static final String COUNTERS_TABLE = "sync_counters";
+    public static final String SUMMARY_TABLE = "drink_summary";
     // Column name strings
+    public static final String PROFILE_ID_COLUMN = "profile_id";
+    public static final String PROFILE_NAME_COLUMN = "profile_name";
     public static final String META_DATE_COLUMN = "created_date";
     public static final String LOG_DATE_COLUMN = "log_date";
     public static final String LOG_COUNT_COLUMN = "drink_count";
+    public static final String TOTALS_DRINKS_COLUMN = "total_drinks";
+    public static final String EVENTS_TIME_COLUMN = "event_time";
+    public static final String TYPE_COLUMN = "type_id";
+    public static final String UNITS_COLUMN = "drink_units";
+    public static final String TOTALS_UNITS_COLUMN = "total_units";
+    public static final String DAILY_LIMIT_COLUMN = "daily_limit";
+    public static final String WEEKLY_LIMIT_COLUMN = "weekly_limit";
+    public static final String STATE_DAY_COLUMN = "state_day";
+    public static final String DAILY_STATE_COLUMN = "daily_state";
+    public static final String WEEKLY_STATE_COLUMN = "weekly_state";
+    public static final String STREAK_COLUMN = "streak_days";
+    public static final String SLOT_COLUMN = "slot";
+    public static final String SEQ_COLUMN = "seq";
+    public static final String OP_COLUMN = "op";
+    public static final String UNDONE_COLUMN = "undone";
+    public static final String DEVICE_ID_COLUMN = "device_id";
+    public static final String CLOCK_COLUMN = "clock";
+    public static final String ADDED_COLUMN = "added";
+    public static final String REMOVED_COLUMN = "removed";
+    public static final String ADDED_UNITS_COLUMN = "added_units";
+    public static final String REMOVED_UNITS_COLUMN = "removed_units";
+    public static final String VERSION_COLUMN = "version";
+    public static final String BLOCK_COLUMN = "block";
+    public static final String DAY_COUNTS_COLUMN = "day_counts";
+    // Index name strings
+    public static final String EVENTS_DATE_INDEX = "drink_events_date_index";
+    public static final String COUNTERS_VERSION_INDEX =
+            "sync_counters_version_index";
+    // Trigger name strings
+    public static final String LOG_INSERT_TRIGGER = "drink_log_insert";
+    public static final String LOG_UPDATE_TRIGGER = "drink_log_update";
+    // Statements run through the StatementCache, each defined once with
+    // every value bound, so the text is the same on every call
+    /*
+     * UPDATE drink_log
+     *   SET drink_count = drink_count + ?, drink_units = drink_units + ?
+     *   WHERE profile_id = ? AND log_date = ?;
+     */
+    private static final Query INCREMENT_QUERY = new Query("increment",
+            "UPDATE " + LOG_TABLE + " SET " + LOG_COUNT_COLUMN + " = " +
+            LOG_COUNT_COLUMN + " + ?, " + UNITS_COLUMN + " = " +
+            UNITS_COLUMN + " + ? WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ?");
+    /*
+     * INSERT INTO drink_log
+     *   (profile_id, log_date, drink_count, drink_units)
+     *   VALUES (?, ?, ?, ?);
+     */
+    private static final Query INSERT_DAY_QUERY = new Query("insertDay",
+            "INSERT INTO " + LOG_TABLE + " (" + PROFILE_ID_COLUMN + ", " +
+            LOG_DATE_COLUMN + ", " + LOG_COUNT_COLUMN + ", " + UNITS_COLUMN +
+            ") VALUES (?, ?, ?, ?)");
+    /*
+     * UPDATE drink_log
+     *   SET drink_count = drink_count - 1,
+     *     drink_units = MAX(drink_units - ?, 0)
+     *   WHERE profile_id = ? AND log_date = ? AND drink_count > 0;
+     */
+    private static final Query DECREMENT_QUERY = new Query("decrement",
+            "UPDATE " + LOG_TABLE + " SET " + LOG_COUNT_COLUMN + " = " +
+            LOG_COUNT_COLUMN + " - 1, " + UNITS_COLUMN + " = MAX(" +
+            UNITS_COLUMN + " - ?, 0) WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + LOG_DATE_COLUMN + " = ? AND " + LOG_COUNT_COLUMN +
+            " > 0");
+    /*
+     * INSERT OR REPLACE INTO drink_type_log
+     *   (profile_id, log_date, type_id, drink_count, drink_units)
+     *   VALUES (?, ?, ?, ? + COALESCE((SELECT drink_count
+     *     FROM drink_type_log
+     *     WHERE profile_id = ? AND log_date = ? AND type_id = ?), 0),
+     *   ? + COALESCE((SELECT drink_units FROM drink_type_log
+     *     WHERE profile_id = ? AND log_date = ? AND type_id = ?), 0));
+     */
+    private static final Query TYPE_INCREMENT_QUERY = new Query(
+            "typeIncrement", "INSERT OR REPLACE INTO " + TYPE_LOG_TABLE +
+            " (" + PROFILE_ID_COLUMN + ", " + LOG_DATE_COLUMN + ", " +
+            TYPE_COLUMN + ", " + LOG_COUNT_COLUMN + ", " + UNITS_COLUMN +
+            ") VALUES (?, ?, ?, ? + COALESCE((SELECT " + LOG_COUNT_COLUMN +
+            " FROM " + TYPE_LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + LOG_DATE_COLUMN + " = ? AND " + TYPE_COLUMN +
+            " = ?), 0), ? + COALESCE((SELECT " + UNITS_COLUMN + " FROM " +
+            TYPE_LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ? AND " + TYPE_COLUMN + " = ?), 0))");
+    /*
+     * UPDATE drink_type_log
+     *   SET drink_count = drink_count - 1,
+     *     drink_units = MAX(drink_units - ?, 0)
+     *   WHERE profile_id = ? AND log_date = ? AND type_id = ?
+     *     AND drink_count > 0;
+     */
+    private static final Query TYPE_DECREMENT_QUERY = new Query(
+            "typeDecrement", "UPDATE " + TYPE_LOG_TABLE + " SET " +
+            LOG_COUNT_COLUMN + " = " + LOG_COUNT_COLUMN + " - 1, " +
+            UNITS_COLUMN + " = MAX(" + UNITS_COLUMN + " - ?, 0) WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + LOG_DATE_COLUMN + " = ? AND " +
+            TYPE_COLUMN + " = ? AND " + LOG_COUNT_COLUMN + " > 0");
+    /*
+     * INSERT INTO drink_events
+     *   (event_time, log_date, profile_id, type_id, drink_units)
+     *   VALUES (?, ?, ?, ?, ?);
+     */
+    private static final Query EVENT_QUERY = new Query("event",
+            "INSERT INTO " + EVENTS_TABLE + " (" + EVENTS_TIME_COLUMN + ", " +
+            LOG_DATE_COLUMN + ", " + PROFILE_ID_COLUMN + ", " + TYPE_COLUMN +
+            ", " + UNITS_COLUMN + ") VALUES (?, ?, ?, ?, ?)");
+    /*
+     * DELETE FROM drink_events WHERE rowid = (SELECT MAX(rowid)
+     *   FROM drink_events
+     *   WHERE log_date = ? AND profile_id = ? AND event_time = ?);
+     */
+    private static final Query MATCH_EVENT_QUERY = new Query("matchEvent",
+            "DELETE FROM " + EVENTS_TABLE + " WHERE rowid = (SELECT MAX(rowid)" +
+            " FROM " + EVENTS_TABLE + " WHERE " + LOG_DATE_COLUMN + " = ? AND " +
+            PROFILE_ID_COLUMN + " = ? AND " + EVENTS_TIME_COLUMN + " = ?)");
+    /*
+     * DELETE FROM drink_events WHERE log_date < ?;
+     */
+    private static final Query COMPACT_QUERY = new Query("compact",
+            "DELETE FROM " + EVENTS_TABLE + " WHERE " + LOG_DATE_COLUMN +
+            " < ?");
+    /*
+     * INSERT OR REPLACE INTO meta_limits VALUES (?, ?, ?, ?, ?, ?, ?);
+     */
+    private static final Query LIMITS_QUERY = new Query("limits",
+            "INSERT OR REPLACE INTO " + LIMITS_TABLE + " (" +
+            PROFILE_ID_COLUMN + ", " + DAILY_LIMIT_COLUMN + ", " +
+            WEEKLY_LIMIT_COLUMN + ", " + STATE_DAY_COLUMN + ", " +
+            DAILY_STATE_COLUMN + ", " + WEEKLY_STATE_COLUMN + ", " +
+            STREAK_COLUMN + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+    /*
+     * INSERT OR REPLACE INTO drink_journal
+     *   (profile_id, slot, seq, op, event_time, log_date, type_id,
+     *   drink_units, undone) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0);
+     */
+    private static final Query JOURNAL_QUERY = new Query("journal",
+            "INSERT OR REPLACE INTO " + JOURNAL_TABLE + " (" +
+            PROFILE_ID_COLUMN + ", " + SLOT_COLUMN + ", " + SEQ_COLUMN + ", " +
+            OP_COLUMN + ", " + EVENTS_TIME_COLUMN + ", " + LOG_DATE_COLUMN +
+            ", " + TYPE_COLUMN + ", " + UNITS_COLUMN + ", " + UNDONE_COLUMN +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)");
+    /*
+     * UPDATE drink_journal SET undone = ?
+     *   WHERE profile_id = ? AND slot = ?;
+     */
+    private static final Query MARK_JOURNAL_QUERY = new Query("markJournal",
+            "UPDATE " + JOURNAL_TABLE + " SET " + UNDONE_COLUMN + " = ? WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + SLOT_COLUMN + " = ?");
+    /*
+     * DELETE FROM drink_journal WHERE profile_id = ? AND seq > ?;
+     */
+    private static final Query DISCARD_REDO_QUERY = new Query("discardRedo",
+            "DELETE FROM " + JOURNAL_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + SEQ_COLUMN + " > ?");
+    /*
+     * SELECT MAX(clock, (SELECT COALESCE(MAX(version), 0)
+     *   FROM sync_counters
+     *   WHERE sync_counters.device_id = sync_state.device_id))
+     *   FROM sync_state;
+     */
+    private static final Query SYNC_CLOCK_QUERY = new Query("syncClock",
+            "SELECT MAX(" + CLOCK_COLUMN + ", (SELECT COALESCE(MAX(" +
+            VERSION_COLUMN + "), 0) FROM " + COUNTERS_TABLE + " WHERE " +
+            COUNTERS_TABLE + "." + DEVICE_ID_COLUMN + " = " +
+            SYNC_STATE_TABLE + "." + DEVICE_ID_COLUMN + ")) FROM " +
+            SYNC_STATE_TABLE);
+    /*
+     * UPDATE sync_state SET clock = ?;
+     */
+    private static final Query STORE_SYNC_CLOCK_QUERY = new Query(
+            "storeSyncClock", "UPDATE " + SYNC_STATE_TABLE + " SET " +
+            CLOCK_COLUMN + " = ?");
+    /*
+     * UPDATE sync_counters SET added = added + ?, removed = removed + ?,
+     *     added_units = added_units + ?,
+     *     removed_units = removed_units + ?, version = ?
+     *   WHERE profile_id = ? AND device_id = ? AND log_date = ?
+     *     AND type_id = ?;
+     */
+    private static final Query COUNTER_UPDATE_QUERY = new Query(
+            "counterUpdate", "UPDATE " + COUNTERS_TABLE + " SET " +
+            ADDED_COLUMN + " = " + ADDED_COLUMN + " + ?, " + REMOVED_COLUMN +
+            " = " + REMOVED_COLUMN + " + ?, " + ADDED_UNITS_COLUMN + " = " +
+            ADDED_UNITS_COLUMN + " + ?, " + REMOVED_UNITS_COLUMN + " = " +
+            REMOVED_UNITS_COLUMN + " + ?, " + VERSION_COLUMN + " = ? WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + DEVICE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ? AND " + TYPE_COLUMN + " = ?");
+    /*
+     * INSERT OR REPLACE INTO sync_counters
+     *   (profile_id, device_id, log_date, type_id, added, removed,
+     *   added_units, removed_units, version)
+     *   VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);
+     */
+    private static final Query COUNTER_QUERY = new Query("counter",
+            "INSERT OR REPLACE INTO " + COUNTERS_TABLE + " (" +
+            PROFILE_ID_COLUMN + ", " + DEVICE_ID_COLUMN + ", " +
+            LOG_DATE_COLUMN + ", " + TYPE_COLUMN + ", " + ADDED_COLUMN + ", " +
+            REMOVED_COLUMN + ", " + ADDED_UNITS_COLUMN + ", " +
+            REMOVED_UNITS_COLUMN + ", " + VERSION_COLUMN +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    /*
+     * INSERT OR REPLACE INTO sync_counters
+     *   (profile_id, device_id, log_date, type_id, added, removed,
+     *   added_units, removed_units, version)
+     *   SELECT profile_id, ?, log_date, type_id,
+     *     SUM(CASE WHEN device_id = ? THEN added ELSE 0 END)
+     *       + MAX(-SUM(added - removed), 0),
+     *     SUM(CASE WHEN device_id = ? THEN removed ELSE 0 END)
+     *       + MAX(SUM(added - removed), 0),
+     *     SUM(CASE WHEN device_id = ? THEN added_units ELSE 0 END)
+     *       + MAX(-SUM(added_units - removed_units), 0),
+     *     SUM(CASE WHEN device_id = ? THEN removed_units ELSE 0 END)
+     *       + MAX(SUM(added_units - removed_units), 0),
+     *     ?
+     *   FROM sync_counters WHERE profile_id = ?
+     *   GROUP BY log_date, type_id
+     *   HAVING SUM(added - removed) <> 0
+     *     OR SUM(added_units - removed_units) <> 0;
+     *
+     * A day and type can net below zero when a peer removes a drink a
+     * clear here already cancelled; that is cancelled by adding instead,
+     * since each half of a counter only ever grows.
+     */
+    private static final Query CANCEL_COUNTERS_QUERY = new Query(
+            "cancelCounters", "INSERT OR REPLACE INTO " + COUNTERS_TABLE +
+            " (" + PROFILE_ID_COLUMN + ", " + DEVICE_ID_COLUMN + ", " +
+            LOG_DATE_COLUMN + ", " + TYPE_COLUMN + ", " + ADDED_COLUMN + ", " +
+            REMOVED_COLUMN + ", " + ADDED_UNITS_COLUMN + ", " +
+            REMOVED_UNITS_COLUMN + ", " + VERSION_COLUMN + ") SELECT " +
+            PROFILE_ID_COLUMN + ", ?, " + LOG_DATE_COLUMN + ", " +
+            TYPE_COLUMN + ", SUM(CASE WHEN " + DEVICE_ID_COLUMN + " = ? THEN " +
+            ADDED_COLUMN + " ELSE 0 END) + MAX(-SUM(" + ADDED_COLUMN + " - " +
+            REMOVED_COLUMN + "), 0), SUM(CASE WHEN " + DEVICE_ID_COLUMN +
+            " = ? THEN " + REMOVED_COLUMN + " ELSE 0 END) + MAX(SUM(" +
+            ADDED_COLUMN + " - " + REMOVED_COLUMN + "), 0), SUM(CASE WHEN " +
+            DEVICE_ID_COLUMN + " = ? THEN " + ADDED_UNITS_COLUMN +
+            " ELSE 0 END) + MAX(-SUM(" + ADDED_UNITS_COLUMN + " - " +
+            REMOVED_UNITS_COLUMN + "), 0), SUM(CASE WHEN " + DEVICE_ID_COLUMN +
+            " = ? THEN " + REMOVED_UNITS_COLUMN + " ELSE 0 END) + MAX(SUM(" +
+            ADDED_UNITS_COLUMN + " - " + REMOVED_UNITS_COLUMN + "), 0), ? " +
+            "FROM " + COUNTERS_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? GROUP BY " + LOG_DATE_COLUMN + ", " + TYPE_COLUMN +
+            " HAVING SUM(" + ADDED_COLUMN + " - " + REMOVED_COLUMN +
+            ") <> 0 OR SUM(" + ADDED_UNITS_COLUMN + " - " +
+            REMOVED_UNITS_COLUMN + ") <> 0");
+    /*
+     * UPDATE meta_data SET created_date = ?
+     *   WHERE profile_id = ? AND created_date > ?;
+     */
+    private static final Query MOVE_CREATED_DATE_QUERY = new Query(
+            "moveCreatedDate", "UPDATE " + META_TABLE + " SET " +
+            META_DATE_COLUMN + " = ? WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + META_DATE_COLUMN + " > ?");
+    /*
+     * UPDATE meta_data SET created_date = ? WHERE profile_id = ?;
+     */
+    private static final Query SET_CREATED_DATE_QUERY = new Query(
+            "setCreatedDate", "UPDATE " + META_TABLE + " SET " +
+            META_DATE_COLUMN + " = ? WHERE " + PROFILE_ID_COLUMN + " = ?");
+    /*
+     * UPDATE meta_totals SET total_drinks = 0, total_units = 0
+     *   WHERE profile_id = ?;
+     */
+    private static final Query RESET_TOTALS_QUERY = new Query("resetTotals",
+            "UPDATE " + TOTALS_TABLE + " SET " + TOTALS_DRINKS_COLUMN +
+            " = 0, " + TOTALS_UNITS_COLUMN + " = 0 WHERE " +
+            PROFILE_ID_COLUMN + " = ?");
+    /*
+     * UPDATE meta_limits SET state_day = ?, daily_state = 0,
+     *   weekly_state = 0, streak_days = 0 WHERE profile_id = ?;
+     */
+    private static final Query RESET_LIMITS_QUERY = new Query("resetLimits",
+            "UPDATE " + LIMITS_TABLE + " SET " + STATE_DAY_COLUMN + " = ?, " +
+            DAILY_STATE_COLUMN + " = 0, " + WEEKLY_STATE_COLUMN + " = 0, " +
+            STREAK_COLUMN + " = 0 WHERE " + PROFILE_ID_COLUMN + " = ?");
+    /*
+     * INSERT INTO meta_data (profile_id, profile_name, created_date)
+     *   VALUES (?, ?, ?);
+     */
+    private static final Query INSERT_META_QUERY = new Query("insertMeta",
+            "INSERT INTO " + META_TABLE + " (" + PROFILE_ID_COLUMN + ", " +
+            PROFILE_NAME_COLUMN + ", " + META_DATE_COLUMN +
+            ") VALUES (?, ?, ?)");
+    /*
+     * INSERT INTO meta_totals (profile_id, total_drinks, total_units)
+     *   VALUES (?, 0, 0);
+     */
+    private static final Query INSERT_TOTALS_QUERY = new Query(
+            "insertTotals", "INSERT INTO " + TOTALS_TABLE + " (" +
+            PROFILE_ID_COLUMN + ", " + TOTALS_DRINKS_COLUMN + ", " +
+            TOTALS_UNITS_COLUMN + ") VALUES (?, 0, 0)");
+    /*
+     * INSERT INTO meta_limits VALUES (?, 0, 0, ?, 0, 0, 0);
+     */
+    private static final Query INSERT_LIMITS_QUERY = new Query(
+            "insertLimits", "INSERT INTO " + LIMITS_TABLE +
+            " VALUES (?, 0, 0, ?, 0, 0, 0)");
+    // DELETE FROM <table> WHERE profile_id = ?; one per profile table
+    private static final Query CLEAR_LOG_QUERY = clearQuery(LOG_TABLE);
+    private static final Query CLEAR_TYPE_LOG_QUERY =
+            clearQuery(TYPE_LOG_TABLE);
+    private static final Query CLEAR_EVENTS_QUERY = clearQuery(EVENTS_TABLE);
+    private static final Query CLEAR_JOURNAL_QUERY = clearQuery(JOURNAL_TABLE);
+    private static final Query CLEAR_SUMMARY_QUERY = clearQuery(SUMMARY_TABLE);
+    private static final Query CLEAR_TOTALS_QUERY = clearQuery(TOTALS_TABLE);
+    private static final Query CLEAR_LIMITS_QUERY = clearQuery(LIMITS_TABLE);
+    private static final Query CLEAR_COUNTERS_QUERY =
+            clearQuery(COUNTERS_TABLE);
+    private static final Query CLEAR_META_QUERY = clearQuery(META_TABLE);
+    // Reads, defined once like the statements above and run through
+    // rawQuery() with their values from Query.args()
+    /*
+     * SELECT
+     *   (SELECT COALESCE(SUM(drink_count), 0) FROM drink_log
+     *     WHERE profile_id = profile AND log_date = getToday()),
+     *   (SELECT COALESCE(SUM(drink_count), 0) FROM drink_log
+     *     WHERE profile_id = profile
+     *       AND log_date BETWEEN getOneWeekAgo() AND getToday()),
+     *   (SELECT total_drinks FROM meta_totals WHERE profile_id = profile),
+     *   (SELECT 1 + getToday() - created_date FROM meta_data
+     *     WHERE profile_id = profile),
+     *   (SELECT COALESCE(SUM(drink_units), 0) FROM drink_log
+     *     WHERE profile_id = profile AND log_date = getToday()),
+     *   (SELECT COALESCE(SUM(drink_units), 0) FROM drink_log
+     *     WHERE profile_id = profile
+     *       AND log_date BETWEEN getOneWeekAgo() AND getToday()),
+     *   (SELECT total_units FROM meta_totals WHERE profile_id = profile);
+     */
+    private static final Query DASHBOARD_QUERY = new Query("dashboard",
+            "SELECT (SELECT COALESCE(SUM(" + LOG_COUNT_COLUMN + "), 0) FROM " +
+            LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ?), (SELECT COALESCE(SUM(" +
+            LOG_COUNT_COLUMN + "), 0) FROM " + LOG_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + LOG_DATE_COLUMN +
+            " BETWEEN ? AND ?), (SELECT " + TOTALS_DRINKS_COLUMN + " FROM " +
+            TOTALS_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ?), (SELECT 1 + ? - " + META_DATE_COLUMN + " FROM " +
+            META_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ?), (SELECT COALESCE(SUM(" + UNITS_COLUMN + "), 0) FROM " +
+            LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ?), (SELECT COALESCE(SUM(" + UNITS_COLUMN +
+            "), 0) FROM " + LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + LOG_DATE_COLUMN + " BETWEEN ? AND ?), (SELECT " +
+            TOTALS_UNITS_COLUMN + " FROM " + TOTALS_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ?)");
+    /*
+     * SELECT CAST(strftime('%H', event_time / 1000, 'unixepoch',
+     *     'localtime') AS INTEGER), COUNT(*)
+     *   FROM drink_events
+     *   WHERE log_date >= getToday() - days + 1 AND profile_id = ?
+     *   GROUP BY 1;
+     */
+    private static final Query HOURLY_COUNTS_QUERY = new Query("hourlyCounts",
+            "SELECT CAST(strftime('%H', " + EVENTS_TIME_COLUMN +
+            " / 1000, 'unixepoch', 'localtime') AS INTEGER), COUNT(*) FROM " +
+            EVENTS_TABLE + " WHERE " + LOG_DATE_COLUMN + " >= ? AND " +
+            PROFILE_ID_COLUMN + " = ? GROUP BY 1");
+    /*
+     * SELECT log_date, drink_count
+     *   FROM drink_log
+     *   WHERE profile_id = ? AND log_date >= (SELECT created_date
+     *     FROM meta_data WHERE profile_id = ?)
+     *   ORDER BY log_date;
+     */
+    private static final Query SERIES_QUERY = new Query("series",
+            "SELECT " + LOG_DATE_COLUMN + ", " + LOG_COUNT_COLUMN + " FROM " +
+            LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " >= ? ORDER BY " + LOG_DATE_COLUMN);
+    /*
+     * SELECT log_date, drink_count
+     *   FROM drink_log
+     *   WHERE profile_id = ?
+     *     AND log_date BETWEEN firstDay AND firstDay + days - 1;
+     */
+    private static final Query DAILY_COUNTS_QUERY = new Query("dailyCounts",
+            "SELECT " + LOG_DATE_COLUMN + ", " + LOG_COUNT_COLUMN + " FROM " +
+            LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " BETWEEN ? AND ?");
+    /*
+     * SELECT block, day_counts
+     *   FROM drink_summary
+     *   WHERE profile_id = ? AND block BETWEEN ? AND ?;
+     */
+    private static final Query READ_SUMMARY_QUERY = new Query("readSummary",
+            "SELECT " + BLOCK_COLUMN + ", " + DAY_COUNTS_COLUMN + " FROM " +
+            SUMMARY_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            BLOCK_COLUMN + " BETWEEN ? AND ?");
+    /*
+     * SELECT type_id, SUM(drink_count), SUM(drink_units)
+     *   FROM drink_type_log
+     *   WHERE profile_id = ?
+     *     AND log_date BETWEEN firstDay AND firstDay + days - 1
+     *   GROUP BY type_id;
+     */
+    private static final Query TYPE_TOTALS_QUERY = new Query("typeTotals",
+            "SELECT " + TYPE_COLUMN + ", SUM(" + LOG_COUNT_COLUMN + "), SUM(" +
+            UNITS_COLUMN + ") FROM " + TYPE_LOG_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + LOG_DATE_COLUMN +
+            " BETWEEN ? AND ? GROUP BY " + TYPE_COLUMN);
+    /*
+     * SELECT log_date, drink_count FROM drink_log
+     *   WHERE profile_id = ? ORDER BY log_date;
+     */
+    private static final Query VISIT_DAYS_QUERY = new Query("visitDays",
+            "SELECT " + LOG_DATE_COLUMN + ", " + LOG_COUNT_COLUMN + " FROM " +
+            LOG_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? ORDER BY " +
+            LOG_DATE_COLUMN);
+    /*
+     * SELECT device_id, MAX(version) FROM sync_counters
+     *   WHERE profile_id = ? GROUP BY device_id;
+     */
+    private static final Query SYNC_VECTOR_QUERY = new Query("syncVector",
+            "SELECT " + DEVICE_ID_COLUMN + ", MAX(" + VERSION_COLUMN +
+            ") FROM " + COUNTERS_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? GROUP BY " + DEVICE_ID_COLUMN);
+    /*
+     * SELECT log_date, type_id, added, removed, added_units,
+     *     removed_units, version FROM sync_counters
+     *   WHERE profile_id = ? AND device_id = ? AND version > ?;
+     */
+    private static final Query VISIT_COUNTERS_QUERY = new Query("visitCounters",
+            "SELECT " + LOG_DATE_COLUMN + ", " + TYPE_COLUMN + ", " +
+            ADDED_COLUMN + ", " + REMOVED_COLUMN + ", " + ADDED_UNITS_COLUMN +
+            ", " + REMOVED_UNITS_COLUMN + ", " + VERSION_COLUMN + " FROM " +
+            COUNTERS_TABLE + " WHERE " + PROFILE_ID_COLUMN + " = ? AND " +
+            DEVICE_ID_COLUMN + " = ? AND " + VERSION_COLUMN + " > ?");
+    /*
+     * SELECT added, removed, added_units, removed_units, version
+     *   FROM sync_counters WHERE profile_id = ? AND device_id = ?
+     *   AND log_date = ? AND type_id = ?;
+     */
+    private static final Query READ_COUNTER_QUERY = new Query("readCounter",
+            "SELECT " + ADDED_COLUMN + ", " + REMOVED_COLUMN + ", " +
+            ADDED_UNITS_COLUMN + ", " + REMOVED_UNITS_COLUMN + ", " +
+            VERSION_COLUMN + " FROM " + COUNTERS_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ? AND " + DEVICE_ID_COLUMN + " = ? AND " +
+            LOG_DATE_COLUMN + " = ? AND " + TYPE_COLUMN + " = ?");
+    /*
+     * SELECT profile_id, profile_name FROM meta_data ORDER BY profile_id;
+     */
+    private static final Query PROFILES_QUERY = new Query("profiles",
+            "SELECT " + PROFILE_ID_COLUMN + ", " + PROFILE_NAME_COLUMN +
+            " FROM " + META_TABLE + " ORDER BY " + PROFILE_ID_COLUMN);
+    /*
+     * SELECT daily_limit, weekly_limit, state_day, streak_days
+     *   FROM meta_limits WHERE profile_id = ?;
+     */
+    private static final Query READ_LIMITS_QUERY = new Query("readLimits",
+            "SELECT " + DAILY_LIMIT_COLUMN + ", " + WEEKLY_LIMIT_COLUMN + ", " +
+            STATE_DAY_COLUMN + ", " + STREAK_COLUMN + " FROM " + LIMITS_TABLE +
+            " WHERE " + PROFILE_ID_COLUMN + " = ?");
+    /*
+     * SELECT COALESCE(MAX(seq), 0),
+     *     COALESCE(MAX(CASE WHEN undone = 0 THEN seq END), 0)
+     *   FROM drink_journal WHERE profile_id = ?;
+     */
+    private static final Query JOURNAL_CURSOR_QUERY = new Query("journalCursor",
+            "SELECT COALESCE(MAX(" + SEQ_COLUMN +
+            "), 0), COALESCE(MAX(CASE WHEN " + UNDONE_COLUMN + " = 0 THEN " +
+            SEQ_COLUMN + " END), 0) FROM " + JOURNAL_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ?");
+    /*
+     * SELECT op, event_time, log_date, type_id, drink_units
+     *   FROM drink_journal WHERE profile_id = ? AND slot = ? AND seq = ?;
+     */
+    private static final Query JOURNAL_ENTRY_QUERY = new Query("journalEntry",
+            "SELECT " + OP_COLUMN + ", " + EVENTS_TIME_COLUMN + ", " +
+            LOG_DATE_COLUMN + ", " + TYPE_COLUMN + ", " + UNITS_COLUMN +
+            " FROM " + JOURNAL_TABLE + " WHERE " + PROFILE_ID_COLUMN +
+            " = ? AND " + SLOT_COLUMN + " = ? AND " + SEQ_COLUMN + " = ?");
+    /*
+     * SELECT event_time, type_id, drink_units FROM drink_events
+     *   WHERE rowid = (SELECT MAX(rowid) FROM drink_events
+     *     WHERE profile_id = ? AND log_date = ?);
+     */
+    private static final Query LAST_EVENT_QUERY = new Query("lastEvent",
+            "SELECT " + EVENTS_TIME_COLUMN + ", " + TYPE_COLUMN + ", " +
+            UNITS_COLUMN + " FROM " + EVENTS_TABLE +
+            " WHERE rowid = (SELECT MAX(rowid) FROM " + EVENTS_TABLE +
+            " WHERE " + PROFILE_ID_COLUMN + " = ? AND " + LOG_DATE_COLUMN +
+            " = ?)");
+    /*
+     * SELECT created_date FROM meta_data WHERE profile_id = ?;
+     */
+    private static final Query CREATED_DAY_QUERY = new Query("createdDay",
+            "SELECT " + META_DATE_COLUMN + " FROM " + META_TABLE + " WHERE " +
+            PROFILE_ID_COLUMN + " = ?");
+    /*
+     * SELECT device_id FROM sync_state;
+     */
+    private static final Query DEVICE_ID_QUERY = new Query("deviceId",
+            "SELECT " + DEVICE_ID_COLUMN + " FROM " + SYNC_STATE_TABLE);
+    /*
+     * SELECT COUNT(*) = 0 FROM meta_totals
+     *   WHERE total_drinks != (SELECT COALESCE(SUM(drink_count), 0)
+     *     FROM drink_log
+     *     WHERE drink_log.profile_id = meta_totals.profile_id)
+     *   OR total_units != (SELECT COALESCE(SUM(drink_units), 0)
+     *     FROM drink_log
+     *     WHERE drink_log.profile_id = meta_totals.profile_id);
+     */
+    private static final Query CHECK_TOTALS_QUERY = new Query("checkTotals",
+            "SELECT COUNT(*) = 0 FROM " + TOTALS_TABLE + " WHERE " +
+            TOTALS_DRINKS_COLUMN + " != (SELECT COALESCE(SUM(" +
+            LOG_COUNT_COLUMN + "), 0) FROM " + LOG_TABLE + " WHERE " +
+            LOG_TABLE + "." + PROFILE_ID_COLUMN + " = " + TOTALS_TABLE + "." +
+            PROFILE_ID_COLUMN + ") OR " + TOTALS_UNITS_COLUMN +
+            " != (SELECT COALESCE(SUM(" + UNITS_COLUMN + "), 0) FROM " +
+            LOG_TABLE + " WHERE " + LOG_TABLE + "." + PROFILE_ID_COLUMN +
+            " = " + TOTALS_TABLE + "." + PROFILE_ID_COLUMN + ")");
+    // Days of per-drink events kept before compaction drops them
+    public static final int DEFAULT_EVENT_HORIZON_DAYS = 90;
+    // Free pages one maintenance pass gives back at most
+    static final int MAINTENANCE_VACUUM_PAGES = 4096;
+    // PRAGMA auto_vacuum value for incremental mode
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Operations kept per profile in drink_journal; the oldest slot is
+    // overwritten first
+    public static final int JOURNAL_SIZE = 256;
+    // drink_journal op values
+    static final int JOURNAL_ADD = 1;
+    static final int JOURNAL_REMOVE = 2;
+    // The tracker created with the database
+    public static final int DEFAULT_PROFILE_ID = 1;
+    public static final String DEFAULT_PROFILE_NAME = "Default";
+    // Where the active profile is remembered
+    private static final String PREFS_NAME = "profiles";
+    private static final String KEY_ACTIVE_PROFILE = "active_profile";
+    // Where the storage mode is remembered
+    private static final String STORAGE_PREFS_NAME = "storage";
+    private static final String KEY_ENCRYPTED = "encrypted";
+    // Name the other database is attached under while changing mode
+    private static final String COPY_SCHEMA = "target";
     // Singleton database
     private static DbHelper INSTANCE;
+    // Receives upgrade progress, set before the first open
+    private volatile Migration.ProgressListener migrationListener;
+    // Open the database file in plaintext and encrypted mode; the
+    // platform's SQLite and SQLCipher in the app
+    private final SqlDatabase.Opener plainOpener;
+    private final SqlDatabase.Opener cipherOpener;
+    // The open connection, null until first opened and after close();
+    // replaced under openLock
+    private volatile SqlDatabase database;
+    private final Object openLock = new Object();
+    // Held for reading by every unsynchronized reader while its cursor
+    // is open, and for writing while the connection is closed or
+    // swapped, so no reader sees a connection closed under it
+    private final ReentrantReadWriteLock connectionLock =
+            new ReentrantReadWriteLock();
+    // Compiled write statements for the current writable connection,
+    // replaced when the connection changes; guarded by this
+    private StatementCache statements;
+    private final Context context;
+    // The tracker all reads and writes go to; loaded on first use
+    private volatile int activeProfile = -1;
+    // The key the database is opened with, "" in plaintext mode; loaded
+    // on first open
+    private volatile String databaseKey;
+    // Daily series per profile, loaded on first use and kept current by
+    // the write paths; guarded by this
+    private final Map<Integer, RollingStats> rollingStats =
+            new HashMap<Integer, RollingStats>();
+    // Bumped by every committed write. A profile's dashboard snapshot is
+    // only reused while it is newer than that profile's last write and
+    // was read today
+    private volatile long statsVersion = 0;
+    private final ConcurrentHashMap<Integer, CachedStats> cachedStats =
+            new ConcurrentHashMap<Integer, CachedStats>();
+    private final ConcurrentHashMap<Integer, Long> writeVersions =
+            new ConcurrentHashMap<Integer, Long>();
+    private final CopyOnWriteArrayList<StatsListener> statsListeners =
+            new CopyOnWriteArrayList<StatsListener>();
+    // Limit state per profile as last written to meta_limits, with the
+    // counts it was checked against; guarded by this
+    private final Map<Integer, LimitStatus> limitStatus =
+            new HashMap<Integer, LimitStatus>();
+    private final CopyOnWriteArrayList<LimitListener> limitListeners =
+            new CopyOnWriteArrayList<LimitListener>();
+    // Undo position per profile, loaded on first use; guarded by this
+    private final Map<Integer, JournalCursor> journalCursors =
+            new HashMap<Integer, JournalCursor>();
+    // This device's sync id, loaded on first use
+    private volatile String deviceId;
+    // The last version stamped on one of this device's counters, loaded
+    // on first use; guarded by this
+    private long syncClock = -1;
 
     /**
      * Checks to see if an instance of the database already exists.
@@ -57,47 +686,344 @@ public class DbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Database instantiator. Only ever called through
-     * DbHelper.getInstance().
+     * Database instantiator. The app goes through DbHelper.getInstance(),
+     * which opens a plaintext database with the platform's SQLite and
+     * only loads SQLCipher for an encrypted one.
      *
      * @param context context from which method is called
      */
-    private DbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    DbHelper(Context context) {
+        this(context, new PlainDatabase.Opener(),
+                new CipherDatabase.Opener(context));
     }
 
     /**
-     * Run only on first launch of app. Creates tables meta_data and
-     * drink_count. Inserts today's date into meta_data.created_date.
+     * Database instantiator for tests, which build their own around a
+     * context of their choosing and open files in both modes through an
+     * opener of their own.
      *
-     * @param db a writable instance of the DrinkTracker database
+     * @param context context from which method is called
+     * @param opener  opens the database file
+     */
+    DbHelper(Context context, SqlDatabase.Opener opener) {
+        this(context, opener, opener);
+    }
+
+    private DbHelper(Context context, SqlDatabase.Opener plainOpener,
+                     SqlDatabase.Opener cipherOpener) {
+        this.context = context;
+        this.plainOpener = plainOpener;
+        this.cipherOpener = cipherOpener;
+    }
+
+    /**
+     * Returns the open database, opening it with the key for the current
+     * storage mode on first use. Every write path comes through here, so
+     * once open this is only a check that the database is still open.
+     *
+     * @return a writable instance of the DrinkTracker database
+     */
+    SqlDatabase getWritableDatabase() {
+        SqlDatabase db = database;
+        if (db != null && db.isOpen()) {
+            return db;
+        }
+        synchronized (openLock) {
+            db = database;
+            if (db == null || !db.isOpen()) {
+                db = openDatabase();
+                database = db;
+            }
+            return db;
+        }
+    }
+
+    /**
+     * Returns the open database for reading. One connection serves reads
+     * and writes; in WAL mode a read never waits for a write to commit.
+     *
+     * @return a readable instance of the DrinkTracker database
+     */
+    SqlDatabase getReadableDatabase() {
+        return getWritableDatabase();
+    }
+
+    /**
+     * Runs a query for one of the unsynchronized readers. The
+     * connection's read lock is held until closeRead(), so close() and
+     * setEncrypted() wait for the cursor instead of closing the
+     * connection under it. Readers must not lock this while they hold
+     * it: setEncrypted() holds this while it waits for them.
+     *
+     * @param query  one of the read _QUERY constants
+     * @param values its values, as for Query.args()
+     * @return       the cursor, to be passed to closeRead()
+     */
+    private Cursor readQuery(Query query, Object... values) {
+        connectionLock.readLock().lock();
+        try {
+            return getReadableDatabase().rawQuery(query.getSql(),
+                    query.args(values));
+        } catch (RuntimeException oops) {
+            connectionLock.readLock().unlock();
+            throw oops;
+        }
+    }
+
+    /**
+     * Closes a cursor from readQuery() and releases the read lock.
+     *
+     * @param cursor the cursor readQuery() returned
+     */
+    private void closeRead(Cursor cursor) {
+        try {
+            cursor.close();
+        } finally {
+            connectionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Opens the database file, configures the connection, then creates
+     * or upgrades the schema in one transaction, so an interrupted
+     * upgrade leaves the old schema. Callers hold openLock.
+     *
+     * @return the open database
+     */
+    private SqlDatabase openDatabase() {
+        File file = context.getDatabasePath(DATABASE_NAME);
+        File dir = file.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        String key = getDatabaseKey();
+        SqlDatabase db = (key.length() > 0 ? cipherOpener : plainOpener)
+                .open(file, key);
+        try {
+            configure(db);
+            int version = db.getVersion();
+            if (version != DATABASE_VERSION) {
+                db.beginTransaction();
+                try {
+                    if (version == 0) {
+                        onCreate(db);
+                    } else if (version > DATABASE_VERSION) {
+                        onDowngrade(db, version, DATABASE_VERSION);
+                    } else {
+                        onUpgrade(db, version, DATABASE_VERSION);
+                    }
+                    db.setVersion(DATABASE_VERSION);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (RuntimeException oops) {
+            db.close();
+            throw oops;
+        }
+        return db;
+    }
+
+    /**
+     * Runs once the key is applied, before onCreate/onUpgrade, on every
+     * open. Switches the database to write-ahead logging, so readers
+     * never block the writer, and relaxes syncs to checkpoints only. With
+     * synchronous = NORMAL a committed transaction survives the app being
+     * killed; only a power loss or OS crash can roll back the last few
+     * commits, and the file is never corrupted. auto_vacuum goes first:
+     * it only takes effect on a database that has nothing written yet,
+     * so a new database keeps a free-page map from the start and
+     * runMaintenance() can give pages back incrementally; an older one
+     * is switched over by its first maintenance pass.
+     *
+     * @param db the database being opened
+     */
+    private static void configure(SqlDatabase db) {
+        db.rawExecSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.rawExecSQL("PRAGMA journal_mode = WAL");
+        db.rawExecSQL("PRAGMA synchronous = NORMAL");
+    }
+
+    /**
+     * Returns whether the database is kept encrypted at rest.
+     *
+     * @return true in encrypted mode
+     */
+    @Override
+    public boolean isEncrypted() {
+        String key = databaseKey;
+        return key != null ? key.length() > 0 : readEncryptedMode();
+    }
+
+    /**
+     * Moves the database into encrypted or plaintext mode. Only SQLCipher
+     * can attach a file with a key, so the copy runs on a SQLCipher
+     * connection of its own, opened next to the current one: the other
+     * mode's file is attached there, the schema is recreated and each
+     * table is copied a chunk of rows at a time (see
+     * DbMigrations.copyDatabase()), so a long history never has to fit
+     * in memory. Progress goes to the migration listener. Only once
+     * the copy is complete is the database closed, the copy renamed over
+     * it and the new mode remembered; a failed copy is deleted and leaves
+     * the database as it was. Slow; never call it on the UI thread.
+     *
+     * @param encrypted true for encrypted mode, false for plaintext
+     * @return          whether the database is now in that mode
+     */
+    @Override
+    public synchronized boolean setEncrypted(boolean encrypted) {
+        if (encrypted == isEncrypted()) {
+            return true;
+        }
+        String key = encrypted ? StorageKey.getSessionKey(context) : "";
+        File file = context.getDatabasePath(DATABASE_NAME);
+        File copy = new File(file.getPath() + ".copy");
+        if (copy.exists() && !copy.delete()) {
+            return false;
+        }
+        // Brings the file up to date before a second connection reads it
+        getWritableDatabase();
+        boolean copied = false;
+        try {
+            SqlDatabase db = cipherOpener.open(file, getDatabaseKey());
+            try {
+                db.execSQL("ATTACH DATABASE '" + copy.getPath() + "' AS " +
+                        COPY_SCHEMA + " KEY '" + key.replace("'", "''") +
+                        "'");
+                try {
+                    DbMigrations.copyDatabase(db, COPY_SCHEMA,
+                            migrationListener);
+                    copied = true;
+                } finally {
+                    db.execSQL("DETACH DATABASE " + COPY_SCHEMA);
+                }
+            } finally {
+                db.close();
+            }
+        } catch (Exception oops) {
+            // Log.d(TAG, "setEncrypted: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_STORAGE_MODE);
+        }
+        if (!copied) {
+            copy.delete();
+            return false;
+        }
+        // Readers are held off from the close until the new file is open,
+        // so none reopens the old file with the old key in between
+        connectionLock.writeLock().lock();
+        try {
+            // Closing checkpoints the write-ahead log back into the old
+            // file, which the rename then replaces in one step
+            close();
+            new File(file.getPath() + "-wal").delete();
+            new File(file.getPath() + "-shm").delete();
+            if (!copy.renameTo(file)) {
+                copy.delete();
+                return false;
+            }
+            databaseKey = key;
+            context.getSharedPreferences(STORAGE_PREFS_NAME,
+                    Context.MODE_PRIVATE).edit()
+                    .putBoolean(KEY_ENCRYPTED, encrypted).commit();
+            getWritableDatabase();
+        } finally {
+            connectionLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key for the current storage mode, reading the mode on
+     * first use. An empty key opens the file with the platform's SQLite;
+     * any other opens it with SQLCipher, which encrypts page by page.
+     * The StorageKey is unwrapped once per process; the caches sit in
+     * front of the pages, so the hot paths decrypt nothing they did not
+     * already read.
+     *
+     * @return the SQLCipher key, "" in plaintext mode
+     */
+    private String getDatabaseKey() {
+        String key = databaseKey;
+        if (key == null) {
+            key = readEncryptedMode() ? StorageKey.getSessionKey(context) : "";
+            databaseKey = key;
+        }
+        return key;
+    }
+
+    private boolean readEncryptedMode() {
+        return context.getSharedPreferences(STORAGE_PREFS_NAME,
+                Context.MODE_PRIVATE).getBoolean(KEY_ENCRYPTED, false);
+    }
+
+    /**
+     * Opens the writable database, running onCreate() or onUpgrade() if
+     * needed.
      */
     @Override
-    public void onCreate(SQLiteDatabase db) {
+    public void open() {
+        // Under the read lock, so it never reopens the old file while
+        // setEncrypted() swaps it
+        connectionLock.readLock().lock();
+        try {
+            getWritableDatabase();
+        } finally {
+            connectionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the listener that receives progress while an existing install
+     * is upgraded. Must be set before the database is first opened.
+     *
+     * @param listener receives upgrade progress, may be null
+     */
+    public void setMigrationListener(Migration.ProgressListener listener) {
+        migrationListener = listener;
+    }
+
+    /**
+     * Run only on first launch of app. Creates tables meta_data,
+     * meta_totals, drink_log and drink_events at the current schema. Days
+     * are stored as DayKeys integers. meta_data and meta_totals hold one
+     * row per profile, drink_log's primary key is (profile_id, log_date)
+     * and drink_type_log's is (profile_id, log_date, type_id). Creates
+     * the default profile, started today.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void onCreate(SqlDatabase db) {
         String createMeta = "CREATE TABLE " + META_TABLE + " (" +
-                META_DATE_COLUMN + " DATE);";
-        String createCounts = "CREATE TABLE " + LOG_TABLE +
-                " (" + LOG_DATE_COLUMN + " DATE, " + LOG_COUNT_COLUMN +
-                " INTEGER);";
-        String addCreatedDate = "INSERT INTO " + META_TABLE + " VALUES ('" +
-                getToday() + "');";
+                PROFILE_ID_COLUMN + " INTEGER PRIMARY KEY, " +
+                PROFILE_NAME_COLUMN + " TEXT NOT NULL, " +
+                META_DATE_COLUMN + " INTEGER NOT NULL);";
 
         // Create tables
         db.execSQL(createMeta);
-        db.execSQL(createCounts);
-        // Store created_date in meta_data
-        db.execSQL(addCreatedDate);
+        createCountTables(db);
+        createTotalsTable(db);
+        createEventsTable(db);
+        createLimitsTable(db);
+        createJournalTable(db);
+        createSyncTables(db);
+        createSummaryTable(db);
+        // Store the default profile in meta_data, meta_totals and
+        // meta_limits
+        insertProfile(db, DEFAULT_PROFILE_ID, DEFAULT_PROFILE_NAME);
     }
 
     /**
-     * Not implemented at this time.
+     * Upgrades an existing database to DATABASE_VERSION by running each
+     * step in DbMigrations. Runs inside the single transaction opened by
+     * openDatabase(), so an interrupted upgrade leaves the old schema.
      *
-     * @param db
-     * @param oldVersion
-     * @param newVersion
+     * @param db         a writable instance of the DrinkTracker database
+     * @param oldVersion the version found on disk
+     * @param newVersion the version being upgraded to
      */
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-         // To do: Implement upgrade policy
+    private void onUpgrade(SqlDatabase db, int oldVersion, int newVersion) {
+        DbMigrations.migrate(db, oldVersion, newVersion, migrationListener);
     }
 
     /**
@@ -107,368 +1033,2239 @@ public class DbHelper extends SQLiteOpenHelper {
      * @param oldVersion
      * @param newVersion
      */
-    public void onDowngrade(SQLiteDatabase db, int oldVersion,
-                            int newVersion) {
+    private void onDowngrade(SqlDatabase db, int oldVersion,
+                             int newVersion) {
         // To do: Implement downgrade policy
     }
 
     /**
-     * Drops all data from application database. Repopulates
-     * meta_data.created_date with today's date.
+     * Drops all of the active profile's data. Resets its
+     * meta_data.created_date to today's date and zeroes its meta_totals.
+     * Other profiles are untouched. With a single profile the tables are
+     * replaced rather than emptied; see resetProfile().
      *
      * No values accepted or returned.
      */
-    protected void clearData() {
-        String createMeta = "DELETE FROM " + META_TABLE;
-        String createCounts = "DELETE FROM " + LOG_TABLE;
-        String insertCreatedDate = "INSERT INTO " + META_TABLE + " VALUES ('" +
-                getToday() + "');";
-
-        SQLiteDatabase db = getWritableDatabase();
-        // Create tables
-        db.execSQL(createMeta);
-        db.execSQL(createCounts);
-        // Store created_date in meta_data
-        db.execSQL(insertCreatedDate);
+    @Override
+    public synchronized void clearData() {
+        int profile = getActiveProfile();
+        resetProfile(profile, getToday());
+        // The series restarts at the new created_date on next use
+        rollingStats.remove(profile);
+        statsChanged(profile);
     }
 
     /**
-     * Queries database, checks to see if today exists in
-     * drink_log.created_date.
-     * If not, creates today's entry with a drink_count of 1.
-     * Else increments today's entry for drink_count by 1.
+     * Consistency check for meta_totals. Recomputes every profile's
+     * running total and unit total from drink_log and compares them with
+     * the stored values.
+     * A mismatch is repaired by rewriting meta_totals from drink_log.
      *
-     * No values accepted or returned.
+     * @return true if meta_totals already matched drink_log
      */
-    protected void incrementCount() {
-        /*
-         * SELECT * FROM drink_log
-         *   WHERE log_date = 'getToday()';
-         */
-        String selectQuery = "SELECT * FROM " + LOG_TABLE + " WHERE " +
-                LOG_DATE_COLUMN + " = ?";
-        String[] selectQueryArgs = {getToday()};
-        /*
-         * INSERT INTO drink_log
-         *   VALUES ('getToday()', 1);
-         */
-        String insertQuery = "INSERT INTO " + LOG_TABLE + " VALUES ('" +
-                getToday() + "', 1);";
-        /*
-         * UPDATE drink_log
-         *   SET drink_count = drink_count + 1
-         *   WHERE log_date = 'getToday()';
-         */
-        String updateQuery = "UPDATE " + LOG_TABLE + " SET " + LOG_COUNT_COLUMN +
-                " = " + LOG_COUNT_COLUMN + " + 1 WHERE " + LOG_DATE_COLUMN +
-                " = '" + getToday() + "'";
-
-        // Get database, begin transaction
-        SQLiteDatabase db = getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, selectQueryArgs);
-        // First, attempt a select
-        try {
-            if(cursor.getCount() > 0) {
-                // If results are returned, update
-                db.execSQL(updateQuery);
-                // Log.d(TAG, "incrementCount: Updated.");
-            } else {
-                // Otherwise insert
-                db.execSQL(insertQuery);
-                // Log.d(TAG, "incrementCount: Inserted.");
+    @Override
+    public synchronized boolean checkTotals() {
+        SqlDatabase db = getWritableDatabase();
+        boolean consistent = false;
+        Cursor cursor = null;
+        db.beginTransaction();
+        try {
+            cursor = db.rawQuery(CHECK_TOTALS_QUERY.getSql(),
+                    CHECK_TOTALS_QUERY.args());
+            consistent = cursor.moveToFirst() && cursor.getInt(0) == 1;
+            if (!consistent) {
+                // Log.d(TAG, "checkTotals: Rebuilding meta_totals.");
+                rebuildTotals(db);
             }
+            db.setTransactionSuccessful();
         } catch (Exception oops) {
-            // Log.d(TAG, "incrementCount: Unexpected error.");
+            // Log.d(TAG, "checkTotals: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_CHECK_TOTALS);
         } finally {
             if (cursor != null && !cursor.isClosed()) { cursor.close(); }
+            db.endTransaction();
+        }
+        if (!consistent) {
+            allStatsChanged();
         }
+        return consistent;
     }
 
     /**
-     * Queries database, checks to see if today exists in
-     * drink_log.created_date and has a drink count of > 0.
-     * If yes, decrements today's entry for drink_count by 1.
+     * Runs one maintenance pass. Freed pages are given back with an
+     * incremental vacuum of at most MAINTENANCE_VACUUM_PAGES pages, so
+     * one pass never holds the lock for long. A database created before
+     * auto_vacuum was set has no free-page map yet; its first pass
+     * switches it over with one full VACUUM instead. ANALYZE then
+     * refreshes the planner's statistics, PRAGMA quick_check looks for
+     * corruption, and a checkpoint truncates the write-ahead log so the
+     * file really shrinks. The pass is recorded in DbMetrics.
      *
-     * @return boolean indicating whether or not a drink was removed
+     * @return what the pass did
      */
-    protected boolean decrementCount() {
-        /*
-         * SELECT * FROM drink_log
-         *   WHERE log_date = 'getToday()' AND drink_count > 0;
-         */
-        String selectQuery = "SELECT * FROM " + LOG_TABLE + " WHERE " +
-                LOG_DATE_COLUMN + " = ? AND " + LOG_COUNT_COLUMN + " > 0";
-        String[] selectQueryArgs = {getToday()};
-        /*
-         * UPDATE drink_log
-         *   SET drink_count = drink_count - 1
-         *   WHERE log_date = 'getToday()';
-         */
-        String updateQuery = "UPDATE " + LOG_TABLE + " SET " + LOG_COUNT_COLUMN +
-                " = " + LOG_COUNT_COLUMN + " - 1 WHERE " + LOG_DATE_COLUMN +
-                " = '" + getToday() + "'";
-
-        // Get database, begin transaction
-        SQLiteDatabase db = getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, selectQueryArgs);
-        boolean drinkRemoved;
-        // First, attempt a select
+    @Override
+    public synchronized MaintenanceReport runMaintenance() {
+        long start = System.nanoTime();
+        SqlDatabase db = getWritableDatabase();
+        long reclaimed = 0;
+        boolean integrityOk = false;
+        boolean completed = false;
         try {
-            if(cursor.getCount() > 0) {
-                // If results are returned, update
-                db.execSQL(updateQuery);
-                // Log.d(TAG, "decrementCount: Decremented.");
-                drinkRemoved = true;
+            long pageSize = db.longForQuery("PRAGMA page_size", null);
+            long pagesBefore = db.longForQuery("PRAGMA page_count", null);
+            long autoVacuum = db.longForQuery("PRAGMA auto_vacuum", null);
+            if (autoVacuum != AUTO_VACUUM_INCREMENTAL) {
+                // Statements compiled before a VACUUM must not be reused
+                releaseStatements();
+                db.rawExecSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.rawExecSQL("VACUUM");
             } else {
-                // Otherwise nothing happens
-                // Log.d(TAG, "decrementCount: No drinks found for today.");
-                drinkRemoved = false;
+                // Stepped to the end by rawExecSQL(); a single step, as
+                // execSQL() takes, frees only one page
+                db.rawExecSQL("PRAGMA incremental_vacuum(" +
+                        MAINTENANCE_VACUUM_PAGES + ")");
             }
+            db.execSQL("ANALYZE");
+            integrityOk = "ok".equalsIgnoreCase(db.stringForQuery(
+                    "PRAGMA quick_check", null));
+            db.rawExecSQL("PRAGMA wal_checkpoint(TRUNCATE)");
+            long pagesAfter = db.longForQuery("PRAGMA page_count", null);
+            reclaimed = Math.max(0, pagesBefore - pagesAfter) * pageSize;
+            completed = true;
+            // Log.d(TAG, "runMaintenance: Reclaimed " + reclaimed);
         } catch (Exception oops) {
-            // Log.d(TAG, "decrementCount: Unexpected error.");
-            drinkRemoved = false;
-        } finally {
-            if (cursor != null && !cursor.isClosed()) { cursor.close(); }
+            // Log.d(TAG, "runMaintenance: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_MAINTENANCE);
         }
-        return drinkRemoved;
+        MaintenanceReport report = new MaintenanceReport(
+                System.nanoTime() - start, reclaimed, integrityOk, completed);
+        DbMetrics.getInstance().recordMaintenance(report);
+        return report;
     }
 
     /**
-     * Queries database, returns total drinks for today's date.
-     *
-     * @return the integer count of total drinks for today's date
+     * Releases the precompiled statements along with the database.
      */
-    protected int getDailyCount() {
-        /*
-         * SELECT SUM(drink_count)
-         *   FROM drink_log
-         *   WHERE date = 'getToday()';
-         */
-        String[] projection = {"SUM(" + LOG_COUNT_COLUMN + ")", LOG_DATE_COLUMN};
-        String selection = LOG_DATE_COLUMN + " = ?";
-        String[] selectionArgs = {getToday()};
-        String groupBy = null;
-        String having = null;
-        String orderBy = null;
-        String limit = null;
-
-        // Get database and cursor
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.query(LOG_TABLE, projection, selection, selectionArgs,
-                groupBy, having, orderBy, limit);
-        int result = -1;
-        String dateString = "";
+    public synchronized void close() {
+        connectionLock.writeLock().lock();
         try {
-            if (cursor.moveToFirst()) {
-                result = cursor.getInt(0);
-                dateString = cursor.getString(1);
-            } else {
-                result = 0;
+            releaseStatements();
+            synchronized (openLock) {
+                SqlDatabase db = database;
+                database = null;
+                if (db != null && db.isOpen()) {
+                    db.close();
+                }
             }
-        } catch(Exception oops) {
-            // To do: Handle exception
-            // Log.d(TAG, "getDailyCount: Unexpected error.");
-            result = 0;
         } finally {
-            if (cursor != null && !cursor.isClosed()) { cursor.close(); }
-            // Log.d(TAG, "getDailyCount: Returning " + result + ", " + dateString);
+            connectionLock.writeLock().unlock();
         }
-        return result;
     }
 
     /**
-     * Queries database, returns total drinks for a rolling 7 day window.
+     * Logs one drink at the current time.
      *
-     * @return the integer count of total drinks for the last 7 days
+     * No values accepted or returned.
      */
-    protected int getWeeklyCount() {
-        /*
-         * SELECT SUM(drink_count)
-         *   FROM drink_log
-         *   WHERE date BETWEEN 'oneWeekAgo()' AND 'getToday()';
-         */
-        String query = "SELECT SUM(" + LOG_COUNT_COLUMN + ") FROM "
-                + LOG_TABLE + " WHERE " + LOG_DATE_COLUMN + " BETWEEN ? AND ?";
-        String[] queryArgs = {getOneWeekAgo(), getToday()};
+    protected void incrementCount() {
+        long[] now = {System.currentTimeMillis()};
+        int[] types = {BeverageType.STANDARD};
+        int[] units = {BeverageType.UNITS_PER_DRINK};
+        logDrinks(now, types, units, 1);
+    }
 
-        // Get database and cursor
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(query, queryArgs);
-        int result = -1;
+    /**
+     * Logs a batch of drinks in one transaction. Each drink is stored in
+     * drink_events with its own timestamp, and rolled into the daily
+     * count for the local day it happened on, so a burst flushed just
+     * after midnight still lands on the right days. The daily rollup is
+     * one keyed UPDATE per day in the batch, or an INSERT on the day's
+     * first drink; the primary key on (profile_id, log_date) means taps
+     * can never produce duplicate rows for a day. drink_log's triggers
+     * bring meta_totals and drink_summary along in the same statement.
+     * drink_type_log gets one INSERT OR REPLACE for each type seen that
+     * day.
+     * Each drink gets its own drink_journal entry, so undo() takes them
+     * back one at a time; anything that was undone and not redone is
+     * dropped from the journal first.
+     *
+     * @param times  event times in milliseconds, oldest first
+     * @param types  each drink's BeverageType id
+     * @param units  each drink's weight in BeverageType units
+     * @param length the number of entries of times to log
+     */
+    @Override
+    public synchronized void logDrinks(long[] times, int[] types, int[] units,
+                                       int length) {
+        if (length <= 0) {
+            return;
+        }
+        TimeZone zone = TimeZone.getDefault();
+        int profile = getActiveProfile();
+        int today = getToday();
+        LimitStatus limitsBefore = currentLimits();
+        LimitStatus limitsAfter = limitsBefore;
+        JournalCursor journal = getJournalCursor(profile);
+        long seq = journal.head;
+        SqlDatabase db = getStatementDatabase();
+        boolean logged = false;
+        db.beginTransaction();
         try {
-            if (cursor.moveToFirst()) {
-                do {
-                    result = cursor.getInt(0);
-                } while (cursor.moveToNext());
-            } else {
-                result = 0;
+            if (journal.canRedo()) {
+                discardRedo(profile, journal.head);
             }
-        } catch(Exception oops) {
-            // To do: Handle exception
-            // Log.d(TAG, "getWeeklyCount: Unexpected error.");
-            result = 0;
+            SqlStatement events = statement(EVENT_QUERY);
+            // Per-type sums for the current run of same-day drinks
+            int[] runCounts = new int[BeverageType.COUNT];
+            int[] runUnits = new int[BeverageType.COUNT];
+            int runDay = DayKeys.forMillis(times[0], zone);
+            int addedToday = 0;
+            int addedThisWeek = 0;
+            for (int i = 0; i < length; i++) {
+                int day = DayKeys.forMillis(times[i], zone);
+                if (day == today) {
+                    addedToday++;
+                }
+                if (day <= today && day > today - 7) {
+                    addedThisWeek++;
+                }
+                if (day != runDay) {
+                    addRun(profile, runDay, runCounts, runUnits);
+                    runDay = day;
+                }
+                // An unknown type is logged as a standard drink, weight
+                // and all
+                int type = types[i];
+                int weight = units[i];
+                if (!BeverageType.isValid(type)) {
+                    type = BeverageType.STANDARD;
+                    weight = BeverageType.getUnits(type);
+                }
+                events.bindLong(1, times[i]);
+                events.bindLong(2, day);
+                events.bindLong(3, profile);
+                events.bindLong(4, type);
+                events.bindLong(5, weight);
+                events.executeInsert();
+                writeJournal(profile, ++seq, JOURNAL_ADD, times[i], day, type,
+                        weight);
+                runCounts[type]++;
+                runUnits[type] += weight;
+            }
+            addRun(profile, runDay, runCounts, runUnits);
+            if (limitsBefore.isEnabled()) {
+                limitsAfter = limitsBefore.withCounts(
+                        limitsBefore.getDailyCount() + addedToday,
+                        limitsBefore.getWeeklyCount() + addedThisWeek);
+                writeLimits(profile, limitsAfter);
+            }
+            db.setTransactionSuccessful();
+            logged = true;
+            // Log.d(TAG, "logDrinks: Logged " + length);
+        } catch (Exception oops) {
+            // Log.d(TAG, "logDrinks: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_LOG_DRINKS);
         } finally {
-            if (cursor != null && !cursor.isClosed()) { cursor.close(); }
-            // Log.d(TAG, "getWeeklyCount: Returning " + result);
+            db.endTransaction();
+        }
+        if (logged) {
+            journal.head = seq;
+            journal.top = seq;
+        }
+        RollingStats series = rollingStats.get(profile);
+        if (logged && series != null) {
+            for (int i = 0; i < length; i++) {
+                series.add(DayKeys.forMillis(times[i], zone), 1);
+            }
+        }
+        if (logged) {
+            statsChanged(profile);
+            limitsChanged(profile, limitsBefore, limitsAfter);
         }
-        return result;
     }
 
     /**
-     * Returns a double value for the average number of drinks per day.
-     * Calls getTotalDrinks() and getElapsedDays(), returns the divided result.
+     * Removes today's latest drink. Its type, weight and time come from
+     * today's latest drink_events row, or it counts as one standard drink
+     * if there is none. applyDrink() then takes it off today's counts
+     * with conditional updates, and the removal is journaled so undo()
+     * can put it back. All in one transaction.
      *
-     * @return a double value representing the averages drinks per day
+     * @return boolean indicating whether or not a drink was removed
      */
-    protected double getDailyAvg() {
-        int totalDrinks = getTotalDrinks();
-        int totalDays = getElapsedDays();
-        double result = 1.0 * totalDrinks/totalDays;
-        // Log.d(TAG, "getDailyAvg: Returning: " + result);
-        return result;
+    @Override
+    public synchronized boolean decrementCount() {
+        int profile = getActiveProfile();
+        int today = getToday();
+        LimitStatus limitsBefore = currentLimits();
+        LimitStatus limitsAfter = limitsBefore;
+        JournalCursor journal = getJournalCursor(profile);
+        SqlDatabase db = getStatementDatabase();
+        boolean drinkRemoved;
+        db.beginTransaction();
+        try {
+            long time = 0;
+            int type = BeverageType.STANDARD;
+            int units = BeverageType.UNITS_PER_DRINK;
+            Cursor cursor = db.rawQuery(LAST_EVENT_QUERY.getSql(),
+                    LAST_EVENT_QUERY.args(profile, today));
+            try {
+                if (cursor.moveToFirst()) {
+                    time = cursor.getLong(0);
+                    type = cursor.getInt(1);
+                    units = cursor.getInt(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            drinkRemoved = applyDrink(profile, today, time, type, units, false);
+            if (drinkRemoved) {
+                if (journal.canRedo()) {
+                    discardRedo(profile, journal.head);
+                }
+                writeJournal(profile, journal.head + 1, JOURNAL_REMOVE, time,
+                        today, type, units);
+                limitsAfter = shiftLimits(limitsBefore, today, today, -1);
+                if (limitsBefore.isEnabled()) {
+                    writeLimits(profile, limitsAfter);
+                }
+            }
+            db.setTransactionSuccessful();
+            // Log.d(TAG, "decrementCount: Removed " + drinkRemoved);
+        } catch (Exception oops) {
+            // Log.d(TAG, "decrementCount: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_DECREMENT);
+            drinkRemoved = false;
+        } finally {
+            db.endTransaction();
+        }
+        if (drinkRemoved) {
+            journal.head++;
+            journal.top = journal.head;
+        }
+        RollingStats series = rollingStats.get(profile);
+        if (drinkRemoved && series != null) {
+            series.add(today, -1);
+        }
+        if (drinkRemoved) {
+            statsChanged(profile);
+            limitsChanged(profile, limitsBefore, limitsAfter);
+        }
+        return drinkRemoved;
     }
 
     /**
-     * Returns a double value for the average number of drinks per week.
-     * Calls getTotalDrinks() and getElapsedWeeks(), returns the divided
-     * result.
+     * Reverses the active profile's latest journaled operation, on
+     * whatever day it happened: an added drink is taken off that day, a
+     * removed one is put back with its original time, type and weight.
+     * The entry is found and marked by its primary key, so each step
+     * costs the same however long the journal is. Up to JOURNAL_SIZE
+     * steps can be taken back.
      *
-     * @return a double value representing the averages drinks per week
+     * @return whether there was an operation to undo
      */
-    protected double getWeeklyAvg() {
-        int totalDrinks = getTotalDrinks();
-        double totalWeeks = getElapsedWeeks();
-        double result = totalDrinks/totalWeeks;
-        // Log.d(TAG, "getWeeklyAvg: Returning " + result);
-        return result;
+    @Override
+    public synchronized boolean undo() {
+        int profile = getActiveProfile();
+        JournalCursor journal = getJournalCursor(profile);
+        if (!journal.canUndo()) {
+            return false;
+        }
+        return replay(profile, journal, journal.head, true);
     }
 
     /**
-     * Gets todays date, formats appropriately for insertion into SQLite.
+     * Applies the operation most recently undone again. Redo is only
+     * possible until the next drink is logged or removed.
      *
-     * @return today's date formatted as yyyy-MM-dd
+     * @return whether there was an operation to redo
      */
-    private String getToday() {
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-        Date calDate = Calendar.getInstance().getTime();
-        String today = df.format(calDate);
-        // Log.d(TAG, "getToday: " + today);
-        return today;
+    @Override
+    public synchronized boolean redo() {
+        int profile = getActiveProfile();
+        JournalCursor journal = getJournalCursor(profile);
+        if (!journal.canRedo()) {
+            return false;
+        }
+        return replay(profile, journal, journal.head + 1, false);
     }
 
     /**
-     * Gets the date for 6 days before today, formats appropriately for
-     * insertion into SQLite.
+     * Returns the active profile's dashboard statistics. Each profile's
+     * last snapshot is reused as long as nothing has been written to that
+     * profile since and the day has not rolled over, so repeated reads
+     * (resume, widget refreshes, switching back to a tracker) cost
+     * nothing in the common case. Otherwise reads them with
+     * queryDashboardStats().
      *
-     * @return date for 6 days ago formatted as yyyy-MM-dd
+     * @return an immutable snapshot of the dashboard statistics
      */
-    private String getOneWeekAgo() {
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-        Date calDate = Calendar.getInstance().getTime();
-        calDate = new Date(calDate.getTime() - 6 * 24 * 3600 * 1000l);
-        String oneWeekAgo = df.format(calDate);
-        // Log.d(TAG, "getOneWeekAgo: " + oneWeekAgo);
-        return oneWeekAgo;
+    @Override
+    public DashboardStats getDashboardStats() {
+        int profile = getActiveProfile();
+        int today = getToday();
+        CachedStats cached = cachedStats.get(profile);
+        Long written = writeVersions.get(profile);
+        if (cached != null && cached.day == today &&
+                (written == null || cached.version >= written)) {
+            return cached.stats;
+        }
+        // Read the version first: a write landing during the query bumps
+        // the profile past it, so the snapshot is never reused past that
+        // write
+        long version = statsVersion;
+        DashboardStats stats = queryDashboardStats(profile);
+        cachedStats.put(profile, new CachedStats(version, today, stats));
+        return stats;
     }
 
     /**
-     * Queries database, returns total number of drinks logged.
+     * Reads everything the dashboard shows in one statement: today's count,
+     * the rolling 7 day count, the running total from meta_totals and the
+     * number of days since meta_data.created_date, then the same three
+     * counts weighted in units. SQLite runs a single
+     * SELECT against one consistent snapshot, so the values always agree
+     * with each other. Each part is a primary key seek on the profile's
+     * rows, so other profiles' history is never scanned.
      *
-     * @return integer value for total number of drinks logged
+     * @param profile the profile_id to read
+     * @return        an immutable snapshot of the dashboard statistics
      */
-    private int getTotalDrinks() {
-         /*
-         * SELECT SUM(drink_count)
-         *   FROM drink_log;
-         */
-        String table = LOG_TABLE;
-        String[] projection = {"SUM(" +
-                LOG_COUNT_COLUMN + ")"};
-        String selection = null;
-        String[] selectionArgs = null;
-        String groupBy = null;
-        String having = null;
-        String orderBy = null;
-        String limit = null;
-
-        // Get database and cursor
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(table, projection, selection, selectionArgs,
-                groupBy, having, orderBy, limit);
-        int result = -1;
+    private DashboardStats queryDashboardStats(int profile) {
+        int today = getToday();
+        int weekAgo = getOneWeekAgo();
+
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(DASHBOARD_QUERY, profile, today, profile,
+                weekAgo, today, profile, today, profile, profile, today,
+                profile, weekAgo, today, profile);
+        DashboardStats result = DashboardStats.EMPTY;
         try {
             if (cursor.moveToFirst()) {
-                result = cursor.getInt(0);
-            } else {
-                result = 0;
+                result = new DashboardStats(cursor.getInt(0), cursor.getInt(1),
+                        cursor.getInt(2), cursor.getInt(3), cursor.getInt(4),
+                        cursor.getInt(5), cursor.getInt(6));
             }
         } catch(Exception oops) {
-            // To do: Handle exception
-            // Log.d(TAG, "getTotalDrinks: Unexpected error.");
-            result = 0;
+            // Log.d(TAG, "queryDashboardStats: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_DASHBOARD);
+            result = DashboardStats.EMPTY;
         } finally {
-            if (cursor != null && !cursor.isClosed()) { cursor.close(); }
-            // Log.d(TAG, "getTotalDrinks: Returning " + result);
+            closeRead(cursor);
         }
         return result;
     }
 
     /**
-     * Queries database, returns total number of days elapsed since database
-     * creation date, adds 1.
+     * Counts recent drinks by local hour of day, read from drink_events.
+     * Windows longer than the event horizon only see the events that are
+     * still kept; longer history is only available as daily counts.
      *
-     * @return integer value for total number of days since database creation
+     * @param days the number of days to look back, including today
+     * @return     an int[24] of drinks per hour, index 0 being midnight
      */
-    private int getElapsedDays() {
-        /*
-         * SELECT 1 + CAST(strftime('%J', 'getToday()') AS INT) -
-         *   (SELECT CAST(strftime('%J', created_date) AS INT) FROM meta_data);
-         */
-        String table = META_TABLE;
-        String[] projection = {"1 + CAST(strftime('%J', '" + getToday() +
-                "') AS INT) - (SELECT CAST(strftime('%J', created_date) " +
-                "AS INT) FROM " + META_TABLE + ")"};
-        String selection = null;
-        String[] selectionArgs = null;
-        String groupBy = null;
-        String having = null;
-        String orderBy = null;
-        String limit = null;
-
-        // Get database and cursor
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(table, projection, selection,
-                selectionArgs, groupBy, having, orderBy, limit);
-        int result = -1;
+    @Override
+    public int[] getHourlyCounts(int days) {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(HOURLY_COUNTS_QUERY, getToday() - days + 1,
+                getActiveProfile());
+        int[] result = new int[24];
         try {
-            if (cursor.moveToFirst()) {
-                result = cursor.getInt(0);
-            } else {
-                result = 0;
+            while (cursor.moveToNext()) {
+                int hour = cursor.getInt(0);
+                if (hour >= 0 && hour < 24) {
+                    result[hour] = cursor.getInt(1);
+                }
             }
         } catch(Exception oops) {
-            // To do: Handle exception
-            // Log.d(TAG, "getElapsedDays: Unexpected error.");
-            result = 0;
+            // Log.d(TAG, "getHourlyCounts: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_HOURLY_COUNTS);
         } finally {
-            if (cursor != null && !cursor.isClosed()) { cursor.close(); }
-            // Log.d(TAG, "getElapsedDays: Returning " + result);
+            closeRead(cursor);
         }
         return result;
     }
 
     /**
-     * Returns total number of seven-day periods since database creation date.
-     * Calls getElapsedDays(), divides that value by 7, adds 1.
+     * Returns the daily series used for arbitrary-window statistics.
+     * Loaded from drink_log with one ordered scan on first use, then kept
+     * current in memory by logDrinks(), decrementCount() and clearData(),
+     * so callers never need to query drink_log for windows again. One
+     * series is kept per profile.
      *
-     * @return integer value for total number of weeks since database creation
+     * @return the active profile's daily series, starting at its
+     *         meta_data.created_date
      */
-    private double getElapsedWeeks() {
-        double result = ((getElapsedDays()-1.00)/7.00);
-        if (result < 1) {
-            result = 1;
+    @Override
+    public synchronized RollingStats getRollingStats() {
+        int profile = getActiveProfile();
+        RollingStats series = rollingStats.get(profile);
+        if (series != null) {
+            return series;
+        }
+        int today = getToday();
+        int createdDay = getCreatedDay();
+        int[] counts = new int[Math.max(today - createdDay + 1, 1)];
+        int length = counts.length;
+
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(SERIES_QUERY, profile, createdDay);
+        try {
+            while (cursor.moveToNext()) {
+                int index = cursor.getInt(0) - createdDay;
+                if (index >= counts.length) {
+                    int[] grown = new int[index + 1];
+                    System.arraycopy(counts, 0, grown, 0, counts.length);
+                    counts = grown;
+                }
+                counts[index] = cursor.getInt(1);
+                length = Math.max(length, index + 1);
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getRollingStats: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_ROLLING_STATS);
+        } finally {
+            closeRead(cursor);
+        }
+        series = new RollingStats(createdDay, counts, length);
+        rollingStats.put(profile, series);
+        return series;
+    }
+
+    /**
+     * Queries database, returns the daily counts for a range of days.
+     * Walks the drink_log primary key for just that profile and range, so
+     * the cost depends on the range rather than the size of the history.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         an int[days] of counts, 0 for days with no row
+     */
+    @Override
+    public int[] getDailyCounts(int firstDay, int days) {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(DAILY_COUNTS_QUERY, getActiveProfile(),
+                firstDay, firstDay + days - 1);
+        int[] result = new int[days];
+        try {
+            while (cursor.moveToNext()) {
+                int index = cursor.getInt(0) - firstDay;
+                if (index >= 0 && index < days) {
+                    result[index] = cursor.getInt(1);
+                }
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getDailyCounts: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_DAILY_COUNTS);
+        } finally {
+            closeRead(cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Queries database, returns the daily counts for a range of days from
+     * drink_summary. Reads one row per DaySummary block the range
+     * touches, so a year is one or two rows however many drinks it holds.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         the counts, 0 for days with no drinks
+     */
+    @Override
+    public DaySummary getDaySummary(int firstDay, int days) {
+        if (days <= 0) {
+            return new DaySummary(firstDay, new short[0]);
+        }
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(READ_SUMMARY_QUERY, getActiveProfile(),
+                DaySummary.blockOf(firstDay),
+                DaySummary.blockOf(firstDay + days - 1));
+        short[] counts = new short[days];
+        try {
+            while (cursor.moveToNext()) {
+                DaySummary.readBlock(cursor.getInt(0), cursor.getBlob(1),
+                        firstDay, counts);
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getDaySummary: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_DAY_SUMMARY);
+        } finally {
+            closeRead(cursor);
+        }
+        return new DaySummary(firstDay, counts);
+    }
+
+    /**
+     * Queries database, returns per-type drink counts and units for a
+     * range of days from drink_type_log. Walks that table's primary key
+     * for just the profile and range, so a week costs at most seven days'
+     * worth of rows per type however long the history is.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         the per-type sums over the range
+     */
+    @Override
+    public TypeTotals getTypeTotals(int firstDay, int days) {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(TYPE_TOTALS_QUERY, getActiveProfile(),
+                firstDay, firstDay + days - 1);
+        int[] counts = new int[BeverageType.COUNT];
+        int[] units = new int[BeverageType.COUNT];
+        try {
+            while (cursor.moveToNext()) {
+                int type = cursor.getInt(0);
+                if (BeverageType.isValid(type)) {
+                    counts[type] = cursor.getInt(1);
+                    units[type] = cursor.getInt(2);
+                }
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getTypeTotals: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_TYPE_TOTALS);
+        } finally {
+            closeRead(cursor);
+        }
+        return new TypeTotals(counts, units);
+    }
+
+    /**
+     * Compaction for drink_events. Every event is rolled into drink_log
+     * when it is logged, so events older than the horizon carry no counts
+     * of their own and can simply be dropped; this keeps drink_events
+     * bounded to roughly horizonDays of drinks no matter how long the
+     * history gets. Covers every profile. Uses the index on
+     * drink_events.log_date.
+     *
+     * @param horizonDays the number of days of events to keep, including
+     *                    today
+     * @return            the number of events dropped
+     */
+    @Override
+    public synchronized int compactEvents(int horizonDays) {
+        int dropped = 0;
+        try {
+            SqlStatement statement = statement(COMPACT_QUERY);
+            statement.bindLong(1, getToday() - horizonDays + 1);
+            dropped = statement.executeUpdateDelete();
+            // Log.d(TAG, "compactEvents: Dropped " + dropped);
+        } catch (Exception oops) {
+            // Log.d(TAG, "compactEvents: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_COMPACT);
+        }
+        return dropped;
+    }
+
+    /**
+     * Streams the active profile's drink_log rows to visitor, oldest day
+     * first. Rows come back in primary key order, so no sort is needed,
+     * and the cursor window pages through the table however long it is.
+     *
+     * @param visitor receives each day and its count
+     * @return        the number of days visited
+     * @throws IOException if the visitor throws
+     */
+    @Override
+    public int visitDays(DayVisitor visitor) throws IOException {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(VISIT_DAYS_QUERY, getActiveProfile());
+        int visited = 0;
+        try {
+            while (cursor.moveToNext()) {
+                visitor.visit(cursor.getInt(0), cursor.getInt(1));
+                visited++;
+            }
+        } finally {
+            closeRead(cursor);
+        }
+        return visited;
+    }
+
+    /**
+     * Starts a restore into the active profile. Drops its data, like
+     * clearData(), but stores the given created_date instead of today's.
+     *
+     * @param createdDay the DayKeys key of the restored creation date
+     */
+    @Override
+    public synchronized void beginRestore(int createdDay) {
+        int profile = getActiveProfile();
+        resetProfile(profile, createdDay);
+        rollingStats.remove(profile);
+        statsChanged(profile);
+    }
+
+    /**
+     * Adds one chunk of restored days in a single transaction; the
+     * drink_log triggers keep meta_totals current. Days repeated across
+     * or within chunks are summed, as with logged drinks. Backups carry
+     * plain day counts, so restored drinks are standard drinks of
+     * BeverageType.STANDARD.
+     *
+     * @param days   DayKeys keys of the restored days
+     * @param counts each day's drink count
+     * @param length the number of entries of days and counts to add
+     */
+    @Override
+    public synchronized void restoreChunk(int[] days, int[] counts,
+                                          int length) {
+        if (length <= 0) {
+            return;
+        }
+        int profile = getActiveProfile();
+        SqlDatabase db = getStatementDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < length; i++) {
+                int units = counts[i] * BeverageType.UNITS_PER_DRINK;
+                addToDay(profile, days[i], counts[i], units);
+                addToType(profile, days[i], BeverageType.STANDARD, counts[i],
+                        units);
+                countOwn(profile, days[i], BeverageType.STANDARD, counts[i], 0,
+                        units, 0);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        statsChanged(profile);
+    }
+
+    /**
+     * Finishes a restore. The daily series is reloaded on next use.
+     */
+    @Override
+    public synchronized void endRestore() {
+        int profile = getActiveProfile();
+        rollingStats.remove(profile);
+        statsChanged(profile);
+        // The restored history decides the streak
+        LimitStatus limits = currentLimits();
+        setLimits(limits.getDailyLimit(), limits.getWeeklyLimit());
+    }
+
+    /**
+     * Returns the active profile's limits and where today stands against
+     * them. O(1) once the stored state and the daily series are loaded.
+     *
+     * @return the limit state for today
+     */
+    @Override
+    public synchronized LimitStatus getLimitStatus() {
+        return currentLimits();
+    }
+
+    /**
+     * Sets the active profile's daily and weekly limits and re-evaluates
+     * its state against them. The streak is recounted once from the daily
+     * series, walking back from yesterday; from then on every write
+     * keeps it current in O(1).
+     *
+     * @param dailyLimit  drinks allowed per day, 0 to switch off
+     * @param weeklyLimit drinks allowed per rolling 7 days, 0 to switch off
+     */
+    @Override
+    public synchronized void setLimits(int dailyLimit, int weeklyLimit) {
+        int profile = getActiveProfile();
+        int today = getToday();
+        RollingStats series = getRollingStats();
+        int streak = 0;
+        if (dailyLimit > 0) {
+            for (int day = today - 1; day >= series.getFirstDay() &&
+                    series.getCount(day) <= dailyLimit; day--) {
+                streak++;
+            }
+        }
+        LimitStatus status = new LimitStatus(Math.max(0, dailyLimit),
+                Math.max(0, weeklyLimit), today, series.getCount(today),
+                series.windowSum(today, 7), streak);
+
+        SqlDatabase db = getStatementDatabase();
+        boolean written = false;
+        db.beginTransaction();
+        try {
+            writeLimits(profile, status);
+            db.setTransactionSuccessful();
+            written = true;
+        } catch (Exception oops) {
+            // Log.d(TAG, "setLimits: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_LIMITS);
+        } finally {
+            db.endTransaction();
+        }
+        if (written) {
+            limitStatus.put(profile, status);
+        }
+    }
+
+    @Override
+    public void addLimitListener(LimitListener listener) {
+        limitListeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeLimitListener(LimitListener listener) {
+        limitListeners.remove(listener);
+    }
+
+    /**
+     * Returns this device's sync id, read once from sync_state.
+     *
+     * @return the device id
+     */
+    @Override
+    public String getDeviceId() {
+        String id = deviceId;
+        if (id == null) {
+            connectionLock.readLock().lock();
+            try {
+                id = getReadableDatabase().stringForQuery(
+                        DEVICE_ID_QUERY.getSql(), DEVICE_ID_QUERY.args());
+            } finally {
+                connectionLock.readLock().unlock();
+            }
+            deviceId = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the active profile's sync vector: the highest version held
+     * of each device's counters. One seek per device on the version
+     * index.
+     *
+     * @return device id to version, empty if unreadable
+     */
+    @Override
+    public Map<String, Long> getSyncVector() {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(SYNC_VECTOR_QUERY, getActiveProfile());
+        Map<String, Long> vector = new HashMap<String, Long>();
+        try {
+            while (cursor.moveToNext()) {
+                vector.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getSyncVector: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_SYNC);
+        } finally {
+            closeRead(cursor);
+        }
+        return vector;
+    }
+
+    /**
+     * Streams the active profile's counters newer than since, device by
+     * device. Each device's counters are a range read on the version
+     * index, so the cost follows what changed rather than the history.
+     *
+     * @param since   device id to the version already held elsewhere
+     * @param visitor receives each counter
+     * @return        the number of counters visited
+     * @throws IOException if the visitor throws
+     */
+    @Override
+    public int visitCounters(Map<String, Long> since, CounterVisitor visitor)
+            throws IOException {
+        int profile = getActiveProfile();
+        int visited = 0;
+        for (Map.Entry<String, Long> entry : getSyncVector().entrySet()) {
+            String device = entry.getKey();
+            Long known = since.get(device);
+            long from = known == null ? 0 : known;
+            if (entry.getValue() <= from) {
+                continue;
+            }
+            Cursor cursor = readQuery(VISIT_COUNTERS_QUERY, profile, device,
+                    from);
+            try {
+                while (cursor.moveToNext()) {
+                    visitor.visit(new SyncCounter(device, cursor.getInt(0),
+                            cursor.getInt(1), cursor.getInt(2),
+                            cursor.getInt(3), cursor.getInt(4),
+                            cursor.getInt(5), cursor.getLong(6)));
+                    visited++;
+                }
+            } finally {
+                closeRead(cursor);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Merges another device's counters into the active profile in one
+     * transaction. Each counter is looked up by its primary key; if the
+     * incoming copy is ahead, the stored one takes the larger of each
+     * half, and the change in the counter's net value is added to its
+     * day's drink_log and drink_type_log rows and to meta_totals. Counters
+     * owned by this device are skipped, since the local copy is always
+     * the newest. A day before created_date moves created_date back to
+     * it. Drinks merged into today or this week move the limit state,
+     * and can raise limit alerts like logged ones.
+     *
+     * @param counters the counters received
+     * @return         the number of counters that changed anything
+     */
+    @Override
+    public synchronized int mergeCounters(List<SyncCounter> counters) {
+        int profile = getActiveProfile();
+        String device = getDeviceId();
+        int today = getToday();
+        LimitStatus limitsBefore = currentLimits();
+        LimitStatus limitsAfter = limitsBefore;
+        // Net change per day, for the daily series
+        Map<Integer, Integer> dayDeltas = new HashMap<Integer, Integer>();
+        int firstDay = Integer.MAX_VALUE;
+        SqlDatabase db = getStatementDatabase();
+        int changed = 0;
+        db.beginTransaction();
+        try {
+            for (SyncCounter incoming : counters) {
+                if (device.equals(incoming.getDeviceId()) ||
+                        !BeverageType.isValid(incoming.getType())) {
+                    continue;
+                }
+                SyncCounter stored = null;
+                Cursor cursor = db.rawQuery(READ_COUNTER_QUERY.getSql(),
+                        READ_COUNTER_QUERY.args(profile, incoming.getDeviceId(),
+                        incoming.getDay(), incoming.getType()));
+                try {
+                    if (cursor.moveToFirst()) {
+                        stored = new SyncCounter(incoming.getDeviceId(),
+                                incoming.getDay(), incoming.getType(),
+                                cursor.getInt(0), cursor.getInt(1),
+                                cursor.getInt(2), cursor.getInt(3),
+                                cursor.getLong(4));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (stored != null && stored.covers(incoming)) {
+                    continue;
+                }
+                SyncCounter merged = stored == null ?
+                        incoming : stored.mergedWith(incoming);
+                writeCounter(profile, merged);
+                changed++;
+                int delta = merged.getCount() -
+                        (stored == null ? 0 : stored.getCount());
+                int units = merged.getUnits() -
+                        (stored == null ? 0 : stored.getUnits());
+                if (delta == 0 && units == 0) {
+                    continue;
+                }
+                int day = merged.getDay();
+                addToDay(profile, day, delta, units);
+                addToType(profile, day, merged.getType(), delta, units);
+                Integer dayDelta = dayDeltas.get(day);
+                dayDeltas.put(day, (dayDelta == null ? 0 : dayDelta) + delta);
+                limitsAfter = shiftLimits(limitsAfter, today, day, delta);
+                firstDay = Math.min(firstDay, day);
+            }
+            if (firstDay != Integer.MAX_VALUE) {
+                SqlStatement moveCreatedDate =
+                        statement(MOVE_CREATED_DATE_QUERY);
+                moveCreatedDate.bindLong(1, firstDay);
+                moveCreatedDate.bindLong(2, profile);
+                moveCreatedDate.bindLong(3, firstDay);
+                moveCreatedDate.executeUpdateDelete();
+            }
+            if (limitsBefore.isEnabled()) {
+                writeLimits(profile, limitsAfter);
+            }
+            db.setTransactionSuccessful();
+            // Log.d(TAG, "mergeCounters: Merged " + changed);
+        } catch (Exception oops) {
+            // Log.d(TAG, "mergeCounters: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_SYNC);
+            changed = 0;
+            dayDeltas.clear();
+            limitsAfter = limitsBefore;
+        } finally {
+            db.endTransaction();
+        }
+        if (changed == 0) {
+            return 0;
+        }
+        RollingStats series = rollingStats.get(profile);
+        if (series != null && firstDay < series.getFirstDay()) {
+            // The series restarts at the earlier created_date on next use
+            rollingStats.remove(profile);
+        } else if (series != null) {
+            for (Map.Entry<Integer, Integer> entry : dayDeltas.entrySet()) {
+                series.add(entry.getKey(), entry.getValue());
+            }
+        }
+        statsChanged(profile);
+        limitsChanged(profile, limitsBefore, limitsAfter);
+        return changed;
+    }
+
+    /**
+     * Queries database, returns every profile, oldest first.
+     *
+     * @return the list of profiles, never empty once the database exists
+     */
+    @Override
+    public List<Profile> getProfiles() {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(PROFILES_QUERY);
+        List<Profile> result = new ArrayList<Profile>();
+        try {
+            while (cursor.moveToNext()) {
+                result.add(new Profile(cursor.getInt(0), cursor.getString(1)));
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getProfiles: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_PROFILES);
+        } finally {
+            closeRead(cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a profile, started today, with an empty history.
+     *
+     * @param name the new profile's display name
+     * @return     the new profile
+     */
+    @Override
+    public synchronized Profile createProfile(String name) {
+        SqlDatabase db = getWritableDatabase();
+        int profile;
+        db.beginTransaction();
+        try {
+            profile = insertProfile(db, 0, name);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return new Profile(profile, name);
+    }
+
+    /**
+     * Drops a profile and all of its rows. The last remaining profile
+     * cannot be deleted, and an id that is not a profile changes nothing.
+     * If the active profile is deleted, the oldest remaining one becomes
+     * active.
+     *
+     * @param profile the profile_id to delete
+     * @return        whether the profile was deleted
+     */
+    @Override
+    public synchronized boolean deleteProfile(int profile) {
+        List<Profile> profiles = getProfiles();
+        boolean exists = false;
+        for (Profile known : profiles) {
+            exists |= known.getId() == profile;
+        }
+        if (!exists || profiles.size() <= 1) {
+            return false;
+        }
+        SqlDatabase db = getStatementDatabase();
+        boolean deleted = false;
+        db.beginTransaction();
+        try {
+            runForProfile(profile, CLEAR_LOG_QUERY);
+            runForProfile(profile, CLEAR_TYPE_LOG_QUERY);
+            runForProfile(profile, CLEAR_EVENTS_QUERY);
+            runForProfile(profile, CLEAR_TOTALS_QUERY);
+            runForProfile(profile, CLEAR_LIMITS_QUERY);
+            runForProfile(profile, CLEAR_JOURNAL_QUERY);
+            runForProfile(profile, CLEAR_SUMMARY_QUERY);
+            // Versions already sent from the dropped counters must never
+            // be handed out again
+            SqlStatement storeClock = statement(STORE_SYNC_CLOCK_QUERY);
+            storeClock.bindLong(1, nextSyncVersion());
+            storeClock.executeUpdateDelete();
+            runForProfile(profile, CLEAR_COUNTERS_QUERY);
+            runForProfile(profile, CLEAR_META_QUERY);
+            db.setTransactionSuccessful();
+            deleted = true;
+        } catch (Exception oops) {
+            // Log.d(TAG, "deleteProfile: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_PROFILES);
+        } finally {
+            db.endTransaction();
+        }
+        if (!deleted) {
+            return false;
+        }
+        rollingStats.remove(profile);
+        cachedStats.remove(profile);
+        limitStatus.remove(profile);
+        journalCursors.remove(profile);
+        if (profile == getActiveProfile()) {
+            for (Profile remaining : profiles) {
+                if (remaining.getId() != profile) {
+                    storeActiveProfile(remaining.getId());
+                    break;
+                }
+            }
+        }
+        statsChanged(profile);
+        return true;
+    }
+
+    /**
+     * Returns the profile all reads and writes go to.
+     *
+     * @return the active profile_id
+     */
+    @Override
+    public int getActiveProfile() {
+        int profile = activeProfile;
+        if (profile < 0) {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            profile = prefs.getInt(KEY_ACTIVE_PROFILE, DEFAULT_PROFILE_ID);
+            activeProfile = profile;
+        }
+        return profile;
+    }
+
+    /**
+     * Switches to another profile. The switch is remembered across
+     * restarts. Listeners are told, since every statistic changes. Every
+     * table is keyed by profile_id first, and the daily series and
+     * dashboard snapshot are cached per profile, so switching back to a
+     * tracker costs nothing.
+     *
+     * @param profile the profile_id to switch to
+     * @return        whether the profile exists and is now active
+     */
+    @Override
+    public synchronized boolean setActiveProfile(int profile) {
+        boolean exists = false;
+        for (Profile known : getProfiles()) {
+            exists |= known.getId() == profile;
+        }
+        if (!exists) {
+            return false;
+        }
+        if (profile != getActiveProfile()) {
+            storeActiveProfile(profile);
+            notifyListeners(++statsVersion);
+        }
+        return true;
+    }
+
+    /**
+     * Registers a listener for committed writes.
+     *
+     * @param listener told after each write that changes the statistics
+     */
+    @Override
+    public void addStatsListener(StatsListener listener) {
+        statsListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unregisters a listener added with addStatsListener().
+     *
+     * @param listener the listener to remove
+     */
+    @Override
+    public void removeStatsListener(StatsListener listener) {
+        statsListeners.remove(listener);
+    }
+
+    /**
+     * Returns the current stats version. Any two reads with the same
+     * version on the same day see the same statistics.
+     *
+     * @return the number of committed writes so far this process
+     */
+    @Override
+    public long getStatsVersion() {
+        return statsVersion;
+    }
+
+    /**
+     * Returns total drinks for today's date.
+     *
+     * @return the integer count of total drinks for today's date
+     */
+    protected int getDailyCount() {
+        return getDashboardStats().getDailyCount();
+    }
+
+    /**
+     * Returns total drinks for a rolling 7 day window.
+     *
+     * @return the integer count of total drinks for the last 7 days
+     */
+    protected int getWeeklyCount() {
+        return getDashboardStats().getWeeklyCount();
+    }
+
+    /**
+     * Returns a double value for the average number of drinks per day.
+     *
+     * @return a double value representing the averages drinks per day
+     */
+    protected double getDailyAvg() {
+        return getDashboardStats().getDailyAvg();
+    }
+
+    /**
+     * Returns a double value for the average number of drinks per week.
+     *
+     * @return a double value representing the averages drinks per week
+     */
+    protected double getWeeklyAvg() {
+        return getDashboardStats().getWeeklyAvg();
+    }
+
+    /**
+     * Creates drink_log and drink_type_log, keyed by profile and day, and
+     * by type in drink_type_log, and the triggers that carry every
+     * inserted or updated drink_log row into meta_totals and
+     * drink_summary. Deletes are not followed: whatever deletes from
+     * drink_log clears or rebuilds those tables itself. Dropping drink_log
+     * drops the triggers with it, so they are created again here.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createCountTables(SqlDatabase db) {
+        String createCounts = "CREATE TABLE IF NOT EXISTS " + LOG_TABLE + " (" +
+                PROFILE_ID_COLUMN + " INTEGER NOT NULL, " +
+                LOG_DATE_COLUMN + " INTEGER NOT NULL, " +
+                LOG_COUNT_COLUMN + " INTEGER NOT NULL, " +
+                UNITS_COLUMN + " INTEGER NOT NULL, PRIMARY KEY (" +
+                PROFILE_ID_COLUMN + ", " + LOG_DATE_COLUMN + "));";
+        String createTypeCounts = "CREATE TABLE IF NOT EXISTS " +
+                TYPE_LOG_TABLE + " (" +
+                PROFILE_ID_COLUMN + " INTEGER NOT NULL, " +
+                LOG_DATE_COLUMN + " INTEGER NOT NULL, " +
+                TYPE_COLUMN + " INTEGER NOT NULL, " +
+                LOG_COUNT_COLUMN + " INTEGER NOT NULL, " +
+                UNITS_COLUMN + " INTEGER NOT NULL, PRIMARY KEY (" +
+                PROFILE_ID_COLUMN + ", " + LOG_DATE_COLUMN + ", " +
+                TYPE_COLUMN + "));";
+
+        db.execSQL(createCounts);
+        db.execSQL(createTypeCounts);
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + LOG_INSERT_TRIGGER +
+                " AFTER INSERT ON " + LOG_TABLE + " BEGIN " +
+                totalsTrigger("NEW." + LOG_COUNT_COLUMN,
+                        "NEW." + UNITS_COLUMN) + summaryTrigger() + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + LOG_UPDATE_TRIGGER +
+                " AFTER UPDATE OF " + LOG_COUNT_COLUMN + ", " + UNITS_COLUMN +
+                " ON " + LOG_TABLE + " BEGIN " +
+                totalsTrigger("NEW." + LOG_COUNT_COLUMN + " - OLD." +
+                        LOG_COUNT_COLUMN, "NEW." + UNITS_COLUMN + " - OLD." +
+                        UNITS_COLUMN) + summaryTrigger() + " END");
+    }
+
+    /**
+     * Returns the drink_log triggers' meta_totals step.
+     *
+     * UPDATE meta_totals
+     *   SET total_drinks = total_drinks + (drinks),
+     *     total_units = total_units + (units)
+     *   WHERE profile_id = NEW.profile_id;
+     *
+     * @param drinks the SQL for the change in drinks
+     * @param units  the SQL for the change in units
+     * @return       the statement, with its closing semicolon
+     */
+    private static String totalsTrigger(String drinks, String units) {
+        return "UPDATE " + TOTALS_TABLE + " SET " + TOTALS_DRINKS_COLUMN +
+                " = " + TOTALS_DRINKS_COLUMN + " + (" + drinks + "), " +
+                TOTALS_UNITS_COLUMN + " = " + TOTALS_UNITS_COLUMN + " + (" +
+                units + ") WHERE " + PROFILE_ID_COLUMN + " = NEW." +
+                PROFILE_ID_COLUMN + ";";
+    }
+
+    /**
+     * Returns the drink_log triggers' drink_summary step: the new count,
+     * clamped and encoded as DaySummary.encodeCount() does, spliced into
+     * the day's block. Each byte of the count is picked out of a literal
+     * holding every byte value, since SQLite has no way to turn a number
+     * into a byte.
+     *
+     * INSERT OR REPLACE INTO drink_summary
+     *   (profile_id, block, day_counts)
+     *   SELECT NEW.profile_id, day_block,
+     *     CAST(substr(counts, 1, day_offset) ||
+     *       substr(X'00..FF', day_count / 256 + 1, 1) ||
+     *       substr(X'00..FF', day_count % 256 + 1, 1) ||
+     *       substr(counts, day_offset + 3) AS BLOB)
+     *   FROM (SELECT day_block,
+     *     (NEW.log_date - day_block * BLOCK_DAYS) * 2 AS day_offset,
+     *     MAX(0, MIN(NEW.drink_count, 32767)) AS day_count,
+     *     COALESCE((SELECT day_counts FROM drink_summary
+     *       WHERE profile_id = NEW.profile_id AND block = day_block),
+     *       zeroblob(BLOCK_BYTES)) AS counts
+     *   FROM (SELECT CASE WHEN NEW.log_date >= 0
+     *     THEN NEW.log_date / BLOCK_DAYS
+     *     ELSE (NEW.log_date + 1) / BLOCK_DAYS - 1 END AS day_block));
+     *
+     * @return the statement, with its closing semicolon
+     */
+    private static String summaryTrigger() {
+        StringBuilder bytes = new StringBuilder("X'");
+        for (int value = 0; value < 256; value++) {
+            bytes.append(Character.forDigit(value >> 4, 16))
+                    .append(Character.forDigit(value & 15, 16));
+        }
+        bytes.append('\'');
+        String day = "NEW." + LOG_DATE_COLUMN;
+        return "INSERT OR REPLACE INTO " + SUMMARY_TABLE + " (" +
+                PROFILE_ID_COLUMN + ", " + BLOCK_COLUMN + ", " +
+                DAY_COUNTS_COLUMN + ") SELECT NEW." + PROFILE_ID_COLUMN +
+                ", day_block, CAST(substr(counts, 1, day_offset) || substr(" +
+                bytes + ", day_count / 256 + 1, 1) || substr(" + bytes +
+                ", day_count % 256 + 1, 1) || substr(counts, day_offset + " +
+                (DaySummary.BYTES_PER_DAY + 1) + ") AS BLOB) FROM (SELECT " +
+                "day_block, (" + day + " - day_block * " +
+                DaySummary.BLOCK_DAYS + ") * " + DaySummary.BYTES_PER_DAY +
+                " AS day_offset, MAX(0, MIN(NEW." + LOG_COUNT_COLUMN + ", " +
+                Short.MAX_VALUE + ")) AS day_count, COALESCE((SELECT " +
+                DAY_COUNTS_COLUMN + " FROM " + SUMMARY_TABLE + " WHERE " +
+                PROFILE_ID_COLUMN + " = NEW." + PROFILE_ID_COLUMN + " AND " +
+                BLOCK_COLUMN + " = day_block), zeroblob(" +
+                DaySummary.BLOCK_BYTES + ")) AS counts FROM (SELECT CASE " +
+                "WHEN " + day + " >= 0 THEN " + day + " / " +
+                DaySummary.BLOCK_DAYS + " ELSE (" + day + " + 1) / " +
+                DaySummary.BLOCK_DAYS + " - 1 END AS day_block));";
+    }
+
+    /**
+     * Creates meta_totals, one running total and unit total per profile.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createTotalsTable(SqlDatabase db) {
+        String createTotals = "CREATE TABLE IF NOT EXISTS " + TOTALS_TABLE +
+                " (" + PROFILE_ID_COLUMN + " INTEGER PRIMARY KEY, " +
+                TOTALS_DRINKS_COLUMN + " INTEGER NOT NULL, " +
+                TOTALS_UNITS_COLUMN + " INTEGER NOT NULL);";
+
+        db.execSQL(createTotals);
+    }
+
+    /**
+     * Adds a profile's meta_data row, started today, its zero meta_totals
+     * row and its meta_limits row with both limits off. Callers are
+     * expected to hold a transaction.
+     *
+     * @param db      a writable instance of the DrinkTracker database
+     * @param profile the profile_id to use, or 0 to assign the next one
+     * @param name    the profile's display name
+     * @return        the new profile_id
+     */
+    private int insertProfile(SqlDatabase db, int profile, String name) {
+        // Not cached: onCreate() runs this on a connection still opening
+        SqlStatement statement = db.compileStatement(
+                INSERT_META_QUERY.getSql());
+        int id;
+        try {
+            if (profile > 0) {
+                statement.bindLong(1, profile);
+            } else {
+                statement.bindNull(1);
+            }
+            statement.bindString(2, name);
+            statement.bindLong(3, getToday());
+            id = (int) statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+        db.execSQL(INSERT_TOTALS_QUERY.getSql(), new Object[] {id});
+        db.execSQL(INSERT_LIMITS_QUERY.getSql(), new Object[] {id, getToday()});
+        return id;
+    }
+
+    /**
+     * Drops one profile's drinks, events and journal, zeroes its total
+     * and sets its created_date, in one transaction. Its limits are kept but its
+     * limit state starts over on createdDay with no streak. Its sync
+     * counters are kept, since peers still hold copies of them; instead
+     * this device's counter for each day and type takes on the removal
+     * of whatever the day and type add up to, or an addition where a
+     * peer's late removal left them below zero, so the counters net to
+     * zero here and on every peer they reach.
+     *
+     * When the profile is the only one, every row of drink_log,
+     * drink_type_log, drink_events, drink_journal and drink_summary is
+     * its own, so those tables are dropped and created again empty
+     * rather than deleted from row by row: the cost is the pages freed,
+     * not the rows and index entries removed. The freed pages go back to the
+     * filesystem with the next runMaintenance().
+     *
+     * @param profile    the profile_id to reset
+     * @param createdDay the DayKeys key of the new creation date
+     */
+    private void resetProfile(int profile, int createdDay) {
+        String device = getDeviceId();
+        long version = nextSyncVersion();
+        boolean replaceTables = getProfiles().size() == 1;
+        if (replaceTables) {
+            // Compiled against the tables about to be dropped
+            releaseStatements();
+        }
+        SqlDatabase db = getStatementDatabase();
+        db.beginTransaction();
+        try {
+            SqlStatement cancelCounters = statement(CANCEL_COUNTERS_QUERY);
+            for (int i = 1; i <= 5; i++) {
+                cancelCounters.bindString(i, device);
+            }
+            cancelCounters.bindLong(6, version);
+            cancelCounters.bindLong(7, profile);
+            cancelCounters.executeInsert();
+            if (replaceTables) {
+                db.execSQL("DROP TABLE " + LOG_TABLE);
+                db.execSQL("DROP TABLE " + TYPE_LOG_TABLE);
+                db.execSQL("DROP TABLE " + EVENTS_TABLE);
+                db.execSQL("DROP TABLE " + JOURNAL_TABLE);
+                db.execSQL("DROP TABLE " + SUMMARY_TABLE);
+                createCountTables(db);
+                createEventsTable(db);
+                createJournalTable(db);
+                createSummaryTable(db);
+            } else {
+                runForProfile(profile, CLEAR_LOG_QUERY);
+                runForProfile(profile, CLEAR_TYPE_LOG_QUERY);
+                runForProfile(profile, CLEAR_EVENTS_QUERY);
+                runForProfile(profile, CLEAR_JOURNAL_QUERY);
+                runForProfile(profile, CLEAR_SUMMARY_QUERY);
+            }
+            // Store created_date in meta_data
+            SqlStatement setCreatedDate = statement(SET_CREATED_DATE_QUERY);
+            setCreatedDate.bindLong(1, createdDay);
+            setCreatedDate.bindLong(2, profile);
+            setCreatedDate.executeUpdateDelete();
+            runForProfile(profile, RESET_TOTALS_QUERY);
+            SqlStatement resetLimits = statement(RESET_LIMITS_QUERY);
+            resetLimits.bindLong(1, createdDay);
+            resetLimits.bindLong(2, profile);
+            resetLimits.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        limitStatus.remove(profile);
+        journalCursors.remove(profile);
+    }
+
+    /**
+     * Runs a statement whose only parameter is a profile_id, such as one
+     * of the CLEAR_ queries or RESET_TOTALS_QUERY. Callers hold a
+     * transaction on the statement database.
+     *
+     * @param profile the profile_id to bind
+     * @param query   the statement to run
+     */
+    private void runForProfile(int profile, Query query) {
+        if (query.getParamCount() != 1) {
+            throw new IllegalArgumentException(query + " does not take " +
+                    "just a profile_id");
+        }
+        SqlStatement statement = statement(query);
+        statement.bindLong(1, profile);
+        statement.executeUpdateDelete();
+    }
+
+    /**
+     * Makes a profile active and remembers it across restarts.
+     */
+    private void storeActiveProfile(int profile) {
+        activeProfile = profile;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(KEY_ACTIVE_PROFILE, profile).apply();
+    }
+
+    /**
+     * Creates meta_limits, one row of limits and limit state per profile.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createLimitsTable(SqlDatabase db) {
+        String createLimits = "CREATE TABLE IF NOT EXISTS " + LIMITS_TABLE +
+                " (" + PROFILE_ID_COLUMN + " INTEGER PRIMARY KEY, " +
+                DAILY_LIMIT_COLUMN + " INTEGER NOT NULL, " +
+                WEEKLY_LIMIT_COLUMN + " INTEGER NOT NULL, " +
+                STATE_DAY_COLUMN + " INTEGER NOT NULL, " +
+                DAILY_STATE_COLUMN + " INTEGER NOT NULL, " +
+                WEEKLY_STATE_COLUMN + " INTEGER NOT NULL, " +
+                STREAK_COLUMN + " INTEGER NOT NULL);";
+
+        db.execSQL(createLimits);
+    }
+
+    /**
+     * Returns the active profile's limit state moved to today. The stored
+     * row is read once per profile; after that this is O(1), since the
+     * counts come from the in-memory daily series. With both limits off
+     * the series is not even loaded. Callers hold the lock on this.
+     *
+     * @return the limit state for today
+     */
+    private LimitStatus currentLimits() {
+        int profile = getActiveProfile();
+        LimitStatus stored = limitStatus.get(profile);
+        if (stored == null) {
+            stored = queryLimits(profile);
+            limitStatus.put(profile, stored);
+        }
+        if (!stored.isEnabled()) {
+            return stored;
+        }
+        int today = getToday();
+        RollingStats series = getRollingStats();
+        return stored.advance(today, series.getCount(today),
+                series.windowSum(today, 7));
+    }
+
+    /**
+     * Reads a profile's meta_limits row. The counts for the stored day
+     * come from the daily series, so the states derived from them match
+     * what was stored. Callers hold the lock on this.
+     *
+     * @param profile the profile_id to read
+     * @return        the stored limit state; limits off if unreadable
+     */
+    private LimitStatus queryLimits(int profile) {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(READ_LIMITS_QUERY, profile);
+        int[] row = null;
+        try {
+            if (cursor.moveToFirst() &&
+                    (cursor.getInt(0) > 0 || cursor.getInt(1) > 0)) {
+                row = new int[] {cursor.getInt(0), cursor.getInt(1),
+                        cursor.getInt(2), cursor.getInt(3)};
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "queryLimits: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_LIMITS);
+        } finally {
+            closeRead(cursor);
+        }
+        if (row == null) {
+            return new LimitStatus(0, 0, getToday(), 0, 0, 0);
+        }
+        // getRollingStats() locks this, so only once the read lock is gone
+        int day = row[2];
+        RollingStats series = getRollingStats();
+        return new LimitStatus(row[0], row[1], day, series.getCount(day),
+                series.windowSum(day, 7), row[3]);
+    }
+
+    /**
+     * Writes a profile's limit state to meta_limits unless the stored
+     * row already says the same. Callers are expected to hold a
+     * transaction on the statement database.
+     *
+     * @param profile the profile_id whose state changed
+     * @param status  the new limit state
+     */
+    private void writeLimits(int profile, LimitStatus status) {
+        if (status.sameStoredState(limitStatus.get(profile))) {
+            return;
+        }
+        SqlStatement limitStatement = statement(LIMITS_QUERY);
+        limitStatement.bindLong(1, profile);
+        limitStatement.bindLong(2, status.getDailyLimit());
+        limitStatement.bindLong(3, status.getWeeklyLimit());
+        limitStatement.bindLong(4, status.getDay());
+        limitStatement.bindLong(5, status.getDailyState());
+        limitStatement.bindLong(6, status.getWeeklyState());
+        limitStatement.bindLong(7, status.getStreakBefore());
+        limitStatement.executeInsert();
+    }
+
+    /**
+     * Keeps a write's new limit state and tells the limit listeners if
+     * the write reached or passed a limit. Called by the write paths
+     * after their transaction commits, with the lock on this held. Each
+     * write moves the state along in O(1) from the in-memory counts, so
+     * the limits never cost a query.
+     *
+     * @param profile the profile_id that was written
+     * @param before  the limit state before the write
+     * @param after   the limit state after it
+     */
+    private void limitsChanged(int profile, LimitStatus before,
+                               LimitStatus after) {
+        if (!after.isEnabled()) {
+            return;
+        }
+        limitStatus.put(profile, after);
+        if (after.crossedUp(before)) {
+            for (LimitListener listener : limitListeners) {
+                listener.onLimitReached(before, after);
+            }
+        }
+    }
+
+    /**
+     * Creates drink_journal. Its primary key is the entry's ring slot, so
+     * an entry is written over in place once the ring wraps.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createJournalTable(SqlDatabase db) {
+        String createJournal = "CREATE TABLE IF NOT EXISTS " + JOURNAL_TABLE +
+                " (" + PROFILE_ID_COLUMN + " INTEGER NOT NULL, " +
+                SLOT_COLUMN + " INTEGER NOT NULL, " +
+                SEQ_COLUMN + " INTEGER NOT NULL, " +
+                OP_COLUMN + " INTEGER NOT NULL, " +
+                EVENTS_TIME_COLUMN + " INTEGER NOT NULL, " +
+                LOG_DATE_COLUMN + " INTEGER NOT NULL, " +
+                TYPE_COLUMN + " INTEGER NOT NULL, " +
+                UNITS_COLUMN + " INTEGER NOT NULL, " +
+                UNDONE_COLUMN + " INTEGER NOT NULL, PRIMARY KEY (" +
+                PROFILE_ID_COLUMN + ", " + SLOT_COLUMN + "));";
+
+        db.execSQL(createJournal);
+    }
+
+    /**
+     * Returns a profile's undo position, reading it from drink_journal on
+     * first use. Entries up to head are applied and the ones after it,
+     * up to top, are undone. Callers hold the lock on this.
+     *
+     * @param profile the profile_id whose journal to use
+     * @return        the profile's cursor, kept current by the write paths
+     */
+    private JournalCursor getJournalCursor(int profile) {
+        JournalCursor journal = journalCursors.get(profile);
+        if (journal != null) {
+            return journal;
+        }
+
+        journal = new JournalCursor();
+        Cursor cursor = readQuery(JOURNAL_CURSOR_QUERY, profile);
+        try {
+            if (cursor.moveToFirst()) {
+                journal.top = cursor.getLong(0);
+                journal.head = cursor.getLong(1);
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getJournalCursor: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_UNDO);
+        } finally {
+            closeRead(cursor);
+        }
+        journalCursors.put(profile, journal);
+        return journal;
+    }
+
+    /**
+     * Undoes or redoes one journal entry in a single transaction: the
+     * drink is added or removed on the entry's day, the entry is marked,
+     * and the limit state follows. The cursor moves past the entry even
+     * if its drink was already gone, so one stale entry cannot block the
+     * ones behind it.
+     *
+     * @param profile the profile_id whose journal to use
+     * @param journal the profile's cursor
+     * @param seq     the sequence number of the entry to replay
+     * @param undo    true to reverse the entry, false to apply it again
+     * @return        whether the entry was found
+     */
+    private boolean replay(int profile, JournalCursor journal, long seq,
+                           boolean undo) {
+        int op = undo ? DbMetrics.OP_UNDO : DbMetrics.OP_REDO;
+
+        int today = getToday();
+        LimitStatus limitsBefore = currentLimits();
+        LimitStatus limitsAfter = limitsBefore;
+        SqlDatabase db = getStatementDatabase();
+        boolean found = false;
+        boolean changed = false;
+        boolean add = false;
+        int day = 0;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery(JOURNAL_ENTRY_QUERY.getSql(),
+                    JOURNAL_ENTRY_QUERY.args(profile, seq % JOURNAL_SIZE,
+                    seq));
+            try {
+                if (cursor.moveToFirst()) {
+                    found = true;
+                    // Undoing an add removes the drink, and vice versa
+                    add = (cursor.getInt(0) == JOURNAL_ADD) != undo;
+                    day = cursor.getInt(2);
+                    changed = applyDrink(profile, day, cursor.getLong(1),
+                            cursor.getInt(3), cursor.getInt(4), add);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (found) {
+                SqlStatement mark = statement(MARK_JOURNAL_QUERY);
+                mark.bindLong(1, undo ? 1 : 0);
+                mark.bindLong(2, profile);
+                mark.bindLong(3, seq % JOURNAL_SIZE);
+                mark.executeUpdateDelete();
+            }
+            if (changed && limitsBefore.isEnabled()) {
+                limitsAfter = shiftLimits(limitsBefore, today, day,
+                        add ? 1 : -1);
+                writeLimits(profile, limitsAfter);
+            }
+            db.setTransactionSuccessful();
+            // Log.d(TAG, "replay: Replayed " + seq);
+        } catch (Exception oops) {
+            // Log.d(TAG, "replay: Unexpected error.");
+            DbMetrics.getInstance().recordError(op);
+            found = false;
+            changed = false;
+        } finally {
+            db.endTransaction();
+        }
+        if (!found) {
+            return false;
+        }
+        journal.head = undo ? seq - 1 : seq;
+        RollingStats series = rollingStats.get(profile);
+        if (changed && series != null) {
+            series.add(day, add ? 1 : -1);
+        }
+        if (changed) {
+            statsChanged(profile);
+            limitsChanged(profile, limitsBefore, limitsAfter);
+        }
+        return true;
+    }
+
+    /**
+     * Adds or removes one drink on a day: drink_log, drink_type_log,
+     * drink_summary, meta_totals, this device's sync counter and the
+     * drink's drink_events row. A removal only goes
+     * ahead if the day still has a drink to remove. Callers are expected
+     * to hold a transaction on the statement database.
+     *
+     * @param profile the profile_id of the day
+     * @param day     the DayKeys key of the day
+     * @param time    the drink's event time, 0 if it has no event
+     * @param type    the drink's BeverageType id
+     * @param units   the drink's weight in BeverageType units
+     * @param add     true to add the drink, false to remove it
+     * @return        whether the day's counts changed
+     */
+    private boolean applyDrink(int profile, int day, long time, int type,
+                               int units, boolean add) {
+        if (add) {
+            addToDay(profile, day, 1, units);
+            addToType(profile, day, type, 1, units);
+            countOwn(profile, day, type, 1, 0, units, 0);
+            if (time > 0) {
+                SqlStatement events = statement(EVENT_QUERY);
+                events.bindLong(1, time);
+                events.bindLong(2, day);
+                events.bindLong(3, profile);
+                events.bindLong(4, type);
+                events.bindLong(5, units);
+                events.executeInsert();
+            }
+            return true;
+        }
+        SqlStatement statement = statement(DECREMENT_QUERY);
+        statement.bindLong(1, units);
+        statement.bindLong(2, profile);
+        statement.bindLong(3, day);
+        if (statement.executeUpdateDelete() == 0) {
+            return false;
+        }
+        SqlStatement typeStatement = statement(TYPE_DECREMENT_QUERY);
+        typeStatement.bindLong(1, units);
+        typeStatement.bindLong(2, profile);
+        typeStatement.bindLong(3, day);
+        typeStatement.bindLong(4, type);
+        typeStatement.executeUpdateDelete();
+        countOwn(profile, day, type, 0, 1, 0, units);
+        if (time > 0) {
+            SqlStatement dropEvent = statement(MATCH_EVENT_QUERY);
+            dropEvent.bindLong(1, day);
+            dropEvent.bindLong(2, profile);
+            dropEvent.bindLong(3, time);
+            dropEvent.executeUpdateDelete();
+        }
+        return true;
+    }
+
+    /**
+     * Writes a journal entry into its ring slot, replacing whatever entry
+     * JOURNAL_SIZE operations older held it. Callers are expected to hold
+     * a transaction on the statement database.
+     *
+     * @param profile the profile_id of the operation
+     * @param seq     the entry's sequence number, one past the last
+     * @param op      JOURNAL_ADD or JOURNAL_REMOVE
+     * @param time    the drink's event time, 0 if it has no event
+     * @param day     the DayKeys key of the drink's day
+     * @param type    the drink's BeverageType id
+     * @param units   the drink's weight in BeverageType units
+     */
+    private void writeJournal(int profile, long seq, int op, long time,
+                              int day, int type, int units) {
+        SqlStatement journalStatement = statement(JOURNAL_QUERY);
+        journalStatement.bindLong(1, profile);
+        journalStatement.bindLong(2, seq % JOURNAL_SIZE);
+        journalStatement.bindLong(3, seq);
+        journalStatement.bindLong(4, op);
+        journalStatement.bindLong(5, time);
+        journalStatement.bindLong(6, day);
+        journalStatement.bindLong(7, type);
+        journalStatement.bindLong(8, units);
+        journalStatement.executeInsert();
+    }
+
+    /**
+     * Drops the undone entries after head, which a new operation makes
+     * impossible to redo. Touches at most JOURNAL_SIZE rows, and only
+     * runs after an undo. Callers are expected to hold a transaction on
+     * the statement database.
+     *
+     * @param profile the profile_id whose journal to trim
+     * @param head    the sequence number of the last applied entry
+     */
+    private void discardRedo(int profile, long head) {
+        SqlStatement statement = statement(DISCARD_REDO_QUERY);
+        statement.bindLong(1, profile);
+        statement.bindLong(2, head);
+        statement.executeUpdateDelete();
+    }
+
+    /**
+     * Returns a limit state moved by delta drinks logged or removed on
+     * day, for whichever of today and this week day falls in.
+     *
+     * @param status the limit state before the change
+     * @param today  the DayKeys key of today
+     * @param day    the DayKeys key of the changed day
+     * @param delta  the number of drinks added, negative if removed
+     * @return       the limit state after the change
+     */
+    private static LimitStatus shiftLimits(LimitStatus status, int today,
+                                           int day, int delta) {
+        if (!status.isEnabled()) {
+            return status;
+        }
+        int daily = status.getDailyCount() + (day == today ? delta : 0);
+        int weekly = status.getWeeklyCount() +
+                (day <= today && day > today - 7 ? delta : 0);
+        return status.withCounts(daily, weekly);
+    }
+
+    /**
+     * Creates sync_state, holding this device's new random id, and
+     * sync_counters with the index on each device's versions.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createSyncTables(SqlDatabase db) {
+        String createState = "CREATE TABLE IF NOT EXISTS " + SYNC_STATE_TABLE +
+                " (" + DEVICE_ID_COLUMN + " TEXT NOT NULL, " +
+                CLOCK_COLUMN + " INTEGER NOT NULL);";
+        String seedState = "INSERT INTO " + SYNC_STATE_TABLE + " VALUES " +
+                "(lower(hex(randomblob(16))), 0);";
+        String createCounters = "CREATE TABLE IF NOT EXISTS " +
+                COUNTERS_TABLE + " (" + PROFILE_ID_COLUMN +
+                " INTEGER NOT NULL, " +
+                DEVICE_ID_COLUMN + " TEXT NOT NULL, " +
+                LOG_DATE_COLUMN + " INTEGER NOT NULL, " +
+                TYPE_COLUMN + " INTEGER NOT NULL, " +
+                ADDED_COLUMN + " INTEGER NOT NULL, " +
+                REMOVED_COLUMN + " INTEGER NOT NULL, " +
+                ADDED_UNITS_COLUMN + " INTEGER NOT NULL, " +
+                REMOVED_UNITS_COLUMN + " INTEGER NOT NULL, " +
+                VERSION_COLUMN + " INTEGER NOT NULL, PRIMARY KEY (" +
+                PROFILE_ID_COLUMN + ", " + DEVICE_ID_COLUMN + ", " +
+                LOG_DATE_COLUMN + ", " + TYPE_COLUMN + "));";
+        String createIndex = "CREATE INDEX IF NOT EXISTS " +
+                COUNTERS_VERSION_INDEX + " ON " + COUNTERS_TABLE + " (" +
+                PROFILE_ID_COLUMN + ", " + DEVICE_ID_COLUMN + ", " +
+                VERSION_COLUMN + ");";
+
+        db.execSQL(createState);
+        db.execSQL(seedState);
+        db.execSQL(createCounters);
+        db.execSQL(createIndex);
+    }
+
+    /**
+     * Returns the next version to stamp on one of this device's counters.
+     * The clock starts past both the stored floor and every version
+     * already stamped, so a version is never reused, even after the
+     * counters holding it are gone. Callers hold the lock on this.
+     *
+     * @return a version higher than any this device has used
+     */
+    private long nextSyncVersion() {
+        if (syncClock < 0) {
+            syncClock = statement(SYNC_CLOCK_QUERY).simpleQueryForLong();
+        }
+        return ++syncClock;
+    }
+
+    /**
+     * Adds to this device's counter for one day and type and stamps it
+     * with the next version. The counter row usually exists already, so
+     * this is normally one keyed UPDATE. Callers are expected to hold a
+     * transaction on the statement database.
+     *
+     * @param profile      the profile_id of the day
+     * @param day          the DayKeys key of the day
+     * @param type         the BeverageType id
+     * @param added        drinks added
+     * @param removed      drinks removed
+     * @param addedUnits   units added
+     * @param removedUnits units removed
+     */
+    private void countOwn(int profile, int day, int type, int added,
+                          int removed, int addedUnits, int removedUnits) {
+        String device = getDeviceId();
+        long version = nextSyncVersion();
+        SqlStatement counterUpdateStatement =
+                statement(COUNTER_UPDATE_QUERY);
+        counterUpdateStatement.bindLong(1, added);
+        counterUpdateStatement.bindLong(2, removed);
+        counterUpdateStatement.bindLong(3, addedUnits);
+        counterUpdateStatement.bindLong(4, removedUnits);
+        counterUpdateStatement.bindLong(5, version);
+        counterUpdateStatement.bindLong(6, profile);
+        counterUpdateStatement.bindString(7, device);
+        counterUpdateStatement.bindLong(8, day);
+        counterUpdateStatement.bindLong(9, type);
+        if (counterUpdateStatement.executeUpdateDelete() == 0) {
+            writeCounter(profile, new SyncCounter(device, day, type, added,
+                    removed, addedUnits, removedUnits, version));
+        }
+    }
+
+    /**
+     * Writes one counter row whole, replacing any stored copy. Callers
+     * are expected to hold a transaction on the statement database.
+     *
+     * @param profile the profile_id the counter belongs to
+     * @param counter the counter to store
+     */
+    private void writeCounter(int profile, SyncCounter counter) {
+        SqlStatement counterStatement = statement(COUNTER_QUERY);
+        counterStatement.bindLong(1, profile);
+        counterStatement.bindString(2, counter.getDeviceId());
+        counterStatement.bindLong(3, counter.getDay());
+        counterStatement.bindLong(4, counter.getType());
+        counterStatement.bindLong(5, counter.getAdded());
+        counterStatement.bindLong(6, counter.getRemoved());
+        counterStatement.bindLong(7, counter.getAddedUnits());
+        counterStatement.bindLong(8, counter.getRemovedUnits());
+        counterStatement.bindLong(9, counter.getVersion());
+        counterStatement.executeInsert();
+    }
+
+    /**
+     * Creates drink_summary, one row per profile and DaySummary block.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createSummaryTable(SqlDatabase db) {
+        String createSummary = "CREATE TABLE IF NOT EXISTS " + SUMMARY_TABLE +
+                " (" + PROFILE_ID_COLUMN + " INTEGER NOT NULL, " +
+                BLOCK_COLUMN + " INTEGER NOT NULL, " +
+                DAY_COUNTS_COLUMN + " BLOB NOT NULL, PRIMARY KEY (" +
+                PROFILE_ID_COLUMN + ", " + BLOCK_COLUMN + "));";
+
+        db.execSQL(createSummary);
+    }
+
+    /**
+     * Creates drink_events and the index on its log_date, which serves
+     * both recent-window reads and compaction.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void createEventsTable(SqlDatabase db) {
+        String createEvents = "CREATE TABLE IF NOT EXISTS " + EVENTS_TABLE +
+                " (" + EVENTS_TIME_COLUMN + " INTEGER NOT NULL, " +
+                LOG_DATE_COLUMN + " INTEGER NOT NULL, " +
+                PROFILE_ID_COLUMN + " INTEGER NOT NULL, " +
+                TYPE_COLUMN + " INTEGER NOT NULL, " +
+                UNITS_COLUMN + " INTEGER NOT NULL);";
+        String createIndex = "CREATE INDEX IF NOT EXISTS " +
+                EVENTS_DATE_INDEX + " ON " + EVENTS_TABLE + " (" +
+                LOG_DATE_COLUMN + ");";
+
+        db.execSQL(createEvents);
+        db.execSQL(createIndex);
+    }
+
+    /**
+     * Adds a run of same-day drinks to drink_log and, type by type, to
+     * drink_type_log and this device's sync counters, then zeroes the per-type sums for the next run.
+     * Callers are expected to hold a transaction on the statement
+     * database.
+     *
+     * @param profile the profile_id of the day
+     * @param day     the DayKeys key of the day
+     * @param counts  drinks per type id, zeroed on return
+     * @param units   units per type id, zeroed on return
+     */
+    private void addRun(int profile, int day, int[] counts, int[] units) {
+        int dayCount = 0;
+        int dayUnits = 0;
+        for (int type = 0; type < counts.length; type++) {
+            if (counts[type] == 0) {
+                continue;
+            }
+            addToType(profile, day, type, counts[type], units[type]);
+            countOwn(profile, day, type, counts[type], 0, units[type], 0);
+            dayCount += counts[type];
+            dayUnits += units[type];
+            counts[type] = 0;
+            units[type] = 0;
+        }
+        if (dayCount > 0) {
+            addToDay(profile, day, dayCount, dayUnits);
+        }
+    }
+
+    /**
+     * Adds count and units to one day's drink_log row, creating the row
+     * on the day's first drink. The day's row usually exists already, so
+     * this is normally one keyed UPDATE; the drink_log triggers carry the
+     * change into meta_totals and drink_summary. Callers are expected to
+     * hold a transaction on the statement database.
+     *
+     * @param profile the profile_id of the day
+     * @param day     the DayKeys key of the day
+     * @param count   the number of drinks to add
+     * @param units   their combined weight in BeverageType units
+     */
+    private void addToDay(int profile, int day, int count, int units) {
+        SqlStatement statement = statement(INCREMENT_QUERY);
+        statement.bindLong(1, count);
+        statement.bindLong(2, units);
+        statement.bindLong(3, profile);
+        statement.bindLong(4, day);
+        if (statement.executeUpdateDelete() == 0) {
+            SqlStatement insertDay = statement(INSERT_DAY_QUERY);
+            insertDay.bindLong(1, profile);
+            insertDay.bindLong(2, day);
+            insertDay.bindLong(3, count);
+            insertDay.bindLong(4, units);
+            insertDay.executeInsert();
+        }
+    }
+
+    /**
+     * Adds count and units to one day's drink_type_log row for a type.
+     * Callers are expected to hold a transaction on the statement
+     * database.
+     *
+     * @param profile the profile_id of the day
+     * @param day     the DayKeys key of the day
+     * @param type    the BeverageType id
+     * @param count   the number of drinks to add
+     * @param units   their combined weight in BeverageType units
+     */
+    private void addToType(int profile, int day, int type, int count,
+                           int units) {
+        SqlStatement statement = statement(TYPE_INCREMENT_QUERY);
+        statement.bindLong(1, profile);
+        statement.bindLong(2, day);
+        statement.bindLong(3, type);
+        statement.bindLong(4, count);
+        statement.bindLong(5, profile);
+        statement.bindLong(6, day);
+        statement.bindLong(7, type);
+        statement.bindLong(8, units);
+        statement.bindLong(9, profile);
+        statement.bindLong(10, day);
+        statement.bindLong(11, type);
+        statement.executeInsert();
+    }
+
+    /**
+     * Rewrites meta_totals from a full scan of drink_log. Only used on
+     * upgrade and by checkTotals(); otherwise the drink_log triggers keep
+     * it current row by row.
+     *
+     * @param db a writable instance of the DrinkTracker database
+     */
+    private void rebuildTotals(SqlDatabase db) {
+        /*
+         * UPDATE meta_totals
+         *   SET total_drinks = (SELECT COALESCE(SUM(drink_count), 0)
+         *     FROM drink_log
+         *     WHERE drink_log.profile_id = meta_totals.profile_id),
+         *   total_units = (SELECT COALESCE(SUM(drink_units), 0)
+         *     FROM drink_log
+         *     WHERE drink_log.profile_id = meta_totals.profile_id);
+         */
+        String sameProfile = LOG_TABLE + "." + PROFILE_ID_COLUMN + " = " +
+                TOTALS_TABLE + "." + PROFILE_ID_COLUMN;
+        String rebuildQuery = "UPDATE " + TOTALS_TABLE + " SET " +
+                TOTALS_DRINKS_COLUMN + " = (SELECT COALESCE(SUM(" +
+                LOG_COUNT_COLUMN + "), 0) FROM " + LOG_TABLE + " WHERE " +
+                sameProfile + "), " + TOTALS_UNITS_COLUMN +
+                " = (SELECT COALESCE(SUM(" + UNITS_COLUMN + "), 0) FROM " +
+                LOG_TABLE + " WHERE " + sameProfile + ")";
+
+        db.execSQL(rebuildQuery);
+    }
+
+    /**
+     * Gets the writable database. If it is not the connection the cached
+     * statements were compiled against, the stale statements are dropped
+     * so they get recompiled on next use.
+     *
+     * @return a writable instance of the DrinkTracker database
+     */
+    private SqlDatabase getStatementDatabase() {
+        SqlDatabase db = getWritableDatabase();
+        if (statements == null || statements.getDatabase() != db) {
+            releaseStatements();
+            statements = new StatementCache(db, DbMetrics.getInstance());
+        }
+        return db;
+    }
+
+    /**
+     * Returns the compiled statement for query on the current writable
+     * connection, compiling it on first use. Callers hold the lock on
+     * this and bind every parameter before running it.
+     *
+     * @param query one of the _QUERY constants
+     * @return      the compiled statement
+     */
+    private SqlStatement statement(Query query) {
+        getStatementDatabase();
+        return statements.get(query);
+    }
+
+    /**
+     * Closes and forgets all precompiled statements.
+     */
+    private synchronized void releaseStatements() {
+        if (statements != null) {
+            statements.close();
+            statements = null;
+        }
+    }
+
+    /**
+     * Defines the statement that deletes one profile's rows from table.
+     */
+    private static Query clearQuery(String table) {
+        return new Query("clear " + table, "DELETE FROM " + table +
+                " WHERE " + PROFILE_ID_COLUMN + " = ?");
+    }
+
+    /**
+     * Bumps the stats version, marks the profile as written at it and
+     * tells the listeners. Called by every write path after its
+     * transaction ends, with the lock on this held.
+     *
+     * @param profile the profile_id that was written
+     */
+    private void statsChanged(int profile) {
+        long version = ++statsVersion;
+        writeVersions.put(profile, version);
+        cachedStats.remove(profile);
+        notifyListeners(version);
+    }
+
+    /**
+     * Like statsChanged(), for a write that touched every profile.
+     */
+    private void allStatsChanged() {
+        long version = ++statsVersion;
+        for (Profile profile : getProfiles()) {
+            writeVersions.put(profile.getId(), version);
+        }
+        cachedStats.clear();
+        notifyListeners(version);
+    }
+
+    private void notifyListeners(long version) {
+        for (StatsListener listener : statsListeners) {
+            listener.onStatsChanged(version);
+        }
+    }
+
+    /**
+     * Gets the key for today's date, as stored in drink_log.log_date. The
+     * key is cached by DayKeys until local midnight.
+     *
+     * @return today's DayKeys key
+     */
+    private int getToday() {
+        return DayKeys.today();
+    }
+
+    /**
+     * Queries database, returns the active profile's
+     * meta_data.created_date.
+     *
+     * @return the DayKeys key of the creation date, today if unreadable
+     */
+    @Override
+    public int getCreatedDay() {
+        // Get cursor, under the read lock
+        Cursor cursor = readQuery(CREATED_DAY_QUERY, getActiveProfile());
+        int result = getToday();
+        try {
+            if (cursor.moveToFirst()) {
+                result = cursor.getInt(0);
+            }
+        } catch(Exception oops) {
+            // Log.d(TAG, "getCreatedDay: Unexpected error.");
+            DbMetrics.getInstance().recordError(DbMetrics.OP_CREATED_DAY);
+        } finally {
+            closeRead(cursor);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the key for the date 6 days before today, the start of the
+     * rolling week.
+     *
+     * @return the DayKeys key for 6 days ago
+     */
+    private int getOneWeekAgo() {
+        return DayKeys.today() - 6;
+    }
+
+    /**
+     * A profile's position in drink_journal: the sequence numbers of the
+     * last applied entry and of the last entry written.
+     */
+    private static final class JournalCursor {
+        long head;
+        long top;
+
+        boolean canUndo() {
+            return head > 0 && head > top - JOURNAL_SIZE;
+        }
+
+        boolean canRedo() {
+            return head < top;
+        }
+    }
+
+    /**
+     * A dashboard snapshot with the version and day it was read at.
+     */
+    private static final class CachedStats {
+        final long version;
+        final int day;
+        final DashboardStats stats;
+
+        CachedStats(long version, int day, DashboardStats stats) {
+            this.version = version;
+            this.day = day;
+            this.stats = stats;
         }
-        // Log.d(TAG, "getElapsedWeeks: Returning " + result);
-        return result;
     }
 }
@@ -0,0 +1,336 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.Locale;
+
+/**
+ * Use: Call counts, error counts and latency histograms for each storage
+ *      operation. Everything lives in flat primitive arrays sized up
+ *      front, indexed by operation and bucket, so recording a sample never
+ *      allocates. Samples slower than SLOW_QUERY_MS are also kept in a
+ *      small ring for the dump. Filled in by MeteredStore, plus DbHelper's
+ *      catch blocks for the errors it swallows and its maintenance
+ *      passes, and StatementCache's hits and misses. Has no Android
+ *      dependencies.
+ * Access points: record() - adds one timed call
+ *                recordError() - counts one failed call
+ *                recordMaintenance() - adds one maintenance pass
+ *                recordStatement() - counts one statement cache lookup
+ *                dump() - returns a plain-text report of everything
+ *                reset() - zeroes all counters
+ */
+public final class DbMetrics {
+    // Operations, in report order
+    public static final int OP_OPEN = 0;
+    public static final int OP_LOG_DRINKS = 1;
+    public static final int OP_DECREMENT = 2;
+    public static final int OP_CLEAR = 3;
+    public static final int OP_DASHBOARD = 4;
+    public static final int OP_DAILY_COUNTS = 5;
+    public static final int OP_HOURLY_COUNTS = 6;
+    public static final int OP_ROLLING_STATS = 7;
+    public static final int OP_COMPACT = 8;
+    public static final int OP_CHECK_TOTALS = 9;
+    public static final int OP_CREATED_DAY = 10;
+    public static final int OP_VISIT_DAYS = 11;
+    public static final int OP_RESTORE = 12;
+    public static final int OP_PROFILES = 13;
+    public static final int OP_TYPE_TOTALS = 14;
+    public static final int OP_LIMITS = 15;
+    public static final int OP_UNDO = 16;
+    public static final int OP_REDO = 17;
+    public static final int OP_STORAGE_MODE = 18;
+    public static final int OP_SYNC = 19;
+    public static final int OP_MAINTENANCE = 20;
+    public static final int OP_DAY_SUMMARY = 21;
+    static final String[] OP_NAMES = {"open", "logDrinks", "decrementCount",
+            "clearData", "getDashboardStats", "getDailyCounts",
+            "getHourlyCounts", "getRollingStats", "compactEvents",
+            "checkTotals", "getCreatedDay", "visitDays", "restore",
+            "profiles", "getTypeTotals", "limits", "undo", "redo",
+            "setEncrypted", "sync", "maintenance", "getDaySummary"};
+    static final int OP_COUNT = OP_NAMES.length;
+    // Upper bounds of the latency buckets in microseconds; one more
+    // bucket catches everything slower
+    static final long[] BUCKET_BOUNDS_US = {100, 250, 500, 1000, 2500, 5000,
+            10000, 25000, 50000, 100000, 250000, 500000};
+    static final int BUCKETS = BUCKET_BOUNDS_US.length + 1;
+    // Calls at or above this are logged as slow
+    public static final long SLOW_QUERY_MS = 50;
+    // Slow calls remembered for the dump
+    static final int SLOW_LOG_SIZE = 16;
+    // Samples timed when measuring the cost of record()
+    private static final int OVERHEAD_SAMPLES = 10000;
+    // Singleton metrics
+    private static DbMetrics INSTANCE;
+
+    // All guarded by this
+    private final long[] calls = new long[OP_COUNT];
+    private final long[] errors = new long[OP_COUNT];
+    private final long[] totalNanos = new long[OP_COUNT];
+    private final long[] maxNanos = new long[OP_COUNT];
+    private final long[] histogram = new long[OP_COUNT * BUCKETS];
+    private final int[] slowOps = new int[SLOW_LOG_SIZE];
+    private final long[] slowNanos = new long[SLOW_LOG_SIZE];
+    private final long[] slowTimes = new long[SLOW_LOG_SIZE];
+    private long slowCount = 0;
+    private long maintenanceRuns = 0;
+    private long reclaimedBytes = 0;
+    private long integrityFailures = 0;
+    private MaintenanceReport lastMaintenance;
+    private long lastMaintenanceTime = 0;
+    private long statementHits = 0;
+    private long statementMisses = 0;
+
+    /**
+     * Returns the process-wide metrics.
+     *
+     * @return the single instance of the metrics
+     */
+    public static synchronized DbMetrics getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new DbMetrics();
+        }
+        return INSTANCE;
+    }
+
+    DbMetrics() {
+    }
+
+    /**
+     * Adds one call of op that started at startNanos and ended now.
+     *
+     * @param op         one of the OP_ constants
+     * @param startNanos System.nanoTime() when the call started
+     */
+    public void record(int op, long startNanos) {
+        recordNanos(op, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds one call of op that took nanos.
+     *
+     * @param op    one of the OP_ constants
+     * @param nanos the call's duration
+     */
+    void recordNanos(int op, long nanos) {
+        int bucket = bucketOf(nanos / 1000);
+        synchronized (this) {
+            calls[op]++;
+            totalNanos[op] += nanos;
+            if (nanos > maxNanos[op]) {
+                maxNanos[op] = nanos;
+            }
+            histogram[op * BUCKETS + bucket]++;
+            if (nanos >= SLOW_QUERY_MS * 1000000L) {
+                int slot = (int) (slowCount % SLOW_LOG_SIZE);
+                slowOps[slot] = op;
+                slowNanos[slot] = nanos;
+                slowTimes[slot] = System.currentTimeMillis();
+                slowCount++;
+            }
+        }
+    }
+
+    /**
+     * Counts one failed call of op, whether or not it was timed.
+     *
+     * @param op one of the OP_ constants
+     */
+    public synchronized void recordError(int op) {
+        errors[op]++;
+    }
+
+    /**
+     * Adds one maintenance pass: its duration and the bytes it reclaimed
+     * towards the totals, and a failed integrity check to the failures.
+     *
+     * @param report the outcome of the pass
+     */
+    public synchronized void recordMaintenance(MaintenanceReport report) {
+        maintenanceRuns++;
+        reclaimedBytes += report.getReclaimedBytes();
+        if (!report.isIntegrityOk()) {
+            integrityFailures++;
+        }
+        lastMaintenance = report;
+        lastMaintenanceTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Counts one StatementCache lookup.
+     *
+     * @param hit whether the statement was already compiled
+     */
+    public synchronized void recordStatement(boolean hit) {
+        if (hit) {
+            statementHits++;
+        } else {
+            statementMisses++;
+        }
+    }
+
+    /**
+     * Returns the share of statement lookups that found the statement
+     * already compiled.
+     *
+     * @return the hit rate from 0 to 1, 0 if nothing was looked up
+     */
+    public synchronized double getStatementHitRate() {
+        long lookups = statementHits + statementMisses;
+        return lookups == 0 ? 0 : (double) statementHits / lookups;
+    }
+
+    /**
+     * Returns the number of calls recorded for op.
+     *
+     * @param op one of the OP_ constants
+     * @return   the call count
+     */
+    public synchronized long getCalls(int op) {
+        return calls[op];
+    }
+
+    /**
+     * Returns the number of errors recorded for op.
+     *
+     * @param op one of the OP_ constants
+     * @return   the error count
+     */
+    public synchronized long getErrors(int op) {
+        return errors[op];
+    }
+
+    /**
+     * Zeroes every counter.
+     */
+    public synchronized void reset() {
+        for (int op = 0; op < OP_COUNT; op++) {
+            calls[op] = 0;
+            errors[op] = 0;
+            totalNanos[op] = 0;
+            maxNanos[op] = 0;
+        }
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = 0;
+        }
+        slowCount = 0;
+        maintenanceRuns = 0;
+        reclaimedBytes = 0;
+        integrityFailures = 0;
+        lastMaintenance = null;
+        lastMaintenanceTime = 0;
+        statementHits = 0;
+        statementMisses = 0;
+    }
+
+    /**
+     * Returns a plain-text report: per operation, the call and error
+     * counts, mean and max latency and bucketed percentiles; then the
+     * recent slow calls, the maintenance passes, the statement cache's
+     * hit rate, and the measured cost of recording a sample.
+     * Meant for the bug report email or a debug screen.
+     *
+     * @return the report
+     */
+    public String dump() {
+        long overhead = measureOverheadNanos();
+        StringBuilder out = new StringBuilder();
+        synchronized (this) {
+            out.append("op calls errors mean_us max_us p50_us p95_us p99_us\n");
+            for (int op = 0; op < OP_COUNT; op++) {
+                if (calls[op] == 0 && errors[op] == 0) {
+                    continue;
+                }
+                long mean = calls[op] == 0 ? 0 : totalNanos[op] / calls[op] / 1000;
+                out.append(String.format(Locale.US,
+                        "%s %d %d %d %d %s %s %s\n", OP_NAMES[op], calls[op],
+                        errors[op], mean, maxNanos[op] / 1000,
+                        percentile(op, 0.50), percentile(op, 0.95),
+                        percentile(op, 0.99)));
+            }
+            long kept = Math.min(slowCount, SLOW_LOG_SIZE);
+            out.append("slow calls (>= ").append(SLOW_QUERY_MS)
+                    .append(" ms): ").append(slowCount).append('\n');
+            for (long i = slowCount - kept; i < slowCount; i++) {
+                int slot = (int) (i % SLOW_LOG_SIZE);
+                out.append(String.format(Locale.US, "  %tF %<tT %s %d ms\n",
+                        slowTimes[slot], OP_NAMES[slowOps[slot]],
+                        slowNanos[slot] / 1000000));
+            }
+            out.append(String.format(Locale.US, "maintenance: %d runs, " +
+                    "%d bytes reclaimed, %d integrity failures\n",
+                    maintenanceRuns, reclaimedBytes, integrityFailures));
+            if (lastMaintenance != null) {
+                out.append(String.format(Locale.US,
+                        "  last %tF %<tT %d ms %d bytes%s%s\n",
+                        lastMaintenanceTime,
+                        lastMaintenance.getDurationNanos() / 1000000,
+                        lastMaintenance.getReclaimedBytes(),
+                        lastMaintenance.isIntegrityOk() ?
+                                "" : " integrity FAILED",
+                        lastMaintenance.isCompleted() ? "" : " incomplete"));
+            }
+            out.append(String.format(Locale.US, "statement cache: %d hits, " +
+                    "%d misses, %.1f%% hit rate\n", statementHits,
+                    statementMisses, 100 * getStatementHitRate()));
+        }
+        out.append("recording overhead: ").append(overhead)
+                .append(" ns/sample\n");
+        return out.toString();
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given fraction of
+     * op's calls, as text; "+" marks the open-ended last bucket, and
+     * "-" an operation with no calls.
+     */
+    synchronized String percentile(int op, double fraction) {
+        long target = (long) Math.ceil(calls[op] * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[op * BUCKETS + bucket];
+            if (seen >= target && seen > 0) {
+                return bucket < BUCKET_BOUNDS_US.length ?
+                        String.valueOf(BUCKET_BOUNDS_US[bucket]) :
+                        BUCKET_BOUNDS_US[BUCKET_BOUNDS_US.length - 1] + "+";
+            }
+        }
+        return "-";
+    }
+
+    /**
+     * Times OVERHEAD_SAMPLES calls of record() on a scratch instance, so
+     * the dump shows what metering each call costs on this device.
+     *
+     * @return the mean cost of one sample in nanoseconds
+     */
+    static long measureOverheadNanos() {
+        DbMetrics scratch = new DbMetrics();
+        long start = System.nanoTime();
+        for (int i = 0; i < OVERHEAD_SAMPLES; i++) {
+            scratch.record(OP_DASHBOARD, System.nanoTime());
+        }
+        return (System.nanoTime() - start) / OVERHEAD_SAMPLES;
+    }
+
+    /**
+     * Returns the histogram bucket for a latency: the first whose upper
+     * bound is above it, or the last, open-ended one.
+     */
+    static int bucketOf(long micros) {
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_US.length; bucket++) {
+            if (micros < BUCKET_BOUNDS_US[bucket]) {
+                return bucket;
+            }
+        }
+        return BUCKET_BOUNDS_US.length;
+    }
+}
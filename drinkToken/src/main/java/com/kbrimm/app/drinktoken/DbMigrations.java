@@ -0,0 +1,738 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Use: The ordered list of schema migrations, and the runner DbHelper
+ *      calls from onUpgrade(). Each step is written against the schema as
+ *      it was at that version, so steps never change once shipped; a new
+ *      schema change means a new step at the end of STEPS and a bump of
+ *      DbHelper.DATABASE_VERSION.
+ * Access points: migrate() - runs every step between two versions
+ *                copyDatabase() - copies everything into an attached
+ *                    database, a chunk at a time
+ */
+public final class DbMigrations {
+    // Rows copied per statement when rebuilding a table
+    static final int CHUNK_SIZE = 1000;
+    // julianday('1970-01-01'), for converting text dates to day keys
+    static final String UNIX_EPOCH_JULIAN_DAY = "2440587.5";
+
+    private static final Migration[] STEPS = {
+            new MergeDuplicateDays(),
+            new AddTotalsTable(),
+            new IntegerDayKeys(),
+            new AddDrinkEvents(),
+            new AddProfiles(),
+            new AddBeverageTypes(),
+            new AddLimits(),
+            new AddJournal(),
+            new AddSync(),
+            new AddSummary(),
+            new AddLogTriggers()
+    };
+
+    private DbMigrations() {
+    }
+
+    /**
+     * Runs every step after oldVersion up to and including newVersion, in
+     * order. The caller owns the transaction.
+     *
+     * @param db         a writable instance of the DrinkTracker database
+     * @param oldVersion the version found on disk
+     * @param newVersion the version being upgraded to
+     * @param listener   receives progress for large tables, may be null
+     */
+    public static void migrate(SqlDatabase db, int oldVersion,
+                               int newVersion,
+                               Migration.ProgressListener listener) {
+        int version = oldVersion;
+        for (Migration step : STEPS) {
+            if (step.getVersion() > oldVersion &&
+                    step.getVersion() <= newVersion) {
+                step.migrate(db, listener);
+                version = step.getVersion();
+            }
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration path from " +
+                    oldVersion + " to " + newVersion);
+        }
+    }
+
+    /**
+     * Copies the whole database into an empty database attached as
+     * schema, for DbHelper.setEncrypted(). Tables are recreated from
+     * their stored CREATE statements and filled CHUNK_SIZE rowids at a
+     * time, so memory use does not grow with the history; indexes and
+     * triggers are created after the rows are in, so drink_log's triggers
+     * do not add the copied rows to the copied totals a second time, and
+     * the schema version goes last.
+     * Runs in one transaction, so a failure leaves the copy empty.
+     *
+     * @param db       a writable instance of the DrinkTracker database
+     * @param schema   the name the empty database is attached under
+     * @param listener receives progress over all tables, may be null
+     */
+    public static void copyDatabase(SqlDatabase db, String schema,
+                                    Migration.ProgressListener listener) {
+        String schemaQuery = "SELECT type, name, sql FROM main.sqlite_master " +
+                "WHERE sql IS NOT NULL AND name NOT LIKE 'sqlite_%'";
+        List<String> tables = new ArrayList<String>();
+        List<String> tableCreates = new ArrayList<String>();
+        List<String> indexCreates = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(schemaQuery, null);
+        try {
+            while (cursor.moveToNext()) {
+                // CREATE [UNIQUE] TABLE|INDEX|TRIGGER [IF NOT EXISTS]
+                // schema.name; a trigger's body then works on the tables
+                // of its own schema
+                String create = cursor.getString(2).replaceFirst(
+                        "(?i)^(CREATE\\s+(UNIQUE\\s+)?" +
+                        "(TABLE|INDEX|TRIGGER)\\s+" +
+                        "(IF\\s+NOT\\s+EXISTS\\s+)?)", "$1" + schema + ".");
+                if ("table".equals(cursor.getString(0))) {
+                    tables.add(cursor.getString(1));
+                    tableCreates.add(create);
+                } else {
+                    // Indexes and triggers
+                    indexCreates.add(create);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long total = 0;
+        for (String table : tables) {
+            total += countRows(db, table);
+        }
+        // Only takes effect while the copy is empty
+        db.rawExecSQL("PRAGMA " + schema + ".auto_vacuum = INCREMENTAL");
+        db.beginTransaction();
+        try {
+            for (String create : tableCreates) {
+                db.execSQL(create);
+            }
+            long done = 0;
+            for (String table : tables) {
+                long lowRowid = db.longForQuery(
+                        "SELECT COALESCE(MIN(rowid), 0) - 1 FROM main." + table,
+                        null);
+                long highRowid = db.longForQuery(
+                        "SELECT COALESCE(MAX(rowid), 0) FROM main." + table,
+                        null);
+                SqlStatement copy = db.compileStatement("INSERT INTO " +
+                        schema + "." + table + " SELECT * FROM main." + table +
+                        " WHERE rowid > ? AND rowid <= ?");
+                try {
+                    for (long low = lowRowid; low < highRowid;
+                         low += CHUNK_SIZE) {
+                        copy.bindLong(1, low);
+                        copy.bindLong(2, low + CHUNK_SIZE);
+                        done += copy.executeUpdateDelete();
+                        if (listener != null) {
+                            listener.onProgress(DbHelper.DATABASE_VERSION,
+                                    done, total);
+                        }
+                    }
+                } finally {
+                    copy.close();
+                }
+            }
+            for (String create : indexCreates) {
+                db.execSQL(create);
+            }
+            db.execSQL("PRAGMA " + schema + ".user_version = " +
+                    db.getVersion());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the number of rows in table, for progress totals.
+     */
+    private static long countRows(SqlDatabase db, String table) {
+        return db.longForQuery("SELECT COUNT(*) FROM " + table, null);
+    }
+
+    /**
+     * Version 2: merges duplicate drink_log rows for the same day (left
+     * behind by the old select-then-insert race) and adds the unique
+     * index on drink_log.log_date.
+     */
+    private static final class MergeDuplicateDays extends Migration {
+        MergeDuplicateDays() {
+            super(2);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            /*
+             * UPDATE drink_log
+             *   SET drink_count = (SELECT SUM(drink_count) FROM drink_log d
+             *     WHERE d.log_date = drink_log.log_date)
+             *   WHERE rowid IN (SELECT MIN(rowid) FROM drink_log
+             *     GROUP BY log_date);
+             */
+            String mergeQuery = "UPDATE drink_log SET drink_count = " +
+                    "(SELECT SUM(d.drink_count) FROM drink_log d " +
+                    "WHERE d.log_date = drink_log.log_date) WHERE rowid IN " +
+                    "(SELECT MIN(rowid) FROM drink_log GROUP BY log_date)";
+            /*
+             * DELETE FROM drink_log
+             *   WHERE rowid NOT IN (SELECT MIN(rowid) FROM drink_log
+             *     GROUP BY log_date);
+             */
+            String dropQuery = "DELETE FROM drink_log WHERE rowid NOT IN " +
+                    "(SELECT MIN(rowid) FROM drink_log GROUP BY log_date)";
+            String createIndex = "CREATE UNIQUE INDEX IF NOT EXISTS " +
+                    "drink_log_date_index ON drink_log (log_date)";
+
+            db.execSQL(mergeQuery);
+            db.execSQL(dropQuery);
+            db.execSQL(createIndex);
+        }
+    }
+
+    /**
+     * Version 3: adds meta_totals, seeded from the existing drink_log.
+     */
+    private static final class AddTotalsTable extends Migration {
+        AddTotalsTable() {
+            super(3);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createTotals = "CREATE TABLE IF NOT EXISTS meta_totals " +
+                    "(total_drinks INTEGER NOT NULL)";
+            String seedTotals = "INSERT INTO meta_totals SELECT " +
+                    "COALESCE(SUM(drink_count), 0) FROM drink_log";
+
+            db.execSQL(createTotals);
+            db.execSQL(seedTotals);
+        }
+    }
+
+    /**
+     * Version 4: stores days as DayKeys integers. drink_log is rebuilt
+     * with log_date as its INTEGER PRIMARY KEY, so day lookups and ranges
+     * walk the table's own b-tree instead of a separate index, and
+     * meta_data.created_date becomes a key too. drink_log is copied in
+     * rowid chunks so progress can be reported on long histories.
+     */
+    private static final class IntegerDayKeys extends Migration {
+        IntegerDayKeys() {
+            super(4);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createLog = "CREATE TABLE drink_log_v4 (log_date " +
+                    "INTEGER PRIMARY KEY, drink_count INTEGER NOT NULL)";
+            /*
+             * INSERT INTO drink_log_v4
+             *   SELECT CAST(julianday(log_date) - 2440587.5 AS INTEGER),
+             *     COALESCE(drink_count, 0)
+             *   FROM drink_log
+             *   WHERE rowid > ? AND rowid <= ?
+             *     AND julianday(log_date) IS NOT NULL;
+             */
+            String copyLog = "INSERT INTO drink_log_v4 SELECT " +
+                    "CAST(julianday(log_date) - " + UNIX_EPOCH_JULIAN_DAY +
+                    " AS INTEGER), COALESCE(drink_count, 0) FROM drink_log " +
+                    "WHERE rowid > ? AND rowid <= ? AND " +
+                    "julianday(log_date) IS NOT NULL";
+            String createMeta = "CREATE TABLE meta_data_v4 " +
+                    "(created_date INTEGER NOT NULL)";
+            String copyMeta = "INSERT INTO meta_data_v4 SELECT " +
+                    "CAST(julianday(created_date) - " + UNIX_EPOCH_JULIAN_DAY +
+                    " AS INTEGER) FROM meta_data " +
+                    "WHERE julianday(created_date) IS NOT NULL";
+
+            long total = countRows(db, "drink_log");
+            long maxRowid = db.longForQuery(
+                    "SELECT COALESCE(MAX(rowid), 0) FROM drink_log", null);
+
+            db.execSQL(createLog);
+            SqlStatement copy = db.compileStatement(copyLog);
+            try {
+                long done = 0;
+                for (long low = 0; low < maxRowid; low += CHUNK_SIZE) {
+                    copy.bindLong(1, low);
+                    copy.bindLong(2, low + CHUNK_SIZE);
+                    done += copy.executeUpdateDelete();
+                    if (listener != null) {
+                        listener.onProgress(getVersion(), done, total);
+                    }
+                }
+            } finally {
+                copy.close();
+            }
+            db.execSQL("DROP TABLE drink_log");
+            db.execSQL("ALTER TABLE drink_log_v4 RENAME TO drink_log");
+
+            db.execSQL(createMeta);
+            db.execSQL(copyMeta);
+            db.execSQL("DROP TABLE meta_data");
+            db.execSQL("ALTER TABLE meta_data_v4 RENAME TO meta_data");
+        }
+    }
+
+    /**
+     * Version 5: adds drink_events for per-drink timestamps, indexed by
+     * day. Existing history stays in drink_log only.
+     */
+    private static final class AddDrinkEvents extends Migration {
+        AddDrinkEvents() {
+            super(5);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createEvents = "CREATE TABLE IF NOT EXISTS drink_events " +
+                    "(event_time INTEGER NOT NULL, log_date INTEGER NOT NULL)";
+            String createIndex = "CREATE INDEX IF NOT EXISTS " +
+                    "drink_events_date_index ON drink_events (log_date)";
+
+            db.execSQL(createEvents);
+            db.execSQL(createIndex);
+        }
+    }
+
+    /**
+     * Version 6: partitions everything by profile. meta_data becomes one
+     * row per profile with its name and creation date, meta_totals one
+     * total per profile, and drink_log is rebuilt with a composite
+     * (profile_id, log_date) primary key so each profile's day lookups
+     * and ranges are index seeks. Existing data becomes profile 1,
+     * "Default". drink_log is copied in day-key chunks so progress can be
+     * reported on long histories.
+     */
+    private static final class AddProfiles extends Migration {
+        AddProfiles() {
+            super(6);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createMeta = "CREATE TABLE meta_data_v6 (profile_id " +
+                    "INTEGER PRIMARY KEY, profile_name TEXT NOT NULL, " +
+                    "created_date INTEGER NOT NULL)";
+            /*
+             * INSERT INTO meta_data_v6
+             *   SELECT 1, 'Default', COALESCE(
+             *     (SELECT MIN(created_date) FROM meta_data),
+             *     CAST(julianday('now', 'localtime') - 2440587.5 AS INTEGER));
+             */
+            String copyMeta = "INSERT INTO meta_data_v6 SELECT 1, 'Default', " +
+                    "COALESCE((SELECT MIN(created_date) FROM meta_data), " +
+                    "CAST(julianday('now', 'localtime') - " +
+                    UNIX_EPOCH_JULIAN_DAY + " AS INTEGER))";
+            String createTotals = "CREATE TABLE meta_totals_v6 (profile_id " +
+                    "INTEGER PRIMARY KEY, total_drinks INTEGER NOT NULL)";
+            String copyTotals = "INSERT INTO meta_totals_v6 SELECT 1, " +
+                    "COALESCE((SELECT SUM(drink_count) FROM drink_log), 0)";
+            String createLog = "CREATE TABLE drink_log_v6 (profile_id " +
+                    "INTEGER NOT NULL, log_date INTEGER NOT NULL, " +
+                    "drink_count INTEGER NOT NULL, " +
+                    "PRIMARY KEY (profile_id, log_date))";
+            String copyLog = "INSERT INTO drink_log_v6 SELECT 1, log_date, " +
+                    "drink_count FROM drink_log WHERE log_date > ? AND " +
+                    "log_date <= ?";
+            String alterEvents = "ALTER TABLE drink_events ADD COLUMN " +
+                    "profile_id INTEGER NOT NULL DEFAULT 1";
+
+            db.execSQL(createMeta);
+            db.execSQL(copyMeta);
+            db.execSQL("DROP TABLE meta_data");
+            db.execSQL("ALTER TABLE meta_data_v6 RENAME TO meta_data");
+
+            db.execSQL(createTotals);
+            db.execSQL(copyTotals);
+            db.execSQL("DROP TABLE meta_totals");
+            db.execSQL("ALTER TABLE meta_totals_v6 RENAME TO meta_totals");
+
+            long total = countRows(db, "drink_log");
+            long lowDay = db.longForQuery(
+                    "SELECT COALESCE(MIN(log_date), 0) - 1 FROM drink_log", null);
+            long highDay = db.longForQuery(
+                    "SELECT COALESCE(MAX(log_date), 0) FROM drink_log", null);
+            db.execSQL(createLog);
+            SqlStatement copy = db.compileStatement(copyLog);
+            try {
+                long done = 0;
+                for (long low = lowDay; low < highDay; low += CHUNK_SIZE) {
+                    copy.bindLong(1, low);
+                    copy.bindLong(2, low + CHUNK_SIZE);
+                    done += copy.executeUpdateDelete();
+                    if (listener != null) {
+                        listener.onProgress(getVersion(), done, total);
+                    }
+                }
+            } finally {
+                copy.close();
+            }
+            db.execSQL("DROP TABLE drink_log");
+            db.execSQL("ALTER TABLE drink_log_v6 RENAME TO drink_log");
+
+            db.execSQL(alterEvents);
+        }
+    }
+
+    /**
+     * Version 7: weights drinks by beverage type. drink_events gains each
+     * drink's type_id and drink_units, drink_log and meta_totals gain
+     * unit sums next to their counts, and drink_type_log holds per-type
+     * daily aggregates keyed (profile_id, log_date, type_id). Existing
+     * drinks become type 0, one standard drink each; drink_type_log is
+     * filled from drink_log in day-key chunks so progress can be
+     * reported on long histories.
+     */
+    private static final class AddBeverageTypes extends Migration {
+        AddBeverageTypes() {
+            super(7);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String alterEventsType = "ALTER TABLE drink_events ADD COLUMN " +
+                    "type_id INTEGER NOT NULL DEFAULT 0";
+            String alterEventsUnits = "ALTER TABLE drink_events ADD COLUMN " +
+                    "drink_units INTEGER NOT NULL DEFAULT 100";
+            String alterLog = "ALTER TABLE drink_log ADD COLUMN " +
+                    "drink_units INTEGER NOT NULL DEFAULT 0";
+            String fillLog = "UPDATE drink_log SET drink_units = " +
+                    "drink_count * 100";
+            String alterTotals = "ALTER TABLE meta_totals ADD COLUMN " +
+                    "total_units INTEGER NOT NULL DEFAULT 0";
+            String fillTotals = "UPDATE meta_totals SET total_units = " +
+                    "total_drinks * 100";
+            String createTypeLog = "CREATE TABLE drink_type_log (profile_id " +
+                    "INTEGER NOT NULL, log_date INTEGER NOT NULL, " +
+                    "type_id INTEGER NOT NULL, drink_count INTEGER NOT NULL, " +
+                    "drink_units INTEGER NOT NULL, " +
+                    "PRIMARY KEY (profile_id, log_date, type_id))";
+            String copyTypeLog = "INSERT INTO drink_type_log SELECT " +
+                    "profile_id, log_date, 0, drink_count, drink_units " +
+                    "FROM drink_log WHERE drink_count > 0 AND log_date > ? " +
+                    "AND log_date <= ?";
+
+            db.execSQL(alterEventsType);
+            db.execSQL(alterEventsUnits);
+            db.execSQL(alterLog);
+            db.execSQL(fillLog);
+            db.execSQL(alterTotals);
+            db.execSQL(fillTotals);
+
+            long total = countRows(db, "drink_log");
+            long lowDay = db.longForQuery(
+                    "SELECT COALESCE(MIN(log_date), 0) - 1 FROM drink_log", null);
+            long highDay = db.longForQuery(
+                    "SELECT COALESCE(MAX(log_date), 0) FROM drink_log", null);
+            db.execSQL(createTypeLog);
+            SqlStatement copy = db.compileStatement(copyTypeLog);
+            try {
+                long done = 0;
+                for (long low = lowDay; low < highDay; low += CHUNK_SIZE) {
+                    copy.bindLong(1, low);
+                    copy.bindLong(2, low + CHUNK_SIZE);
+                    done += copy.executeUpdateDelete();
+                    if (listener != null) {
+                        listener.onProgress(getVersion(), done, total);
+                    }
+                }
+            } finally {
+                copy.close();
+            }
+        }
+    }
+
+    /**
+     * Version 8: adds meta_limits, one row per profile holding its daily
+     * and weekly limits, the day its limit state was last evaluated, the
+     * daily and weekly states on that day, and the streak of days within
+     * the daily limit before it. Every profile starts with both limits
+     * off and the state evaluated today.
+     */
+    private static final class AddLimits extends Migration {
+        AddLimits() {
+            super(8);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createLimits = "CREATE TABLE IF NOT EXISTS meta_limits " +
+                    "(profile_id INTEGER PRIMARY KEY, " +
+                    "daily_limit INTEGER NOT NULL, " +
+                    "weekly_limit INTEGER NOT NULL, " +
+                    "state_day INTEGER NOT NULL, " +
+                    "daily_state INTEGER NOT NULL, " +
+                    "weekly_state INTEGER NOT NULL, " +
+                    "streak_days INTEGER NOT NULL)";
+            String seedLimits = "INSERT INTO meta_limits SELECT profile_id, " +
+                    "0, 0, CAST(julianday('now', 'localtime') - " +
+                    UNIX_EPOCH_JULIAN_DAY + " AS INTEGER), 0, 0, 0 " +
+                    "FROM meta_data";
+
+            db.execSQL(createLimits);
+            db.execSQL(seedLimits);
+        }
+    }
+
+    /**
+     * Version 9: adds drink_journal, a ring of each profile's recent drink
+     * operations for undo and redo, keyed by ring slot. It starts empty:
+     * drinks logged before the upgrade cannot be undone.
+     */
+    private static final class AddJournal extends Migration {
+        AddJournal() {
+            super(9);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createJournal = "CREATE TABLE IF NOT EXISTS drink_journal " +
+                    "(profile_id INTEGER NOT NULL, " +
+                    "slot INTEGER NOT NULL, " +
+                    "seq INTEGER NOT NULL, " +
+                    "op INTEGER NOT NULL, " +
+                    "event_time INTEGER NOT NULL, " +
+                    "log_date INTEGER NOT NULL, " +
+                    "type_id INTEGER NOT NULL, " +
+                    "drink_units INTEGER NOT NULL, " +
+                    "undone INTEGER NOT NULL, " +
+                    "PRIMARY KEY (profile_id, slot))";
+
+            db.execSQL(createJournal);
+        }
+    }
+
+    /**
+     * Version 10: adds peer sync. sync_state holds this device's random
+     * id and a floor for its counter clock; sync_counters holds one PN
+     * counter per (profile_id, device_id, log_date, type_id), with an
+     * index on (profile_id, device_id, version) so a delta is a range
+     * read. Every existing drink becomes this device's, at version 1,
+     * copied from drink_type_log in day-key chunks so progress can be
+     * reported on long histories.
+     */
+    private static final class AddSync extends Migration {
+        AddSync() {
+            super(10);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createState = "CREATE TABLE IF NOT EXISTS sync_state " +
+                    "(device_id TEXT NOT NULL, clock INTEGER NOT NULL)";
+            String seedState = "INSERT INTO sync_state VALUES " +
+                    "(lower(hex(randomblob(16))), 0)";
+            String createCounters = "CREATE TABLE IF NOT EXISTS " +
+                    "sync_counters (profile_id INTEGER NOT NULL, " +
+                    "device_id TEXT NOT NULL, " +
+                    "log_date INTEGER NOT NULL, " +
+                    "type_id INTEGER NOT NULL, " +
+                    "added INTEGER NOT NULL, " +
+                    "removed INTEGER NOT NULL, " +
+                    "added_units INTEGER NOT NULL, " +
+                    "removed_units INTEGER NOT NULL, " +
+                    "version INTEGER NOT NULL, " +
+                    "PRIMARY KEY (profile_id, device_id, log_date, type_id))";
+            String createIndex = "CREATE INDEX IF NOT EXISTS " +
+                    "sync_counters_version_index ON sync_counters " +
+                    "(profile_id, device_id, version)";
+            String copyCounters = "INSERT INTO sync_counters SELECT " +
+                    "profile_id, (SELECT device_id FROM sync_state), " +
+                    "log_date, type_id, drink_count, 0, drink_units, 0, 1 " +
+                    "FROM drink_type_log WHERE drink_count > 0 AND " +
+                    "log_date > ? AND log_date <= ?";
+
+            db.execSQL(createState);
+            db.execSQL(seedState);
+            db.execSQL(createCounters);
+            db.execSQL(createIndex);
+
+            long total = countRows(db, "drink_type_log");
+            long lowDay = db.longForQuery(
+                    "SELECT COALESCE(MIN(log_date), 0) - 1 " +
+                    "FROM drink_type_log", null);
+            long highDay = db.longForQuery(
+                    "SELECT COALESCE(MAX(log_date), 0) FROM drink_type_log",
+                    null);
+            SqlStatement copy = db.compileStatement(copyCounters);
+            try {
+                long done = 0;
+                for (long low = lowDay; low < highDay; low += CHUNK_SIZE) {
+                    copy.bindLong(1, low);
+                    copy.bindLong(2, low + CHUNK_SIZE);
+                    done += copy.executeUpdateDelete();
+                    if (listener != null) {
+                        listener.onProgress(getVersion(), done, total);
+                    }
+                }
+            } finally {
+                copy.close();
+            }
+        }
+    }
+
+    /**
+     * Version 11: adds drink_summary, each profile's daily counts as
+     * 512-day blocks of big-endian shorts, filled from drink_log in one
+     * ordered pass that writes each block once.
+     */
+    private static final class AddSummary extends Migration {
+        // Fixed here so the step never changes with DaySummary
+        private static final int BLOCK_DAYS = 512;
+
+        AddSummary() {
+            super(11);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            String createSummary = "CREATE TABLE IF NOT EXISTS " +
+                    "drink_summary (profile_id INTEGER NOT NULL, " +
+                    "block INTEGER NOT NULL, " +
+                    "day_counts BLOB NOT NULL, " +
+                    "PRIMARY KEY (profile_id, block))";
+            String readDays = "SELECT profile_id, log_date, drink_count " +
+                    "FROM drink_log WHERE drink_count > 0 " +
+                    "ORDER BY profile_id, log_date";
+            String insertBlock = "INSERT INTO drink_summary " +
+                    "VALUES (?, ?, ?)";
+
+            db.execSQL(createSummary);
+
+            long total = countRows(db, "drink_log");
+            SqlStatement insert = db.compileStatement(insertBlock);
+            Cursor cursor = db.rawQuery(readDays, null);
+            try {
+                byte[] counts = new byte[BLOCK_DAYS * 2];
+                int profile = -1;
+                long block = Long.MIN_VALUE;
+                long done = 0;
+                while (cursor.moveToNext()) {
+                    int rowProfile = cursor.getInt(0);
+                    long day = cursor.getLong(1);
+                    long rowBlock = day >= 0 ? day / BLOCK_DAYS :
+                            (day + 1) / BLOCK_DAYS - 1;
+                    if (rowProfile != profile || rowBlock != block) {
+                        if (profile >= 0) {
+                            writeBlock(insert, profile, block, counts);
+                        }
+                        profile = rowProfile;
+                        block = rowBlock;
+                    }
+                    int offset = (int) (day - block * BLOCK_DAYS) * 2;
+                    int count = (int) Math.min(cursor.getLong(2),
+                            Short.MAX_VALUE);
+                    counts[offset] = (byte) (count >> 8);
+                    counts[offset + 1] = (byte) count;
+                    done++;
+                    if (listener != null && done % CHUNK_SIZE == 0) {
+                        listener.onProgress(getVersion(), done, total);
+                    }
+                }
+                if (profile >= 0) {
+                    writeBlock(insert, profile, block, counts);
+                }
+            } finally {
+                cursor.close();
+                insert.close();
+            }
+        }
+
+        /**
+         * Inserts one block and zeroes counts for the next.
+         */
+        private static void writeBlock(SqlStatement insert, int profile,
+                                       long block, byte[] counts) {
+            insert.bindLong(1, profile);
+            insert.bindLong(2, block);
+            insert.bindBlob(3, counts);
+            insert.executeInsert();
+            Arrays.fill(counts, (byte) 0);
+        }
+    }
+
+    /**
+     * Version 12: adds the drink_log triggers that carry every inserted
+     * or updated row into meta_totals and drink_summary, so a write to
+     * drink_log no longer needs its own statements for either. Both
+     * tables already match drink_log, so nothing is rebuilt.
+     */
+    private static final class AddLogTriggers extends Migration {
+        // Fixed here so the step never changes with DaySummary
+        private static final int BLOCK_DAYS = 512;
+
+        AddLogTriggers() {
+            super(12);
+        }
+
+        @Override
+        public void migrate(SqlDatabase db, ProgressListener listener) {
+            StringBuilder bytes = new StringBuilder("X'");
+            for (int value = 0; value < 256; value++) {
+                bytes.append(Character.forDigit(value >> 4, 16))
+                        .append(Character.forDigit(value & 15, 16));
+            }
+            bytes.append('\'');
+            String summary = "INSERT OR REPLACE INTO drink_summary " +
+                    "(profile_id, block, day_counts) " +
+                    "SELECT NEW.profile_id, day_block, " +
+                    "CAST(substr(counts, 1, day_offset) || " +
+                    "substr(" + bytes + ", day_count / 256 + 1, 1) || " +
+                    "substr(" + bytes + ", day_count % 256 + 1, 1) || " +
+                    "substr(counts, day_offset + 3) AS BLOB) " +
+                    "FROM (SELECT day_block, " +
+                    "(NEW.log_date - day_block * " + BLOCK_DAYS + ") * 2 " +
+                    "AS day_offset, " +
+                    "MAX(0, MIN(NEW.drink_count, 32767)) AS day_count, " +
+                    "COALESCE((SELECT day_counts FROM drink_summary " +
+                    "WHERE profile_id = NEW.profile_id " +
+                    "AND block = day_block), " +
+                    "zeroblob(" + BLOCK_DAYS * 2 + ")) AS counts " +
+                    "FROM (SELECT CASE WHEN NEW.log_date >= 0 " +
+                    "THEN NEW.log_date / " + BLOCK_DAYS + " " +
+                    "ELSE (NEW.log_date + 1) / " + BLOCK_DAYS + " - 1 " +
+                    "END AS day_block));";
+            String createInsertTrigger = "CREATE TRIGGER IF NOT EXISTS " +
+                    "drink_log_insert AFTER INSERT ON drink_log BEGIN " +
+                    "UPDATE meta_totals " +
+                    "SET total_drinks = total_drinks + (NEW.drink_count), " +
+                    "total_units = total_units + (NEW.drink_units) " +
+                    "WHERE profile_id = NEW.profile_id; " +
+                    summary + " END";
+            String createUpdateTrigger = "CREATE TRIGGER IF NOT EXISTS " +
+                    "drink_log_update AFTER UPDATE OF drink_count, " +
+                    "drink_units ON drink_log BEGIN " +
+                    "UPDATE meta_totals SET total_drinks = total_drinks + " +
+                    "(NEW.drink_count - OLD.drink_count), " +
+                    "total_units = total_units + " +
+                    "(NEW.drink_units - OLD.drink_units) " +
+                    "WHERE profile_id = NEW.profile_id; " +
+                    summary + " END";
+
+            db.execSQL(createInsertTrigger);
+            db.execSQL(createUpdateTrigger);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Use: Streams drink history to and from gzip-compressed CSV or JSON.
+ *      Export streams drink_log from DrinkStore.visitDays(), one row at a
+ *      time, into a buffered writer; import reads one row at a time and
+ *      hands rows to the store in fixed-size chunks, one transaction per
+ *      chunk. Neither
+ *      direction ever holds more than a chunk of history in memory.
+ *
+ *      CSV layout:          JSON layout:
+ *        created_date,DATE    {"created_date": "DATE",
+ *        log_date,drink_count  "drink_log": [{"log_date": "DATE",
+ *        DATE,COUNT                           "drink_count": COUNT}, ...]}
+ *        ...
+ *      Dates are written as yyyy-MM-dd so files stay readable elsewhere.
+ * Access points: export() - writes meta_data and drink_log to a stream
+ *                restore() - replaces all data with a stream's contents
+ */
+public final class DrinkBackup {
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+    // Rows per import transaction
+    static final int RESTORE_CHUNK = 500;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String CHARSET = "UTF-8";
+    private static final String CSV_HEADER = DbHelper.LOG_DATE_COLUMN + "," +
+            DbHelper.LOG_COUNT_COLUMN;
+
+    private DrinkBackup() {
+    }
+
+    /**
+     * Writes created_date and every drink_log row to out as gzip-compressed
+     * CSV or JSON. Closes out when done.
+     *
+     * @param db     the store to read
+     * @param out    where to write the backup
+     * @param format FORMAT_CSV or FORMAT_JSON
+     * @return       the number of days written
+     * @throws IOException if out cannot be written
+     */
+    public static int export(DrinkStore db, OutputStream out, int format)
+            throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(out, BUFFER_SIZE), CHARSET), BUFFER_SIZE);
+        String createdDate = DayKeys.toSqlDate(db.getCreatedDay());
+        int rows;
+        try {
+            if (format == FORMAT_JSON) {
+                final JsonWriter json = new JsonWriter(writer);
+                json.beginObject();
+                json.name(DbHelper.META_DATE_COLUMN).value(createdDate);
+                json.name(DbHelper.LOG_TABLE).beginArray();
+                rows = db.visitDays(new DrinkStore.DayVisitor() {
+                    @Override
+                    public void visit(int day, int count) throws IOException {
+                        json.beginObject();
+                        json.name(DbHelper.LOG_DATE_COLUMN)
+                                .value(DayKeys.toSqlDate(day));
+                        json.name(DbHelper.LOG_COUNT_COLUMN).value(count);
+                        json.endObject();
+                    }
+                });
+                json.endArray();
+                json.endObject();
+                json.flush();
+            } else {
+                writer.write(DbHelper.META_DATE_COLUMN + "," + createdDate + "\n");
+                writer.write(CSV_HEADER + "\n");
+                rows = db.visitDays(new DrinkStore.DayVisitor() {
+                    @Override
+                    public void visit(int day, int count) throws IOException {
+                        writer.write(DayKeys.toSqlDate(day));
+                        writer.write(',');
+                        writer.write(Integer.toString(count));
+                        writer.write('\n');
+                    }
+                });
+            }
+        } finally {
+            writer.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Replaces all data with the contents of a backup. The format is
+     * detected from the stream: gzip or plain, CSV or JSON. Rows are
+     * committed RESTORE_CHUNK at a time, so a file that turns out to be
+     * malformed part way through leaves the rows before the bad one in
+     * place; restoring a good file again replaces them. Closes in when
+     * done.
+     *
+     * @param db the store to write
+     * @param in where to read the backup
+     * @return   the number of days restored
+     * @throws IOException if in cannot be read or is not a backup
+     */
+    public static int restore(DrinkStore db, InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(unwrap(in), CHARSET), BUFFER_SIZE);
+        try {
+            reader.mark(1);
+            int first = reader.read();
+            while (first == ' ' || first == '\n' || first == '\r' ||
+                    first == '\t') {
+                reader.mark(1);
+                first = reader.read();
+            }
+            reader.reset();
+            Chunk chunk = new Chunk(db);
+            if (first == '{') {
+                restoreJson(reader, chunk);
+            } else {
+                restoreCsv(reader, chunk);
+            }
+            return chunk.finish();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void restoreCsv(BufferedReader reader, Chunk chunk)
+            throws IOException {
+        String created = reader.readLine();
+        String header = reader.readLine();
+        String prefix = DbHelper.META_DATE_COLUMN + ",";
+        if (created == null || !created.startsWith(prefix) ||
+                header == null || !header.trim().equals(CSV_HEADER)) {
+            throw new IOException("Not a DrinkToken CSV backup");
+        }
+        chunk.begin(parseDate(created.substring(prefix.length())));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                throw new IOException("Malformed row: " + line);
+            }
+            chunk.add(parseDate(line.substring(0, comma)),
+                    parseCount(line.substring(comma + 1)));
+        }
+    }
+
+    private static void restoreJson(BufferedReader reader, Chunk chunk)
+            throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (DbHelper.META_DATE_COLUMN.equals(name)) {
+                chunk.begin(parseDate(json.nextString()));
+            } else if (DbHelper.LOG_TABLE.equals(name)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    int day = 0;
+                    int count = -1;
+                    boolean hasDay = false;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        String field = json.nextName();
+                        if (DbHelper.LOG_DATE_COLUMN.equals(field)) {
+                            day = parseDate(json.nextString());
+                            hasDay = true;
+                        } else if (DbHelper.LOG_COUNT_COLUMN.equals(field)) {
+                            count = json.nextInt();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    if (!hasDay || count < 0) {
+                        throw new IOException("Malformed drink_log entry");
+                    }
+                    chunk.add(day, count);
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Returns a buffered stream, unzipping it if it starts with the gzip
+     * magic number.
+     */
+    private static InputStream unwrap(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        return buffered;
+    }
+
+    private static int parseDate(String date) throws IOException {
+        String trimmed = date.trim();
+        if (trimmed.length() != 10 || trimmed.charAt(4) != '-' ||
+                trimmed.charAt(7) != '-') {
+            throw new IOException("Malformed date: " + date);
+        }
+        try {
+            return DayKeys.fromSqlDate(trimmed);
+        } catch (NumberFormatException nope) {
+            throw new IOException("Malformed date: " + date);
+        }
+    }
+
+    private static int parseCount(String count) throws IOException {
+        try {
+            int result = Integer.parseInt(count.trim());
+            if (result < 0) {
+                throw new IOException("Negative count: " + count);
+            }
+            return result;
+        } catch (NumberFormatException nope) {
+            throw new IOException("Malformed count: " + count);
+        }
+    }
+
+    /**
+     * Collects restored rows into fixed-size arrays and hands each full
+     * chunk to the store as one transaction.
+     */
+    private static final class Chunk {
+        private final DrinkStore db;
+        private final int[] days = new int[RESTORE_CHUNK];
+        private final int[] counts = new int[RESTORE_CHUNK];
+        private int length = 0;
+        private int total = 0;
+        private boolean begun = false;
+
+        Chunk(DrinkStore db) {
+            this.db = db;
+        }
+
+        void begin(int createdDay) {
+            db.beginRestore(createdDay);
+            begun = true;
+        }
+
+        void add(int day, int count) throws IOException {
+            if (!begun) {
+                throw new IOException("created_date must come first");
+            }
+            days[length] = day;
+            counts[length] = count;
+            length++;
+            if (length == RESTORE_CHUNK) {
+                flush();
+            }
+        }
+
+        int finish() throws IOException {
+            if (!begun) {
+                throw new IOException("No created_date found");
+            }
+            flush();
+            db.endRestore();
+            return total;
+        }
+
+        private void flush() {
+            db.restoreChunk(days, counts, length);
+            total += length;
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.os.Bundle;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.Toolbar;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.text.DateFormatSymbols;
+import java.util.Locale;
+
+public class DrinkHistory extends AppCompatActivity
+        implements HistoryPager.Listener {
+    // Days per page, and pages kept in memory
+    private static final int PAGE_DAYS = 60;
+    private static final int MAX_PAGES = 8;
+
+    private HistoryPager pager;
+    private HistoryAdapter adapter;
+    private RecyclerView list;
+    private boolean byWeek = false;
+    private int today = DayKeys.today();
+    private int trackedDays = 0;
+    // Largest week bound so far, for scaling the weekly bars
+    private int largestWeek = 1;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_drink_history);
+        Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        // Pages come from the repository's read pool
+        final DrinkRepository repository = DrinkRepository.getInstance(this);
+        HistoryPager.PageSource source = new HistoryPager.PageSource() {
+            @Override
+            public void loadPage(int firstDay, int days,
+                                 final HistoryPager.PageCallback callback) {
+                repository.loadDailyCounts(firstDay, days,
+                        new DrinkRepository.Callback<int[]>() {
+                    @Override
+                    public void onResult(int[] counts) {
+                        callback.onPageLoaded(counts);
+                    }
+                });
+            }
+        };
+        pager = new HistoryPager(source, this, PAGE_DAYS, MAX_PAGES);
+
+        adapter = new HistoryAdapter();
+        list = (RecyclerView) findViewById(R.id.history_list);
+        list.setLayoutManager(new LinearLayoutManager(this));
+        list.setAdapter(adapter);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Drinks may have been logged since we were last shown
+        today = DayKeys.today();
+        pager.invalidate();
+        largestWeek = 1;
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadStats(new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                trackedDays = stats.getElapsedDays();
+                adapter.notifyDataSetChanged();
+            }
+        });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_drink_history, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        switch (id) {
+            case android.R.id.home:
+                finish();
+                return true;
+            case R.id.action_days:
+                byWeek = false;
+                adapter.notifyDataSetChanged();
+                return true;
+            case R.id.action_weeks:
+                byWeek = true;
+                adapter.notifyDataSetChanged();
+                return true;
+            case R.id.action_year:
+                showInsights();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showInsights() {
+        // The heatmap and every figure come from one summary read
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadInsights(new DrinkRepository.Callback<Insights>() {
+            @Override
+            public void onResult(Insights insights) {
+                HeatmapView heatmap = new HeatmapView(DrinkHistory.this);
+                heatmap.setPadding(75, 25, 75, 15);
+                heatmap.setSummary(insights.getSummary());
+                new AlertDialog.Builder(DrinkHistory.this)
+                        .setTitle("Year at a Glance")
+                        .setMessage(formatInsights(insights))
+                        .setView(heatmap)
+                        .setPositiveButton(android.R.string.ok, null).show();
+            }
+        });
+    }
+
+    private static String formatInsights(Insights insights) {
+        StringBuilder text = new StringBuilder();
+        text.append("Drinks: ").append(insights.getTotalDrinks())
+                .append(" over ").append(insights.getDrinkingDays())
+                .append(" of ").append(insights.getDays()).append(" days\n");
+        if (insights.getDrinkingDays() > 0) {
+            String[] weekdays = DateFormatSymbols.getInstance().getWeekdays();
+            text.append(String.format(Locale.getDefault(),
+                    "Per drinking day: %.1f\n",
+                    insights.getDrinkingDayAvg()));
+            text.append("Heaviest weekday: ")
+                    .append(weekdays[insights.getHeaviestWeekday()])
+                    .append('\n');
+            text.append("Heaviest day: ")
+                    .append(DayKeys.toSqlDate(insights.getHeaviestDay()))
+                    .append(" (").append(insights.getHeaviestDayCount())
+                    .append(")\n");
+            text.append("Heaviest week: to ")
+                    .append(DayKeys.toSqlDate(insights.getHeaviestWeekEnd()))
+                    .append(" (").append(insights.getHeaviestWeekCount())
+                    .append(")\n");
+        }
+        text.append("Longest dry streak: ")
+                .append(insights.getLongestDryStreak()).append(" days\n");
+        text.append("Current dry streak: ")
+                .append(insights.getCurrentDryStreak()).append(" days\n");
+        text.append("This month: ").append(insights.getMonthToDate());
+        if (!Double.isNaN(insights.getMonthChange())) {
+            text.append(String.format(Locale.getDefault(),
+                    " (%+.0f%% on last month)", insights.getMonthChange()));
+        }
+        text.append("\nLast month: ").append(insights.getLastMonth());
+        return text.toString();
+    }
+
+    @Override
+    public void onDaysLoaded(int firstDay, int lastDay, boolean scaleChanged) {
+        if (scaleChanged) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+        // Rows are newest first, so the loaded days map to a position range
+        int span = byWeek ? 7 : 1;
+        int first = Math.max((today - lastDay) / span, 0);
+        int last = Math.min((today - firstDay) / span,
+                adapter.getItemCount() - 1);
+        if (first <= last) {
+            adapter.notifyItemRangeChanged(first, last - first + 1);
+        }
+    }
+
+    private void rescaleWeeks(int weekCount) {
+        if (weekCount > largestWeek) {
+            largestWeek = weekCount;
+            // Can't notify from inside a bind
+            list.post(new Runnable() {
+                @Override
+                public void run() {
+                    adapter.notifyDataSetChanged();
+                }
+            });
+        }
+    }
+
+    private class HistoryAdapter extends RecyclerView.Adapter<BarHolder> {
+        @Override
+        public BarHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_history_bar, parent, false);
+            return new BarHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(BarHolder holder, int position) {
+            if (!byWeek) {
+                int day = today - position;
+                holder.bind(DayKeys.toSqlDate(day), pager.getCount(day),
+                        pager.getLargestCount());
+                return;
+            }
+            // Weeks end on today and run back 7 days at a time
+            int lastDay = today - 7 * position;
+            int firstDay = Math.max(lastDay - 6, today - trackedDays + 1);
+            int weekCount = 0;
+            for (int day = firstDay; day <= lastDay; day++) {
+                int count = pager.getCount(day);
+                if (count == HistoryPager.UNKNOWN) {
+                    weekCount = HistoryPager.UNKNOWN;
+                    break;
+                }
+                weekCount += count;
+            }
+            if (weekCount != HistoryPager.UNKNOWN) {
+                rescaleWeeks(weekCount);
+            }
+            holder.bind(DayKeys.toSqlDate(firstDay), weekCount, largestWeek);
+        }
+
+        @Override
+        public int getItemCount() {
+            return byWeek ? (trackedDays + 6) / 7 : trackedDays;
+        }
+    }
+
+    private static class BarHolder extends RecyclerView.ViewHolder {
+        private final TextView label;
+        private final View bar;
+        private final View spacer;
+        private final TextView count;
+
+        BarHolder(View view) {
+            super(view);
+            label = (TextView) view.findViewById(R.id.history_label);
+            bar = view.findViewById(R.id.history_bar);
+            spacer = view.findViewById(R.id.history_spacer);
+            count = (TextView) view.findViewById(R.id.history_count);
+        }
+
+        void bind(String labelText, int value, int scale) {
+            label.setText(labelText);
+            // Loading rows show an empty bar until their page lands
+            int shown = Math.max(value, 0);
+            count.setText(value == HistoryPager.UNKNOWN ? "" :
+                    String.valueOf(value));
+            LinearLayout.LayoutParams barParams =
+                    (LinearLayout.LayoutParams) bar.getLayoutParams();
+            LinearLayout.LayoutParams spacerParams =
+                    (LinearLayout.LayoutParams) spacer.getLayoutParams();
+            barParams.weight = shown;
+            spacerParams.weight = Math.max(scale - shown, 0);
+            bar.setLayoutParams(barParams);
+            spacer.setLayoutParams(spacerParams);
+        }
+    }
+}
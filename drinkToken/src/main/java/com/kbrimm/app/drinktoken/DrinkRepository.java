@@ -0,0 +1,911 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Use: Runs DrinkStore calls off the UI thread and posts results back.
+ *      Mutations go through a single writer thread, so they commit in
+ *      the order they were requested; reads use a small pool, and sync
+ *      exchanges get a thread of their own, since they wait on a peer
+ *      for as long as its transport allows. Stats returned by a
+ *      mutation are read on the writer thread right after the commit, so
+ *      they always include that mutation.
+ *
+ *      Taps are coalesced: addDrink() only bumps an in-memory count, and
+ *      the whole burst is written in one transaction at most
+ *      FLUSH_DELAY_MS after its first tap. An undo during a burst cancels
+ *      a buffered tap without touching the database. loadStats() adds the
+ *      buffered taps to what it reads, so the dashboard is never behind.
+ *
+ *      Durability: a tap is only on disk once its flush commits. If the
+ *      process is killed with taps still buffered (at most FLUSH_DELAY_MS
+ *      worth), those taps are lost; everything flushed before is kept.
+ *      DrinkTracker calls flush() from onPause(), so leaving the app never
+ *      loses taps. See DbHelper.ConfigureHook for what WAL with
+ *      synchronous = NORMAL guarantees for committed flushes.
+ *      Each buffered tap keeps the time it happened and its beverage
+ *      type and weight, so drinks are logged against the moment of the
+ *      tap rather than of the flush.
+ * Access points: open() - opens the database, then compacts old events
+ *                loadStats() - reads the dashboard stats
+ *                loadDailyCounts() - reads a range of daily counts
+ *                loadTypeTotals() - reads per-type sums for a range of days
+ *                loadInsights() - reads the whole history's per-day
+ *                    summary and computes Insights from it
+ *                loadRecentCounts() - reads today's and this week's counts
+ *                    from the in-memory daily series
+ *                addDrink() - buffers a drink of some beverage type,
+ *                    returns stats after flush
+ *                undoDrink() - cancels a buffered drink or undoes the
+ *                    latest journaled one, on whatever day
+ *                redoDrink() - applies the latest undone drink again
+ *                clearData() - clears, then returns fresh stats
+ *                exportData() - writes a gzip backup of all data
+ *                importData() - replaces all data from a backup
+ *                loadProfiles() - reads the trackers and the active one
+ *                switchProfile() - flushes, switches trackers, then
+ *                    returns the new tracker's stats
+ *                createProfile()/deleteProfile() - adds or drops a tracker
+ *                loadLimits()/setLimits() - reads or sets the limits
+ *                loadStorageMode()/setEncrypted() - reads or changes
+ *                    encryption at rest
+ *                sync() - merges the active tracker with a peer device
+ *                runMaintenance() - vacuums, analyzes and checks storage
+ *                flush() - writes buffered drinks now
+ *                getPendingTaps()/getPendingUndoUnits() - what the
+ *                    buffer holds, for optimistic updates
+ */
+public class DrinkRepository {
+    private static final int READ_THREADS = 2;
+    // Longest a buffered tap waits before it is written
+    public static final long FLUSH_DELAY_MS = 500;
+    // Initial tap buffer size, grown as needed
+    private static final int TAP_BUFFER_SIZE = 16;
+    // Singleton repository
+    private static DrinkRepository INSTANCE;
+
+    private final DrinkStore db;
+    private final ScheduledExecutorService writeExecutor;
+    private final Executor readExecutor;
+    private final Executor syncExecutor;
+    private final Executor resultExecutor;
+    // Days of per-drink events kept by compaction
+    private volatile int eventHorizonDays = DbHelper.DEFAULT_EVENT_HORIZON_DAYS;
+    // Tap buffer, guarded by this
+    private long[] pendingTimes = new long[TAP_BUFFER_SIZE];
+    private int[] pendingTypes = new int[TAP_BUFFER_SIZE];
+    private int[] pendingUnits = new int[TAP_BUFFER_SIZE];
+    private int pendingTaps = 0;
+    private int pendingUnitSum = 0;
+    private List<Callback<DashboardStats>> pendingCallbacks =
+            new ArrayList<Callback<DashboardStats>>();
+    private ScheduledFuture<?> scheduledFlush;
+    // Bumped each time the buffer is taken or a flush is scheduled, so a
+    // scheduled flush that lost the race to flush() leaves the buffer be
+    private long flushSequence = 0;
+
+    /**
+     * Receives the result of an asynchronous repository call on the
+     * result executor (the main thread in the app).
+     *
+     * @param <T> the type of value delivered
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Outcome of an undo or redo: whether there was anything to undo or
+     * redo, and the stats read after the write committed.
+     */
+    public static final class UndoResult {
+        public final boolean changed;
+        public final DashboardStats stats;
+
+        UndoResult(boolean changed, DashboardStats stats) {
+            this.changed = changed;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * The trackers, oldest first, and which of them is active.
+     */
+    public static final class Profiles {
+        public final List<Profile> profiles;
+        public final int activeId;
+
+        Profiles(List<Profile> profiles, int activeId) {
+            this.profiles = profiles;
+            this.activeId = activeId;
+        }
+
+        /**
+         * Returns the active tracker, or null if it is not in the list.
+         *
+         * @return the active profile
+         */
+        public Profile getActive() {
+            for (Profile profile : profiles) {
+                if (profile.getId() == activeId) {
+                    return profile;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Checks to see if an instance of the repository already exists.
+     * If so, returns that. Else creates one around DbHelper.getInstance(),
+     * timed by MeteredStore, posting results to the main thread, has
+     * the store's change notifications refresh the home-screen widget,
+     * and schedules the daily maintenance job where JobScheduler exists.
+     *
+     * @param context context from which method is called
+     * @return        the single instance of the repository
+     */
+    public static synchronized DrinkRepository getInstance(Context context) {
+        if (INSTANCE == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            Executor mainExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            };
+            DrinkStore db = new MeteredStore(DbHelper.getInstance(appContext),
+                    DbMetrics.getInstance());
+            // Alert on every write that reaches or passes a limit
+            db.addLimitListener(new LimitAlerts(appContext));
+            // Keep the home-screen widget in step with every write
+            db.addStatsListener(new DrinkStore.StatsListener() {
+                @Override
+                public void onStatsChanged(long version) {
+                    DrinkWidget.requestUpdate(appContext);
+                }
+            });
+            INSTANCE = new DrinkRepository(db, newWriteExecutor(),
+                    newReadExecutor(), newSyncExecutor(), mainExecutor);
+            // Maintain storage while the device is idle and charging. The
+            // service class cannot even be loaded before JobScheduler
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                MaintenanceService.schedule(appContext);
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Repository instantiator. The app goes through getInstance(); the
+     * executors are injectable so the ordering rules can be driven from
+     * plain threads.
+     *
+     * @param db             the store to wrap
+     * @param writeExecutor  a single-threaded scheduler for mutations
+     * @param readExecutor   an executor for reads
+     * @param syncExecutor   an executor for sync exchanges
+     * @param resultExecutor the executor callbacks are delivered on
+     */
+    DrinkRepository(DrinkStore db, ScheduledExecutorService writeExecutor,
+                    Executor readExecutor, Executor syncExecutor,
+                    Executor resultExecutor) {
+        this.db = db;
+        this.writeExecutor = writeExecutor;
+        this.readExecutor = readExecutor;
+        this.syncExecutor = syncExecutor;
+        this.resultExecutor = resultExecutor;
+    }
+
+    /**
+     * Opens the writable database on the writer thread, so first launch
+     * table creation and upgrades never run on the UI thread. Then drops
+     * drink events that have aged past the event horizon.
+     */
+    public void open() {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                db.open();
+                db.compactEvents(eventHorizonDays);
+            }
+        });
+    }
+
+    /**
+     * Sets how many days of per-drink events compaction keeps. Takes
+     * effect on the next open().
+     *
+     * @param days the number of days of events to keep, at least 1
+     */
+    public void setEventHorizonDays(int days) {
+        eventHorizonDays = Math.max(1, days);
+    }
+
+    /**
+     * Reads the dashboard stats on the read pool, including any taps
+     * still waiting in the buffer. A flush landing mid-read can make this
+     * briefly undercount; the flush's own callbacks correct it.
+     *
+     * @param callback receives the stats
+     */
+    public void loadStats(final Callback<DashboardStats> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DashboardStats stats = db.getDashboardStats();
+                int taps;
+                int units;
+                synchronized (DrinkRepository.this) {
+                    taps = pendingTaps;
+                    units = pendingUnitSum;
+                }
+                deliver(callback, stats.withDelta(taps, units));
+            }
+        });
+    }
+
+    /**
+     * Reads the daily counts for a range of days on the read pool. Does
+     * not include buffered taps; callers showing history refresh after
+     * the flush callbacks arrive.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @param callback receives an int[days] of counts
+     */
+    public void loadDailyCounts(final int firstDay, final int days,
+                                final Callback<int[]> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.getDailyCounts(firstDay, days));
+            }
+        });
+    }
+
+    /**
+     * Reads the active tracker's per-day summary from its creation date
+     * to today on the read pool, and computes Insights from it in one
+     * pass there. The summary is stored in blocks, so ten years of
+     * history is a handful of rows. Like loadDailyCounts(), does not
+     * include buffered taps.
+     *
+     * @param callback receives the insights, with the summary for the
+     *                 heatmap
+     */
+    public void loadInsights(final Callback<Insights> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int today = DayKeys.today();
+                int firstDay = Math.min(db.getCreatedDay(), today);
+                DaySummary summary = db.getDaySummary(firstDay,
+                        today - firstDay + 1);
+                deliver(callback, Insights.of(summary));
+            }
+        });
+    }
+
+    /**
+     * Reads per-beverage-type counts and units for a range of days on the
+     * read pool. Like loadDailyCounts(), does not include buffered taps.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @param callback receives the per-type sums
+     */
+    public void loadTypeTotals(final int firstDay, final int days,
+                               final Callback<TypeTotals> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.getTypeTotals(firstDay, days));
+            }
+        });
+    }
+
+    /**
+     * Reads today's and the rolling week's counts on the read pool from
+     * DbHelper's in-memory daily series, plus any buffered taps. Only the
+     * first call after a clear or restore touches drink_log, so this is
+     * cheap enough for widget refreshes.
+     *
+     * @param callback receives an int[2] of {today, this week}
+     */
+    public void loadRecentCounts(final Callback<int[]> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                RollingStats series = db.getRollingStats();
+                int today = DayKeys.today();
+                int pending = getPendingTaps();
+                int[] counts = {series.getCount(today) + pending,
+                        series.windowSum(today, 7) + pending};
+                deliver(callback, counts);
+            }
+        });
+    }
+
+    /**
+     * Buffers one standard drink and schedules a flush if none is pending.
+     *
+     * @param callback receives the stats read after the flush commits
+     */
+    public void addDrink(Callback<DashboardStats> callback) {
+        addDrink(BeverageType.STANDARD, callback);
+    }
+
+    /**
+     * Buffers one drink of the given type, weighted by its standard-drink
+     * units, and schedules a flush if none is pending.
+     *
+     * @param type     the BeverageType id
+     * @param callback receives the stats read after the flush commits
+     */
+    public void addDrink(int type, Callback<DashboardStats> callback) {
+        long now = System.currentTimeMillis();
+        int units = BeverageType.getUnits(type);
+        synchronized (this) {
+            if (pendingTaps == pendingTimes.length) {
+                int size = pendingTimes.length * 2;
+                long[] grownTimes = new long[size];
+                int[] grownTypes = new int[size];
+                int[] grownUnits = new int[size];
+                System.arraycopy(pendingTimes, 0, grownTimes, 0, pendingTaps);
+                System.arraycopy(pendingTypes, 0, grownTypes, 0, pendingTaps);
+                System.arraycopy(pendingUnits, 0, grownUnits, 0, pendingTaps);
+                pendingTimes = grownTimes;
+                pendingTypes = grownTypes;
+                pendingUnits = grownUnits;
+            }
+            pendingTimes[pendingTaps] = now;
+            pendingTypes[pendingTaps] = type;
+            pendingUnits[pendingTaps] = units;
+            pendingTaps++;
+            pendingUnitSum += units;
+            pendingCallbacks.add(callback);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Cancels a buffered drink if there is one. Otherwise flushes the
+     * buffer and undoes the latest journaled operation on the writer
+     * thread, which may be on an earlier day.
+     *
+     * @param callback receives whether anything was undone, plus the
+     *                 stats read after the change was written
+     */
+    public void undoDrink(final Callback<UndoResult> callback) {
+        synchronized (this) {
+            if (pendingTaps > 0) {
+                pendingTaps--;
+                pendingUnitSum -= pendingUnits[pendingTaps];
+                pendingCallbacks.add(new Callback<DashboardStats>() {
+                    @Override
+                    public void onResult(DashboardStats stats) {
+                        if (callback != null) {
+                            callback.onResult(new UndoResult(true, stats));
+                        }
+                    }
+                });
+                return;
+            }
+        }
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean undone = db.undo();
+                deliver(callback,
+                        new UndoResult(undone, db.getDashboardStats()));
+            }
+        });
+    }
+
+    /**
+     * Flushes the buffer, then applies the latest undone operation again
+     * on the writer thread. Buffered drinks end the redo history once
+     * flushed, so a redo after a tap finds nothing to redo.
+     *
+     * @param callback receives whether anything was redone, plus the
+     *                 stats read after the change was written
+     */
+    public void redoDrink(final Callback<UndoResult> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean redone = db.redo();
+                deliver(callback,
+                        new UndoResult(redone, db.getDashboardStats()));
+            }
+        });
+    }
+
+    /**
+     * Queues a full data clear on the writer thread.
+     *
+     * @param callback receives the stats read after the clear
+     */
+    public void clearData(final Callback<DashboardStats> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                db.clearData();
+                deliver(callback, db.getDashboardStats());
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then streams a backup to out on the writer
+     * thread, so the file includes every drink tapped before the call.
+     *
+     * @param out      where to write the backup, closed when done
+     * @param format   DrinkBackup.FORMAT_CSV or DrinkBackup.FORMAT_JSON
+     * @param callback receives the number of days written, or -1 if the
+     *                 backup could not be written
+     */
+    public void exportData(final OutputStream out, final int format,
+                           final Callback<Integer> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows;
+                try {
+                    rows = DrinkBackup.export(db, out, format);
+                } catch (Exception oops) {
+                    // Log.d(TAG, "exportData: Unexpected error.");
+                    rows = -1;
+                }
+                deliver(callback, rows);
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then replaces all data with a backup read
+     * from in on the writer thread.
+     *
+     * @param in       where to read the backup, closed when done
+     * @param callback receives the number of days restored, or -1 if the
+     *                 backup could not be read
+     */
+    public void importData(final InputStream in,
+                           final Callback<Integer> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows;
+                try {
+                    rows = DrinkBackup.restore(db, in);
+                } catch (Exception oops) {
+                    // Log.d(TAG, "importData: Unexpected error.");
+                    rows = -1;
+                }
+                deliver(callback, rows);
+            }
+        });
+    }
+
+    /**
+     * Reads the trackers and the active tracker's id on the read pool.
+     *
+     * @param callback receives the trackers
+     */
+    public void loadProfiles(final Callback<Profiles> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, new Profiles(db.getProfiles(),
+                        db.getActiveProfile()));
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, so they stay with the tracker they were
+     * tapped on, then switches trackers on the writer thread.
+     *
+     * @param profile  the id of the tracker to switch to
+     * @param callback receives the stats of the tracker active after the
+     *                 switch
+     */
+    public void switchProfile(final int profile,
+                              final Callback<DashboardStats> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                db.setActiveProfile(profile);
+                deliver(callback, db.getDashboardStats());
+            }
+        });
+    }
+
+    /**
+     * Adds a tracker on the writer thread. The active tracker is
+     * unchanged.
+     *
+     * @param name     the new tracker's display name
+     * @param callback receives the new tracker
+     */
+    public void createProfile(final String name,
+                              final Callback<Profile> callback) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.createProfile(name));
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then drops a tracker on the writer thread.
+     * The last tracker is never dropped.
+     *
+     * @param profile  the id of the tracker to drop
+     * @param callback receives the stats of the tracker active afterwards,
+     *                 or null if the tracker was not dropped
+     */
+    public void deleteProfile(final int profile,
+                              final Callback<DashboardStats> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean deleted = db.deleteProfile(profile);
+                deliver(callback, deleted ? db.getDashboardStats() : null);
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then reads the active tracker's limit
+     * state on the writer thread, so the state counts every tap so far.
+     *
+     * @param callback receives the limit state for today
+     */
+    public void loadLimits(final Callback<LimitStatus> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.getLimitStatus());
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then sets the active tracker's limits on
+     * the writer thread.
+     *
+     * @param dailyLimit  drinks allowed per day, 0 to switch off
+     * @param weeklyLimit drinks allowed per rolling 7 days, 0 to switch off
+     * @param callback    receives the limit state under the new limits
+     */
+    public void setLimits(final int dailyLimit, final int weeklyLimit,
+                          final Callback<LimitStatus> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                db.setLimits(dailyLimit, weeklyLimit);
+                deliver(callback, db.getLimitStatus());
+            }
+        });
+    }
+
+    /**
+     * Reads whether storage is encrypted on the read pool.
+     *
+     * @param callback receives true in encrypted mode
+     */
+    public void loadStorageMode(final Callback<Boolean> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.isEncrypted());
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then moves storage into encrypted or
+     * plaintext mode on the writer thread. The storage metrics are reset
+     * once the switch succeeds, so the next diagnostics report times the
+     * new mode only and can be set against one from the old mode.
+     *
+     * @param encrypted true to encrypt, false to decrypt
+     * @param callback  receives whether storage is now in that mode
+     */
+    public void setEncrypted(final boolean encrypted,
+                             final Callback<Boolean> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean switched = db.setEncrypted(encrypted);
+                if (switched) {
+                    DbMetrics.getInstance().reset();
+                }
+                deliver(callback, switched);
+            }
+        });
+    }
+
+    /**
+     * Queues a flush of buffered drinks and runs one DrinkSync exchange
+     * over transport, then closes it. The exchange waits on the peer, so
+     * it runs on the sync thread rather than holding up the writer thread
+     * or taking one of the dashboard's read threads; exchanges queue
+     * there one at a time. Its merge takes the store's lock like any
+     * write, and since merges commute it does not matter which side of a
+     * queued write it lands.
+     * A drink that misses this exchange goes with the next one.
+     *
+     * @param transport the connection to the peer, closed when done
+     * @param callback  receives the number of counters merged, or -1 if
+     *                  the exchange failed
+     */
+    public void sync(final SyncTransport transport,
+                     final Callback<Integer> callback) {
+        flush();
+        syncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int merged;
+                try {
+                    merged = DrinkSync.sync(db, transport);
+                } catch (Exception oops) {
+                    // Log.d(TAG, "sync: Unexpected error.");
+                    DbMetrics.getInstance().recordError(DbMetrics.OP_SYNC);
+                    merged = -1;
+                } finally {
+                    try {
+                        transport.close();
+                    } catch (IOException oops) {
+                        // Nothing left to do with it
+                    }
+                }
+                deliver(callback, merged);
+            }
+        });
+    }
+
+    /**
+     * Flushes buffered drinks, then runs a storage maintenance pass on
+     * the writer thread, so it lands between writes rather than during
+     * one.
+     *
+     * @param callback receives what the pass did
+     */
+    public void runMaintenance(final Callback<MaintenanceReport> callback) {
+        flush();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, db.runMaintenance());
+            }
+        });
+    }
+
+    /**
+     * Writes any buffered drinks now rather than waiting for the
+     * scheduled flush. The buffer is taken here, on the calling thread,
+     * so taps made after this call are never written ahead of a mutation
+     * queued after it. Called from DrinkTracker.onPause().
+     */
+    public void flush() {
+        final TapBatch batch;
+        synchronized (this) {
+            if (scheduledFlush == null) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+            batch = takePendingTaps();
+        }
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeTaps(batch);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of drinks buffered but not yet written.
+     *
+     * @return the number of buffered drinks
+     */
+    public synchronized int getPendingTaps() {
+        return pendingTaps;
+    }
+
+    /**
+     * Returns the weight of the buffered drink undoDrink() would cancel,
+     * so the UI can take off exactly that drink before the undo runs.
+     *
+     * @return the latest buffered drink's units, 0 if none is buffered
+     */
+    public synchronized int getPendingUndoUnits() {
+        return pendingTaps > 0 ? pendingUnits[pendingTaps - 1] : 0;
+    }
+
+    /**
+     * Schedules a flush FLUSH_DELAY_MS from now unless one is already
+     * scheduled. The delay is not pushed back by later taps, which bounds
+     * how long any tap stays buffered. Callers hold the lock on this.
+     */
+    private void scheduleFlush() {
+        if (scheduledFlush != null) {
+            return;
+        }
+        final long sequence = ++flushSequence;
+        scheduledFlush = writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                TapBatch batch;
+                synchronized (DrinkRepository.this) {
+                    if (flushSequence != sequence) {
+                        // flush() took the buffer after this started
+                        return;
+                    }
+                    scheduledFlush = null;
+                    batch = takePendingTaps();
+                }
+                writeTaps(batch);
+            }
+        }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes the buffered taps and their callbacks, leaving the buffer
+     * empty. Callers hold the lock on this.
+     *
+     * @return what was buffered
+     */
+    private TapBatch takePendingTaps() {
+        TapBatch batch = new TapBatch(pendingTimes, pendingTypes,
+                pendingUnits, pendingTaps, pendingCallbacks);
+        pendingTimes = new long[TAP_BUFFER_SIZE];
+        pendingTypes = new int[TAP_BUFFER_SIZE];
+        pendingUnits = new int[TAP_BUFFER_SIZE];
+        pendingTaps = 0;
+        pendingUnitSum = 0;
+        pendingCallbacks = new ArrayList<Callback<DashboardStats>>();
+        flushSequence++;
+        return batch;
+    }
+
+    /**
+     * Writes a batch of taps in one transaction, then delivers fresh
+     * stats to every callback that was waiting on them. Only ever runs
+     * on the writer thread.
+     *
+     * @param batch the taps taken from the buffer
+     */
+    private void writeTaps(TapBatch batch) {
+        if (batch.callbacks.isEmpty()) {
+            return;
+        }
+        db.logDrinks(batch.times, batch.types, batch.units, batch.taps);
+        DashboardStats stats = db.getDashboardStats();
+        for (Callback<DashboardStats> callback : batch.callbacks) {
+            deliver(callback, stats);
+        }
+    }
+
+    /**
+     * Posts a result to the callback on the result executor.
+     *
+     * @param callback the callback to notify, may be null
+     * @param result   the value to deliver
+     * @param <T>      the type of value delivered
+     */
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        resultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private static ScheduledExecutorService newWriteExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("DrinkToken-write"));
+    }
+
+    private static ExecutorService newReadExecutor() {
+        return Executors.newFixedThreadPool(READ_THREADS,
+                new NamedThreadFactory("DrinkToken-read"));
+    }
+
+    private static ExecutorService newSyncExecutor() {
+        return Executors.newSingleThreadExecutor(
+                new NamedThreadFactory("DrinkToken-sync"));
+    }
+
+    /**
+     * Taps taken from the buffer together, with the callbacks waiting on
+     * them. Undone taps are already gone from taps but their callbacks
+     * are still here.
+     */
+    private static final class TapBatch {
+        final long[] times;
+        final int[] types;
+        final int[] units;
+        final int taps;
+        final List<Callback<DashboardStats>> callbacks;
+
+        TapBatch(long[] times, int[] types, int[] units, int taps,
+                 List<Callback<DashboardStats>> callbacks) {
+            this.times = times;
+            this.types = types;
+            this.units = units;
+            this.taps = taps;
+            this.callbacks = callbacks;
+        }
+    }
+
+    /**
+     * Names repository threads and keeps them at background priority.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private int count;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(
+                            android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name + "-" + (++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
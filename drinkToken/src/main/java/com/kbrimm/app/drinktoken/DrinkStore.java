@@ -0,0 +1,416 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Use: The storage operations the rest of the app relies on, kept free of
+ *      Android types so DrinkRepository and DrinkBackup can run against
+ *      any implementation. DbHelper is the app's implementation, on
+ *      SQLite, encrypted through SQLCipher on request. Days are DayKeys
+ *      keys throughout. Data is kept per profile (tracker); every read
+ *      and write other than the profile methods applies to the active
+ *      profile only.
+ * Access points: open() - prepares storage, creating or upgrading it
+ *                logDrinks() - logs a batch of timestamped drinks
+ *                decrementCount() - removes one from today's drink count
+ *                undo()/redo() - steps back or forward through recent
+ *                    additions and removals, on any day
+ *                clearData() - drops the profile's data, restarting today
+ *                getDashboardStats() - returns today, week, total, days
+ *                getDailyCounts() - returns int[] for a range of days
+ *                getDaySummary() - returns a range of days' counts from
+ *                    the stored per-day summary
+ *                getTypeTotals() - returns per-type sums for a range of days
+ *                getHourlyCounts() - returns int[24] of recent drinks by hour
+ *                getRollingStats() - returns the in-memory daily series
+ *                compactEvents() - drops events already past the horizon
+ *                checkTotals() - verifies the running total
+ *                runMaintenance() - reclaims space, refreshes planner
+ *                    statistics and checks integrity
+ *                visitDays() - streams every logged day, oldest first
+ *                beginRestore()/restoreChunk()/endRestore() - replace all
+ *                    data from a backup, one chunk at a time
+ *                addStatsListener() - registers for change notifications
+ *                getProfiles()/createProfile()/deleteProfile() - manage
+ *                    trackers
+ *                setActiveProfile() - switches trackers
+ *                getLimitStatus()/setLimits() - daily and weekly limits
+ *                addLimitListener() - registers for limit alerts
+ *                isEncrypted()/setEncrypted() - encryption at rest
+ *                getDeviceId()/getSyncVector()/visitCounters()/
+ *                    mergeCounters() - peer sync, see DrinkSync
+ */
+public interface DrinkStore {
+
+    /**
+     * Told after every committed write that changes the statistics.
+     */
+    interface StatsListener {
+        /**
+         * Called on the writing thread, while the store's lock is held,
+         * so implementations should only hand off work.
+         *
+         * @param version the new stats version
+         */
+        void onStatsChanged(long version);
+    }
+
+    /**
+     * Receives logged days from visitDays().
+     */
+    interface DayVisitor {
+        /**
+         * @param day   the DayKeys key of the day
+         * @param count the day's drink count
+         * @throws IOException to stop the visit
+         */
+        void visit(int day, int count) throws IOException;
+    }
+
+    /**
+     * Receives sync counters from visitCounters().
+     */
+    interface CounterVisitor {
+        /**
+         * @param counter one device's counter for one day and type
+         * @throws IOException to stop the visit
+         */
+        void visit(SyncCounter counter) throws IOException;
+    }
+
+    /**
+     * Told when a logged drink reaches or passes a daily or weekly limit.
+     */
+    interface LimitListener {
+        /**
+         * Called on the writing thread, while the store's lock is held,
+         * so implementations should only hand off work.
+         *
+         * @param before the limit state before the drinks were logged
+         * @param after  the limit state with them
+         */
+        void onLimitReached(LimitStatus before, LimitStatus after);
+    }
+
+    /**
+     * Prepares storage for use, creating or upgrading it if needed. May
+     * be slow; never call it on the UI thread.
+     */
+    void open();
+
+    /**
+     * Logs a batch of drinks in one transaction, each on the local day
+     * of its own timestamp, with its beverage type and weight.
+     *
+     * @param times  event times in milliseconds, oldest first
+     * @param types  each drink's BeverageType id
+     * @param units  each drink's weight in BeverageType units
+     * @param length the number of entries of times to log
+     */
+    void logDrinks(long[] times, int[] types, int[] units, int length);
+
+    /**
+     * Subtracts one from today's drink count if it is above zero.
+     *
+     * @return whether a drink was removed
+     */
+    boolean decrementCount();
+
+    /**
+     * Reverses the latest drink added or removed, on the day it was
+     * logged on. Repeated calls step further back.
+     *
+     * @return whether there was anything to undo
+     */
+    boolean undo();
+
+    /**
+     * Applies the latest undone operation again. Possible until the next
+     * drink is added or removed.
+     *
+     * @return whether there was anything to redo
+     */
+    boolean redo();
+
+    /**
+     * Drops the active profile's data, restarting its history from today.
+     */
+    void clearData();
+
+    /**
+     * Returns today's count, the rolling week's count, the running total
+     * and the number of days tracked, all from one consistent read.
+     *
+     * @return an immutable snapshot of the dashboard statistics
+     */
+    DashboardStats getDashboardStats();
+
+    /**
+     * Returns the daily counts for a range of days.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         an int[days] of counts, 0 for days with no drinks
+     */
+    int[] getDailyCounts(int firstDay, int days);
+
+    /**
+     * Returns the daily counts for a range of days from the per-day
+     * summary kept alongside them, which is stored compactly enough that
+     * a year of history reads in a row or two.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         the counts, 0 for days with no drinks
+     */
+    DaySummary getDaySummary(int firstDay, int days);
+
+    /**
+     * Returns per-beverage-type drink counts and units for a range of
+     * days, from aggregates kept current by every write.
+     *
+     * @param firstDay the DayKeys key of the first day
+     * @param days     the number of days to read
+     * @return         the per-type sums over the range
+     */
+    TypeTotals getTypeTotals(int firstDay, int days);
+
+    /**
+     * Counts recent drinks by local hour of day.
+     *
+     * @param days the number of days to look back, including today
+     * @return     an int[24] of drinks per hour, index 0 being midnight
+     */
+    int[] getHourlyCounts(int days);
+
+    /**
+     * Returns the in-memory daily series used for window statistics.
+     *
+     * @return the daily series, starting at the creation date
+     */
+    RollingStats getRollingStats();
+
+    /**
+     * Drops per-drink events older than the horizon. Daily counts are
+     * kept.
+     *
+     * @param horizonDays the number of days of events to keep
+     * @return            the number of events dropped
+     */
+    int compactEvents(int horizonDays);
+
+    /**
+     * Verifies the running total against the daily counts, repairing it
+     * if they disagree.
+     *
+     * @return true if the running total already matched
+     */
+    boolean checkTotals();
+
+    /**
+     * Runs a maintenance pass over all of storage: gives back free
+     * space, refreshes the query planner's statistics and runs a quick
+     * integrity check. Slow; meant for when the device is idle.
+     *
+     * @return what the pass did
+     */
+    MaintenanceReport runMaintenance();
+
+    /**
+     * Returns the day tracking started.
+     *
+     * @return the DayKeys key of the creation date
+     */
+    int getCreatedDay();
+
+    /**
+     * Streams every logged day to visitor, oldest first, without loading
+     * the whole history.
+     *
+     * @param visitor receives each day and its count
+     * @return        the number of days visited
+     * @throws IOException if the visitor throws
+     */
+    int visitDays(DayVisitor visitor) throws IOException;
+
+    /**
+     * Starts a restore into the active profile: drops its data and stores
+     * createdDay as the creation date.
+     *
+     * @param createdDay the DayKeys key of the restored creation date
+     */
+    void beginRestore(int createdDay);
+
+    /**
+     * Adds one chunk of restored days in a single transaction. Repeated
+     * days are summed.
+     *
+     * @param days   DayKeys keys of the restored days
+     * @param counts each day's drink count
+     * @param length the number of entries of days and counts to add
+     */
+    void restoreChunk(int[] days, int[] counts, int length);
+
+    /**
+     * Finishes a restore.
+     */
+    void endRestore();
+
+    /**
+     * Registers a listener for committed writes.
+     *
+     * @param listener told after each write that changes the statistics
+     */
+    void addStatsListener(StatsListener listener);
+
+    /**
+     * Unregisters a listener added with addStatsListener().
+     *
+     * @param listener the listener to remove
+     */
+    void removeStatsListener(StatsListener listener);
+
+    /**
+     * Returns the current stats version. Any two reads with the same
+     * version on the same day see the same statistics.
+     *
+     * @return the number of committed writes so far this process
+     */
+    long getStatsVersion();
+
+    /**
+     * Returns every profile, oldest first.
+     *
+     * @return the profiles; never empty once storage is open
+     */
+    List<Profile> getProfiles();
+
+    /**
+     * Adds a profile with an empty history, started today.
+     *
+     * @param name the new profile's display name
+     * @return     the new profile
+     */
+    Profile createProfile(String name);
+
+    /**
+     * Drops a profile and its history. The last profile cannot be
+     * deleted; deleting the active one switches to the oldest remaining.
+     *
+     * @param profile the id of the profile to delete
+     * @return        whether the profile was deleted
+     */
+    boolean deleteProfile(int profile);
+
+    /**
+     * Returns the profile reads and writes currently apply to.
+     *
+     * @return the active profile's id
+     */
+    int getActiveProfile();
+
+    /**
+     * Makes another profile active, remembered across restarts.
+     * Listeners are told, since every statistic changes.
+     *
+     * @param profile the id of the profile to switch to
+     * @return        whether the profile exists and is now active
+     */
+    boolean setActiveProfile(int profile);
+
+    /**
+     * Returns the active profile's limits and where today stands against
+     * them.
+     *
+     * @return the limit state for today
+     */
+    LimitStatus getLimitStatus();
+
+    /**
+     * Sets the active profile's limits. A limit of 0 is switched off.
+     *
+     * @param dailyLimit  drinks allowed per day
+     * @param weeklyLimit drinks allowed per rolling 7 days
+     */
+    void setLimits(int dailyLimit, int weeklyLimit);
+
+    /**
+     * Registers a listener for limit alerts.
+     *
+     * @param listener told when a logged drink reaches or passes a limit
+     */
+    void addLimitListener(LimitListener listener);
+
+    /**
+     * Unregisters a listener added with addLimitListener().
+     *
+     * @param listener the listener to remove
+     */
+    void removeLimitListener(LimitListener listener);
+
+    /**
+     * Returns whether storage is encrypted at rest.
+     *
+     * @return true in encrypted mode
+     */
+    boolean isEncrypted();
+
+    /**
+     * Moves all data, every profile included, into encrypted or
+     * plaintext storage. Slow for a long history; never call it on the
+     * UI thread.
+     *
+     * @param encrypted true to encrypt, false to decrypt
+     * @return          whether storage is now in the requested mode
+     */
+    boolean setEncrypted(boolean encrypted);
+
+    /**
+     * Returns this device's id in sync exchanges, fixed when storage is
+     * created.
+     *
+     * @return the device id
+     */
+    String getDeviceId();
+
+    /**
+     * Returns, for every device the active profile holds counters from,
+     * the highest counter version held.
+     *
+     * @return device id to version
+     */
+    Map<String, Long> getSyncVector();
+
+    /**
+     * Streams the active profile's counters that are newer than since,
+     * without loading them all.
+     *
+     * @param since   device id to the version already held elsewhere;
+     *                devices missing from it are sent in full
+     * @param visitor receives each counter
+     * @return        the number of counters visited
+     * @throws IOException if the visitor throws
+     */
+    int visitCounters(Map<String, Long> since, CounterVisitor visitor)
+            throws IOException;
+
+    /**
+     * Merges another device's counters into the active profile in one
+     * transaction. The daily counts, totals and limits move by however
+     * much the merge changed each day.
+     *
+     * @param counters the counters received
+     * @return         the number of counters that changed anything
+     */
+    int mergeCounters(List<SyncCounter> counters);
+}
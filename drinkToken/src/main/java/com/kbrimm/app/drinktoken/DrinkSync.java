@@ -0,0 +1,194 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Use: Merges the active tracker's history with another device's. Each
+ *      device keeps its drinks as SyncCounters, and its sync vector says,
+ *      for every device it has heard from, the highest counter version
+ *      it holds. Both ends run the same two steps at once:
+ *
+ *        1. send HELLO (own device id, own vector), receive the peer's
+ *        2. send DELTA (every counter newer than the peer's vector),
+ *           receive the peer's and merge it
+ *
+ *      so only the days that changed since the two last met travel.
+ *      Merging is commutative and idempotent, so a repeated, stale or
+ *      interrupted exchange does no harm; the next one just catches up.
+ *      Has no Android dependencies.
+ *
+ *      Message layout (big-endian, via DataOutputStream):
+ *        HELLO: MAGIC, kind, device id, vector size, (device, version)*
+ *        DELTA: MAGIC, kind, device count, device*, counter count,
+ *               (device index, day, type, added, removed, added units,
+ *               removed units, version)*
+ * Access points: sync() - runs one exchange over a transport
+ */
+public final class DrinkSync {
+    // "DTS1"
+    static final int MAGIC = 0x44545331;
+    private static final byte KIND_HELLO = 1;
+    private static final byte KIND_DELTA = 2;
+
+    private DrinkSync() {
+    }
+
+    /**
+     * Runs one exchange with the peer at the other end of transport and
+     * merges what it sends into the active profile. The peer must be
+     * running sync() at the same time. The transport is left open.
+     *
+     * @param db        the store to sync
+     * @param transport the connection to the peer
+     * @return          the number of counters that changed here
+     * @throws IOException if the transport fails or the peer sends
+     *                     something unreadable
+     */
+    public static int sync(DrinkStore db, SyncTransport transport)
+            throws IOException {
+        String deviceId = db.getDeviceId();
+        transport.send(encodeHello(deviceId, db.getSyncVector()));
+        Map<String, Long> peerVector = new HashMap<String, Long>();
+        String peerId = decodeHello(transport.receive(), peerVector);
+        if (peerId.equals(deviceId)) {
+            throw new IOException("Cannot sync a device with itself");
+        }
+        transport.send(encodeDelta(db, peerVector));
+        List<SyncCounter> counters = decodeDelta(transport.receive());
+        return db.mergeCounters(counters);
+    }
+
+    static byte[] encodeHello(String deviceId, Map<String, Long> vector)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(KIND_HELLO);
+        out.writeUTF(deviceId);
+        out.writeInt(vector.size());
+        for (Map.Entry<String, Long> entry : vector.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static String decodeHello(byte[] message, Map<String, Long> vector)
+            throws IOException {
+        DataInputStream in = open(message, KIND_HELLO);
+        String deviceId = in.readUTF();
+        int size = readSize(in);
+        for (int i = 0; i < size; i++) {
+            String device = in.readUTF();
+            vector.put(device, in.readLong());
+        }
+        return deviceId;
+    }
+
+    /**
+     * Encodes every counter newer than since. Device ids are written once
+     * each and referred to by index.
+     */
+    static byte[] encodeDelta(DrinkStore db, Map<String, Long> since)
+            throws IOException {
+        final Map<String, Integer> devices =
+                new LinkedHashMap<String, Integer>();
+        final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+        final DataOutputStream rows = new DataOutputStream(rowBytes);
+        int count = db.visitCounters(since, new DrinkStore.CounterVisitor() {
+            @Override
+            public void visit(SyncCounter counter) throws IOException {
+                Integer index = devices.get(counter.getDeviceId());
+                if (index == null) {
+                    index = devices.size();
+                    devices.put(counter.getDeviceId(), index);
+                }
+                rows.writeInt(index);
+                rows.writeInt(counter.getDay());
+                rows.writeInt(counter.getType());
+                rows.writeInt(counter.getAdded());
+                rows.writeInt(counter.getRemoved());
+                rows.writeInt(counter.getAddedUnits());
+                rows.writeInt(counter.getRemovedUnits());
+                rows.writeLong(counter.getVersion());
+            }
+        });
+        rows.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                rowBytes.size() + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(KIND_DELTA);
+        out.writeInt(devices.size());
+        for (String device : devices.keySet()) {
+            out.writeUTF(device);
+        }
+        out.writeInt(count);
+        rowBytes.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<SyncCounter> decodeDelta(byte[] message) throws IOException {
+        DataInputStream in = open(message, KIND_DELTA);
+        String[] devices = new String[readSize(in)];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = in.readUTF();
+        }
+        int count = readSize(in);
+        List<SyncCounter> counters = new ArrayList<SyncCounter>(
+                Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            if (index < 0 || index >= devices.length) {
+                throw new IOException("Bad device index " + index);
+            }
+            counters.add(new SyncCounter(devices[index], in.readInt(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readLong()));
+        }
+        return counters;
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Bad size " + size);
+        }
+        return size;
+    }
+
+    private static DataInputStream open(byte[] message, byte kind)
+            throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(message));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a sync message");
+        }
+        byte found = in.readByte();
+        if (found != kind) {
+            throw new IOException("Expected message " + kind + ", got " +
+                    found);
+        }
+        return in;
+    }
+}
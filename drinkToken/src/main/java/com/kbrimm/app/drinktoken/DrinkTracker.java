@@ -12,23 +12,51 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.InputType;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.SubMenu;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 public class DrinkTracker extends AppCompatActivity {
     private static final String APP_VERSION = "1.0";
-    // private static final String TAG = "DrinkTracker";
+    // Request codes for the backup file pickers
+    private static final int REQUEST_EXPORT_CSV = 1;
+    private static final int REQUEST_EXPORT_JSON = 2;
+    private static final int REQUEST_IMPORT = 3;
+    // Menu item ids of the trackers are this plus the profile id
+    private static final int TRACKER_ITEM_BASE = 1000;
+    private static final String TAG = "DrinkTracker";
+    // Last stats shown on screen, and writes not yet reconciled with them
+    private DashboardStats shownStats = DashboardStats.EMPTY;
+    private int pendingWrites = 0;
+    // Startup instrumentation: when onCreate ran, and whether the
+    // database has delivered numbers yet
+    private long createTime;
+    private boolean freshData = false;
+    // Trackers for the menu, null until first loaded
+    private DrinkRepository.Profiles profiles;
+    // Whether storage is encrypted, for the menu and the bug report
+    private boolean encryptedStorage = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -37,10 +65,27 @@ public class DrinkTracker extends AppCompatActivity {
         setContentView(R.layout.activity_drink_logger);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
+        createTime = SystemClock.uptimeMillis();
+
+        // Draw the last counts we showed today, if any, in the first frame
+        DashboardStats snapshot = StatsSnapshot.read(this);
+        if (snapshot != null) {
+            setCounts(snapshot);
+        }
+        logFirstFrame();
+
+        // Long press the drink button to pick what was poured
+        View drinkButton = findViewById(R.id.beer_icon);
+        drinkButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                pickBeverage();
+                return true;
+            }
+        });
 
-        // Get the database, initialize the counts
-        DbHelper db = DbHelper.getInstance(this);
-        setCounts(db);
+        // Open the database in the background; counts load in onResume()
+        DrinkRepository.getInstance(this).open();
     }
 
     @Override
@@ -50,11 +95,62 @@ public class DrinkTracker extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // List the trackers, checking the active one
+        MenuItem trackers = menu.findItem(R.id.action_trackers);
+        if (trackers != null && profiles != null) {
+            SubMenu trackerMenu = trackers.getSubMenu();
+            trackerMenu.removeGroup(R.id.group_trackers);
+            for (int i = 0; i < profiles.profiles.size(); i++) {
+                Profile profile = profiles.profiles.get(i);
+                trackerMenu.add(R.id.group_trackers,
+                        TRACKER_ITEM_BASE + profile.getId(), i,
+                        profile.getName())
+                        .setChecked(profile.getId() == profiles.activeId);
+            }
+            trackerMenu.setGroupCheckable(R.id.group_trackers, true, true);
+            // The last tracker can't be deleted
+            trackerMenu.findItem(R.id.action_delete_tracker)
+                    .setVisible(profiles.profiles.size() > 1);
+        }
+        MenuItem encrypt = menu.findItem(R.id.action_encrypt);
+        if (encrypt != null) {
+            encrypt.setChecked(encryptedStorage);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
-        DbHelper db = DbHelper.getInstance(getApplicationContext());
-        setCounts(db);
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadStats(new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                if (!freshData) {
+                    freshData = true;
+                    Log.i(TAG, "Startup: fresh data after " +
+                            (SystemClock.uptimeMillis() - createTime) + " ms");
+                }
+                if (pendingWrites == 0) {
+                    setCounts(stats);
+                }
+            }
+        });
+        loadProfiles();
+        loadStorageMode();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't leave buffered taps behind
+        DrinkRepository.getInstance(this).flush();
+        // Remember what we showed for the next cold start
+        if (freshData) {
+            StatsSnapshot.write(this, shownStats);
+        }
     }
 
     @Override
@@ -63,7 +159,41 @@ public class DrinkTracker extends AppCompatActivity {
         // automatically handle clicks on the Home/Up button, so long
         // as you specify a parent activity in AndroidManifest.xml.
         int id = item.getItemId();
+        if (item.getGroupId() == R.id.group_trackers) {
+            switchProfile(id - TRACKER_ITEM_BASE);
+            return true;
+        }
         switch (id) {
+            case R.id.action_new_tracker:
+                newTracker();
+                return true;
+            case R.id.action_delete_tracker:
+                deleteTracker();
+                return true;
+            case R.id.action_by_type:
+                showTypeTotals();
+                return true;
+            case R.id.action_limits:
+                showLimits();
+                return true;
+            case R.id.action_redo:
+                redoDrink();
+                return true;
+            case R.id.action_history:
+                startActivity(new Intent(this, DrinkHistory.class));
+                return true;
+            case R.id.action_export_csv:
+                pickExportFile(REQUEST_EXPORT_CSV, "drinktoken.csv.gz");
+                return true;
+            case R.id.action_export_json:
+                pickExportFile(REQUEST_EXPORT_JSON, "drinktoken.json.gz");
+                return true;
+            case R.id.action_import:
+                pickImportFile();
+                return true;
+            case R.id.action_encrypt:
+                toggleEncryption();
+                return true;
             case R.id.action_clear:
                 clearData();
                 return true;
@@ -77,30 +207,89 @@ public class DrinkTracker extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode,
+                                    Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        Uri uri = data.getData();
+        switch (requestCode) {
+            case REQUEST_EXPORT_CSV:
+                exportData(uri, DrinkBackup.FORMAT_CSV);
+                break;
+            case REQUEST_EXPORT_JSON:
+                exportData(uri, DrinkBackup.FORMAT_JSON);
+                break;
+            case REQUEST_IMPORT:
+                importData(uri);
+                break;
+        }
+    }
+
     public void addDrink(View view) {
-        DbHelper db = DbHelper.getInstance(getApplicationContext());
-        db.incrementCount();
-        setCounts(db);
+        addDrink(BeverageType.STANDARD);
+    }
+
+    private void addDrink(int type) {
+        // Show the drink right away, reconcile once the write commits
+        setCounts(shownStats.withDelta(1, BeverageType.getUnits(type)));
+        pendingWrites++;
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.addDrink(type, new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                reconcile(stats);
+            }
+        });
         // Whee!
         animateDrinkButton();
     }
 
     public void undoDrink(View view) {
-        // Grab the Db
-        DbHelper db = DbHelper.getInstance(getApplicationContext());
-        // Try the decrement
-        if(db.decrementCount())
-        {
-            // If it works, icon spins and counts reset
+        // A buffered drink is certainly today's, so spin and show it gone
+        // now, weight and all; a journaled undo may land on another day,
+        // so wait for it
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        int units = repository.getPendingUndoUnits();
+        final boolean optimistic = units > 0;
+        if (optimistic) {
             animateUndoButton();
-            setCounts(db);
-        } else {
-            // Otherwise, sassy toast
-            Context context = getApplicationContext();
-            CharSequence cannot = "Cannot undo yesterday's mistakes.";
-            int duration = Toast.LENGTH_SHORT;
-            Toast.makeText(context, cannot, duration).show();
+            setCounts(shownStats.withDelta(-1, -units));
         }
+        pendingWrites++;
+        // Try the undo
+        repository.undoDrink(new DrinkRepository.Callback<DrinkRepository.UndoResult>() {
+            @Override
+            public void onResult(DrinkRepository.UndoResult result) {
+                reconcile(result.stats);
+                if (result.changed && !optimistic) {
+                    // It worked after all, icon spins
+                    animateUndoButton();
+                } else if (!result.changed) {
+                    // Otherwise, sassy toast
+                    Context context = getApplicationContext();
+                    CharSequence cannot = "No more mistakes to undo.";
+                    int duration = Toast.LENGTH_SHORT;
+                    Toast.makeText(context, cannot, duration).show();
+                }
+            }
+        });
+    }
+
+    private void redoDrink() {
+        pendingWrites++;
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.redoDrink(new DrinkRepository.Callback<DrinkRepository.UndoResult>() {
+            @Override
+            public void onResult(DrinkRepository.UndoResult result) {
+                reconcile(result.stats);
+                if (!result.changed) {
+                    showToast("Nothing to redo.");
+                }
+            }
+        });
     }
 
     private void clearData() {
@@ -113,29 +302,374 @@ public class DrinkTracker extends AppCompatActivity {
                 .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        // Get the Db
-                        DbHelper db =
-                                DbHelper.getInstance(getApplicationContext());
-                        // Clear the data
-                        db.clearData();
-                        // Reset the counts
-                        setCounts(db);
-                        // Confirmation toast.
-                        Context context = getApplicationContext();
-                        CharSequence clean = "You are a clean slate.";
-                        int duration = Toast.LENGTH_SHORT;
-                        Toast.makeText(context, clean, duration).show();
+                        // Clear the data, then reset the counts
+                        pendingWrites++;
+                        DrinkRepository repository = DrinkRepository
+                                .getInstance(getApplicationContext());
+                        repository.clearData(
+                                new DrinkRepository.Callback<DashboardStats>() {
+                            @Override
+                            public void onResult(DashboardStats stats) {
+                                reconcile(stats);
+                                // Confirmation toast.
+                                Context context = getApplicationContext();
+                                CharSequence clean = "You are a clean slate.";
+                                int duration = Toast.LENGTH_SHORT;
+                                Toast.makeText(context, clean, duration).show();
+                            }
+                        });
+                    }
+                })
+                .setNegativeButton(android.R.string.no, null).show();
+    }
+
+    private void pickBeverage() {
+        String[] names = BeverageType.getNames();
+        String[] labels = new String[names.length];
+        for (int type = 0; type < names.length; type++) {
+            labels[type] = names[type] + " (" +
+                    BeverageType.formatUnits(BeverageType.getUnits(type)) + ")";
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("What are you drinking?")
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        addDrink(which);
+                    }
+                })
+                .show();
+    }
+
+    private void showTypeTotals() {
+        // Per-type sums for the rolling week, from the daily aggregates
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadTypeTotals(DayKeys.today() - 6, 7,
+                new DrinkRepository.Callback<TypeTotals>() {
+            @Override
+            public void onResult(TypeTotals totals) {
+                StringBuilder text = new StringBuilder();
+                for (int type = 0; type < BeverageType.COUNT; type++) {
+                    if (totals.getCount(type) == 0) {
+                        continue;
+                    }
+                    text.append(BeverageType.getName(type)).append(": ")
+                            .append(totals.getCount(type)).append(" (")
+                            .append(BeverageType.formatUnits(totals.getUnits(type)))
+                            .append(" std)\n");
+                }
+                text.append("\nStandard drinks: ")
+                        .append(BeverageType.formatUnits(totals.getTotalUnits()));
+                new AlertDialog.Builder(DrinkTracker.this)
+                        .setTitle("This Week by Type")
+                        .setMessage(text.toString())
+                        .setPositiveButton(android.R.string.ok, null).show();
+            }
+        });
+    }
+
+    private void showLimits() {
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadLimits(new DrinkRepository.Callback<LimitStatus>() {
+            @Override
+            public void onResult(LimitStatus status) {
+                editLimits(status);
+            }
+        });
+    }
+
+    private void editLimits(LimitStatus status) {
+        // Two number fields, blank or 0 for no limit
+        final EditText daily = newLimitField("Drinks per day",
+                status.getDailyLimit());
+        final EditText weekly = newLimitField("Drinks per 7 days",
+                status.getWeeklyLimit());
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        fields.addView(daily);
+        fields.addView(weekly);
+
+        String message = "No limits set.";
+        if (status.isEnabled()) {
+            message = "Today: " + status.getDailyCount() +
+                    describeLimit(status.getDailyLimit(), status.getDailyState()) +
+                    "\nThis week: " + status.getWeeklyCount() +
+                    describeLimit(status.getWeeklyLimit(), status.getWeeklyState());
+            if (status.getDailyLimit() > 0) {
+                message += "\nDays within your daily limit: " +
+                        status.getStreakDays();
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Limits")
+                .setMessage(message)
+                .setView(fields)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        DrinkRepository repository = DrinkRepository
+                                .getInstance(getApplicationContext());
+                        repository.setLimits(parseLimit(daily),
+                                parseLimit(weekly), null);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null).show();
+    }
+
+    private EditText newLimitField(String hint, int limit) {
+        EditText field = new EditText(this);
+        field.setHint(hint);
+        field.setInputType(InputType.TYPE_CLASS_NUMBER);
+        if (limit > 0) {
+            field.setText(String.valueOf(limit));
+        }
+        return field;
+    }
+
+    private static String describeLimit(int limit, int state) {
+        if (limit <= 0) {
+            return "";
+        }
+        switch (state) {
+            case LimitStatus.STATE_AT:
+                return " of " + limit + " (at limit)";
+            case LimitStatus.STATE_OVER:
+                return " of " + limit + " (over limit)";
+            default:
+                return " of " + limit;
+        }
+    }
+
+    private static int parseLimit(EditText field) {
+        try {
+            return Math.max(0, Integer.parseInt(field.getText().toString().trim()));
+        } catch (NumberFormatException oops) {
+            return 0;
+        }
+    }
+
+    private void loadStorageMode() {
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadStorageMode(new DrinkRepository.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean encrypted) {
+                encryptedStorage = encrypted;
+                invalidateOptionsMenu();
+            }
+        });
+    }
+
+    private void toggleEncryption() {
+        final boolean encrypt = !encryptedStorage;
+        String message = encrypt ?
+                "Encrypt all trackers on this device? This may take a " +
+                        "moment for a long history." :
+                "Store all trackers without encryption?";
+        new AlertDialog.Builder(this)
+                .setTitle("Encrypt Storage")
+                .setMessage(message)
+                .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        DrinkRepository repository = DrinkRepository
+                                .getInstance(getApplicationContext());
+                        repository.setEncrypted(encrypt,
+                                new DrinkRepository.Callback<Boolean>() {
+                            @Override
+                            public void onResult(Boolean switched) {
+                                if (switched) {
+                                    encryptedStorage = encrypt;
+                                    invalidateOptionsMenu();
+                                    showToast(encrypt ? "Storage encrypted." :
+                                            "Storage decrypted.");
+                                } else {
+                                    showToast("Storage could not be changed.");
+                                }
+                            }
+                        });
+                    }
+                })
+                .setNegativeButton(android.R.string.no, null).show();
+    }
+
+    private void loadProfiles() {
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.loadProfiles(new DrinkRepository.Callback<DrinkRepository.Profiles>() {
+            @Override
+            public void onResult(DrinkRepository.Profiles result) {
+                profiles = result;
+                // Name the tracker once there is more than one
+                Profile active = result.getActive();
+                if (getSupportActionBar() != null) {
+                    getSupportActionBar().setSubtitle(
+                            result.profiles.size() > 1 && active != null ?
+                                    active.getName() : null);
+                }
+                invalidateOptionsMenu();
+            }
+        });
+    }
+
+    private void switchProfile(int profile) {
+        if (profiles != null && profile == profiles.activeId) {
+            return;
+        }
+        pendingWrites++;
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.switchProfile(profile,
+                new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                reconcile(stats);
+                loadProfiles();
+            }
+        });
+    }
+
+    private void newTracker() {
+        // Ask for a name, then switch to the new tracker
+        final EditText name = new EditText(this);
+        name.setHint("Tracker name");
+        new AlertDialog.Builder(this)
+                .setTitle("New Tracker")
+                .setView(name)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String trimmed = name.getText().toString().trim();
+                        if (trimmed.length() == 0) {
+                            showToast("A tracker needs a name.");
+                            return;
+                        }
+                        DrinkRepository repository = DrinkRepository
+                                .getInstance(getApplicationContext());
+                        repository.createProfile(trimmed,
+                                new DrinkRepository.Callback<Profile>() {
+                            @Override
+                            public void onResult(Profile created) {
+                                switchProfile(created.getId());
+                            }
+                        });
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null).show();
+    }
+
+    private void deleteTracker() {
+        if (profiles == null || profiles.getActive() == null) {
+            return;
+        }
+        final Profile active = profiles.getActive();
+        // Same warning as a clear, since the drinks go with it
+        new AlertDialog.Builder(this)
+                .setTitle("Delete Tracker")
+                .setMessage("Do you really want to delete " + active.getName() +
+                        " and all of its data? This action cannot be undone.")
+                .setIcon(android.R.drawable.ic_menu_delete)
+                .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        pendingWrites++;
+                        DrinkRepository repository = DrinkRepository
+                                .getInstance(getApplicationContext());
+                        repository.deleteProfile(active.getId(),
+                                new DrinkRepository.Callback<DashboardStats>() {
+                            @Override
+                            public void onResult(DashboardStats stats) {
+                                if (stats == null) {
+                                    pendingWrites--;
+                                    showToast("Cannot delete the last tracker.");
+                                } else {
+                                    reconcile(stats);
+                                }
+                                loadProfiles();
+                            }
+                        });
                     }
                 })
                 .setNegativeButton(android.R.string.no, null).show();
     }
 
+    private void pickExportFile(int requestCode, String fileName) {
+        Intent pick = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        pick.addCategory(Intent.CATEGORY_OPENABLE);
+        pick.setType("application/gzip");
+        pick.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(pick, requestCode);
+    }
+
+    private void pickImportFile() {
+        Intent pick = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        pick.addCategory(Intent.CATEGORY_OPENABLE);
+        pick.setType("*/*");
+        startActivityForResult(pick, REQUEST_IMPORT);
+    }
+
+    private void exportData(Uri uri, int format) {
+        OutputStream out;
+        try {
+            out = getContentResolver().openOutputStream(uri);
+        } catch (Exception oops) {
+            out = null;
+        }
+        if (out == null) {
+            showToast("Could not open that file.");
+            return;
+        }
+        DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.exportData(out, format, new DrinkRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer rows) {
+                showToast(rows < 0 ? "Export failed." :
+                        "Exported " + rows + " days.");
+            }
+        });
+    }
+
+    private void importData(Uri uri) {
+        InputStream in;
+        try {
+            in = getContentResolver().openInputStream(uri);
+        } catch (Exception oops) {
+            in = null;
+        }
+        if (in == null) {
+            showToast("Could not open that file.");
+            return;
+        }
+        pendingWrites++;
+        final DrinkRepository repository = DrinkRepository.getInstance(this);
+        repository.importData(in, new DrinkRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer rows) {
+                showToast(rows < 0 ? "That file is not a DrinkToken backup." :
+                        "Imported " + rows + " days.");
+                // Import commits in chunks, so read whatever is there now
+                repository.loadStats(new DrinkRepository.Callback<DashboardStats>() {
+                    @Override
+                    public void onResult(DashboardStats stats) {
+                        reconcile(stats);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showToast(CharSequence text) {
+        Context context = getApplicationContext();
+        int duration = Toast.LENGTH_SHORT;
+        Toast.makeText(context, text, duration).show();
+    }
+
     private void sendReport() {
         // Set bug report strings
         String[] recipient = {"info@drinktokenapp.com"};
         String subject = "DrinkTracker Bug Report";
         String body = "Please tell us a little bit about the bug you wish to "+
-                "report.\n\nWhat happened:\n\nWhat I expected:";
+                "report.\n\nWhat happened:\n\nWhat I expected:\n\n\n" +
+                "Diagnostics:\nstorage: " +
+                (encryptedStorage ? "encrypted" : "plaintext") + "\n" +
+                DbMetrics.getInstance().dump();
         // Set intent values
         Intent message = new Intent(Intent.ACTION_SEND);
         message.setType("message/rfc822");
@@ -196,14 +730,41 @@ public class DrinkTracker extends AppCompatActivity {
         fab.startAnimation(spin);
     }
 
-    private void setCounts(DbHelper db) {
+    private void logFirstFrame() {
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.i(TAG, "Startup: first frame after " +
+                        (SystemClock.uptimeMillis() - createTime) + " ms");
+                return true;
+            }
+        });
+    }
+
+    private void reconcile(DashboardStats committed) {
+        // Writes commit in order, so once the last one is back its stats
+        // include every tap; until then keep the optimistic numbers
+        pendingWrites--;
+        if (pendingWrites == 0) {
+            setCounts(committed);
+        }
+    }
+
+    private void setCounts(DashboardStats stats) {
+        shownStats = stats;
         // Get updated strings.
-        String dailyCountString = "Today: " + db.getDailyCount();
-        String weeklyCountString = "This week: " + db.getWeeklyCount();
+        String dailyCountString = "Today: " + stats.getDailyCount() + " (" +
+                BeverageType.formatUnits(stats.getDailyUnits()) + " std)";
+        String weeklyCountString = "This week: " + stats.getWeeklyCount() +
+                " (" + BeverageType.formatUnits(stats.getWeeklyUnits()) +
+                " std)";
         String dailyAvgString = "Daily average: " +
-                String.format("%.2f", db.getDailyAvg());
+                String.format("%.2f", stats.getDailyAvg());
         String weeklyAvgString = "Weekly average: " +
-                String.format("%.2f", db.getWeeklyAvg());
+                String.format("%.2f", stats.getWeeklyAvg());
 
         // Get and set text elements
         TextView dailyCount = (TextView) findViewById(R.id.count_strings);
@@ -0,0 +1,146 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+/**
+ * Use: Home-screen widget with a one-tap add button and today's and this
+ *      week's counts. A tap is a broadcast straight to this receiver,
+ *      which buffers the drink in DrinkRepository (and so the shared
+ *      DbHelper.getInstance()) without starting or inflating an activity.
+ *      The broadcast is kept alive with goAsync() until the write
+ *      commits, and the time from tap to commit is recorded.
+ *
+ *      Counter refreshes are requested by DbHelper's change notifications
+ *      (see DrinkRepository.getInstance()), debounced by UPDATE_DELAY_MS
+ *      so a burst of taps redraws once, and read from DbHelper's
+ *      in-memory daily series rather than querying drink_log.
+ * Access points: requestUpdate() - schedules a debounced counter refresh
+ *                getLastTapToCommitMs() - long for the last tap's latency
+ */
+public class DrinkWidget extends AppWidgetProvider {
+    public static final String ACTION_ADD_DRINK =
+            "com.kbrimm.app.drinktoken.action.ADD_DRINK";
+    // Quiet time before the counters are redrawn
+    static final long UPDATE_DELAY_MS = 250;
+
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+    private static final UpdateTask UPDATE_TASK = new UpdateTask();
+    private static volatile long lastTapToCommitMs = -1;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_ADD_DRINK.equals(intent.getAction())) {
+            addDrink(context.getApplicationContext());
+            return;
+        }
+        super.onReceive(context, intent);
+    }
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager manager,
+                         int[] widgetIds) {
+        requestUpdate(context);
+    }
+
+    /**
+     * Schedules a refresh of every widget's counters. Calls within
+     * UPDATE_DELAY_MS of each other collapse into one refresh. Safe to
+     * call from any thread.
+     *
+     * @param context context from which method is called
+     */
+    public static void requestUpdate(Context context) {
+        UPDATE_TASK.context = context.getApplicationContext();
+        HANDLER.removeCallbacks(UPDATE_TASK);
+        HANDLER.postDelayed(UPDATE_TASK, UPDATE_DELAY_MS);
+    }
+
+    /**
+     * Returns how long the last widget tap took to reach the database,
+     * from the broadcast arriving to its flush committing. Includes the
+     * repository's coalescing delay.
+     *
+     * @return the latency in milliseconds, or -1 before the first tap
+     */
+    public static long getLastTapToCommitMs() {
+        return lastTapToCommitMs;
+    }
+
+    private void addDrink(final Context context) {
+        final long tapTime = SystemClock.elapsedRealtime();
+        final PendingResult pending = goAsync();
+        DrinkRepository repository = DrinkRepository.getInstance(context);
+        repository.addDrink(new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                lastTapToCommitMs = SystemClock.elapsedRealtime() - tapTime;
+                // Log.d(TAG, "addDrink: Committed in " + lastTapToCommitMs);
+                pending.finish();
+            }
+        });
+    }
+
+    /**
+     * Reads the counters and pushes them to every widget instance.
+     */
+    private static final class UpdateTask implements Runnable {
+        private volatile Context context;
+
+        @Override
+        public void run() {
+            final Context appContext = context;
+            if (appContext == null) {
+                return;
+            }
+            DrinkRepository repository = DrinkRepository.getInstance(appContext);
+            repository.loadRecentCounts(new DrinkRepository.Callback<int[]>() {
+                @Override
+                public void onResult(int[] counts) {
+                    render(appContext, counts[0], counts[1]);
+                }
+            });
+        }
+    }
+
+    private static void render(Context context, int dailyCount,
+                               int weeklyCount) {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] widgetIds = manager.getAppWidgetIds(
+                new ComponentName(context, DrinkWidget.class));
+        if (widgetIds == null || widgetIds.length == 0) {
+            return;
+        }
+        Intent add = new Intent(context, DrinkWidget.class);
+        add.setAction(ACTION_ADD_DRINK);
+        PendingIntent addIntent = PendingIntent.getBroadcast(context, 0, add,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        PendingIntent openIntent = PendingIntent.getActivity(context, 0,
+                new Intent(context, DrinkTracker.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        RemoteViews views = new RemoteViews(context.getPackageName(),
+                R.layout.widget_drink);
+        views.setTextViewText(R.id.widget_counts, "Today: " + dailyCount +
+                "\nThis week: " + weeklyCount);
+        views.setOnClickPendingIntent(R.id.widget_add, addIntent);
+        views.setOnClickPendingIntent(R.id.widget_counts, openIntent);
+        manager.updateAppWidget(widgetIds, views);
+    }
+}
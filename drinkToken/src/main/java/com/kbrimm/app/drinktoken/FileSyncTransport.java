@@ -0,0 +1,111 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Use: SyncTransport through two directories, one per direction, such as
+ *      a folder both devices can see. Message n is the file n.sync;
+ *      it is written under a temporary name and renamed, so the peer
+ *      never reads half a message, and deleted once read. receive()
+ *      polls the inbox until the next file shows up or the timeout
+ *      passes.
+ * Access points: send() - writes the next file into the outbox
+ *                receive() - waits for, reads and deletes the next file
+ *                    in the inbox
+ */
+public class FileSyncTransport implements SyncTransport {
+    private static final String SUFFIX = ".sync";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long POLL_MS = 100;
+
+    private final File outbox;
+    private final File inbox;
+    private final long timeoutMs;
+    private int sent = 0;
+    private int received = 0;
+
+    /**
+     * @param outbox    where messages for the peer are written
+     * @param inbox     where the peer writes its messages
+     * @param timeoutMs longest receive() waits for a message
+     */
+    public FileSyncTransport(File outbox, File inbox, long timeoutMs) {
+        this.outbox = outbox;
+        this.inbox = inbox;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        String name = String.valueOf(sent);
+        File temp = new File(outbox, name + TEMP_SUFFIX);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(message);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(outbox, name + SUFFIX))) {
+            throw new IOException("Could not publish " + temp);
+        }
+        sent++;
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        File file = new File(inbox, received + SUFFIX);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!file.exists()) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("Timed out waiting for " + file);
+            }
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException oops) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " +
+                        file);
+            }
+        }
+        long length = file.length();
+        if (length > StreamSyncTransport.MAX_MESSAGE_BYTES) {
+            throw new IOException("Bad message length " + length);
+        }
+        byte[] message = new byte[(int) length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < message.length) {
+                int n = in.read(message, read, message.length - read);
+                if (n < 0) {
+                    throw new IOException("Truncated message " + file);
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        file.delete();
+        received++;
+        return message;
+    }
+
+    @Override
+    public void close() {
+        // Nothing held open between messages
+    }
+}
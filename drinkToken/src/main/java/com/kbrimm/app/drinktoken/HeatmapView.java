@@ -0,0 +1,105 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.view.View;
+
+import java.util.Calendar;
+
+/**
+ * Use: Year-at-a-glance calendar heatmap. One column per week, Sunday at
+ *      the top, with the week holding the last day of the DaySummary on
+ *      the right. Each day is shaded by its count against the heaviest
+ *      day shown; days before the summary starts are left blank. Draws
+ *      straight from the summary's counts, so showing it costs no reads
+ *      beyond loading the summary.
+ * Access points: setSummary() - sets the days to draw
+ */
+public class HeatmapView extends View {
+    // Columns drawn, enough for any 365 days
+    public static final int WEEKS = 53;
+    // Fraction of a cell left as the gap to its neighbours
+    private static final float GAP = 0.15f;
+
+    private final Paint emptyPaint = new Paint();
+    private final Paint dayPaint = new Paint();
+    private DaySummary summary;
+    private int largest = 1;
+
+    public HeatmapView(Context context) {
+        super(context);
+        emptyPaint.setColor(ContextCompat.getColor(context,
+                R.color.colorPrimaryLight));
+        dayPaint.setColor(ContextCompat.getColor(context,
+                R.color.colorPrimaryDark));
+    }
+
+    /**
+     * Sets the days to draw, ending on summary's last day, and finds the
+     * heaviest of them to scale the shading by.
+     *
+     * @param summary the days to draw
+     */
+    public void setSummary(DaySummary summary) {
+        this.summary = summary;
+        largest = 1;
+        for (int day = firstShownDay(summary); day <= summary.getLastDay();
+             day++) {
+            largest = Math.max(largest, summary.getCount(day));
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // Square cells across the full width
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        setMeasuredDimension(width, width * 7 / WEEKS);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (summary == null) {
+            return;
+        }
+        float cell = (float) getWidth() / WEEKS;
+        float gap = cell * GAP;
+        int lastDay = summary.getLastDay();
+        int start = firstShownDay(summary);
+        int first = Math.max(start, summary.getFirstDay());
+        for (int day = first; day <= lastDay; day++) {
+            int column = (day - start) / 7;
+            int row = (day - start) % 7;
+            int count = summary.getCount(day);
+            Paint paint = emptyPaint;
+            if (count > 0) {
+                // Lightest shade is still clearly not a dry day
+                dayPaint.setAlpha(64 + 191 * count / largest);
+                paint = dayPaint;
+            }
+            float left = column * cell;
+            float top = row * cell;
+            canvas.drawRect(left, top, left + cell - gap, top + cell - gap,
+                    paint);
+        }
+    }
+
+    /**
+     * Returns the Sunday that starts the leftmost column.
+     */
+    private static int firstShownDay(DaySummary summary) {
+        int lastDay = summary.getLastDay();
+        int lastRow = DayKeys.dayOfWeek(lastDay) - Calendar.SUNDAY;
+        return lastDay - lastRow - 7 * (WEEKS - 1);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Use: Viewport-driven loader for daily counts. Days are grouped into
+ *      fixed-size pages aligned on DayKeys keys; a page is requested from
+ *      the PageSource the first time a day in it is asked for, and at
+ *      most maxPages pages are kept, least recently used first out. So
+ *      memory stays at maxPages * pageSize ints however long the history
+ *      is. Meant to be used from one thread (the UI thread in the app);
+ *      has no Android dependencies.
+ * Access points: getCount() - int for a day, or UNKNOWN while it loads
+ *                getLargestCount() - int for the largest count seen
+ *                invalidate() - drops all pages, e.g. after a new drink
+ */
+public final class HistoryPager {
+    // Returned by getCount() while a day's page is still loading
+    public static final int UNKNOWN = -1;
+
+    private final PageSource source;
+    private final Listener listener;
+    private final int pageSize;
+    private final LinkedHashMap<Integer, int[]> pages;
+    private final Set<Integer> loading = new HashSet<Integer>();
+    // Bumped by invalidate() so stale loads are ignored
+    private int generation = 0;
+    private int largestCount = 0;
+
+    /**
+     * Loads pages of daily counts, usually off the calling thread.
+     */
+    public interface PageSource {
+        /**
+         * Loads days firstDay to firstDay + days - 1. Must eventually call
+         * back on the thread the pager is used from.
+         *
+         * @param firstDay the DayKeys key of the first day
+         * @param days     the number of days to load
+         * @param callback receives an int[days] of counts
+         */
+        void loadPage(int firstDay, int days, PageCallback callback);
+    }
+
+    /**
+     * Receives a loaded page from the PageSource.
+     */
+    public interface PageCallback {
+        void onPageLoaded(int[] counts);
+    }
+
+    /**
+     * Told when days that were UNKNOWN have loaded.
+     */
+    public interface Listener {
+        /**
+         * @param firstDay     the DayKeys key of the first loaded day
+         * @param lastDay      the DayKeys key of the last loaded day
+         * @param scaleChanged whether getLargestCount() grew
+         */
+        void onDaysLoaded(int firstDay, int lastDay, boolean scaleChanged);
+    }
+
+    /**
+     * @param source   where pages are loaded from
+     * @param listener told when pages arrive
+     * @param pageSize the number of days per page
+     * @param maxPages the number of pages kept in memory
+     */
+    public HistoryPager(PageSource source, Listener listener, int pageSize,
+                        final int maxPages) {
+        this.source = source;
+        this.listener = listener;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<Integer, int[]>(maxPages + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Returns a day's count if its page is loaded. Otherwise requests the
+     * page and returns UNKNOWN; the listener is told once it arrives.
+     *
+     * @param day the DayKeys key of the day
+     * @return    the day's count, or UNKNOWN
+     */
+    public int getCount(int day) {
+        int page = pageOf(day);
+        int[] counts = pages.get(page);
+        if (counts != null) {
+            return counts[day - page * pageSize];
+        }
+        requestPage(page);
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the largest daily count in any page loaded so far, for
+     * scaling bars. Never less than 1.
+     *
+     * @return the largest count seen
+     */
+    public int getLargestCount() {
+        return Math.max(largestCount, 1);
+    }
+
+    /**
+     * Returns the number of pages currently held.
+     *
+     * @return the number of cached pages
+     */
+    public int getCachedPages() {
+        return pages.size();
+    }
+
+    /**
+     * Drops every page, so the next getCount() calls reload them. Loads
+     * already in flight are ignored when they land.
+     */
+    public void invalidate() {
+        generation++;
+        pages.clear();
+        loading.clear();
+        largestCount = 0;
+    }
+
+    private void requestPage(final int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        final int requestGeneration = generation;
+        final int firstDay = page * pageSize;
+        source.loadPage(firstDay, pageSize, new PageCallback() {
+            @Override
+            public void onPageLoaded(int[] counts) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loading.remove(page);
+                pages.put(page, counts);
+                int oldLargest = largestCount;
+                for (int count : counts) {
+                    largestCount = Math.max(largestCount, count);
+                }
+                if (listener != null) {
+                    listener.onDaysLoaded(firstDay, firstDay + pageSize - 1,
+                            largestCount != oldLargest);
+                }
+            }
+        });
+    }
+
+    private int pageOf(int day) {
+        int page = day / pageSize;
+        if (day % pageSize != 0 && day < 0) {
+            page--;
+        }
+        return page;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.Calendar;
+
+/**
+ * Use: Immutable figures drawn from a DaySummary in a single pass over its
+ *      days: totals, the heaviest day, weekday and rolling week, the
+ *      longest and current dry streaks, and this month so far against
+ *      the same days of last month. Keeps the summary it was computed
+ *      from, for drawing the heatmap. Has no Android dependencies.
+ * Access points: of() - computes the insights for a summary
+ */
+public final class Insights {
+    private final DaySummary summary;
+    private final int totalDrinks;
+    private final int drinkingDays;
+    private final int heaviestDay;
+    private final int heaviestDayCount;
+    private final int[] weekdayTotals;
+    private final int heaviestWeekEnd;
+    private final int heaviestWeekCount;
+    private final int longestDryStreak;
+    private final int longestDryStreakEnd;
+    private final int currentDryStreak;
+    private final int monthToDate;
+    private final int lastMonthToDate;
+    private final int lastMonth;
+
+    private Insights(DaySummary summary, int totalDrinks, int drinkingDays,
+                     int heaviestDay, int heaviestDayCount,
+                     int[] weekdayTotals, int heaviestWeekEnd,
+                     int heaviestWeekCount, int longestDryStreak,
+                     int longestDryStreakEnd, int currentDryStreak,
+                     int monthToDate, int lastMonthToDate, int lastMonth) {
+        this.summary = summary;
+        this.totalDrinks = totalDrinks;
+        this.drinkingDays = drinkingDays;
+        this.heaviestDay = heaviestDay;
+        this.heaviestDayCount = heaviestDayCount;
+        this.weekdayTotals = weekdayTotals;
+        this.heaviestWeekEnd = heaviestWeekEnd;
+        this.heaviestWeekCount = heaviestWeekCount;
+        this.longestDryStreak = longestDryStreak;
+        this.longestDryStreakEnd = longestDryStreakEnd;
+        this.currentDryStreak = currentDryStreak;
+        this.monthToDate = monthToDate;
+        this.lastMonthToDate = lastMonthToDate;
+        this.lastMonth = lastMonth;
+    }
+
+    /**
+     * Computes the insights for every day of summary, taking its last day
+     * as today. Linear in the number of days, with no allocation beyond
+     * the result.
+     *
+     * @param summary the days to look at, oldest first
+     * @return        the insights
+     */
+    public static Insights of(DaySummary summary) {
+        short[] counts = summary.getCounts();
+        int firstDay = summary.getFirstDay();
+        int lastDay = summary.getLastDay();
+        // Month boundaries, as offsets into counts
+        int thisMonthStart = DayKeys.startOfMonth(lastDay) - firstDay;
+        int lastMonthStart = DayKeys.startOfMonth(thisMonthStart + firstDay -
+                1) - firstDay;
+        int lastMonthSpanEnd = Math.min(lastMonthStart + (lastDay - firstDay -
+                thisMonthStart), thisMonthStart - 1);
+
+        int total = 0;
+        int drinking = 0;
+        int heaviest = -1;
+        int heaviestCount = 0;
+        int[] weekdays = new int[7];
+        int weekday = DayKeys.dayOfWeek(firstDay) - Calendar.SUNDAY;
+        int week = 0;
+        int heaviestWeek = -1;
+        int heaviestWeekCount = 0;
+        int dry = 0;
+        int longestDry = 0;
+        int longestDryEnd = -1;
+        int monthToDate = 0;
+        int lastMonthToDate = 0;
+        int lastMonth = 0;
+        for (int i = 0; i < counts.length; i++) {
+            int count = counts[i];
+            total += count;
+            weekdays[weekday] += count;
+            weekday = weekday == 6 ? 0 : weekday + 1;
+            if (count > 0) {
+                drinking++;
+                dry = 0;
+                if (count > heaviestCount) {
+                    heaviest = i;
+                    heaviestCount = count;
+                }
+            } else if (++dry > longestDry) {
+                longestDry = dry;
+                longestDryEnd = i;
+            }
+            week += count;
+            if (i >= 7) {
+                week -= counts[i - 7];
+            }
+            if (week > heaviestWeekCount) {
+                heaviestWeek = i;
+                heaviestWeekCount = week;
+            }
+            if (i >= thisMonthStart) {
+                monthToDate += count;
+            } else if (i >= lastMonthStart) {
+                lastMonth += count;
+                if (i <= lastMonthSpanEnd) {
+                    lastMonthToDate += count;
+                }
+            }
+        }
+        return new Insights(summary, total, drinking,
+                heaviest < 0 ? -1 : firstDay + heaviest, heaviestCount,
+                weekdays, heaviestWeek < 0 ? -1 : firstDay + heaviestWeek,
+                heaviestWeekCount, longestDry,
+                longestDryEnd < 0 ? -1 : firstDay + longestDryEnd, dry,
+                monthToDate, lastMonthToDate, lastMonth);
+    }
+
+    public DaySummary getSummary() {
+        return summary;
+    }
+
+    public int getTotalDrinks() {
+        return totalDrinks;
+    }
+
+    public int getDays() {
+        return summary.getDays();
+    }
+
+    public int getDrinkingDays() {
+        return drinkingDays;
+    }
+
+    /**
+     * @return the drinks per day with any drinks, 0 if there were none
+     */
+    public double getDrinkingDayAvg() {
+        return drinkingDays == 0 ? 0 : (double) totalDrinks / drinkingDays;
+    }
+
+    /**
+     * @return the DayKeys key of the first day with the most drinks, -1 if
+     *         there were no drinks
+     */
+    public int getHeaviestDay() {
+        return heaviestDay;
+    }
+
+    public int getHeaviestDayCount() {
+        return heaviestDayCount;
+    }
+
+    /**
+     * @param weekday Calendar.SUNDAY through Calendar.SATURDAY
+     * @return        the drinks logged on that day of the week
+     */
+    public int getWeekdayTotal(int weekday) {
+        return weekdayTotals[weekday - Calendar.SUNDAY];
+    }
+
+    /**
+     * @return the Calendar day of the week with the most drinks, the
+     *         earliest in the week on a tie, -1 if there were no drinks
+     */
+    public int getHeaviestWeekday() {
+        int heaviest = -1;
+        int heaviestTotal = 0;
+        for (int i = 0; i < weekdayTotals.length; i++) {
+            if (weekdayTotals[i] > heaviestTotal) {
+                heaviest = i + Calendar.SUNDAY;
+                heaviestTotal = weekdayTotals[i];
+            }
+        }
+        return heaviest;
+    }
+
+    /**
+     * @return the DayKeys key of the last day of the first seven-day run
+     *         with the most drinks, -1 if there were no drinks
+     */
+    public int getHeaviestWeekEnd() {
+        return heaviestWeekEnd;
+    }
+
+    public int getHeaviestWeekCount() {
+        return heaviestWeekCount;
+    }
+
+    /**
+     * @return the most consecutive days without a drink
+     */
+    public int getLongestDryStreak() {
+        return longestDryStreak;
+    }
+
+    /**
+     * @return the DayKeys key of the last day of the first longest dry
+     *         streak, -1 if every day had drinks
+     */
+    public int getLongestDryStreakEnd() {
+        return longestDryStreakEnd;
+    }
+
+    /**
+     * @return the consecutive days without a drink up to and including
+     *         the last day
+     */
+    public int getCurrentDryStreak() {
+        return currentDryStreak;
+    }
+
+    public int getMonthToDate() {
+        return monthToDate;
+    }
+
+    /**
+     * @return the drinks on the same days of last month as this month has
+     *         had so far
+     */
+    public int getLastMonthToDate() {
+        return lastMonthToDate;
+    }
+
+    public int getLastMonth() {
+        return lastMonth;
+    }
+
+    /**
+     * @return the percentage change from the same days of last month to
+     *         this month so far, NaN if last month had none
+     */
+    public double getMonthChange() {
+        if (lastMonthToDate == 0) {
+            return Double.NaN;
+        }
+        return 100.0 * (monthToDate - lastMonthToDate) / lastMonthToDate;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.app.NotificationCompat;
+
+/**
+ * Use: Posts a notification when a logged drink reaches or passes the
+ *      daily or weekly limit. Registered as DbHelper's limit listener in
+ *      DrinkRepository.getInstance(), so it is told from the writer
+ *      thread right after the drink commits, however the drink was
+ *      logged. Each limit has its own notification, replaced rather than
+ *      stacked when it is crossed again.
+ * Access points: onLimitReached() - posts the alerts for a crossing
+ */
+public class LimitAlerts implements DrinkStore.LimitListener {
+    private static final int DAILY_NOTIFICATION_ID = 1;
+    private static final int WEEKLY_NOTIFICATION_ID = 2;
+
+    private final Context context;
+
+    /**
+     * @param context the application context
+     */
+    public LimitAlerts(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void onLimitReached(LimitStatus before, LimitStatus after) {
+        if (after.getDailyState() > before.getDailyState()) {
+            post(DAILY_NOTIFICATION_ID, after.getDailyState(),
+                    R.string.limit_daily_reached, R.string.limit_daily_over,
+                    after.getDailyCount(), after.getDailyLimit());
+        }
+        if (after.getWeeklyState() > before.getWeeklyState()) {
+            post(WEEKLY_NOTIFICATION_ID, after.getWeeklyState(),
+                    R.string.limit_weekly_reached, R.string.limit_weekly_over,
+                    after.getWeeklyCount(), after.getWeeklyLimit());
+        }
+    }
+
+    private void post(int id, int state, int reachedTitle, int overTitle,
+                      int count, int limit) {
+        Intent open = new Intent(context, DrinkTracker.class);
+        PendingIntent openApp = PendingIntent.getActivity(context, 0, open, 0);
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(context)
+                .setSmallIcon(R.mipmap.ic_launcher_drinktoken)
+                .setContentTitle(context.getString(
+                        state == LimitStatus.STATE_AT ? reachedTitle : overTitle))
+                .setContentText(context.getString(R.string.limit_alert_text,
+                        count, limit))
+                .setAutoCancel(true)
+                .setContentIntent(openApp);
+        NotificationManager manager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(id, builder.build());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: Immutable state of a profile's daily and weekly drink limits on
+ *      one day: the limits, the counts they are checked against, and the
+ *      streak of days spent within the daily limit. Every step is O(1):
+ *      DbHelper moves it along with withCounts() as drinks are logged or
+ *      undone and with advance() when the day rolls over, and never
+ *      rereads history to do so. A limit of 0 is switched off. Has no
+ *      Android dependencies.
+ * Access points: getDailyState()/getWeeklyState() - under, at or over
+ *                getStreakDays() - days within the daily limit, up to today
+ *                advance() - moves the state to a later day
+ *                withCounts() - copy checked against new counts
+ *                crossedUp() - whether a change pushed a limit up a state
+ */
+public final class LimitStatus {
+    // Where a count stands against its limit
+    public static final int STATE_UNDER = 0;
+    public static final int STATE_AT = 1;
+    public static final int STATE_OVER = 2;
+
+    private final int dailyLimit;
+    private final int weeklyLimit;
+    private final int day;
+    private final int dailyCount;
+    private final int weeklyCount;
+    // Consecutive days within the daily limit ending the day before day
+    private final int streakBefore;
+
+    /**
+     * @param dailyLimit   drinks allowed per day, 0 for no limit
+     * @param weeklyLimit  drinks allowed per rolling 7 days, 0 for no limit
+     * @param day          the DayKeys key of the day the counts are for
+     * @param dailyCount   drinks logged on day
+     * @param weeklyCount  drinks logged in the 7 days ending on day
+     * @param streakBefore days within the daily limit ending the day
+     *                     before day
+     */
+    public LimitStatus(int dailyLimit, int weeklyLimit, int day,
+                       int dailyCount, int weeklyCount, int streakBefore) {
+        this.dailyLimit = dailyLimit;
+        this.weeklyLimit = weeklyLimit;
+        this.day = day;
+        this.dailyCount = dailyCount;
+        this.weeklyCount = weeklyCount;
+        this.streakBefore = streakBefore;
+    }
+
+    public int getDailyLimit() {
+        return dailyLimit;
+    }
+
+    public int getWeeklyLimit() {
+        return weeklyLimit;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getDailyCount() {
+        return dailyCount;
+    }
+
+    public int getWeeklyCount() {
+        return weeklyCount;
+    }
+
+    public int getStreakBefore() {
+        return streakBefore;
+    }
+
+    /**
+     * Returns whether either limit is switched on.
+     *
+     * @return true if there is anything to check
+     */
+    public boolean isEnabled() {
+        return dailyLimit > 0 || weeklyLimit > 0;
+    }
+
+    public int getDailyState() {
+        return stateOf(dailyCount, dailyLimit);
+    }
+
+    public int getWeeklyState() {
+        return stateOf(weeklyCount, weeklyLimit);
+    }
+
+    /**
+     * Returns the number of consecutive days within the daily limit,
+     * counting today. A day over the limit ends the streak, so this is 0
+     * while today is over.
+     *
+     * @return the streak in days, 0 with no daily limit
+     */
+    public int getStreakDays() {
+        if (dailyLimit <= 0 || getDailyState() == STATE_OVER) {
+            return 0;
+        }
+        return streakBefore + 1;
+    }
+
+    /**
+     * Moves the state to a later day. The day this state was for closes
+     * out into the streak, or ends it if it was over, and every day in
+     * between had no drinks, so each of those extends the streak too.
+     *
+     * @param newDay      the DayKeys key of the new day
+     * @param dailyCount  drinks logged on newDay
+     * @param weeklyCount drinks logged in the 7 days ending on newDay
+     * @return            the state on newDay; this if newDay is not later
+     */
+    public LimitStatus advance(int newDay, int dailyCount, int weeklyCount) {
+        if (newDay <= day) {
+            return withCounts(dailyCount, weeklyCount);
+        }
+        int streak = 0;
+        if (dailyLimit > 0) {
+            streak = getStreakDays() + (newDay - day - 1);
+        }
+        return new LimitStatus(dailyLimit, weeklyLimit, newDay, dailyCount,
+                weeklyCount, streak);
+    }
+
+    /**
+     * Returns a copy checked against new counts on the same day.
+     *
+     * @param dailyCount  drinks logged on the day
+     * @param weeklyCount drinks logged in the 7 days ending on the day
+     * @return            the updated state
+     */
+    public LimitStatus withCounts(int dailyCount, int weeklyCount) {
+        return new LimitStatus(dailyLimit, weeklyLimit, day, dailyCount,
+                weeklyCount, streakBefore);
+    }
+
+    /**
+     * Returns whether the daily or weekly state is higher here than in
+     * before, i.e. a drink just reached or passed a limit.
+     *
+     * @param before the state prior to the change
+     * @return       true if either limit moved up a state
+     */
+    public boolean crossedUp(LimitStatus before) {
+        return getDailyState() > before.getDailyState() ||
+                getWeeklyState() > before.getWeeklyState();
+    }
+
+    /**
+     * Returns whether the persisted part of the state (day, both states
+     * and the streak) matches other, so an unchanged row need not be
+     * written again.
+     *
+     * @param other the state last written, may be null
+     * @return      true if writing this would change nothing
+     */
+    public boolean sameStoredState(LimitStatus other) {
+        return other != null && other.day == day &&
+                other.dailyLimit == dailyLimit &&
+                other.weeklyLimit == weeklyLimit &&
+                other.streakBefore == streakBefore &&
+                other.getDailyState() == getDailyState() &&
+                other.getWeeklyState() == getWeeklyState();
+    }
+
+    private static int stateOf(int count, int limit) {
+        if (limit <= 0 || count < limit) {
+            return STATE_UNDER;
+        }
+        return count == limit ? STATE_AT : STATE_OVER;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: Immutable outcome of one DrinkStore.runMaintenance() pass: how
+ *      long it took, how much of the file it gave back, and whether the
+ *      integrity check passed. Recorded in DbMetrics. Has no Android
+ *      dependencies.
+ */
+public final class MaintenanceReport {
+    private final long durationNanos;
+    private final long reclaimedBytes;
+    private final boolean integrityOk;
+    private final boolean completed;
+
+    /**
+     * @param durationNanos  how long the pass took
+     * @param reclaimedBytes bytes the database shrank by
+     * @param integrityOk    whether the integrity check passed
+     * @param completed      whether every step ran without an error
+     */
+    public MaintenanceReport(long durationNanos, long reclaimedBytes,
+                             boolean integrityOk, boolean completed) {
+        this.durationNanos = durationNanos;
+        this.reclaimedBytes = reclaimedBytes;
+        this.integrityOk = integrityOk;
+        this.completed = completed;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    public boolean isIntegrityOk() {
+        return integrityOk;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Use: Runs DrinkStore.runMaintenance() about once a day, only while the
+ *      device is idle and charging, through JobScheduler. The pass goes
+ *      through DrinkRepository's writer thread, so it never overlaps a
+ *      write. JobScheduler needs API 21; on older devices no pass is
+ *      scheduled. Registered in AndroidManifest.xml; persisting the job
+ *      across reboots needs RECEIVE_BOOT_COMPLETED.
+ * Access points: schedule() - schedules the job unless already pending
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceService extends JobService {
+    private static final int JOB_ID = 1;
+    private static final long INTERVAL_MS = AlarmManager.INTERVAL_DAY;
+
+    /**
+     * Schedules the daily maintenance job, persisted across reboots.
+     * Leaves an already pending job alone, so calling this on every
+     * launch does not push the next pass back. Callers check for API 21
+     * first, since this class cannot be loaded below it.
+     *
+     * @param context context from which method is called
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler)
+                context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        DrinkRepository.getInstance(this).runMaintenance(
+                new DrinkRepository.Callback<MaintenanceReport>() {
+                    @Override
+                    public void onResult(MaintenanceReport report) {
+                        jobFinished(params, false);
+                    }
+                });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // A pass cannot be cut short; the next period runs another
+        return false;
+    }
+}
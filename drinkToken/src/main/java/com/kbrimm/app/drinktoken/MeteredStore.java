@@ -0,0 +1,465 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Use: DrinkStore decorator that times every operation into DbMetrics.
+ *      Each call costs two System.nanoTime() reads and one short locked
+ *      update of primitive arrays; see DbMetrics.dump() for the measured
+ *      cost. Exceptions that escape the store are counted as errors and
+ *      rethrown unchanged. Listener registration, the stats version, the
+ *      active profile and the device id pass straight through.
+ */
+public class MeteredStore implements DrinkStore {
+    private final DrinkStore store;
+    private final DbMetrics metrics;
+
+    /**
+     * @param store   the store to wrap
+     * @param metrics where samples are recorded
+     */
+    public MeteredStore(DrinkStore store, DbMetrics metrics) {
+        this.store = store;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void open() {
+        long start = System.nanoTime();
+        try {
+            store.open();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_OPEN);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_OPEN, start);
+        }
+    }
+
+    @Override
+    public void logDrinks(long[] times, int[] types, int[] units,
+                          int length) {
+        long start = System.nanoTime();
+        try {
+            store.logDrinks(times, types, units, length);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_LOG_DRINKS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_LOG_DRINKS, start);
+        }
+    }
+
+    @Override
+    public boolean decrementCount() {
+        long start = System.nanoTime();
+        try {
+            return store.decrementCount();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_DECREMENT);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_DECREMENT, start);
+        }
+    }
+
+    @Override
+    public boolean undo() {
+        long start = System.nanoTime();
+        try {
+            return store.undo();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_UNDO);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_UNDO, start);
+        }
+    }
+
+    @Override
+    public boolean redo() {
+        long start = System.nanoTime();
+        try {
+            return store.redo();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_REDO);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_REDO, start);
+        }
+    }
+
+    @Override
+    public void clearData() {
+        long start = System.nanoTime();
+        try {
+            store.clearData();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_CLEAR);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_CLEAR, start);
+        }
+    }
+
+    @Override
+    public DashboardStats getDashboardStats() {
+        long start = System.nanoTime();
+        try {
+            return store.getDashboardStats();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_DASHBOARD);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_DASHBOARD, start);
+        }
+    }
+
+    @Override
+    public int[] getDailyCounts(int firstDay, int days) {
+        long start = System.nanoTime();
+        try {
+            return store.getDailyCounts(firstDay, days);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_DAILY_COUNTS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_DAILY_COUNTS, start);
+        }
+    }
+
+    @Override
+    public DaySummary getDaySummary(int firstDay, int days) {
+        long start = System.nanoTime();
+        try {
+            return store.getDaySummary(firstDay, days);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_DAY_SUMMARY);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_DAY_SUMMARY, start);
+        }
+    }
+
+    @Override
+    public TypeTotals getTypeTotals(int firstDay, int days) {
+        long start = System.nanoTime();
+        try {
+            return store.getTypeTotals(firstDay, days);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_TYPE_TOTALS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_TYPE_TOTALS, start);
+        }
+    }
+
+    @Override
+    public int[] getHourlyCounts(int days) {
+        long start = System.nanoTime();
+        try {
+            return store.getHourlyCounts(days);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_HOURLY_COUNTS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_HOURLY_COUNTS, start);
+        }
+    }
+
+    @Override
+    public RollingStats getRollingStats() {
+        long start = System.nanoTime();
+        try {
+            return store.getRollingStats();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_ROLLING_STATS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_ROLLING_STATS, start);
+        }
+    }
+
+    @Override
+    public int compactEvents(int horizonDays) {
+        long start = System.nanoTime();
+        try {
+            return store.compactEvents(horizonDays);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_COMPACT);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_COMPACT, start);
+        }
+    }
+
+    @Override
+    public boolean checkTotals() {
+        long start = System.nanoTime();
+        try {
+            return store.checkTotals();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_CHECK_TOTALS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_CHECK_TOTALS, start);
+        }
+    }
+
+    @Override
+    public MaintenanceReport runMaintenance() {
+        long start = System.nanoTime();
+        try {
+            return store.runMaintenance();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_MAINTENANCE);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_MAINTENANCE, start);
+        }
+    }
+
+    @Override
+    public int getCreatedDay() {
+        long start = System.nanoTime();
+        try {
+            return store.getCreatedDay();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_CREATED_DAY);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_CREATED_DAY, start);
+        }
+    }
+
+    @Override
+    public int visitDays(DayVisitor visitor) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return store.visitDays(visitor);
+        } catch (IOException oops) {
+            metrics.recordError(DbMetrics.OP_VISIT_DAYS);
+            throw oops;
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_VISIT_DAYS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_VISIT_DAYS, start);
+        }
+    }
+
+    @Override
+    public void beginRestore(int createdDay) {
+        long start = System.nanoTime();
+        try {
+            store.beginRestore(createdDay);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_RESTORE);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_RESTORE, start);
+        }
+    }
+
+    @Override
+    public void restoreChunk(int[] days, int[] counts, int length) {
+        long start = System.nanoTime();
+        try {
+            store.restoreChunk(days, counts, length);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_RESTORE);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_RESTORE, start);
+        }
+    }
+
+    @Override
+    public void endRestore() {
+        store.endRestore();
+    }
+
+    @Override
+    public void addStatsListener(StatsListener listener) {
+        store.addStatsListener(listener);
+    }
+
+    @Override
+    public void removeStatsListener(StatsListener listener) {
+        store.removeStatsListener(listener);
+    }
+
+    @Override
+    public long getStatsVersion() {
+        return store.getStatsVersion();
+    }
+
+    @Override
+    public List<Profile> getProfiles() {
+        long start = System.nanoTime();
+        try {
+            return store.getProfiles();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_PROFILES);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_PROFILES, start);
+        }
+    }
+
+    @Override
+    public Profile createProfile(String name) {
+        long start = System.nanoTime();
+        try {
+            return store.createProfile(name);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_PROFILES);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_PROFILES, start);
+        }
+    }
+
+    @Override
+    public boolean deleteProfile(int profile) {
+        long start = System.nanoTime();
+        try {
+            return store.deleteProfile(profile);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_PROFILES);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_PROFILES, start);
+        }
+    }
+
+    @Override
+    public int getActiveProfile() {
+        return store.getActiveProfile();
+    }
+
+    @Override
+    public boolean setActiveProfile(int profile) {
+        long start = System.nanoTime();
+        try {
+            return store.setActiveProfile(profile);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_PROFILES);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_PROFILES, start);
+        }
+    }
+
+    @Override
+    public LimitStatus getLimitStatus() {
+        long start = System.nanoTime();
+        try {
+            return store.getLimitStatus();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_LIMITS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_LIMITS, start);
+        }
+    }
+
+    @Override
+    public void setLimits(int dailyLimit, int weeklyLimit) {
+        long start = System.nanoTime();
+        try {
+            store.setLimits(dailyLimit, weeklyLimit);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_LIMITS);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_LIMITS, start);
+        }
+    }
+
+    @Override
+    public boolean isEncrypted() {
+        return store.isEncrypted();
+    }
+
+    @Override
+    public boolean setEncrypted(boolean encrypted) {
+        long start = System.nanoTime();
+        try {
+            return store.setEncrypted(encrypted);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_STORAGE_MODE);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_STORAGE_MODE, start);
+        }
+    }
+
+    @Override
+    public void addLimitListener(LimitListener listener) {
+        store.addLimitListener(listener);
+    }
+
+    @Override
+    public void removeLimitListener(LimitListener listener) {
+        store.removeLimitListener(listener);
+    }
+
+    @Override
+    public String getDeviceId() {
+        return store.getDeviceId();
+    }
+
+    @Override
+    public Map<String, Long> getSyncVector() {
+        long start = System.nanoTime();
+        try {
+            return store.getSyncVector();
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_SYNC);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_SYNC, start);
+        }
+    }
+
+    @Override
+    public int visitCounters(Map<String, Long> since, CounterVisitor visitor)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return store.visitCounters(since, visitor);
+        } catch (IOException oops) {
+            metrics.recordError(DbMetrics.OP_SYNC);
+            throw oops;
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_SYNC);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_SYNC, start);
+        }
+    }
+
+    @Override
+    public int mergeCounters(List<SyncCounter> counters) {
+        long start = System.nanoTime();
+        try {
+            return store.mergeCounters(counters);
+        } catch (RuntimeException oops) {
+            metrics.recordError(DbMetrics.OP_SYNC);
+            throw oops;
+        } finally {
+            metrics.record(DbMetrics.OP_SYNC, start);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: One step of the schema upgrade path. A migration takes a database
+ *      at version getVersion() - 1 to getVersion(). Steps are run in order
+ *      by DbMigrations inside the transaction DbHelper opens for
+ *      onUpgrade(), so a failure anywhere leaves the old schema intact.
+ * Access points: getVersion() - the version this step upgrades to
+ *                migrate() - applies the step
+ */
+public abstract class Migration {
+    private final int version;
+
+    /**
+     * Receives progress from long-running steps, such as copying a large
+     * table in chunks. Called on the thread that opened the database.
+     */
+    public interface ProgressListener {
+        /**
+         * @param version the version being migrated to
+         * @param done    the number of rows processed so far
+         * @param total   the number of rows to process
+         */
+        void onProgress(int version, long done, long total);
+    }
+
+    /**
+     * @param version the version this step upgrades to
+     */
+    protected Migration(int version) {
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies this step. The caller owns the transaction.
+     *
+     * @param db       a writable instance of the DrinkTracker database
+     * @param listener receives progress for large tables, may be null
+     */
+    public abstract void migrate(SqlDatabase db, ProgressListener listener);
+}
@@ -0,0 +1,191 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+
+/**
+ * Use: SqlDatabase over the platform's own SQLite, for plaintext mode, so
+ *      SQLCipher's native library is only loaded once encryption is
+ *      turned on. The file format is the same one SQLCipher writes with
+ *      an empty key, so either can open the other's plaintext file.
+ *      Write-ahead logging is left off in the framework and switched on
+ *      by DbHelper's PRAGMA instead: the framework then keeps a single
+ *      connection, as SQLCipher does, and every PRAGMA lands on the
+ *      connection that writes.
+ * Access points: Opener - opens files through android.database.sqlite
+ *                the SqlDatabase interface
+ */
+final class PlainDatabase implements SqlDatabase {
+    private final SQLiteDatabase db;
+
+    private PlainDatabase(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Opens files with the platform's SQLite. The key must be empty.
+     */
+    static final class Opener implements SqlDatabase.Opener {
+        @Override
+        public SqlDatabase open(File file, String key) {
+            if (key.length() > 0) {
+                throw new IllegalArgumentException(
+                        "plaintext database opened with a key");
+            }
+            // NO_LOCALIZED_COLLATORS: no android_metadata table, which
+            // copyDatabase() would otherwise carry into every copy
+            return new PlainDatabase(SQLiteDatabase.openDatabase(
+                    file.getPath(), null,
+                    SQLiteDatabase.CREATE_IF_NECESSARY |
+                            SQLiteDatabase.NO_LOCALIZED_COLLATORS));
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        db.execSQL(sql);
+    }
+
+    @Override
+    public void execSQL(String sql, Object[] args) {
+        db.execSQL(sql, args);
+    }
+
+    /**
+     * The framework's execSQL() refuses a statement that returns a row,
+     * as PRAGMA journal_mode and wal_checkpoint do, so these run as a
+     * query stepped to its end.
+     */
+    @Override
+    public void rawExecSQL(String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] args) {
+        return db.rawQuery(sql, args);
+    }
+
+    @Override
+    public SqlStatement compileStatement(String sql) {
+        return new Statement(db.compileStatement(sql));
+    }
+
+    @Override
+    public long longForQuery(String sql, String[] args) {
+        return DatabaseUtils.longForQuery(db, sql, args);
+    }
+
+    @Override
+    public String stringForQuery(String sql, String[] args) {
+        return DatabaseUtils.stringForQuery(db, sql, args);
+    }
+
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    /**
+     * SqlStatement over a framework statement.
+     */
+    private static final class Statement implements SqlStatement {
+        private final SQLiteStatement statement;
+
+        Statement(SQLiteStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            statement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            statement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            statement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            statement.bindBlob(index, value);
+        }
+
+        @Override
+        public void execute() {
+            statement.execute();
+        }
+
+        @Override
+        public long executeInsert() {
+            return statement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return statement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return statement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: Immutable description of one tracker: its key in every table and
+ *      the name shown in the tracker menu.
+ */
+public final class Profile {
+    private final int id;
+    private final String name;
+
+    /**
+     * @param id   the profile_id the tracker's rows are stored under
+     * @param name the tracker's display name
+     */
+    public Profile(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
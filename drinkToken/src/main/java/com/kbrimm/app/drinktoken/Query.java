@@ -0,0 +1,126 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: One SQL statement, defined once with ? placeholders for every
+ *      value, so its text never changes from call to call and one
+ *      compiled copy serves every call. Each query gets a small id when
+ *      it is defined, which StatementCache uses as an array index. The
+ *      app's queries are the _QUERY constants in DbHelper, reads and
+ *      writes alike. Has no Android dependencies.
+ * Access points: getSql() - the statement text
+ *                getParamCount() - the number of values it binds
+ *                args() - a read's values, checked against the
+ *                    placeholders, as the text rawQuery() binds
+ */
+public final class Query {
+    // Queries defined so far; the next one's id
+    private static int defined = 0;
+
+    private final int id;
+    private final String name;
+    private final String sql;
+    private final int paramCount;
+
+    /**
+     * @param name a short name for reports
+     * @param sql  the statement, with a ? for every value
+     */
+    public Query(String name, String sql) {
+        this.id = nextId();
+        this.name = name;
+        this.sql = sql;
+        this.paramCount = countParams(sql);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * Returns the values for a query's placeholders, in order, as the
+     * strings rawQuery() binds. Only numbers and strings are accepted,
+     * and there must be one value per placeholder, so a read can no
+     * longer bind the wrong number of values or something that would
+     * only compare as text.
+     *
+     * @param values one Integer, Long or String per placeholder
+     * @return       the values as text
+     * @throws IllegalArgumentException for the wrong number of values or
+     *                                  a value of another type
+     */
+    public String[] args(Object... values) {
+        if (values.length != paramCount) {
+            throw new IllegalArgumentException(name + " binds " +
+                    paramCount + " values, not " + values.length);
+        }
+        String[] args = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (!(value instanceof Integer || value instanceof Long ||
+                    value instanceof String)) {
+                throw new IllegalArgumentException(name + " value " +
+                        (i + 1) + " is not an Integer, Long or String");
+            }
+            args[i] = value.toString();
+        }
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @return the number of queries defined so far, one more than the
+     *         highest id
+     */
+    public static synchronized int count() {
+        return defined;
+    }
+
+    private static synchronized int nextId() {
+        return defined++;
+    }
+
+    /**
+     * Counts the ? placeholders outside quoted strings.
+     */
+    private static int countParams(String sql) {
+        int count = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: In-memory daily series for arbitrary-window statistics. Holds one
+ *      int per day, indexed by offset from meta_data.created_date, plus
+ *      prefix sums and dry-run lengths, so window sums, moving averages
+ *      and streaks are O(1) per query. Range maxima use a sparse table
+ *      that is rebuilt lazily after a change. Loaded once by
+ *      DbHelper.getRollingStats() and kept current by DbHelper's write
+ *      paths. Has no Android dependencies.
+ * Access points: add() - applies a change to one day's count
+ *                getCount() - int for one day's count
+ *                sum() - int for drinks between two days, inclusive
+ *                windowSum() - int for drinks in the N days ending on a day
+ *                movingAverage() - double for drinks/day over N days
+ *                maxDay() - int for the largest day's count in a range
+ *                dryStreak() - int for consecutive days without drinks
+ */
+public final class RollingStats {
+    private static final int MIN_CAPACITY = 64;
+
+    private final int firstDay;
+    // counts[i] is the count for firstDay + i; length days are in use
+    private int[] counts;
+    // prefix[i] is the sum of counts[0..i-1]
+    private long[] prefix;
+    // dryRun[i] is the number of consecutive zero days ending at i
+    private int[] dryRun;
+    private int length;
+    // sparse[k][i] is the max of counts[i..i + 2^k - 1]; null when stale
+    private int[][] sparse;
+
+    /**
+     * Builds the series from a dense array of daily counts.
+     *
+     * @param firstDay the DayKeys key of counts[0], the creation date
+     * @param counts   daily counts, copied
+     * @param length   the number of entries of counts in use
+     */
+    public RollingStats(int firstDay, int[] counts, int length) {
+        this.firstDay = firstDay;
+        int capacity = Math.max(MIN_CAPACITY, length);
+        this.counts = new int[capacity];
+        this.prefix = new long[capacity + 1];
+        this.dryRun = new int[capacity];
+        System.arraycopy(counts, 0, this.counts, 0, length);
+        this.length = length;
+        rebuildFrom(0);
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns the last day the series covers, never before firstDay.
+     *
+     * @return the DayKeys key of the last day held
+     */
+    public synchronized int getLastDay() {
+        return firstDay + Math.max(length, 1) - 1;
+    }
+
+    /**
+     * Applies a change to one day's count. Days after the end of the
+     * series extend it with zero days. Changing the last day is O(1);
+     * earlier days cost O(days after it).
+     *
+     * @param day   the DayKeys key of the day
+     * @param delta the change in the day's count
+     */
+    public synchronized void add(int day, int delta) {
+        int index = day - firstDay;
+        if (index < 0 || delta == 0) {
+            return;
+        }
+        ensureLength(index + 1);
+        counts[index] += delta;
+        rebuildFrom(index);
+        sparse = null;
+    }
+
+    /**
+     * Returns one day's count.
+     *
+     * @param day the DayKeys key of the day
+     * @return    the day's count, 0 outside the series
+     */
+    public synchronized int getCount(int day) {
+        int index = day - firstDay;
+        if (index < 0 || index >= length) {
+            return 0;
+        }
+        return counts[index];
+    }
+
+    /**
+     * Returns the number of drinks between two days, inclusive. Days
+     * outside the series count as zero.
+     *
+     * @param fromDay the DayKeys key of the first day
+     * @param toDay   the DayKeys key of the last day
+     * @return        the total for the range
+     */
+    public synchronized int sum(int fromDay, int toDay) {
+        int from = Math.max(fromDay - firstDay, 0);
+        int to = Math.min(toDay - firstDay, length - 1);
+        if (from > to) {
+            return 0;
+        }
+        return (int) (prefix[to + 1] - prefix[from]);
+    }
+
+    /**
+     * Returns the number of drinks in the window of days ending on endDay,
+     * so windowSum(today, 7) is the rolling week.
+     *
+     * @param endDay the DayKeys key of the last day of the window
+     * @param days   the length of the window
+     * @return       the total for the window
+     */
+    public int windowSum(int endDay, int days) {
+        return sum(endDay - days + 1, endDay);
+    }
+
+    /**
+     * Returns the average drinks per day over the window of days ending on
+     * endDay. Days before creation are not counted in the divisor.
+     *
+     * @param endDay the DayKeys key of the last day of the window
+     * @param days   the length of the window
+     * @return       the average, 0 if the window holds no tracked days
+     */
+    public synchronized double movingAverage(int endDay, int days) {
+        int fromDay = Math.max(endDay - days + 1, firstDay);
+        int tracked = endDay - fromDay + 1;
+        if (tracked <= 0) {
+            return 0;
+        }
+        return 1.0 * sum(fromDay, endDay) / tracked;
+    }
+
+    /**
+     * Returns the largest single-day count between two days, inclusive.
+     *
+     * @param fromDay the DayKeys key of the first day
+     * @param toDay   the DayKeys key of the last day
+     * @return        the largest count, 0 for an empty range
+     */
+    public synchronized int maxDay(int fromDay, int toDay) {
+        int from = Math.max(fromDay - firstDay, 0);
+        int to = Math.min(toDay - firstDay, length - 1);
+        if (from > to) {
+            return 0;
+        }
+        if (sparse == null) {
+            buildSparse();
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+        return Math.max(sparse[level][from],
+                sparse[level][to - (1 << level) + 1]);
+    }
+
+    /**
+     * Returns the number of consecutive days without drinks ending on
+     * endDay. Days after the end of the series count as dry.
+     *
+     * @param endDay the DayKeys key of the last day
+     * @return       the length of the dry streak
+     */
+    public synchronized int dryStreak(int endDay) {
+        int index = endDay - firstDay;
+        if (index < 0) {
+            return 0;
+        }
+        if (index >= length) {
+            int tail = length == 0 ? 0 : dryRun[length - 1];
+            return tail + index - length + 1;
+        }
+        return dryRun[index];
+    }
+
+    /**
+     * Grows the series to at least newLength days, padding with zeros.
+     */
+    private void ensureLength(int newLength) {
+        if (newLength <= length) {
+            return;
+        }
+        if (newLength > counts.length) {
+            int capacity = Math.max(newLength, counts.length * 2);
+            int[] grownCounts = new int[capacity];
+            long[] grownPrefix = new long[capacity + 1];
+            int[] grownRun = new int[capacity];
+            System.arraycopy(counts, 0, grownCounts, 0, length);
+            System.arraycopy(prefix, 0, grownPrefix, 0, length + 1);
+            System.arraycopy(dryRun, 0, grownRun, 0, length);
+            counts = grownCounts;
+            prefix = grownPrefix;
+            dryRun = grownRun;
+        }
+        int oldLength = length;
+        length = newLength;
+        rebuildFrom(oldLength);
+        sparse = null;
+    }
+
+    /**
+     * Recomputes prefix sums and dry runs from index to the end.
+     */
+    private void rebuildFrom(int index) {
+        for (int i = index; i < length; i++) {
+            prefix[i + 1] = prefix[i] + counts[i];
+            int previousRun = i == 0 ? 0 : dryRun[i - 1];
+            dryRun[i] = counts[i] == 0 ? previousRun + 1 : 0;
+        }
+    }
+
+    /**
+     * Builds the sparse table for range maxima in O(n log n).
+     */
+    private void buildSparse() {
+        int levels = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1));
+        sparse = new int[levels][];
+        sparse[0] = new int[length];
+        System.arraycopy(counts, 0, sparse[0], 0, length);
+        for (int k = 1; k < levels; k++) {
+            int span = 1 << k;
+            int half = span >> 1;
+            sparse[k] = new int[length - span + 1];
+            for (int i = 0; i + span <= length; i++) {
+                sparse[k][i] = Math.max(sparse[k - 1][i],
+                        sparse[k - 1][i + half]);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import java.io.File;
+
+/**
+ * Use: One open SQLite connection, as DbHelper, DbMigrations and
+ *      StatementCache use it. The app's connections are PlainDatabase,
+ *      over the platform's SQLite, and CipherDatabase, over SQLCipher,
+ *      for encrypted mode; unit tests supply their own through an
+ *      Opener, so the same SQL runs on the JVM without the native
+ *      library.
+ *      Transactions nest: only the outermost endTransaction() commits,
+ *      and only if every level was marked successful. rawQuery() binds
+ *      its arguments as text.
+ * Access points: execSQL() - runs one statement, with or without bound
+ *                    arguments
+ *                rawExecSQL() - runs a statement, stepping through any
+ *                    rows it returns (PRAGMAs that do work per row)
+ *                rawQuery() - a cursor over a query's rows
+ *                compileStatement() - a statement to bind and run again
+ *                longForQuery() / stringForQuery() - the first column of
+ *                    a query's first row
+ *                beginTransaction() / setTransactionSuccessful() /
+ *                    endTransaction() - a transaction level
+ *                getVersion() / setVersion() - PRAGMA user_version
+ *                isOpen() / close()
+ */
+public interface SqlDatabase {
+
+    /**
+     * Opens, or creates, the database file at a path with a key.
+     */
+    interface Opener {
+        /**
+         * @param file the database file, created if missing
+         * @param key  the encryption key, "" for a plaintext file
+         * @return     the open connection
+         */
+        SqlDatabase open(File file, String key);
+    }
+
+    void execSQL(String sql);
+
+    void execSQL(String sql, Object[] args);
+
+    void rawExecSQL(String sql);
+
+    Cursor rawQuery(String sql, String[] args);
+
+    SqlStatement compileStatement(String sql);
+
+    long longForQuery(String sql, String[] args);
+
+    String stringForQuery(String sql, String[] args);
+
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    int getVersion();
+
+    void setVersion(int version);
+
+    boolean isOpen();
+
+    void close();
+}
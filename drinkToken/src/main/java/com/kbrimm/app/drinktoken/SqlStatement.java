@@ -0,0 +1,40 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: A compiled statement on one SqlDatabase connection. Bindings stay
+ *      in place between executions until they are bound again.
+ *      Parameters are numbered from 1.
+ * Access points: bind*() - set a parameter
+ *                execute() - runs the statement
+ *                executeInsert() - the new rowid, or -1 if nothing changed
+ *                executeUpdateDelete() - the number of rows changed
+ *                simpleQueryForLong() - the first column of the first row
+ *                close() - releases the statement
+ */
+public interface SqlStatement {
+    void bindNull(int index);
+
+    void bindLong(int index, long value);
+
+    void bindString(int index, String value);
+
+    void bindBlob(int index, byte[] value);
+
+    void execute();
+
+    long executeInsert();
+
+    int executeUpdateDelete();
+
+    long simpleQueryForLong();
+
+    void close();
+}
@@ -0,0 +1,78 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.util.Arrays;
+
+/**
+ * Use: The compiled statements of one connection, one per Query, compiled
+ *      on first use and kept until close(). A compiled statement belongs
+ *      to the connection it was compiled against, so DbHelper replaces
+ *      the cache whenever its writable connection changes. Each lookup
+ *      is counted in DbMetrics as a hit or a miss. Not thread-safe;
+ *      DbHelper only uses it with the lock on itself held.
+ * Access points: get() - the compiled statement for a query
+ *                close() - closes every statement
+ */
+final class StatementCache {
+    private final SqlDatabase db;
+    private final DbMetrics metrics;
+    // Indexed by Query id
+    private SqlStatement[] statements;
+
+    /**
+     * @param db      the connection statements are compiled against
+     * @param metrics where hits and misses are counted
+     */
+    StatementCache(SqlDatabase db, DbMetrics metrics) {
+        this.db = db;
+        this.metrics = metrics;
+        this.statements = new SqlStatement[Query.count()];
+    }
+
+    SqlDatabase getDatabase() {
+        return db;
+    }
+
+    /**
+     * Returns the compiled statement for query, compiling it on first
+     * use. Callers bind every parameter before each execution; values
+     * left from the last one are not cleared.
+     *
+     * @param query the statement to run
+     * @return      its compiled copy on this connection
+     */
+    SqlStatement get(Query query) {
+        int id = query.getId();
+        if (id >= statements.length) {
+            statements = Arrays.copyOf(statements, Query.count());
+        }
+        SqlStatement statement = statements[id];
+        if (statement == null) {
+            statement = db.compileStatement(query.getSql());
+            statements[id] = statement;
+            metrics.recordStatement(false);
+        } else {
+            metrics.recordStatement(true);
+        }
+        return statement;
+    }
+
+    /**
+     * Closes every compiled statement. The cache is empty afterwards.
+     */
+    void close() {
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i] != null) {
+                statements[i].close();
+                statements[i] = null;
+            }
+        }
+    }
+}
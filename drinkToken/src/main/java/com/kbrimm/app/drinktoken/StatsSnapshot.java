@@ -0,0 +1,75 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Use: Persists the last dashboard stats shown, so a cold start can draw
+ *      real numbers in its first frame before the database is open. The
+ *      snapshot is a handful of ints in its own small preferences file.
+ *      It is only trusted on the day it was saved; on any other day the
+ *      daily and weekly counts could be wrong, so it is ignored.
+ * Access points: read() - returns the saved stats, or null if stale
+ *                write() - saves stats, asynchronously
+ */
+public final class StatsSnapshot {
+    private static final String PREFS_NAME = "stats_snapshot";
+    private static final String KEY_DAY = "day";
+    private static final String KEY_DAILY = "daily_count";
+    private static final String KEY_WEEKLY = "weekly_count";
+    private static final String KEY_TOTAL = "total_drinks";
+    private static final String KEY_ELAPSED = "elapsed_days";
+    private static final String KEY_DAILY_UNITS = "daily_units";
+    private static final String KEY_WEEKLY_UNITS = "weekly_units";
+    private static final String KEY_TOTAL_UNITS = "total_units";
+
+    private StatsSnapshot() {
+    }
+
+    /**
+     * Returns the saved stats if they were saved today.
+     *
+     * @param context context from which method is called
+     * @return        the saved stats, or null if none or from another day
+     */
+    public static DashboardStats read(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+        if (prefs.getInt(KEY_DAY, Integer.MIN_VALUE) != DayKeys.today()) {
+            return null;
+        }
+        return new DashboardStats(prefs.getInt(KEY_DAILY, 0),
+                prefs.getInt(KEY_WEEKLY, 0), prefs.getInt(KEY_TOTAL, 0),
+                prefs.getInt(KEY_ELAPSED, 1), prefs.getInt(KEY_DAILY_UNITS, 0),
+                prefs.getInt(KEY_WEEKLY_UNITS, 0),
+                prefs.getInt(KEY_TOTAL_UNITS, 0));
+    }
+
+    /**
+     * Saves stats as today's snapshot. The write happens off the calling
+     * thread.
+     *
+     * @param context context from which method is called
+     * @param stats   the stats to save
+     */
+    public static void write(Context context, DashboardStats stats) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(KEY_DAY, DayKeys.today())
+                .putInt(KEY_DAILY, stats.getDailyCount())
+                .putInt(KEY_WEEKLY, stats.getWeeklyCount())
+                .putInt(KEY_TOTAL, stats.getTotalDrinks())
+                .putInt(KEY_ELAPSED, stats.getElapsedDays())
+                .putInt(KEY_DAILY_UNITS, stats.getDailyUnits())
+                .putInt(KEY_WEEKLY_UNITS, stats.getWeeklyUnits())
+                .putInt(KEY_TOTAL_UNITS, stats.getTotalUnits())
+                .apply();
+    }
+}
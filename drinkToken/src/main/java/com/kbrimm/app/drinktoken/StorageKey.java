@@ -0,0 +1,122 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.KeyPairGeneratorSpec;
+import android.util.Base64;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.util.Calendar;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Use: The key the encrypted database is opened with. A random 256-bit
+ *      key is generated once and kept in a small preferences file,
+ *      wrapped with an RSA key pair that never leaves the Android
+ *      keystore, so a copy of the app's files alone cannot open the
+ *      database. The key is unwrapped once per process and cached, and
+ *      handed to SQLCipher as a raw key, which skips SQLCipher's own
+ *      passphrase derivation on every open.
+ * Access points: getSessionKey() - returns the raw key as SQLCipher
+ *                    passphrase text, unwrapping it on first use
+ */
+public final class StorageKey {
+    // Bytes in the database key
+    private static final int KEY_BYTES = 32;
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "drinktoken_storage";
+    private static final String WRAP_CIPHER = "RSA/ECB/PKCS1Padding";
+    // Where the wrapped key is kept
+    private static final String PREFS_NAME = "storage";
+    private static final String KEY_WRAPPED = "wrapped_key";
+    // The unwrapped key for this process; guarded by the class lock
+    private static String sessionKey;
+
+    private StorageKey() {
+    }
+
+    /**
+     * Returns the database key as SQLCipher raw key text, x'...'.
+     * Generates and wraps a new key the first time it is ever called.
+     * Slow on the first call of a process only; never call it on the UI
+     * thread.
+     *
+     * @param context context from which method is called
+     * @return        the raw key text
+     * @throws IllegalStateException if the keystore cannot be used
+     */
+    public static synchronized String getSessionKey(Context context) {
+        if (sessionKey != null) {
+            return sessionKey;
+        }
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            if (!keyStore.containsAlias(KEY_ALIAS)) {
+                generateKeyPair(context);
+            }
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            String wrapped = prefs.getString(KEY_WRAPPED, null);
+            byte[] key;
+            if (wrapped == null) {
+                key = new byte[KEY_BYTES];
+                new SecureRandom().nextBytes(key);
+                Cipher cipher = Cipher.getInstance(WRAP_CIPHER);
+                cipher.init(Cipher.ENCRYPT_MODE,
+                        keyStore.getCertificate(KEY_ALIAS).getPublicKey());
+                prefs.edit().putString(KEY_WRAPPED, Base64.encodeToString(
+                        cipher.doFinal(key), Base64.NO_WRAP)).commit();
+            } else {
+                Cipher cipher = Cipher.getInstance(WRAP_CIPHER);
+                cipher.init(Cipher.DECRYPT_MODE,
+                        (PrivateKey) keyStore.getKey(KEY_ALIAS, null));
+                key = cipher.doFinal(Base64.decode(wrapped, Base64.NO_WRAP));
+            }
+            sessionKey = toRawKey(key);
+            return sessionKey;
+        } catch (Exception oops) {
+            throw new IllegalStateException("Storage key unavailable", oops);
+        }
+    }
+
+    private static void generateKeyPair(Context context) throws Exception {
+        Calendar start = Calendar.getInstance();
+        Calendar end = Calendar.getInstance();
+        end.add(Calendar.YEAR, 30);
+        KeyPairGeneratorSpec spec = new KeyPairGeneratorSpec.Builder(context)
+                .setAlias(KEY_ALIAS)
+                .setSubject(new X500Principal("CN=" + KEY_ALIAS))
+                .setSerialNumber(BigInteger.ONE)
+                .setStartDate(start.getTime())
+                .setEndDate(end.getTime())
+                .build();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA",
+                KEYSTORE);
+        generator.initialize(spec);
+        generator.generateKeyPair();
+    }
+
+    private static String toRawKey(byte[] key) {
+        StringBuilder raw = new StringBuilder(KEY_BYTES * 2 + 3).append("x'");
+        for (byte b : key) {
+            raw.append(String.format(Locale.US, "%02X", b & 0xff));
+        }
+        return raw.append('\'').toString();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Use: SyncTransport over a pair of byte streams, such as the two ends
+ *      of a local socket, or piped streams standing in for one. Each
+ *      message is written as its length followed by its bytes.
+ * Access points: send()/receive() - one framed message
+ *                close() - closes both streams
+ */
+public class StreamSyncTransport implements SyncTransport {
+    // Largest message accepted, so a bad length cannot exhaust memory
+    static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * @param in  where the peer's messages arrive
+     * @param out where messages for the peer go
+     */
+    public StreamSyncTransport(InputStream in, OutputStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(out,
+                BUFFER_SIZE));
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        out.writeInt(message.length);
+        out.write(message);
+        out.flush();
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Bad message length " + length);
+        }
+        byte[] message = new byte[length];
+        in.readFully(message);
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: One device's PN counter for one day and beverage type: the drinks
+ *      (and units) that device ever added there, and the ones it ever
+ *      removed. Both halves only grow, and only the device that owns the
+ *      counter changes it, each time under a higher version, so merging
+ *      two copies is taking the larger of each half. Merges are then
+ *      commutative and idempotent, and a day's count is the sum of
+ *      added - removed over every device. Immutable; has no Android
+ *      dependencies.
+ * Access points: getCount()/getUnits() - the counter's net contribution
+ *                mergedWith() - the larger of each half of two copies
+ */
+public final class SyncCounter {
+    private final String deviceId;
+    private final int day;
+    private final int type;
+    private final int added;
+    private final int removed;
+    private final int addedUnits;
+    private final int removedUnits;
+    private final long version;
+
+    /**
+     * @param deviceId     the device that owns the counter
+     * @param day          the DayKeys key of the day
+     * @param type         the BeverageType id
+     * @param added        drinks ever added by the device
+     * @param removed      drinks ever removed by the device
+     * @param addedUnits   units ever added by the device
+     * @param removedUnits units ever removed by the device
+     * @param version      the owner's clock when it last changed the counter
+     */
+    public SyncCounter(String deviceId, int day, int type, int added,
+                       int removed, int addedUnits, int removedUnits,
+                       long version) {
+        this.deviceId = deviceId;
+        this.day = day;
+        this.type = type;
+        this.added = added;
+        this.removed = removed;
+        this.addedUnits = addedUnits;
+        this.removedUnits = removedUnits;
+        this.version = version;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public int getAddedUnits() {
+        return addedUnits;
+    }
+
+    public int getRemovedUnits() {
+        return removedUnits;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the drinks this counter contributes to its day.
+     *
+     * @return added - removed
+     */
+    public int getCount() {
+        return added - removed;
+    }
+
+    /**
+     * Returns the units this counter contributes to its day.
+     *
+     * @return addedUnits - removedUnits
+     */
+    public int getUnits() {
+        return addedUnits - removedUnits;
+    }
+
+    /**
+     * Returns the merge of this counter with another copy of the same
+     * device's counter for the same day and type.
+     *
+     * @param other the other copy
+     * @return      the larger of each half and the later version
+     */
+    public SyncCounter mergedWith(SyncCounter other) {
+        return new SyncCounter(deviceId, day, type,
+                Math.max(added, other.added), Math.max(removed, other.removed),
+                Math.max(addedUnits, other.addedUnits),
+                Math.max(removedUnits, other.removedUnits),
+                Math.max(version, other.version));
+    }
+
+    /**
+     * Returns whether merging other into this would change nothing.
+     *
+     * @param other the incoming copy
+     * @return      true if this already covers other
+     */
+    public boolean covers(SyncCounter other) {
+        return added >= other.added && removed >= other.removed &&
+                addedUnits >= other.addedUnits &&
+                removedUnits >= other.removedUnits &&
+                version >= other.version;
+    }
+}
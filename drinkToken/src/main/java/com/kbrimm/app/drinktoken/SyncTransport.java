@@ -0,0 +1,38 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Use: Carries DrinkSync messages between two devices. A message is an
+ *      opaque byte array; a transport only has to deliver them whole and
+ *      in order. DrinkSync never closes the transport it is given.
+ * Access points: send() - delivers one message to the peer
+ *                receive() - waits for the peer's next message
+ */
+public interface SyncTransport extends Closeable {
+
+    /**
+     * Delivers one message to the peer.
+     *
+     * @param message the encoded message
+     * @throws IOException if the peer cannot be reached
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Waits for the peer's next message.
+     *
+     * @return the encoded message
+     * @throws IOException if the peer is gone or takes too long
+     */
+    byte[] receive() throws IOException;
+}
@@ -0,0 +1,50 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+/**
+ * Use: Immutable per-beverage-type drink counts and weighted units over
+ *      a range of days, as read by DbHelper.getTypeTotals().
+ * Access points: getCount() - drinks of one type
+ *                getUnits() - standard-drink units of one type
+ *                getTotalUnits() - units over every type
+ */
+public final class TypeTotals {
+    // Totals returned when the database cannot be read
+    public static final TypeTotals EMPTY = new TypeTotals(
+            new int[BeverageType.COUNT], new int[BeverageType.COUNT]);
+
+    private final int[] counts;
+    private final int[] units;
+
+    /**
+     * @param counts drinks per type id, BeverageType.COUNT long; not copied
+     * @param units  units per type id, BeverageType.COUNT long; not copied
+     */
+    TypeTotals(int[] counts, int[] units) {
+        this.counts = counts;
+        this.units = units;
+    }
+
+    public int getCount(int type) {
+        return BeverageType.isValid(type) ? counts[type] : 0;
+    }
+
+    public int getUnits(int type) {
+        return BeverageType.isValid(type) ? units[type] : 0;
+    }
+
+    public int getTotalUnits() {
+        int total = 0;
+        for (int typeUnits : units) {
+            total += typeUnits;
+        }
+        return total;
+    }
+}
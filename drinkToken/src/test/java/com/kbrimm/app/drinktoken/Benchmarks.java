@@ -0,0 +1,193 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Assume;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Use: Shared pieces of the *Benchmark classes. Benchmarks are ordinary
+ *      JUnit classes that skip themselves unless the drinktoken.benchmark
+ *      property is set, so the normal test run stays fast:
+ *          ./gradlew testDebugUnitTest -Ddrinktoken.benchmark=true
+ *      Results are printed to standard out as latency distributions in
+ *      microseconds, with exact percentiles over every sample.
+ * Access points: assumeEnabled() - skips the calling test unless enabled
+ *                time() - runs an operation repeatedly and keeps its times
+ *                seedHistory() - fills a store with years of drinks
+ *                printHeader() - starts a table of Samples.report() rows
+ */
+final class Benchmarks {
+    static final String PROPERTY = "drinktoken.benchmark";
+    // Days at the end of a seeded history that get per-drink events
+    static final int EVENT_DAYS = DbHelper.DEFAULT_EVENT_HORIZON_DAYS;
+    // Days restored per restoreChunk() while seeding
+    private static final int SEED_CHUNK = 1000;
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Something to time.
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Skips the calling test unless -Ddrinktoken.benchmark=true was given.
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("set -D" + PROPERTY + "=true to run",
+                Boolean.getBoolean(PROPERTY));
+    }
+
+    /**
+     * Runs operation warmup times untimed, then runs times timed.
+     *
+     * @param name      the row label
+     * @param warmup    untimed runs first
+     * @param runs      timed runs
+     * @param operation what to run
+     * @return          the timed samples
+     * @throws Exception whatever operation throws
+     */
+    static Samples time(String name, int warmup, int runs,
+                        Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        Samples samples = new Samples(name, runs);
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            samples.add(System.nanoTime() - start);
+        }
+        return samples;
+    }
+
+    /**
+     * Gives the active profile a history of days ending today: every day
+     * but the last EVENT_DAYS is restored as a daily count, the way a
+     * backup would be, and the last EVENT_DAYS are logged drink by drink
+     * at random times of day, so they have events and journal entries
+     * like real taps. About a third of days are dry; the rest have one to
+     * six drinks of random types.
+     *
+     * @param db     the store to fill
+     * @param days   the length of the history
+     * @param random the source of counts, seeded by the caller
+     */
+    static void seedHistory(DrinkStore db, int days, Random random) {
+        int today = DayKeys.today();
+        int firstDay = today - days + 1;
+        int restored = Math.max(0, days - EVENT_DAYS);
+        int[] chunkDays = new int[SEED_CHUNK];
+        int[] chunkCounts = new int[SEED_CHUNK];
+        db.beginRestore(firstDay);
+        for (int done = 0; done < restored; ) {
+            int length = Math.min(SEED_CHUNK, restored - done);
+            for (int i = 0; i < length; i++) {
+                chunkDays[i] = firstDay + done + i;
+                chunkCounts[i] = drinksOn(random);
+            }
+            db.restoreChunk(chunkDays, chunkCounts, length);
+            done += length;
+        }
+        db.endRestore();
+
+        TimeZone zone = TimeZone.getDefault();
+        for (int day = firstDay + restored; day <= today; day++) {
+            int drinks = drinksOn(random);
+            if (drinks == 0) {
+                continue;
+            }
+            long start = DayKeys.startOfDay(day, zone);
+            long end = day == today ? System.currentTimeMillis()
+                    : DayKeys.startOfDay(day + 1, zone);
+            long[] times = new long[drinks];
+            int[] types = new int[drinks];
+            int[] units = new int[drinks];
+            for (int i = 0; i < drinks; i++) {
+                times[i] = start + (long) (random.nextDouble() * (end - start));
+                types[i] = random.nextInt(BeverageType.COUNT);
+                units[i] = BeverageType.getUnits(types[i]);
+            }
+            db.logDrinks(times, types, units, drinks);
+        }
+    }
+
+    /**
+     * Prints a title and the column headings for Samples.report() rows.
+     *
+     * @param title what the table measures
+     */
+    static void printHeader(String title) {
+        System.out.println();
+        System.out.println(title);
+        System.out.println(String.format(Locale.US, "%-34s %6s %10s %10s %10s %10s",
+                "operation", "runs", "p50 us", "p90 us", "p99 us", "max us"));
+    }
+
+    private static int drinksOn(Random random) {
+        return random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(6);
+    }
+
+    /**
+     * Timings of one operation, in nanoseconds.
+     */
+    static final class Samples {
+        private final String name;
+        private long[] nanos;
+        private int size = 0;
+
+        Samples(String name, int capacity) {
+            this.name = name;
+            this.nanos = new long[Math.max(1, capacity)];
+        }
+
+        void add(long sample) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = sample;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the nearest-rank percentile of the samples.
+         *
+         * @param fraction between 0 and 1
+         * @return         the sample at that rank, in nanoseconds
+         */
+        long percentile(double fraction) {
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(fraction * size);
+            return sorted[Math.min(size, Math.max(1, rank)) - 1];
+        }
+
+        /**
+         * Prints one row under printHeader()'s headings.
+         */
+        void report() {
+            System.out.println(String.format(Locale.US,
+                    "%-34s %6d %10.1f %10.1f %10.1f %10.1f", name, size,
+                    percentile(0.5) / 1000.0, percentile(0.9) / 1000.0,
+                    percentile(0.99) / 1000.0, percentile(1.0) / 1000.0));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * One dashboard refresh the old way, four getters making six queries,
+ * against getDashboardStats(), over 1, 5 and 20 years of history. The old
+ * getters' queries are replayed against today's schema: today's SUM, the
+ * week's SUM, and the whole-log SUM and elapsed days once for each
+ * average. getDashboardStats() is timed right after an untimed tap, so
+ * it never answers from its cache, and again with nothing written in
+ * between. Prints statements per refresh and latency. Run with
+ * -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class DashboardStatsBenchmark {
+    private static final int[] YEARS = {1, 5, 20};
+    private static final int WARMUP = 20;
+    private static final int RUNS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void oldGettersAgainstSnapshot() throws Exception {
+        for (int years : YEARS) {
+            run(years);
+        }
+    }
+
+    private void run(int years) throws Exception {
+        final DbHelper store = TestContext.newStore(
+                folder.newFolder(years + "y"));
+        store.open();
+        Benchmarks.seedHistory(store, years * 365, new Random(years));
+        final SqlDatabase db = store.getReadableDatabase();
+        final String today = String.valueOf(DayKeys.today());
+        final String weekAgo = String.valueOf(DayKeys.today() - 6);
+        long[] time = {System.currentTimeMillis()};
+        int[] type = {BeverageType.STANDARD};
+        int[] units = {BeverageType.UNITS_PER_DRINK};
+
+        Benchmarks.Operation oldGetters = new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                // getDailyCount(), getWeeklyCount(), then getDailyAvg()
+                // and getWeeklyAvg(), each reading the total and the days
+                sum(db, "SELECT SUM(drink_count) FROM drink_log " +
+                        "WHERE profile_id = 1 AND log_date = ?", today);
+                sum(db, "SELECT SUM(drink_count) FROM drink_log " +
+                        "WHERE profile_id = 1 AND log_date BETWEEN ? AND ?",
+                        weekAgo, today);
+                for (int i = 0; i < 2; i++) {
+                    sum(db, "SELECT SUM(drink_count) FROM drink_log " +
+                            "WHERE profile_id = 1");
+                    sum(db, "SELECT 1 + ? - created_date FROM meta_data " +
+                            "WHERE profile_id = 1", today);
+                }
+            }
+        };
+
+        Benchmarks.printHeader("Dashboard refresh, " + years + " year(s)");
+        long before = JdbcDatabase.getStatementCount();
+        oldGetters.run();
+        long oldStatements = JdbcDatabase.getStatementCount() - before;
+        Benchmarks.time("old: 4 getters", WARMUP, RUNS, oldGetters).report();
+
+        Benchmarks.Samples uncached = new Benchmarks.Samples(
+                "new: getDashboardStats (uncached)", RUNS);
+        long newStatements = 0;
+        for (int i = -WARMUP; i < RUNS; i++) {
+            store.logDrinks(time, type, units, 1);
+            before = JdbcDatabase.getStatementCount();
+            long start = System.nanoTime();
+            store.getDashboardStats();
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                uncached.add(elapsed);
+                newStatements += JdbcDatabase.getStatementCount() - before;
+            }
+        }
+        uncached.report();
+        Benchmarks.time("new: getDashboardStats (cached)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store.getDashboardStats();
+            }
+        }).report();
+        System.out.println(String.format(Locale.US,
+                "statements per refresh: old %d, new %.1f uncached, 0 cached",
+                oldStatements, newStatements / (double) RUNS));
+        store.close();
+    }
+
+    private static int sum(SqlDatabase db, String query, String... args) {
+        Cursor cursor = db.rawQuery(query, args);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * DayKeys against the SimpleDateFormat code it replaced. Each sample is a
+ * batch of BATCH calls, so rows read as microseconds per thousand calls.
+ * startOfDay() is timed in Sao Paulo over days that include its skipped
+ * midnights. Run with -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class DayKeysBenchmark {
+    private static final int BATCH = 1000;
+    private static final int WARMUP = 200;
+    private static final int RUNS = 2000;
+    // Keeps results live so the JIT cannot drop the calls
+    private static long sink;
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void dayKeysAgainstSimpleDateFormat() throws Exception {
+        final TimeZone zone = TimeZone.getTimeZone("America/Sao_Paulo");
+        final int firstDay = DayKeys.fromSqlDate("2017-01-01");
+        final long now = System.currentTimeMillis();
+
+        Benchmarks.printHeader("Day keys, " + BATCH + " calls per sample");
+        Benchmarks.time("old: SimpleDateFormat today", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    DateFormat df = new SimpleDateFormat("yyyy-MM-dd",
+                            Locale.US);
+                    sink += df.format(Calendar.getInstance().getTime())
+                            .length();
+                }
+            }
+        }).report();
+        Benchmarks.time("today (cached)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.today();
+                }
+            }
+        }).report();
+        Benchmarks.time("todayString (cached)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.todayString().length();
+                }
+            }
+        }).report();
+        Benchmarks.time("today (after invalidate)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    DayKeys.invalidate();
+                    sink += DayKeys.today();
+                }
+            }
+        }).report();
+        Benchmarks.time("forMillis", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.forMillis(now + i * 3600000L, zone);
+                }
+            }
+        }).report();
+        Benchmarks.time("startOfDay (Sao Paulo 2017-19)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.startOfDay(firstDay + i, zone);
+                }
+            }
+        }).report();
+        Benchmarks.time("old: SimpleDateFormat format", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                DateFormat df = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+                df.setTimeZone(TimeZone.getTimeZone("UTC"));
+                for (int i = 0; i < BATCH; i++) {
+                    sink += df.format(new Date((firstDay + i) *
+                            DayKeys.MILLIS_PER_DAY)).length();
+                }
+            }
+        }).report();
+        Benchmarks.time("toSqlDate", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.toSqlDate(firstDay + i).length();
+                }
+            }
+        }).report();
+        Benchmarks.time("fromSqlDate", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += DayKeys.fromSqlDate("2017-10-15");
+                }
+            }
+        }).report();
+        System.out.println("(" + (sink & 1) + ")");
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * DayKeys' arithmetic checked against GregorianCalendar, and startOfDay()
+ * checked around DST changes at midnight in every zone the JVM knows.
+ */
+public class DayKeysTest {
+    private static final long HOUR = 3600 * 1000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @After
+    public void tearDown() {
+        DayKeys.setClock(DayKeys.Clock.SYSTEM);
+    }
+
+    @Test
+    public void todayFollowsTheClockAcrossMidnight() {
+        final long[] now = new long[1];
+        TimeZone zone = TimeZone.getDefault();
+        int day = DayKeys.fromSqlDate("2017-10-15");
+        long midnight = DayKeys.startOfDay(day, zone);
+        DayKeys.setClock(new DayKeys.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return now[0];
+            }
+        });
+
+        now[0] = midnight - 1;
+        assertEquals(day - 1, DayKeys.today());
+        assertEquals(DayKeys.toSqlDate(day - 1), DayKeys.todayString());
+        now[0] = midnight;
+        assertEquals(day, DayKeys.today());
+        assertEquals("2017-10-15", DayKeys.todayString());
+        now[0] = midnight - HOUR;
+        assertEquals(day - 1, DayKeys.today());
+    }
+
+    @Test
+    public void keysMatchCalendarDates() {
+        GregorianCalendar calendar = new GregorianCalendar(UTC, Locale.US);
+        calendar.clear();
+        calendar.set(1900, Calendar.JANUARY, 1);
+        int first = DayKeys.fromSqlDate("1900-01-01");
+        int last = DayKeys.fromSqlDate("2100-12-31");
+        for (int key = first; key <= last; key++) {
+            String date = String.format(Locale.US, "%04d-%02d-%02d",
+                    calendar.get(Calendar.YEAR),
+                    calendar.get(Calendar.MONTH) + 1,
+                    calendar.get(Calendar.DAY_OF_MONTH));
+            assertEquals(date, DayKeys.toSqlDate(key));
+            assertEquals(key, DayKeys.fromSqlDate(date));
+            assertEquals(calendar.get(Calendar.DAY_OF_WEEK),
+                    DayKeys.dayOfWeek(key));
+            assertEquals(key - calendar.get(Calendar.DAY_OF_MONTH) + 1,
+                    DayKeys.startOfMonth(key));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @Test
+    public void forMillisMatchesTheLocalCalendarDate() {
+        Random random = new Random(6);
+        String[] zones = {"UTC", "America/Sao_Paulo", "Pacific/Apia",
+                "America/New_York", "Australia/Lord_Howe", "Asia/Kolkata",
+                "Pacific/Kiritimati"};
+        for (String id : zones) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            GregorianCalendar calendar = new GregorianCalendar(zone, Locale.US);
+            for (int i = 0; i < 2000; i++) {
+                long millis = (long) (random.nextDouble() * 2000000000000L);
+                calendar.setTimeInMillis(millis);
+                String date = String.format(Locale.US, "%04d-%02d-%02d",
+                        calendar.get(Calendar.YEAR),
+                        calendar.get(Calendar.MONTH) + 1,
+                        calendar.get(Calendar.DAY_OF_MONTH));
+                assertEquals(id + " " + millis, DayKeys.fromSqlDate(date),
+                        DayKeys.forMillis(millis, zone));
+            }
+        }
+    }
+
+    @Test
+    public void startOfDayIsTheFirstInstantOfTheDayInEveryZone() {
+        int first = DayKeys.fromSqlDate("1970-01-01");
+        int last = DayKeys.fromSqlDate("2037-12-31");
+        for (String id : TimeZone.getAvailableIDs()) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            long start = DayKeys.startOfDay(first, zone);
+            for (int key = first; key <= last; key++) {
+                long next = DayKeys.startOfDay(key + 1, zone);
+                // Skipped entirely, the day begins and ends at the jump
+                int firstKey = next == start ? key + 1 : key;
+                boolean ok = DayKeys.forMillis(start - 1, zone) < key &&
+                        DayKeys.forMillis(start, zone) == firstKey &&
+                        (next == start ||
+                                DayKeys.forMillis(next - 1, zone) == key);
+                if (!ok) {
+                    fail(id + " " + DayKeys.toSqlDate(key) + " starts at " +
+                            start);
+                }
+                start = next;
+            }
+        }
+    }
+
+    @Test
+    public void saoPauloDaysStartAtOneWhenMidnightIsSkipped() {
+        TimeZone zone = TimeZone.getTimeZone("America/Sao_Paulo");
+        String[] springForward = {"2001-10-14", "2008-10-19", "2017-10-15",
+                "2018-11-04"};
+        for (String date : springForward) {
+            int key = DayKeys.fromSqlDate(date);
+            long start = DayKeys.startOfDay(key, zone);
+            assertEquals(date, midnight(date, zone), start);
+            assertEquals(date, 1, hourOf(start, zone));
+            assertEquals(date, 23 * HOUR,
+                    DayKeys.startOfDay(key + 1, zone) - start);
+            assertEquals(date, 24 * HOUR,
+                    start - DayKeys.startOfDay(key - 1, zone));
+        }
+    }
+
+    @Test
+    public void saoPauloFallBackDayIsTwentyFiveHours() {
+        TimeZone zone = TimeZone.getTimeZone("America/Sao_Paulo");
+        // Clocks went from 00:00 on the 18th back to 23:00 on the 17th
+        int key = DayKeys.fromSqlDate("2018-02-17");
+        long start = DayKeys.startOfDay(key, zone);
+
+        assertEquals(midnight("2018-02-17", zone), start);
+        assertEquals(25 * HOUR, DayKeys.startOfDay(key + 1, zone) - start);
+    }
+
+    @Test
+    public void apiaSkippedTheThirtiethOfDecember2011() {
+        TimeZone zone = TimeZone.getTimeZone("Pacific/Apia");
+        int skipped = DayKeys.fromSqlDate("2011-12-30");
+        long jump = DayKeys.startOfDay(skipped, zone);
+
+        assertEquals(jump, DayKeys.startOfDay(skipped + 1, zone));
+        assertEquals(skipped - 1, DayKeys.forMillis(jump - 1, zone));
+        assertEquals(skipped + 1, DayKeys.forMillis(jump, zone));
+        assertEquals(24 * HOUR, jump - DayKeys.startOfDay(skipped - 1, zone));
+    }
+
+    @Test
+    public void midnightRepeatedByFallBackStartsAtTheFirst() {
+        // Clocks went from 01:00 back to 00:00
+        TimeZone zone = TimeZone.getTimeZone("Asia/Amman");
+        int key = DayKeys.fromSqlDate("2004-10-15");
+        long start = DayKeys.startOfDay(key, zone);
+
+        assertEquals(key - 1, DayKeys.forMillis(start - 1, zone));
+        assertEquals(0, hourOf(start, zone));
+        assertEquals(25 * HOUR, DayKeys.startOfDay(key + 1, zone) - start);
+    }
+
+    /**
+     * Returns Calendar's idea of the start of a date: lenient, it moves
+     * a midnight that falls in a gap forward past the gap.
+     */
+    private static long midnight(String date, TimeZone zone) {
+        GregorianCalendar calendar = new GregorianCalendar(zone, Locale.US);
+        calendar.clear();
+        calendar.set(Integer.parseInt(date.substring(0, 4)),
+                Integer.parseInt(date.substring(5, 7)) - 1,
+                Integer.parseInt(date.substring(8, 10)));
+        return calendar.getTimeInMillis();
+    }
+
+    private static int hourOf(long millis, TimeZone zone) {
+        GregorianCalendar calendar = new GregorianCalendar(zone, Locale.US);
+        calendar.setTimeInMillis(millis);
+        return calendar.get(Calendar.HOUR_OF_DAY);
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DbHelper against a real SQLite file through JdbcDatabase, starting
+ * from a fresh install each time.
+ */
+public class DbHelperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DbHelper db;
+    // What DayKeys.today() reads while a test has set the clock
+    private volatile long clockMillis;
+
+    @Before
+    public void setUp() {
+        db = TestContext.newStore(folder.getRoot());
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        DayKeys.setClock(DayKeys.Clock.SYSTEM);
+    }
+
+    @Test
+    public void freshInstallStartsEmptyToday() {
+        DashboardStats stats = db.getDashboardStats();
+        assertEquals(0, stats.getDailyCount());
+        assertEquals(0, stats.getTotalDrinks());
+        assertEquals(DayKeys.today(), db.getCreatedDay());
+        assertEquals(1, db.getProfiles().size());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void loggedDrinksReachEveryRead() {
+        logNow(BeverageType.STANDARD, BeverageType.WINE, BeverageType.SPIRIT);
+        int today = DayKeys.today();
+
+        DashboardStats stats = db.getDashboardStats();
+        assertEquals(3, stats.getDailyCount());
+        assertEquals(3, stats.getWeeklyCount());
+        assertEquals(3, stats.getTotalDrinks());
+        assertEquals(300, stats.getTotalUnits());
+        assertArrayEquals(new int[] {0, 3}, db.getDailyCounts(today - 1, 2));
+        assertEquals(3, db.getDaySummary(today, 1).getCount(today));
+        assertEquals(1, db.getTypeTotals(today, 1).getCount(BeverageType.WINE));
+        assertEquals(3, db.getRollingStats().getCount(today));
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void unknownTypesAreLoggedAsStandardDrinks() {
+        long now = System.currentTimeMillis();
+        int standard = BeverageType.getUnits(BeverageType.STANDARD);
+        int spirit = BeverageType.getUnits(BeverageType.SPIRIT);
+        db.logDrinks(new long[] {now, now, now},
+                new int[] {99, -1, BeverageType.SPIRIT},
+                new int[] {5000, 7, spirit}, 3);
+        int today = DayKeys.today();
+
+        TypeTotals types = db.getTypeTotals(today, 1);
+        assertEquals(2, types.getCount(BeverageType.STANDARD));
+        assertEquals(2 * standard, types.getUnits(BeverageType.STANDARD));
+        assertEquals(2 * standard + spirit, types.getTotalUnits());
+        assertEquals(2 * standard + spirit,
+                db.getDashboardStats().getTotalUnits());
+        assertTrue(db.checkTotals());
+        // The journal holds the standard weight too
+        assertTrue(db.undo());
+        assertTrue(db.undo());
+        assertEquals(standard, db.getDashboardStats().getTotalUnits());
+        assertEquals(standard, db.getTypeTotals(today, 1).getTotalUnits());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void aTapIsSevenStatements() {
+        logNow(BeverageType.STANDARD);
+        long statements = JdbcDatabase.getStatementCount();
+        logNow(BeverageType.STANDARD);
+
+        // BEGIN, drink_events, drink_journal, drink_type_log,
+        // sync_counters, drink_log and its triggers, COMMIT
+        assertEquals(7, JdbcDatabase.getStatementCount() - statements);
+        int today = DayKeys.today();
+        assertEquals(2, db.getDaySummary(today, 1).getCount(today));
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void concurrentTapsShareOneRow() throws Exception {
+        final int threads = 8;
+        final int tapsPerThread = 25;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] tappers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            tappers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < tapsPerThread; i++) {
+                            logNow(BeverageType.STANDARD);
+                        }
+                    } catch (Throwable oops) {
+                        failures.add(oops);
+                    }
+                }
+            });
+            tappers[t].start();
+        }
+        start.countDown();
+        for (Thread tapper : tappers) {
+            tapper.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        int taps = threads * tapsPerThread;
+        Cursor cursor = db.getReadableDatabase().rawQuery("SELECT COUNT(*), " +
+                "SUM(" + DbHelper.LOG_COUNT_COLUMN + ") FROM " +
+                DbHelper.LOG_TABLE, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getInt(0));
+            assertEquals(taps, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(taps, db.getDashboardStats().getTotalDrinks());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void readersWaitOutTheConnectionClosing() throws Exception {
+        logNow(BeverageType.STANDARD);
+        final int today = DayKeys.today();
+        final DbMetrics metrics = DbMetrics.getInstance();
+        long errors = metrics.getErrors(DbMetrics.OP_DAILY_COUNTS) +
+                metrics.getErrors(DbMetrics.OP_PROFILES);
+        final boolean[] done = {false};
+        final List<Throwable> failures =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[2];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!isDone(done)) {
+                            assertEquals(1, db.getDailyCounts(today, 1)[0]);
+                            assertEquals(1, db.getProfiles().size());
+                        }
+                    } catch (Throwable oops) {
+                        failures.add(oops);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        // Every close() lands between or during reads; each reader then
+        // reopens the connection
+        for (int i = 0; i < 200; i++) {
+            db.close();
+            Thread.yield();
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        assertEquals(errors, metrics.getErrors(DbMetrics.OP_DAILY_COUNTS) +
+                metrics.getErrors(DbMetrics.OP_PROFILES));
+    }
+
+    @Test
+    public void dashboardStatsAreCachedUntilAWrite() {
+        logNow(BeverageType.STANDARD, BeverageType.STANDARD);
+        DashboardStats first = db.getDashboardStats();
+        long statements = JdbcDatabase.getStatementCount();
+
+        assertSame(first, db.getDashboardStats());
+        assertEquals(statements, JdbcDatabase.getStatementCount());
+
+        logNow(BeverageType.BEER);
+        DashboardStats logged = db.getDashboardStats();
+        assertNotSame(first, logged);
+        assertEquals(3, logged.getDailyCount());
+        assertTrue(db.undo());
+        assertEquals(2, db.getDashboardStats().getDailyCount());
+        assertTrue(db.decrementCount());
+        assertEquals(1, db.getDashboardStats().getDailyCount());
+        db.clearData();
+        assertEquals(0, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void writesToAnotherProfileKeepTheCache() {
+        logNow(BeverageType.STANDARD);
+        Profile other = db.createProfile("Other");
+        DashboardStats mine = db.getDashboardStats();
+
+        assertTrue(db.setActiveProfile(other.getId()));
+        logNow(BeverageType.WINE, BeverageType.WINE);
+        assertEquals(2, db.getDashboardStats().getDailyCount());
+        assertTrue(db.setActiveProfile(DbHelper.DEFAULT_PROFILE_ID));
+        long statements = JdbcDatabase.getStatementCount();
+
+        assertSame(mine, db.getDashboardStats());
+        assertEquals(statements, JdbcDatabase.getStatementCount());
+    }
+
+    @Test
+    public void dashboardStatsRollOverAtMidnight() {
+        TimeZone zone = TimeZone.getDefault();
+        long midnight = DayKeys.startOfDay(DayKeys.today() + 1, zone);
+        DayKeys.setClock(new DayKeys.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return clockMillis;
+            }
+        });
+        clockMillis = midnight - 60 * 1000L;
+        db.logDrinks(new long[] {clockMillis},
+                new int[] {BeverageType.STANDARD},
+                new int[] {BeverageType.UNITS_PER_DRINK}, 1);
+        DashboardStats evening = db.getDashboardStats();
+        assertEquals(1, evening.getDailyCount());
+        assertSame(evening, db.getDashboardStats());
+
+        // No write, but the day has changed
+        clockMillis = midnight + 60 * 1000L;
+        long statements = JdbcDatabase.getStatementCount();
+        DashboardStats morning = db.getDashboardStats();
+        assertTrue(JdbcDatabase.getStatementCount() > statements);
+        assertEquals(0, morning.getDailyCount());
+        assertEquals(1, morning.getWeeklyCount());
+        assertEquals(1, morning.getTotalDrinks());
+        assertEquals(evening.getElapsedDays() + 1, morning.getElapsedDays());
+        assertSame(morning, db.getDashboardStats());
+
+        // Clocks set back over midnight roll it back too
+        clockMillis = midnight - 30 * 1000L;
+        assertEquals(1, db.getDashboardStats().getDailyCount());
+    }
+
+    @Test
+    public void deleteProfileOnlyDropsKnownProfiles() {
+        logNow(BeverageType.STANDARD);
+        Profile other = db.createProfile("Other");
+        long version = db.getStatsVersion();
+
+        assertFalse(db.deleteProfile(other.getId() + 1));
+        assertFalse(db.deleteProfile(-1));
+        assertEquals(version, db.getStatsVersion());
+        assertEquals(2, db.getProfiles().size());
+
+        assertTrue(db.deleteProfile(DbHelper.DEFAULT_PROFILE_ID));
+        assertEquals(other.getId(), db.getActiveProfile());
+        assertEquals(0, db.getDashboardStats().getTotalDrinks());
+        assertFalse(db.deleteProfile(other.getId()));
+        assertEquals(1, db.getProfiles().size());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void undoAndRedoStepThroughTheJournal() {
+        logNow(BeverageType.STANDARD);
+        logNow(BeverageType.STANDARD);
+
+        assertTrue(db.undo());
+        assertEquals(1, db.getDashboardStats().getDailyCount());
+        assertTrue(db.redo());
+        assertEquals(2, db.getDashboardStats().getDailyCount());
+        assertFalse(db.redo());
+        assertTrue(db.decrementCount());
+        assertEquals(1, db.getDashboardStats().getTotalDrinks());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void clearDataDropsTheHistory() {
+        logNow(BeverageType.BEER);
+        db.clearData();
+
+        assertEquals(0, db.getDashboardStats().getTotalDrinks());
+        assertEquals(0, db.getRollingStats().getCount(DayKeys.today()));
+        assertTrue(db.checkTotals());
+        // drink_log was replaced, triggers and all
+        logNow(BeverageType.WINE);
+        int today = DayKeys.today();
+        assertEquals(1, db.getDashboardStats().getTotalDrinks());
+        assertEquals(1, db.getDaySummary(today, 1).getCount(today));
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void copiesCountEveryDrinkOnce() throws Exception {
+        logNow(BeverageType.STANDARD, BeverageType.BEER);
+        db.close();
+        // What setEncrypted() does, minus the key
+        File copyDir = folder.newFolder("copy");
+        SqlDatabase source = JdbcDatabase.OPENER.open(
+                new File(folder.getRoot(), DbHelper.DATABASE_NAME), "");
+        try {
+            source.execSQL("ATTACH DATABASE '" + new File(copyDir,
+                    DbHelper.DATABASE_NAME).getPath() + "' AS copy");
+            DbMigrations.copyDatabase(source, "copy", null);
+            source.execSQL("DETACH DATABASE copy");
+        } finally {
+            source.close();
+        }
+        db = TestContext.newStore(copyDir);
+        db.open();
+        int today = DayKeys.today();
+
+        assertEquals(2, db.getDashboardStats().getTotalDrinks());
+        assertEquals(2, db.getDaySummary(today, 1).getCount(today));
+        assertTrue(db.checkTotals());
+        // The copy has drink_log's triggers
+        logNow(BeverageType.WINE);
+        assertEquals(3, db.getDashboardStats().getTotalDrinks());
+        assertEquals(3, db.getDaySummary(today, 1).getCount(today));
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void dataSurvivesReopening() {
+        logNow(BeverageType.STANDARD, BeverageType.STANDARD);
+        db.close();
+        db = TestContext.newStore(folder.getRoot());
+        db.open();
+
+        assertEquals(2, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void maintenanceCompletesAndFindsNoCorruption() {
+        logNow(BeverageType.STANDARD);
+        MaintenanceReport report = db.runMaintenance();
+
+        assertTrue(report.isCompleted());
+        assertTrue(report.isIntegrityOk());
+    }
+
+    private static boolean isDone(boolean[] done) {
+        synchronized (done) {
+            return done[0];
+        }
+    }
+
+    private void logNow(int... types) {
+        long now = System.currentTimeMillis();
+        long[] times = new long[types.length];
+        int[] units = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            times[i] = now;
+            units[i] = BeverageType.getUnits(types[i]);
+        }
+        db.logDrinks(times, types, units, types.length);
+    }
+}
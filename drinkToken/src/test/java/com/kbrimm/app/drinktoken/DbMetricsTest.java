@@ -0,0 +1,139 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * DbMetrics' latency buckets and the nearest-rank percentiles read from
+ * them, the dump, and MeteredStore's error accounting.
+ */
+public class DbMetricsTest {
+    private static final long MICROS = 1000L;
+
+    @Test
+    public void bucketsSplitAtTheirUpperBounds() {
+        long[] bounds = DbMetrics.BUCKET_BOUNDS_US;
+        assertEquals(0, DbMetrics.bucketOf(0));
+        for (int bucket = 0; bucket < bounds.length; bucket++) {
+            assertEquals(bucket, DbMetrics.bucketOf(bounds[bucket] - 1));
+            assertEquals(bucket + 1, DbMetrics.bucketOf(bounds[bucket]));
+        }
+        assertEquals(bounds.length, DbMetrics.bucketOf(Long.MAX_VALUE / 1000));
+        assertEquals(DbMetrics.BUCKETS - 1, DbMetrics.bucketOf(3600000000L));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        DbMetrics metrics = new DbMetrics();
+        int op = DbMetrics.OP_DASHBOARD;
+        // 100 calls: 50 under 100 us, 45 under 500, 4 under 5 ms, one
+        // slower than the last bound
+        record(metrics, op, 50, 40 * MICROS);
+        record(metrics, op, 45, 300 * MICROS);
+        record(metrics, op, 4, 3000 * MICROS);
+        record(metrics, op, 1, 2000000 * MICROS);
+
+        assertEquals(100, metrics.getCalls(op));
+        assertEquals("100", metrics.percentile(op, 0.50));
+        assertEquals("500", metrics.percentile(op, 0.51));
+        assertEquals("500", metrics.percentile(op, 0.95));
+        assertEquals("5000", metrics.percentile(op, 0.96));
+        assertEquals("5000", metrics.percentile(op, 0.99));
+        assertEquals("500000+", metrics.percentile(op, 1.0));
+        assertEquals("-", metrics.percentile(DbMetrics.OP_UNDO, 0.5));
+    }
+
+    @Test
+    public void percentileRanksRoundUp() {
+        DbMetrics metrics = new DbMetrics();
+        int op = DbMetrics.OP_LOG_DRINKS;
+        // 20 calls: p95 is the 19th, which is still in the first bucket
+        record(metrics, op, 19, 10 * MICROS);
+        record(metrics, op, 1, 700 * MICROS);
+
+        assertEquals("100", metrics.percentile(op, 0.95));
+        assertEquals("1000", metrics.percentile(op, 0.951));
+    }
+
+    @Test
+    public void dumpReportsEachOperationThatRan() {
+        DbMetrics metrics = new DbMetrics();
+        record(metrics, DbMetrics.OP_DAILY_COUNTS, 3, 200 * MICROS);
+        metrics.recordNanos(DbMetrics.OP_DAILY_COUNTS, 80000 * MICROS);
+        metrics.recordError(DbMetrics.OP_UNDO);
+
+        String dump = metrics.dump();
+        // 3 x 200 us + 80 ms = 80.6 ms over 4 calls
+        assertTrue(dump, dump.contains(
+                "getDailyCounts 4 0 20150 80000 250 100000 100000\n"));
+        assertTrue(dump, dump.contains("undo 0 1 0 0 - - -\n"));
+        assertTrue(dump, !dump.contains("getDashboardStats"));
+        assertTrue(dump, dump.contains("slow calls (>= 50 ms): 1\n"));
+        assertTrue(dump, dump.contains(" getDailyCounts 80 ms\n"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCalls(DbMetrics.OP_DAILY_COUNTS));
+        assertEquals(0, metrics.getErrors(DbMetrics.OP_UNDO));
+        assertTrue(metrics.dump().contains("slow calls (>= 50 ms): 0\n"));
+    }
+
+    @Test
+    public void slowLogKeepsTheMostRecentCalls() {
+        DbMetrics metrics = new DbMetrics();
+        for (int i = 0; i < DbMetrics.SLOW_LOG_SIZE + 4; i++) {
+            metrics.recordNanos(DbMetrics.OP_MAINTENANCE,
+                    (DbMetrics.SLOW_QUERY_MS + i) * 1000 * MICROS);
+        }
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.contains("slow calls (>= 50 ms): 20\n"));
+        assertTrue(dump, !dump.contains(" maintenance 53 ms\n"));
+        assertTrue(dump, dump.contains(" maintenance 54 ms\n"));
+        assertTrue(dump, dump.contains(" maintenance 69 ms\n"));
+    }
+
+    @Test
+    public void meteredStoreCountsErrorsAndRethrows() {
+        DbMetrics metrics = new DbMetrics();
+        DrinkStore failing = (DrinkStore) Proxy.newProxyInstance(
+                DrinkStore.class.getClassLoader(),
+                new Class<?>[] {DrinkStore.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new IllegalStateException(method.getName());
+            }
+        });
+        DrinkStore store = new MeteredStore(failing, metrics);
+
+        try {
+            store.getDashboardStats();
+            fail("no exception");
+        } catch (IllegalStateException expected) {
+            assertEquals("getDashboardStats", expected.getMessage());
+        }
+        assertEquals(1, metrics.getCalls(DbMetrics.OP_DASHBOARD));
+        assertEquals(1, metrics.getErrors(DbMetrics.OP_DASHBOARD));
+    }
+
+    private static void record(DbMetrics metrics, int op, int calls,
+                               long nanos) {
+        for (int i = 0; i < calls; i++) {
+            metrics.recordNanos(op, nanos);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades the version 1 database in drinktoken_v1.sql to
+ * DATABASE_VERSION through DbHelper's open path, then checks that every
+ * drink came through and that the schema matches a fresh install's.
+ */
+public class DbMigrationsTest {
+    private static final String FIXTURE = "drinktoken_v1.sql";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    // log_date -> total drink_count, read from the fixture before upgrading
+    private Map<Integer, Integer> expected;
+    private DbHelper db;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("v1");
+        SqlDatabase v1 = JdbcDatabase.OPENER.open(
+                new File(dir, DbHelper.DATABASE_NAME), "");
+        try {
+            for (String statement : readFixture()) {
+                v1.execSQL(statement);
+            }
+            v1.setVersion(1);
+            expected = readDays(v1);
+        } finally {
+            v1.close();
+        }
+        db = TestContext.newStore(dir);
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void upgradeReachesTheCurrentVersion() {
+        assertEquals(DbHelper.DATABASE_VERSION,
+                db.getReadableDatabase().getVersion());
+    }
+
+    @Test
+    public void everyDayKeepsItsMergedCount() {
+        int first = DayKeys.fromSqlDate("2013-01-01");
+        int last = DayKeys.fromSqlDate("2017-08-30");
+        int[] counts = db.getDailyCounts(first, last - first + 1);
+        DaySummary summary = db.getDaySummary(first, last - first + 1);
+        for (int day = first; day <= last; day++) {
+            Integer count = expected.get(day);
+            int want = count == null ? 0 : count;
+            String date = DayKeys.toSqlDate(day);
+            assertEquals(date, want, counts[day - first]);
+            assertEquals(date, want, summary.getCount(day));
+        }
+        // The duplicates were summed, not dropped
+        assertEquals(5, counts[DayKeys.fromSqlDate("2016-07-25") - first]);
+        assertEquals(3, counts[DayKeys.fromSqlDate("2017-03-15") - first]);
+        assertEquals(10, counts[DayKeys.fromSqlDate("2017-08-30") - first]);
+    }
+
+    @Test
+    public void totalsAndTypesMatchTheHistory() {
+        int total = 0;
+        for (int count : expected.values()) {
+            total += count;
+        }
+        int first = DayKeys.fromSqlDate("2013-01-01");
+        int days = DayKeys.fromSqlDate("2017-08-30") - first + 1;
+
+        assertTrue(db.checkTotals());
+        DashboardStats stats = db.getDashboardStats();
+        assertEquals(total, stats.getTotalDrinks());
+        assertEquals(total * BeverageType.UNITS_PER_DRINK,
+                stats.getTotalUnits());
+        TypeTotals types = db.getTypeTotals(first, days);
+        assertEquals(total, types.getCount(BeverageType.STANDARD));
+        assertEquals(total * BeverageType.UNITS_PER_DRINK,
+                types.getUnits(BeverageType.STANDARD));
+        assertEquals(total, sum("SELECT SUM(added) - SUM(removed) " +
+                "FROM sync_counters"));
+    }
+
+    @Test
+    public void historyBecomesTheDefaultProfile() {
+        List<Profile> profiles = db.getProfiles();
+        assertEquals(1, profiles.size());
+        assertEquals(DbHelper.DEFAULT_PROFILE_ID, profiles.get(0).getId());
+        assertEquals(DayKeys.fromSqlDate("2013-01-01"), db.getCreatedDay());
+        assertNotNull(db.getLimitStatus());
+        assertNotNull(db.getDeviceId());
+    }
+
+    @Test
+    public void schemaMatchesAFreshInstall() throws Exception {
+        DbHelper fresh = TestContext.newStore(folder.newFolder("v12"));
+        fresh.open();
+        try {
+            assertEquals(describe(fresh.getReadableDatabase()),
+                    describe(db.getReadableDatabase()));
+        } finally {
+            fresh.close();
+        }
+    }
+
+    @Test
+    public void upgradedDatabaseTakesNewDrinks() {
+        int before = db.getDashboardStats().getTotalDrinks();
+        long now = System.currentTimeMillis();
+        db.logDrinks(new long[] {now, now},
+                new int[] {BeverageType.WINE, BeverageType.STANDARD},
+                new int[] {BeverageType.getUnits(BeverageType.WINE),
+                        BeverageType.getUnits(BeverageType.STANDARD)}, 2);
+        assertTrue(db.undo());
+        int today = DayKeys.today();
+
+        assertEquals(before + 1, db.getDashboardStats().getTotalDrinks());
+        // Through the triggers version 12 added
+        assertEquals(1, db.getDaySummary(today, 1).getCount(today));
+        assertTrue(db.checkTotals());
+    }
+
+    /**
+     * Splits the fixture into statements, dropping comment lines.
+     */
+    private List<String> readFixture() throws Exception {
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+        assertNotNull(FIXTURE + " is not on the test classpath", in);
+        List<String> statements = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, "UTF-8"));
+        try {
+            StringBuilder statement = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().startsWith("--")) {
+                    continue;
+                }
+                statement.append(line).append('\n');
+                if (line.trim().endsWith(";")) {
+                    statements.add(statement.toString());
+                    statement.setLength(0);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return statements;
+    }
+
+    /**
+     * Totals the version 1 rows per day, the way the upgrade should.
+     */
+    private static Map<Integer, Integer> readDays(SqlDatabase v1) {
+        Map<Integer, Integer> days = new TreeMap<Integer, Integer>();
+        Cursor cursor = v1.rawQuery("SELECT log_date, SUM(drink_count) " +
+                "FROM drink_log GROUP BY log_date", null);
+        try {
+            while (cursor.moveToNext()) {
+                days.put(DayKeys.fromSqlDate(cursor.getString(0)),
+                        cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    private int sum(String query) {
+        Cursor cursor = db.getReadableDatabase().rawQuery(query, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Lists every table's columns and every index's columns, one line
+     * each, in name order. Column defaults are left out: the upgrade adds
+     * columns with ALTER TABLE, which needs a default a fresh CREATE
+     * TABLE does not.
+     */
+    private static String describe(SqlDatabase sqlite) {
+        StringBuilder schema = new StringBuilder();
+        Cursor objects = sqlite.rawQuery("SELECT type, name, tbl_name " +
+                "FROM sqlite_master WHERE name NOT LIKE 'sqlite_%' " +
+                "ORDER BY type, name", null);
+        try {
+            while (objects.moveToNext()) {
+                String type = objects.getString(0);
+                String name = objects.getString(1);
+                schema.append(type).append(' ').append(name);
+                if ("table".equals(type)) {
+                    Cursor columns = sqlite.rawQuery("PRAGMA table_info(" +
+                            name + ")", null);
+                    try {
+                        while (columns.moveToNext()) {
+                            schema.append(' ')
+                                    .append(columns.getString(1)).append(':')
+                                    .append(columns.getString(2)).append(':')
+                                    .append(columns.getInt(3) != 0
+                                            ? "notnull" : "null").append(':')
+                                    .append(columns.getInt(5));
+                        }
+                    } finally {
+                        columns.close();
+                    }
+                } else if ("index".equals(type)) {
+                    schema.append(" on ").append(objects.getString(2));
+                    Cursor columns = sqlite.rawQuery("PRAGMA index_info(" +
+                            name + ")", null);
+                    try {
+                        while (columns.moveToNext()) {
+                            schema.append(' ').append(columns.getString(2));
+                        }
+                    } finally {
+                        columns.close();
+                    }
+                }
+                schema.append('\n');
+            }
+        } finally {
+            objects.close();
+        }
+        return schema.toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * CSV export and restore between two DbHelpers, with a 100,000-day
+ * history. JSON goes through android.util.JsonReader/JsonWriter, which
+ * are stubs in the unit-test android.jar, so it is covered on a device
+ * by DrinkBackupJsonTest in src/androidTest.
+ */
+public class DrinkBackupTest {
+    private static final int DAYS = 100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DbHelper source;
+    private DbHelper target;
+
+    @Before
+    public void setUp() throws Exception {
+        source = TestContext.newStore(folder.newFolder("source"));
+        source.open();
+        target = TestContext.newStore(folder.newFolder("target"));
+        target.open();
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+    }
+
+    @Test
+    public void hundredThousandDaysRoundTrip() throws Exception {
+        int firstDay = DayKeys.today() - DAYS + 1;
+        seed(source, firstDay, new Random(11));
+        byte[] backup = export(source);
+
+        assertEquals(DAYS, DrinkBackup.restore(target,
+                new ByteArrayInputStream(backup)));
+
+        assertEquals(firstDay, target.getCreatedDay());
+        assertArrayEquals(dump(source), dump(target));
+        assertEquals(source.getDashboardStats().getTotalDrinks(),
+                target.getDashboardStats().getTotalDrinks());
+        assertEquals(source.getDashboardStats().getTotalUnits(),
+                target.getDashboardStats().getTotalUnits());
+        assertTrue(target.checkTotals());
+        // Exporting the restored copy gives back the same file
+        assertEquals(text(backup), text(export(target)));
+    }
+
+    @Test
+    public void plainCsvRestores() throws Exception {
+        String csv = "created_date,2016-07-24\n" +
+                "log_date,drink_count\n" +
+                "2016-07-24,2\n" +
+                "\n" +
+                "2016-07-26,5\n";
+
+        assertEquals(2, DrinkBackup.restore(target,
+                new ByteArrayInputStream(csv.getBytes("UTF-8"))));
+
+        int created = DayKeys.fromSqlDate("2016-07-24");
+        assertEquals(created, target.getCreatedDay());
+        assertArrayEquals(new int[] {2, 0, 5},
+                target.getDailyCounts(created, 3));
+        assertTrue(target.checkTotals());
+    }
+
+    @Test
+    public void malformedCsvIsRejected() throws Exception {
+        String header = "created_date,2016-07-24\nlog_date,drink_count\n";
+        String[] files = {
+                "log_date,drink_count\n2016-07-24,2\n",
+                header + "2016-7-24,2\n",
+                header + "2016-07-24,-1\n",
+                header + "2016-07-24\n"
+        };
+        for (String csv : files) {
+            try {
+                DrinkBackup.restore(target,
+                        new ByteArrayInputStream(csv.getBytes("UTF-8")));
+                fail("restored: " + csv);
+            } catch (IOException expected) {
+                // Rejected, as it should be
+            }
+        }
+    }
+
+    /**
+     * Restores DAYS days of random counts from firstDay, about a third of
+     * them dry, the way a backup would.
+     */
+    private static void seed(DbHelper db, int firstDay, Random random) {
+        int chunk = DrinkBackup.RESTORE_CHUNK;
+        int[] days = new int[chunk];
+        int[] counts = new int[chunk];
+        db.beginRestore(firstDay);
+        for (int done = 0; done < DAYS; ) {
+            int length = Math.min(chunk, DAYS - done);
+            for (int i = 0; i < length; i++) {
+                days[i] = firstDay + done + i;
+                counts[i] = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(12);
+            }
+            db.restoreChunk(days, counts, length);
+            done += length;
+        }
+        db.endRestore();
+    }
+
+    private static byte[] export(DbHelper db) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(DAYS, DrinkBackup.export(db, out, DrinkBackup.FORMAT_CSV));
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns every drink_log row as day, count pairs, oldest first.
+     */
+    private static long[] dump(DbHelper db) throws IOException {
+        final long[] rows = new long[DAYS * 2];
+        final int[] next = {0};
+        db.visitDays(new DrinkStore.DayVisitor() {
+            @Override
+            public void visit(int day, int count) {
+                rows[next[0]++] = day;
+                rows[next[0]++] = count;
+            }
+        });
+        assertEquals(rows.length, next[0]);
+        return rows;
+    }
+
+    private static String text(byte[] gzipped) throws IOException {
+        InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(gzipped));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DrinkRepository's ordering and durability rules, driven from plain
+ * threads: a real single-threaded writer, reads and callbacks run inline,
+ * and a DbHelper on a real SQLite file. Callbacks record what they saw in
+ * the order they were delivered.
+ */
+public class DrinkRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private final List<String> delivered =
+            Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger writes = new AtomicInteger();
+    private DbHelper db;
+    private ScheduledExecutorService writer;
+    private DrinkRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        db = TestContext.newStore(folder.getRoot());
+        db.addStatsListener(new DrinkStore.StatsListener() {
+            @Override
+            public void onStatsChanged(long version) {
+                writes.incrementAndGet();
+            }
+        });
+        writer = Executors.newSingleThreadScheduledExecutor();
+        repository = new DrinkRepository(db, writer, direct, direct, direct);
+        repository.open();
+        drain();
+        writes.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+        db.close();
+    }
+
+    @Test
+    public void burstOfTapsIsOneWrite() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            repository.addDrink(record("tap"));
+        }
+        assertEquals(5, repository.getPendingTaps());
+        repository.flush();
+        drain();
+
+        assertEquals(0, repository.getPendingTaps());
+        assertEquals(1, writes.get());
+        assertEquals(Collections.nCopies(5, "tap 5"), delivered);
+        assertEquals(5, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void scheduledFlushWritesWithoutBeingAsked() throws Exception {
+        repository.addDrink(record("tap"));
+        repository.addDrink(record("tap"));
+        // Anything queued after the delay runs after the scheduled flush
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 2 * DrinkRepository.FLUSH_DELAY_MS, TimeUnit.MILLISECONDS).get();
+
+        assertEquals(1, writes.get());
+        assertEquals(2, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void loadStatsCountsBufferedTaps() throws Exception {
+        repository.addDrink(null);
+        repository.addDrink(null);
+        repository.loadStats(record("stats"));
+
+        assertEquals(Collections.singletonList("stats 2"), delivered);
+    }
+
+    @Test
+    public void undoDuringBurstCancelsBufferedTap() throws Exception {
+        repository.addDrink(record("tap"));
+        repository.addDrink(record("tap"));
+        repository.addDrink(record("tap"));
+        repository.undoDrink(recordUndo("undo"));
+        assertEquals(2, repository.getPendingTaps());
+        repository.flush();
+        drain();
+
+        assertEquals(1, writes.get());
+        assertEquals(2, db.getDashboardStats().getTotalDrinks());
+        assertEquals(Arrays.asList("tap 2", "tap 2", "tap 2",
+                "undo true 2"), delivered);
+    }
+
+    @Test
+    public void undoUnitsAreTheLatestBufferedDrinks() throws Exception {
+        assertEquals(0, repository.getPendingUndoUnits());
+        repository.addDrink(BeverageType.WINE, record("tap"));
+        repository.addDrink(BeverageType.LIGHT_BEER, record("tap"));
+        assertEquals(BeverageType.getUnits(BeverageType.LIGHT_BEER),
+                repository.getPendingUndoUnits());
+
+        repository.undoDrink(recordUndo("undo"));
+        assertEquals(BeverageType.getUnits(BeverageType.WINE),
+                repository.getPendingUndoUnits());
+        repository.undoDrink(recordUndo("undo"));
+        assertEquals(0, repository.getPendingUndoUnits());
+        repository.flush();
+        drain();
+        assertEquals(0, db.getDashboardStats().getTotalUnits());
+    }
+
+    @Test
+    public void undoAfterFlushUndoesTheJournaledDrink() throws Exception {
+        repository.addDrink(record("tap"));
+        repository.addDrink(record("tap"));
+        // The write is only queued, but the buffer is already empty
+        repository.flush();
+        repository.undoDrink(recordUndo("undo"));
+        drain();
+
+        assertEquals(Arrays.asList("tap 2", "tap 2", "undo true 1"),
+                delivered);
+        assertEquals(1, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void redoFlushesFirstSoTapsEndTheRedoHistory() throws Exception {
+        repository.addDrink(record("tap"));
+        repository.flush();
+        repository.undoDrink(recordUndo("undo"));
+        repository.addDrink(record("tap"));
+        repository.redoDrink(recordUndo("redo"));
+        drain();
+
+        assertEquals(Arrays.asList("tap 1", "undo true 0", "tap 1",
+                "redo false 1"), delivered);
+        assertEquals(1, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void mutationsCommitInSubmissionOrder() throws Exception {
+        repository.addDrink(record("tap"));
+        repository.clearData(record("clear"));
+        repository.addDrink(record("tap"));
+        repository.addDrink(record("tap"));
+        repository.flush();
+        drain();
+
+        // The first tap is flushed ahead of the clear; the later two
+        // land after it
+        assertEquals(Arrays.asList("tap 1", "clear 0", "tap 2",
+                "tap 2"), delivered);
+        assertEquals(2, db.getDashboardStats().getTotalDrinks());
+    }
+
+    @Test
+    public void flushedTapsSurviveAKill() throws Exception {
+        repository.addDrink(null);
+        repository.addDrink(null);
+        repository.addDrink(null);
+        repository.flush();
+        drain();
+        repository.addDrink(null);
+        repository.addDrink(null);
+        // Killed with two taps still buffered: the writer stops and the
+        // scheduled flush never runs
+        writer.shutdownNow();
+        db.close();
+
+        db = TestContext.newStore(folder.getRoot());
+        assertEquals(3, db.getDashboardStats().getTotalDrinks());
+        assertTrue(db.checkTotals());
+    }
+
+    @Test
+    public void deletingTheLastTrackerDeliversNull() throws Exception {
+        repository.deleteProfile(DbHelper.DEFAULT_PROFILE_ID,
+                record("delete"));
+        drain();
+
+        assertEquals(Collections.singletonList("delete null"), delivered);
+        assertFalse(db.getProfiles().isEmpty());
+    }
+
+    @Test
+    public void syncWaitingOnItsPeerLeavesReadsFree() throws Exception {
+        final CountDownLatch peer = new CountDownLatch(1);
+        final CountDownLatch read = new CountDownLatch(1);
+        final AtomicInteger merged = new AtomicInteger();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        ExecutorService syncer = Executors.newSingleThreadExecutor();
+        try {
+            DrinkRepository repository = new DrinkRepository(db, writer,
+                    reader, syncer, direct);
+            // A peer that never answers until released
+            repository.sync(new SyncTransport() {
+                @Override
+                public void send(byte[] message) {
+                }
+
+                @Override
+                public byte[] receive() throws IOException {
+                    try {
+                        peer.await();
+                    } catch (InterruptedException oops) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("peer gone");
+                }
+
+                @Override
+                public void close() {
+                }
+            }, new DrinkRepository.Callback<Integer>() {
+                @Override
+                public void onResult(Integer result) {
+                    merged.set(result);
+                }
+            });
+            DrinkRepository.Callback<DashboardStats> stats =
+                    new DrinkRepository.Callback<DashboardStats>() {
+                        @Override
+                        public void onResult(DashboardStats result) {
+                            read.countDown();
+                        }
+                    };
+            repository.loadStats(stats);
+
+            assertTrue(read.await(5, TimeUnit.SECONDS));
+            peer.countDown();
+            syncer.shutdown();
+            assertTrue(syncer.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(-1, merged.get());
+        } finally {
+            peer.countDown();
+            reader.shutdownNow();
+            syncer.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until everything queued on the writer so far has run.
+     */
+    private void drain() throws Exception {
+        writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }).get();
+    }
+
+    private DrinkRepository.Callback<DashboardStats> record(final String what) {
+        return new DrinkRepository.Callback<DashboardStats>() {
+            @Override
+            public void onResult(DashboardStats stats) {
+                delivered.add(what + " " +
+                        (stats == null ? "null" : stats.getTotalDrinks()));
+            }
+        };
+    }
+
+    private DrinkRepository.Callback<DrinkRepository.UndoResult> recordUndo(
+            final String what) {
+        return new DrinkRepository.Callback<DrinkRepository.UndoResult>() {
+            @Override
+            public void onResult(DrinkRepository.UndoResult result) {
+                delivered.add(what + " " + result.changed + " " +
+                        result.stats.getTotalDrinks());
+            }
+        };
+    }
+}
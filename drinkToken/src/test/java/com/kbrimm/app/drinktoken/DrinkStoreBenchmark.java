@@ -0,0 +1,257 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Latency of every DrinkStore access point on DbHelper, over histories of
+ * 1, 5 and 20 years. Reads are timed against the seeded history; writes
+ * are single taps, as the app makes them. Scans (visitDays, export,
+ * restore, maintenance, reopening) get fewer runs. Run with
+ * -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class DrinkStoreBenchmark {
+    private static final int[] YEARS = {1, 5, 20};
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+    private static final int SCAN_RUNS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void accessPoints() throws Exception {
+        for (int years : YEARS) {
+            run(years);
+        }
+    }
+
+    private void run(int years) throws Exception {
+        final File dir = folder.newFolder(years + "y");
+        final int days = years * 365;
+        final DbHelper[] store = {TestContext.newStore(dir)};
+        store[0].open();
+        Benchmarks.seedHistory(store[0], days, new Random(years));
+        final int today = DayKeys.today();
+        final long[] time = {System.currentTimeMillis()};
+        final int[] type = {BeverageType.BEER};
+        final int[] units = {BeverageType.getUnits(BeverageType.BEER)};
+
+        Benchmarks.printHeader("DrinkStore on DbHelper, " + years +
+                " year(s), " + days + " days");
+        Benchmarks.time("logDrinks (1 tap)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].logDrinks(time, type, units, 1);
+            }
+        }).report();
+        Benchmarks.time("decrementCount + getDashboardStats", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                // A write drops the cached stats, so this read is uncached
+                store[0].decrementCount();
+                store[0].getDashboardStats();
+            }
+        }).report();
+        Benchmarks.time("getDashboardStats (cached)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getDashboardStats();
+            }
+        }).report();
+        Benchmarks.time("undo", WARMUP, RUNS, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].undo();
+            }
+        }).report();
+        Benchmarks.time("redo", WARMUP, RUNS, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].redo();
+            }
+        }).report();
+        Benchmarks.time("getDailyCounts (30 days)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getDailyCounts(today - 29, 30);
+            }
+        }).report();
+        Benchmarks.time("getDailyCounts (365 days)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getDailyCounts(today - 364, 365);
+            }
+        }).report();
+        Benchmarks.time("getDaySummary (whole history)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getDaySummary(today - days + 1, days);
+            }
+        }).report();
+        Benchmarks.time("getTypeTotals (30 days)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getTypeTotals(today - 29, 30);
+            }
+        }).report();
+        Benchmarks.time("getHourlyCounts (30 days)", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getHourlyCounts(30);
+            }
+        }).report();
+        Benchmarks.time("getRollingStats", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getRollingStats();
+            }
+        }).report();
+        Benchmarks.time("getCreatedDay", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getCreatedDay();
+            }
+        }).report();
+        Benchmarks.time("getLimitStatus", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getLimitStatus();
+            }
+        }).report();
+        Benchmarks.time("setLimits", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].setLimits(4, 14);
+            }
+        }).report();
+        Benchmarks.time("getProfiles", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getProfiles();
+            }
+        }).report();
+        Benchmarks.time("setActiveProfile", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].setActiveProfile(DbHelper.DEFAULT_PROFILE_ID);
+            }
+        }).report();
+        Benchmarks.time("getSyncVector", WARMUP, RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].getSyncVector();
+            }
+        }).report();
+        Benchmarks.time("visitCounters (all)", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() throws IOException {
+                store[0].visitCounters(Collections.<String, Long>emptyMap(),
+                        new DrinkStore.CounterVisitor() {
+                    @Override
+                    public void visit(SyncCounter counter) {
+                    }
+                });
+            }
+        }).report();
+        Benchmarks.time("visitDays (all)", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() throws IOException {
+                store[0].visitDays(new DrinkStore.DayVisitor() {
+                    @Override
+                    public void visit(int day, int count) {
+                    }
+                });
+            }
+        }).report();
+        Benchmarks.time("checkTotals", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].checkTotals();
+            }
+        }).report();
+        Benchmarks.time("compactEvents", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].compactEvents(DbHelper.DEFAULT_EVENT_HORIZON_DAYS);
+            }
+        }).report();
+        final byte[][] backup = new byte[1][];
+        Benchmarks.time("export (CSV)", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                DrinkBackup.export(store[0], out, DrinkBackup.FORMAT_CSV);
+                backup[0] = out.toByteArray();
+            }
+        }).report();
+        Benchmarks.time("restore (CSV)", 2, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() throws IOException {
+                DrinkBackup.restore(store[0],
+                        new ByteArrayInputStream(backup[0]));
+            }
+        }).report();
+        Benchmarks.time("runMaintenance", 1, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].runMaintenance();
+            }
+        }).report();
+        Benchmarks.time("open (cold, new helper)", 1, SCAN_RUNS,
+                new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                store[0].close();
+                store[0] = TestContext.newStore(dir);
+                store[0].open();
+                store[0].getDashboardStats();
+            }
+        }).report();
+        store[0].close();
+    }
+}
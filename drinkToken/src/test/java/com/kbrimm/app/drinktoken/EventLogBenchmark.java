@@ -0,0 +1,152 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * drink_events reads and writes as the table grows to millions of rows.
+ * Each store gets a year of history with real taps over the last
+ * EVENT_DAYS, then a backlog of old events before the horizon, as if
+ * compactEvents() had never run. The recent-window reads and the tap
+ * writes should cost the same at every size, since they only touch the
+ * log_date index near today; compactEvents() then drops the backlog in
+ * one range delete. Run with -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class EventLogBenchmark {
+    private static final int[] BACKLOG = {0, 100000, 1000000, 3000000};
+    // Days before the horizon the backlog is spread over
+    private static final int BACKLOG_DAYS = 20 * 365;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void costStaysFlatAsEventsGrow() throws Exception {
+        for (int backlog : BACKLOG) {
+            run(backlog);
+        }
+    }
+
+    private void run(int backlog) throws Exception {
+        final DbHelper store = TestContext.newStore(
+                folder.newFolder("events" + backlog));
+        store.open();
+        try {
+            Benchmarks.seedHistory(store, 365, new Random(backlog));
+            addBacklog(store.getWritableDatabase(), backlog);
+            final long[] time = {System.currentTimeMillis()};
+            final int[] type = {BeverageType.BEER};
+            final int[] units = {BeverageType.getUnits(BeverageType.BEER)};
+
+            Benchmarks.printHeader(String.format(Locale.US,
+                    "drink_events with %,d events", events(store)));
+            Benchmarks.time("getHourlyCounts(7)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getHourlyCounts(7);
+                }
+            }).report();
+            Benchmarks.time("getHourlyCounts(90)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getHourlyCounts(Benchmarks.EVENT_DAYS);
+                }
+            }).report();
+            Benchmarks.time("logDrinks (1 tap)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.logDrinks(time, type, units, 1);
+                }
+            }).report();
+            Benchmarks.time("decrementCount", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.decrementCount();
+                }
+            }).report();
+            Benchmarks.time("compactEvents (backlog)", 0, 1,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.compactEvents(DbHelper.DEFAULT_EVENT_HORIZON_DAYS);
+                }
+            }).report();
+            Benchmarks.time("compactEvents (nothing to drop)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.compactEvents(DbHelper.DEFAULT_EVENT_HORIZON_DAYS);
+                }
+            }).report();
+            Benchmarks.time("getHourlyCounts(7), compacted", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getHourlyCounts(7);
+                }
+            }).report();
+            System.out.println(String.format(Locale.US,
+                    "%,d events left after compaction", events(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Adds count events for the default profile, spread evenly over the
+     * BACKLOG_DAYS before the horizon, in one statement.
+     */
+    private static void addBacklog(SqlDatabase db, int count) {
+        if (count == 0) {
+            return;
+        }
+        long lastDay = DayKeys.today() - DbHelper.DEFAULT_EVENT_HORIZON_DAYS;
+        /*
+         * INSERT INTO drink_events
+         *     (event_time, log_date, profile_id, type_id, drink_units)
+         *   WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n
+         *     WHERE i < count - 1)
+         *   SELECT (lastDay - i % BACKLOG_DAYS) * 86400000 + 43200000,
+         *     lastDay - i % BACKLOG_DAYS, 1, 0, 100
+         *   FROM n;
+         */
+        String day = "(" + lastDay + " - i % " + BACKLOG_DAYS + ")";
+        db.execSQL("INSERT INTO drink_events (event_time, log_date, " +
+                "profile_id, type_id, drink_units) WITH RECURSIVE n(i) AS " +
+                "(SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < " +
+                (count - 1) + ") SELECT " + day + " * " +
+                DayKeys.MILLIS_PER_DAY + " + " + DayKeys.MILLIS_PER_DAY / 2 +
+                ", " + day + ", " + DbHelper.DEFAULT_PROFILE_ID + ", " +
+                BeverageType.STANDARD + ", " + BeverageType.UNITS_PER_DRINK +
+                " FROM n");
+    }
+
+    private static long events(DbHelper store) {
+        return store.getReadableDatabase().longForQuery(
+                "SELECT COUNT(*) FROM drink_events", null);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HistoryPager with the history screen's 8 pages of 60 days, over a page
+ * source that holds each load until the test delivers it.
+ */
+public class HistoryPagerTest {
+    private static final int PAGE_DAYS = 60;
+    private static final int MAX_PAGES = 8;
+
+    private final List<Integer> requested = new ArrayList<Integer>();
+    private final List<Load> pending = new ArrayList<Load>();
+    private final List<int[]> loaded = new ArrayList<int[]>();
+    private HistoryPager pager;
+
+    private static final class Load {
+        final int firstDay;
+        final int days;
+        final HistoryPager.PageCallback callback;
+
+        Load(int firstDay, int days, HistoryPager.PageCallback callback) {
+            this.firstDay = firstDay;
+            this.days = days;
+            this.callback = callback;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        HistoryPager.PageSource source = new HistoryPager.PageSource() {
+            @Override
+            public void loadPage(int firstDay, int days,
+                                 HistoryPager.PageCallback callback) {
+                requested.add(firstDay);
+                pending.add(new Load(firstDay, days, callback));
+            }
+        };
+        HistoryPager.Listener listener = new HistoryPager.Listener() {
+            @Override
+            public void onDaysLoaded(int firstDay, int lastDay,
+                                     boolean scaleChanged) {
+                loaded.add(new int[] {firstDay, lastDay,
+                        scaleChanged ? 1 : 0});
+            }
+        };
+        pager = new HistoryPager(source, listener, PAGE_DAYS, MAX_PAGES);
+    }
+
+    @Test
+    public void pagesAreAlignedOnDayKeys() {
+        int[][] days = {
+                // day, first day of its page
+                {0, 0}, {59, 0}, {60, 60}, {119, 60},
+                {-1, -60}, {-60, -60}, {-61, -120},
+                {17399, 17340}, {17400, 17400}
+        };
+        for (int[] day : days) {
+            pager.getCount(day[0]);
+            deliverAll();
+            assertEquals("day " + day[0], day[1],
+                    (int) requested.get(requested.size() - 1));
+            assertEquals("day " + day[0], countOn(day[0]),
+                    pager.getCount(day[0]));
+        }
+        // 0 and 59, 60 and 119, -1 and -60 share pages
+        assertEquals(6, requested.size());
+    }
+
+    @Test
+    public void eachPageIsRequestedOnceWhileLoading() {
+        pager.getCount(10);
+        pager.getCount(11);
+        pager.getCount(59);
+
+        assertEquals(1, requested.size());
+        assertEquals(PAGE_DAYS, pending.get(0).days);
+        deliverAll();
+        assertEquals(countOn(59), pager.getCount(59));
+        assertEquals(1, requested.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedPageIsEvicted() {
+        int today = 17400;
+        for (int page = 0; page < MAX_PAGES; page++) {
+            pager.getCount(today - page * PAGE_DAYS);
+        }
+        deliverAll();
+        assertEquals(MAX_PAGES, pager.getCachedPages());
+        // Touch the first page loaded, so the second is least recently used
+        assertEquals(countOn(today), pager.getCount(today));
+
+        pager.getCount(today - MAX_PAGES * PAGE_DAYS);
+        deliverAll();
+
+        assertEquals(MAX_PAGES, pager.getCachedPages());
+        int requests = requested.size();
+        assertEquals(countOn(today), pager.getCount(today));
+        assertEquals(HistoryPager.UNKNOWN,
+                pager.getCount(today - PAGE_DAYS));
+        assertEquals(requests + 1, requested.size());
+        assertEquals(today - PAGE_DAYS,
+                (int) requested.get(requested.size() - 1));
+    }
+
+    @Test
+    public void scrollingYearsKeepsAtMostMaxPages() {
+        int today = 17400;
+        for (int day = today; day > today - 20 * 365; day--) {
+            if (pager.getCount(day) == HistoryPager.UNKNOWN) {
+                deliverAll();
+            }
+            assertEquals(countOn(day), pager.getCount(day));
+            assertTrue(pager.getCachedPages() <= MAX_PAGES);
+        }
+        // Scrolling one way requests every page exactly once
+        int firstPage = (int) Math.floor((today - 20 * 365 + 1.0) /
+                PAGE_DAYS);
+        int lastPage = today / PAGE_DAYS;
+        assertEquals(lastPage - firstPage + 1, requested.size());
+    }
+
+    @Test
+    public void invalidateIgnoresLoadsInFlight() {
+        pager.getCount(100);
+        Load stale = pending.remove(0);
+        pager.invalidate();
+        stale.callback.onPageLoaded(counts(stale.firstDay, stale.days));
+
+        assertTrue(loaded.isEmpty());
+        assertEquals(0, pager.getCachedPages());
+        assertEquals(HistoryPager.UNKNOWN, pager.getCount(100));
+        assertEquals(2, requested.size());
+        deliverAll();
+        assertEquals(countOn(100), pager.getCount(100));
+    }
+
+    @Test
+    public void listenerHearsWhenTheScaleGrows() {
+        assertEquals(1, pager.getLargestCount());
+        pager.getCount(0);
+        deliverAll();
+        int largest = pager.getLargestCount();
+        assertEquals(0, loaded.get(0)[0]);
+        assertEquals(PAGE_DAYS - 1, loaded.get(0)[1]);
+        assertEquals(1, loaded.get(0)[2]);
+
+        // Same counts again, so nothing grows
+        pager.getCount(PAGE_DAYS * 7);
+        deliverAll();
+        assertEquals(largest, pager.getLargestCount());
+        assertEquals(0, loaded.get(1)[2]);
+
+        pager.invalidate();
+        assertEquals(1, pager.getLargestCount());
+        assertEquals(0, pager.getCachedPages());
+    }
+
+    private void deliverAll() {
+        while (!pending.isEmpty()) {
+            Load load = pending.remove(0);
+            load.callback.onPageLoaded(counts(load.firstDay, load.days));
+        }
+    }
+
+    private static int[] counts(int firstDay, int days) {
+        int[] counts = new int[days];
+        for (int i = 0; i < days; i++) {
+            counts[i] = countOn(firstDay + i);
+        }
+        return counts;
+    }
+
+    /**
+     * A count that differs between neighbouring days, so an off-by-one
+     * page offset shows.
+     */
+    private static int countOn(int day) {
+        return ((day % 7) + 7) % 7;
+    }
+}
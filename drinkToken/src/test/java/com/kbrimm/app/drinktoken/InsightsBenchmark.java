@@ -0,0 +1,132 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * What the history screen costs with a 10-year history: the whole
+ * range read from drink_summary's blocks against the same range grouped
+ * out of drink_log, as the screen did before the blocks, each followed
+ * by Insights.of(); the heatmap's year on its own; and a tap, which now
+ * also splices its day into a block. Run with -Ddrinktoken.benchmark=true;
+ * see Benchmarks.
+ */
+public class InsightsBenchmark {
+    private static final int YEARS = 10;
+    // The heatmap's weeks, rounded up to whole days
+    private static final int HEATMAP_DAYS = 53 * 7;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void tenYearHistory() throws Exception {
+        final DbHelper store = TestContext.newStore(folder.getRoot());
+        store.open();
+        try {
+            Benchmarks.seedHistory(store, YEARS * 365, new Random(24));
+            final int today = DayKeys.today();
+            final int firstDay = store.getCreatedDay();
+            final int days = today - firstDay + 1;
+            final DaySummary whole = store.getDaySummary(firstDay, days);
+            // Both paths see the same history
+            assertEquals(Insights.of(whole).getTotalDrinks(),
+                    Insights.of(fromDailyCounts(store, firstDay, days))
+                            .getTotalDrinks());
+            final long[] time = {System.currentTimeMillis()};
+            final int[] type = {BeverageType.WINE};
+            final int[] units = {BeverageType.getUnits(BeverageType.WINE)};
+
+            Benchmarks.printHeader(YEARS + "-year history, " + days +
+                    " days");
+            Benchmarks.time("getDailyCounts + Insights.of", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    Insights.of(fromDailyCounts(store, firstDay, days));
+                }
+            }).report();
+            Benchmarks.time("getDaySummary + Insights.of", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    Insights.of(store.getDaySummary(firstDay, days));
+                }
+            }).report();
+            Benchmarks.time("getDaySummary alone", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getDaySummary(firstDay, days);
+                }
+            }).report();
+            Benchmarks.time("Insights.of alone", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    Insights.of(whole);
+                }
+            }).report();
+            Benchmarks.time("getDailyCounts (heatmap year)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getDailyCounts(today - HEATMAP_DAYS + 1,
+                            HEATMAP_DAYS);
+                }
+            }).report();
+            Benchmarks.time("getDaySummary (heatmap year)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getDaySummary(today - HEATMAP_DAYS + 1,
+                            HEATMAP_DAYS);
+                }
+            }).report();
+            Benchmarks.time("logDrinks (1 tap)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.logDrinks(time, type, units, 1);
+                }
+            }).report();
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Builds the summary the way the history screen did before
+     * drink_summary, from drink_log's rows for the range.
+     */
+    private static DaySummary fromDailyCounts(DbHelper store, int firstDay,
+                                              int days) {
+        int[] counts = store.getDailyCounts(firstDay, days);
+        short[] shorts = new short[days];
+        for (int i = 0; i < days; i++) {
+            shorts[i] = (short) counts[i];
+        }
+        return new DaySummary(firstDay, shorts);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Use: SqlDatabase for unit tests, backed by one sqlite-jdbc connection,
+ *      so DbHelper and DbMigrations run their real SQL against a real
+ *      SQLite file on the JVM. Mirrors the SQLCipher behaviour the app
+ *      relies on: one lock per connection, held by a transaction until
+ *      its outermost end; nested transactions that roll back if any level
+ *      is not marked successful; rawQuery() arguments bound as strings;
+ *      execSQL() taking one step and rawExecSQL() stepping to the end.
+ *      There is no cipher: keys are accepted and ignored.
+ * Access points: OPENER - pass to DbHelper(Context, SqlDatabase.Opener)
+ *                the SqlDatabase interface
+ *                getStatementCount() - statements run so far, for
+ *                    benchmarks
+ */
+final class JdbcDatabase implements SqlDatabase {
+    static final SqlDatabase.Opener OPENER = new SqlDatabase.Opener() {
+        @Override
+        public SqlDatabase open(File file, String key) {
+            return new JdbcDatabase(file);
+        }
+    };
+
+    // KEY '...' on an ATTACH, which plain SQLite does not accept
+    private static final Pattern ATTACH_KEY = Pattern.compile(
+            "(?i)\\s+KEY\\s+'(?:[^']|'')*'\\s*$");
+    // Statements run on every connection, for query-count benchmarks
+    private static final AtomicLong STATEMENTS = new AtomicLong();
+
+    private final Connection connection;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    // Transaction nesting, guarded by lock
+    private int transactionDepth = 0;
+    private boolean levelSuccessful = false;
+    private boolean transactionFailed = false;
+
+    private JdbcDatabase(File path) {
+        try {
+            connection = DriverManager.getConnection(
+                    "jdbc:sqlite:" + path.getPath());
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        }
+    }
+
+    /**
+     * Returns the number of statements run on every connection so far.
+     *
+     * @return the statement count
+     */
+    static long getStatementCount() {
+        return STATEMENTS.get();
+    }
+
+    @Override
+    public void beginTransaction() {
+        lock.lock();
+        try {
+            if (transactionDepth == 0) {
+                execute("BEGIN IMMEDIATE", false);
+                transactionFailed = false;
+            }
+            levelSuccessful = false;
+            transactionDepth++;
+        } catch (RuntimeException oops) {
+            lock.unlock();
+            throw oops;
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        if (!lock.isHeldByCurrentThread() || transactionDepth == 0) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        levelSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        if (!lock.isHeldByCurrentThread() || transactionDepth == 0) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        try {
+            if (!levelSuccessful) {
+                transactionFailed = true;
+            }
+            // The enclosing level starts out unmarked again
+            levelSuccessful = false;
+            transactionDepth--;
+            if (transactionDepth == 0) {
+                execute(transactionFailed ? "ROLLBACK" : "COMMIT", false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SqlStatement compileStatement(String sql) {
+        lock.lock();
+        try {
+            return new JdbcStatement(this, connection.prepareStatement(sql));
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        execute(sql, false);
+    }
+
+    @Override
+    public void execSQL(String sql, Object[] args) {
+        lock.lock();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    statement.setObject(i + 1, args[i]);
+                }
+                STATEMENTS.incrementAndGet();
+                statement.execute();
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void rawExecSQL(String sql) {
+        execute(sql, true);
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] args) {
+        lock.lock();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                bindStrings(statement, args);
+                STATEMENTS.incrementAndGet();
+                return read(statement.executeQuery());
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like SQLCipher's DatabaseUtils.longForQuery(), binds every argument
+     * as a string and reads one value.
+     */
+    @Override
+    public long longForQuery(String sql, String[] args) {
+        return (Long) queryForValue(sql, args, true);
+    }
+
+    @Override
+    public String stringForQuery(String sql, String[] args) {
+        return (String) queryForValue(sql, args, false);
+    }
+
+    @Override
+    public int getVersion() {
+        return (int) longForQuery("PRAGMA user_version", null);
+    }
+
+    @Override
+    public void setVersion(int version) {
+        execute("PRAGMA user_version = " + version, false);
+    }
+
+    @Override
+    public boolean isOpen() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException oops) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            connection.close();
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    static void countStatement() {
+        STATEMENTS.incrementAndGet();
+    }
+
+    /**
+     * Runs sql, taking one step or, with drain, stepping through every
+     * row it returns.
+     */
+    private void execute(String sql, boolean drain) {
+        lock.lock();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                STATEMENTS.incrementAndGet();
+                String plain = ATTACH_KEY.matcher(sql).replaceFirst("");
+                if (statement.execute(plain) && drain) {
+                    ResultSet rows = statement.getResultSet();
+                    while (rows.next()) {
+                        // Step to the end
+                    }
+                    rows.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the first column of the first row as a Long or a String,
+     * failing if there is no row, as SQLCipher's simple queries do.
+     */
+    private Object queryForValue(String sql, String[] args, boolean asLong) {
+        lock.lock();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                bindStrings(statement, args);
+                STATEMENTS.incrementAndGet();
+                ResultSet rows = statement.executeQuery();
+                try {
+                    if (!rows.next()) {
+                        throw new IllegalStateException("expected 1 row");
+                    }
+                    return asLong ? (Object) rows.getLong(1)
+                            : rows.getString(1);
+                } finally {
+                    rows.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException oops) {
+            throw wrap(oops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void bindStrings(PreparedStatement statement,
+                                    String[] args) throws SQLException {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setString(i + 1, args[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads every row of a result into a cursor and closes the result.
+     */
+    static Cursor read(ResultSet rows) throws SQLException {
+        try {
+            ResultSetMetaData meta = rows.getMetaData();
+            String[] columns = new String[meta.getColumnCount()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = meta.getColumnLabel(i + 1);
+            }
+            List<Object[]> values = new ArrayList<Object[]>();
+            while (rows.next()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = rows.getObject(i + 1);
+                }
+                values.add(row);
+            }
+            return new MemoryCursor(columns, values);
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * SQLCipher throws its own unchecked SQLiteException; the JDBC
+     * driver's checked one becomes an unchecked one here.
+     */
+    static RuntimeException wrap(SQLException oops) {
+        return new IllegalStateException(oops.getMessage(), oops);
+    }
+}
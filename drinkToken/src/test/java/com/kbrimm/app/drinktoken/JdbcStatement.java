@@ -0,0 +1,143 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Use: SqlStatement for unit tests, wrapping a sqlite-jdbc prepared
+ *      statement on a JdbcDatabase. Bindings stay in place between
+ *      executions, as they do in SQLCipher. Each execution takes the
+ *      connection's lock.
+ * Access points: the SqlStatement interface
+ */
+final class JdbcStatement implements SqlStatement {
+    private final JdbcDatabase db;
+    private final PreparedStatement statement;
+
+    JdbcStatement(JdbcDatabase db, PreparedStatement statement) {
+        this.db = db;
+        this.statement = statement;
+    }
+
+    @Override
+    public void bindNull(int index) {
+        try {
+            statement.setNull(index, java.sql.Types.NULL);
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        }
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+        try {
+            statement.setLong(index, value);
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        }
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+        try {
+            statement.setString(index, value);
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        }
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+        try {
+            statement.setBytes(index, value);
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        }
+    }
+
+    @Override
+    public void execute() {
+        db.getLock().lock();
+        try {
+            JdbcDatabase.countStatement();
+            statement.execute();
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        } finally {
+            db.getLock().unlock();
+        }
+    }
+
+    @Override
+    public long executeInsert() {
+        db.getLock().lock();
+        try {
+            JdbcDatabase.countStatement();
+            if (statement.executeUpdate() <= 0) {
+                return -1;
+            }
+            ResultSet keys = statement.getGeneratedKeys();
+            try {
+                return keys.next() ? keys.getLong(1) : -1;
+            } finally {
+                keys.close();
+            }
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        } finally {
+            db.getLock().unlock();
+        }
+    }
+
+    @Override
+    public int executeUpdateDelete() {
+        db.getLock().lock();
+        try {
+            JdbcDatabase.countStatement();
+            return statement.executeUpdate();
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        } finally {
+            db.getLock().unlock();
+        }
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+        db.getLock().lock();
+        try {
+            JdbcDatabase.countStatement();
+            ResultSet rows = statement.executeQuery();
+            try {
+                if (!rows.next()) {
+                    throw new IllegalStateException("expected 1 row");
+                }
+                return rows.getLong(1);
+            } finally {
+                rows.close();
+            }
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        } finally {
+            db.getLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            statement.close();
+        } catch (SQLException oops) {
+            throw JdbcDatabase.wrap(oops);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LimitStatus on its own, then DbHelper moving it as drinks are logged,
+ * undone and removed, and as the clock passes dry days. The limit
+ * listener (LimitAlerts in the app) must hear about each crossing up
+ * and nothing else.
+ */
+public class LimitStatusTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DbHelper db;
+    private final List<LimitStatus> alerts = new ArrayList<LimitStatus>();
+    // What DayKeys.today() reads
+    private volatile long clockMillis;
+    private int firstDay;
+
+    @Before
+    public void setUp() {
+        // Noon, so a few hours either way stay on the same day
+        firstDay = DayKeys.today();
+        clockMillis = DayKeys.startOfDay(firstDay, TimeZone.getDefault()) +
+                12 * HOUR;
+        DayKeys.setClock(new DayKeys.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return clockMillis;
+            }
+        });
+        db = TestContext.newStore(folder.getRoot());
+        db.open();
+        db.addLimitListener(new DrinkStore.LimitListener() {
+            @Override
+            public void onLimitReached(LimitStatus before, LimitStatus after) {
+                alerts.add(after);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        DayKeys.setClock(DayKeys.Clock.SYSTEM);
+    }
+
+    @Test
+    public void statesSplitAtTheLimit() {
+        LimitStatus status = new LimitStatus(3, 10, 100, 2, 9, 0);
+        assertEquals(LimitStatus.STATE_UNDER, status.getDailyState());
+        assertEquals(LimitStatus.STATE_UNDER, status.getWeeklyState());
+
+        LimitStatus at = status.withCounts(3, 10);
+        assertEquals(LimitStatus.STATE_AT, at.getDailyState());
+        assertEquals(LimitStatus.STATE_AT, at.getWeeklyState());
+        assertTrue(at.crossedUp(status));
+
+        LimitStatus over = at.withCounts(4, 10);
+        assertEquals(LimitStatus.STATE_OVER, over.getDailyState());
+        assertTrue(over.crossedUp(at));
+        // Going back down is never a crossing
+        assertFalse(at.crossedUp(over));
+        assertFalse(status.crossedUp(at));
+        assertFalse(over.crossedUp(over));
+        // A limit of 0 is off, whatever the count
+        LimitStatus off = new LimitStatus(0, 0, 100, 50, 50, 0);
+        assertFalse(off.isEnabled());
+        assertEquals(LimitStatus.STATE_UNDER, off.getDailyState());
+        assertEquals(0, off.getStreakDays());
+    }
+
+    @Test
+    public void advanceCountsDryDaysIntoTheStreak() {
+        LimitStatus within = new LimitStatus(2, 0, 100, 2, 2, 5);
+        assertEquals(6, within.getStreakDays());
+        // Day 100 closes within the limit, 101 and 102 were dry
+        LimitStatus later = within.advance(103, 0, 0);
+        assertEquals(103, later.getDay());
+        assertEquals(8, later.getStreakBefore());
+        assertEquals(9, later.getStreakDays());
+
+        LimitStatus over = new LimitStatus(2, 0, 100, 3, 3, 5);
+        assertEquals(0, over.getStreakDays());
+        // The day over breaks the streak; the dry days after restart it
+        assertEquals(2, over.advance(103, 0, 0).getStreakBefore());
+        assertEquals(0, over.advance(101, 0, 0).getStreakBefore());
+        // Not a later day: only the counts change
+        LimitStatus same = over.advance(100, 1, 1);
+        assertEquals(5, same.getStreakBefore());
+        assertEquals(LimitStatus.STATE_UNDER, same.getDailyState());
+    }
+
+    @Test
+    public void dailyAlertsOnlyFireGoingUp() {
+        db.setLimits(2, 0);
+
+        log(1);
+        assertEquals(0, alerts.size());
+        log(1);
+        assertAlert(LimitStatus.STATE_AT, 2);
+        log(1);
+        assertAlert(LimitStatus.STATE_OVER, 3);
+
+        // Back under by undo and decrement, quietly
+        assertTrue(db.undo());
+        assertEquals(LimitStatus.STATE_AT, db.getLimitStatus().getDailyState());
+        assertTrue(db.decrementCount());
+        LimitStatus under = db.getLimitStatus();
+        assertEquals(LimitStatus.STATE_UNDER, under.getDailyState());
+        assertEquals(1, under.getDailyCount());
+        assertEquals(1, under.getStreakDays());
+        assertEquals(2, alerts.size());
+
+        // Crossing again alerts again, including by redo
+        log(1);
+        assertAlert(LimitStatus.STATE_AT, 2);
+        assertTrue(db.undo());
+        assertTrue(db.redo());
+        assertAlert(LimitStatus.STATE_AT, 2);
+        assertEquals(4, alerts.size());
+    }
+
+    @Test
+    public void weeklyLimitFollowsTheRollingWeek() {
+        db.setLimits(0, 3);
+        log(2);
+        assertEquals(0, alerts.size());
+
+        // Three days on, the two drinks are still in the week
+        moveDays(3);
+        log(1);
+        assertEquals(1, alerts.size());
+        assertEquals(LimitStatus.STATE_AT, last().getWeeklyState());
+        assertEquals(3, last().getWeeklyCount());
+
+        // Seven dry days later none of them are
+        moveDays(7);
+        LimitStatus status = db.getLimitStatus();
+        assertEquals(0, status.getWeeklyCount());
+        assertEquals(LimitStatus.STATE_UNDER, status.getWeeklyState());
+        log(3);
+        assertEquals(2, alerts.size());
+    }
+
+    @Test
+    public void streakSurvivesDryDaysAndReopening() {
+        db.setLimits(2, 0);
+        log(3);
+        assertEquals(0, db.getLimitStatus().getStreakDays());
+
+        // Three dry days, then today
+        moveDays(4);
+        LimitStatus status = db.getLimitStatus();
+        assertEquals(firstDay + 4, status.getDay());
+        assertEquals(0, status.getDailyCount());
+        assertEquals(3, status.getStreakBefore());
+        assertEquals(4, status.getStreakDays());
+        assertEquals(1, alerts.size());
+
+        // Nothing was written on the dry days, but the stored row and
+        // the daily series give the same state back after a restart
+        log(1);
+        db.close();
+        db = TestContext.newStore(folder.getRoot());
+        db.open();
+        status = db.getLimitStatus();
+        assertEquals(firstDay + 4, status.getDay());
+        assertEquals(1, status.getDailyCount());
+        assertEquals(4, status.getStreakDays());
+
+        // Going over today ends the streak
+        log(2);
+        assertEquals(0, db.getLimitStatus().getStreakDays());
+        assertEquals(LimitStatus.STATE_OVER,
+                db.getLimitStatus().getDailyState());
+    }
+
+    private void log(int drinks) {
+        long[] times = new long[drinks];
+        int[] types = new int[drinks];
+        int[] units = new int[drinks];
+        for (int i = 0; i < drinks; i++) {
+            times[i] = clockMillis;
+            types[i] = BeverageType.STANDARD;
+            units[i] = BeverageType.UNITS_PER_DRINK;
+        }
+        db.logDrinks(times, types, units, drinks);
+    }
+
+    private void moveDays(int days) {
+        clockMillis = DayKeys.startOfDay(DayKeys.today() + days,
+                TimeZone.getDefault()) + 12 * HOUR;
+    }
+
+    private LimitStatus last() {
+        return alerts.get(alerts.size() - 1);
+    }
+
+    private void assertAlert(int dailyState, int dailyCount) {
+        LimitStatus status = last();
+        assertEquals(dailyState, status.getDailyState());
+        assertEquals(dailyCount, status.getDailyCount());
+        assertEquals(status.getDailyState(),
+                db.getLimitStatus().getDailyState());
+    }
+}
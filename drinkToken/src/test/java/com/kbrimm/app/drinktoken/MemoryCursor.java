@@ -0,0 +1,314 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Use: A read-only cursor over rows already read into memory, returned by
+ *      JdbcDatabase.rawQuery(). Values convert between types the way
+ *      SQLite's column accessors do. Touches no Android framework code,
+ *      so it works against the unit-test android.jar.
+ * Access points: the Cursor interface; observers and extras are ignored
+ */
+class MemoryCursor implements Cursor {
+    private final String[] columns;
+    private final List<Object[]> rows;
+    private int position = -1;
+    private boolean closed = false;
+
+    MemoryCursor(String[] columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < 0) {
+            this.position = -1;
+            return false;
+        }
+        if (position >= rows.size()) {
+            this.position = rows.size();
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(rows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return position == 0 && !rows.isEmpty();
+    }
+
+    @Override
+    public boolean isLast() {
+        return position == rows.size() - 1 && !rows.isEmpty();
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return rows.isEmpty() || position == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return rows.isEmpty() || position == rows.size();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return Arrays.asList(columns).indexOf(columnName);
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName +
+                    "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return columns[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns.clone();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return String.valueOf(value).getBytes();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof byte[]) {
+            return new String((byte[]) value);
+        }
+        return String.valueOf(value);
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        String value = getString(columnIndex);
+        char[] chars = value == null ? new char[0] : value.toCharArray();
+        buffer.data = chars;
+        buffer.sizeCopied = chars.length;
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return (long) toDouble(value);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return toDouble(value);
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Integer || value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Number) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return get(columnIndex) == null;
+    }
+
+    @Override
+    public void deactivate() {
+    }
+
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver resolver, Uri uri) {
+    }
+
+    @Override
+    public Uri getNotificationUri() {
+        return null;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public void setExtras(Bundle extras) {
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+
+    private Object get(int columnIndex) {
+        if (closed) {
+            throw new IllegalStateException("cursor is closed");
+        }
+        if (position < 0 || position >= rows.size()) {
+            throw new IllegalStateException("no row at " + position);
+        }
+        return rows.get(position)[columnIndex];
+    }
+
+    /**
+     * Converts text the way SQLite does, taking the longest numeric
+     * prefix and 0 when there is none.
+     */
+    private static double toDouble(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        String text = value instanceof byte[]
+                ? new String((byte[]) value) : String.valueOf(value);
+        text = text.trim();
+        for (int end = text.length(); end > 0; end--) {
+            try {
+                return Double.parseDouble(text.substring(0, end));
+            } catch (NumberFormatException nope) {
+                // Try a shorter prefix
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Random;
+
+/**
+ * What MeteredStore adds to DbHelper. The same calls are timed on the
+ * bare store and through the decorator, alternating so both see the same
+ * warm caches; the cached dashboard read is the cheapest call the app
+ * makes, so it shows the overhead most. Also times DbMetrics.record()
+ * alone. Run with -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class MeteredStoreBenchmark {
+    private static final int WARMUP = 2000;
+    private static final int RUNS = 20000;
+    private static final int WRITE_RUNS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void overheadAgainstDbHelper() throws Exception {
+        final DbHelper bare = TestContext.newStore(folder.getRoot());
+        bare.open();
+        try {
+            Benchmarks.seedHistory(bare, 365, new Random(16));
+            final DbMetrics metrics = new DbMetrics();
+            final DrinkStore metered = new MeteredStore(bare, metrics);
+            final int today = DayKeys.today();
+            final long[] time = {System.currentTimeMillis()};
+            final int[] type = {BeverageType.BEER};
+            final int[] units = {BeverageType.getUnits(BeverageType.BEER)};
+
+            Benchmarks.printHeader("MeteredStore overhead over DbHelper");
+            compare("getDashboardStats, cached", RUNS, bare, metered,
+                    new Call() {
+                @Override
+                public void on(DrinkStore store) {
+                    store.getDashboardStats();
+                }
+            });
+            compare("getDailyCounts, 7 days", RUNS, bare, metered,
+                    new Call() {
+                @Override
+                public void on(DrinkStore store) {
+                    store.getDailyCounts(today - 6, 7);
+                }
+            });
+            compare("logDrinks (1 tap)", WRITE_RUNS, bare, metered,
+                    new Call() {
+                @Override
+                public void on(DrinkStore store) {
+                    store.logDrinks(time, type, units, 1);
+                }
+            });
+            Benchmarks.time("DbMetrics.record alone", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    metrics.record(DbMetrics.OP_DASHBOARD, System.nanoTime());
+                }
+            }).report();
+            System.out.println("DbMetrics.measureOverheadNanos: " +
+                    DbMetrics.measureOverheadNanos() + " ns/sample");
+        } finally {
+            bare.close();
+        }
+    }
+
+    /**
+     * One store call, made on either store.
+     */
+    private interface Call {
+        void on(DrinkStore store);
+    }
+
+    /**
+     * Times call on both stores, alternating, and prints both rows.
+     */
+    private static void compare(String name, int runs, DrinkStore bare,
+                                DrinkStore metered, Call call) {
+        int warmup = Math.min(WARMUP, runs);
+        for (int i = 0; i < warmup; i++) {
+            call.on(bare);
+            call.on(metered);
+        }
+        Benchmarks.Samples bareSamples = new Benchmarks.Samples(
+                "bare: " + name, runs);
+        Benchmarks.Samples meteredSamples = new Benchmarks.Samples(
+                "meter: " + name, runs);
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            call.on(bare);
+            long middle = System.nanoTime();
+            call.on(metered);
+            meteredSamples.add(System.nanoTime() - middle);
+            bareSamples.add(middle - start);
+        }
+        bareSamples.report();
+        meteredSamples.report();
+    }
+}
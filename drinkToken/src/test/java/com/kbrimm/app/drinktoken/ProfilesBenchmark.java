@@ -0,0 +1,151 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The active profile's reads and writes with 1 and with 10 profiles, each
+ * holding YEARS of history. Every query is keyed by profile_id first, so
+ * the other nine profiles' rows should not show in the timings. Also
+ * times switching profiles and creating and deleting one. Run with
+ * -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class ProfilesBenchmark {
+    private static final int[] PROFILES = {1, 10};
+    private static final int YEARS = 5;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 200;
+    private static final int SCAN_RUNS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void activeProfileCostWithOtherProfiles() throws Exception {
+        for (int profiles : PROFILES) {
+            run(profiles);
+        }
+    }
+
+    private void run(int profiles) throws Exception {
+        final DbHelper store = TestContext.newStore(
+                folder.newFolder(profiles + "profiles"));
+        store.open();
+        try {
+            for (int i = 0; i < profiles; i++) {
+                if (i > 0) {
+                    store.setActiveProfile(
+                            store.createProfile("Profile " + i).getId());
+                }
+                Benchmarks.seedHistory(store, YEARS * 365, new Random(i));
+            }
+            List<Profile> all = store.getProfiles();
+            final int first = all.get(0).getId();
+            final int last = all.get(all.size() - 1).getId();
+            store.setActiveProfile(first);
+            final int today = DayKeys.today();
+            final long[] time = {System.currentTimeMillis()};
+            final int[] type = {BeverageType.WINE};
+            final int[] units = {BeverageType.getUnits(BeverageType.WINE)};
+
+            Benchmarks.printHeader(profiles + " profile(s), " + YEARS +
+                    " years each");
+            Benchmarks.time("logDrinks (1 tap)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.logDrinks(time, type, units, 1);
+                }
+            }).report();
+            Benchmarks.time("decrement + getDashboardStats", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.decrementCount();
+                    store.getDashboardStats();
+                }
+            }).report();
+            Benchmarks.time("getDailyCounts (30 days)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getDailyCounts(today - 29, 30);
+                }
+            }).report();
+            Benchmarks.time("getTypeTotals (7 days)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getTypeTotals(today - 6, 7);
+                }
+            }).report();
+            Benchmarks.time("getDaySummary (365 days)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getDaySummary(today - 364, 365);
+                }
+            }).report();
+            Benchmarks.time("getHourlyCounts (30 days)", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getHourlyCounts(30);
+                }
+            }).report();
+            Benchmarks.time("getProfiles", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.getProfiles();
+                }
+            }).report();
+            Benchmarks.time("switch + getDashboardStats", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                private boolean toLast = true;
+
+                @Override
+                public void run() {
+                    store.setActiveProfile(toLast ? last : first);
+                    store.getDashboardStats();
+                    toLast = !toLast;
+                }
+            }).report();
+            store.setActiveProfile(first);
+            Benchmarks.time("createProfile + deleteProfile", 2, SCAN_RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.deleteProfile(store.createProfile("Scratch").getId());
+                }
+            }).report();
+            Benchmarks.time("checkTotals (all profiles)", 2, SCAN_RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    store.checkTotals();
+                }
+            }).report();
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every write goes through the Query constants and their cached compiled
+ * statements. Here a random mix of taps, decrements, undo and redo,
+ * merges from a peer, clears, compaction and reopening runs through
+ * DbHelper. Afterwards, what those statements maintained is checked
+ * against the same figures recomputed with plain rawQuery SQL from
+ * sync_counters, which every drink reaches, and DbHelper's reads are
+ * checked against plain SELECTs.
+ */
+public class QueryParityTest {
+    private static final int DAYS = 40;
+    private static final int STEPS = 1500;
+    private static final String PEER = "peer-device";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DbHelper db;
+    private Random random;
+    private int today;
+    // The peer's counters, keyed by day * COUNT + type
+    private final TreeMap<Integer, SyncCounter> peer =
+            new TreeMap<Integer, SyncCounter>();
+    private long peerClock = 0;
+
+    @Before
+    public void setUp() {
+        db = TestContext.newStore(folder.getRoot());
+        db.open();
+        random = new Random(25);
+        today = DayKeys.today();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void randomWritesMatchRawSql() {
+        int first = db.getActiveProfile();
+        int second = db.createProfile("Second").getId();
+        restore(today - DAYS + 1);
+        db.setActiveProfile(second);
+        restore(today - DAYS / 2);
+
+        for (int step = 0; step < STEPS; step++) {
+            int roll = random.nextInt(100);
+            if (roll < 50) {
+                logBatch();
+            } else if (roll < 62) {
+                db.decrementCount();
+            } else if (roll < 72) {
+                db.undo();
+            } else if (roll < 78) {
+                db.redo();
+            } else if (roll < 88) {
+                mergeFromPeer();
+            } else if (roll < 95) {
+                db.setActiveProfile(db.getActiveProfile() == first ?
+                        second : first);
+            } else if (roll < 97) {
+                db.compactEvents(random.nextInt(DAYS));
+            } else if (roll < 98 && db.getActiveProfile() == second) {
+                db.clearData();
+            } else {
+                // A new connection, so every statement is compiled again
+                db.close();
+                db.open();
+            }
+        }
+
+        for (int profile : new int[] {first, second}) {
+            db.setActiveProfile(profile);
+            assertParity(profile);
+        }
+        assertTrue(DbMetrics.getInstance().getStatementHitRate() > 0);
+    }
+
+    /**
+     * Compares one profile's maintained tables and DbHelper's reads with
+     * plain SQL over the raw rows.
+     */
+    private void assertParity(int profile) {
+        SqlDatabase raw = db.getReadableDatabase();
+        String id = String.valueOf(profile);
+        int firstDay = today - DAYS + 1;
+
+        // drink_log and drink_type_log hold what the counters net to
+        assertEquals(query(raw, "SELECT log_date, SUM(added - removed) " +
+                        "FROM sync_counters WHERE profile_id = ? " +
+                        "GROUP BY log_date HAVING SUM(added - removed) <> 0",
+                id),
+                query(raw, "SELECT log_date, drink_count FROM drink_log " +
+                        "WHERE profile_id = ? AND drink_count <> 0", id));
+        assertEquals(query(raw, "SELECT log_date * 100 + type_id, " +
+                        "SUM(added - removed) FROM sync_counters " +
+                        "WHERE profile_id = ? GROUP BY log_date, type_id " +
+                        "HAVING SUM(added - removed) <> 0", id),
+                query(raw, "SELECT log_date * 100 + type_id, drink_count " +
+                        "FROM drink_type_log WHERE profile_id = ? " +
+                        "AND drink_count <> 0", id));
+        // ... and the types add up to the day
+        assertEquals(query(raw, "SELECT log_date, drink_count FROM " +
+                        "drink_log WHERE profile_id = ? AND drink_count <> 0",
+                id),
+                query(raw, "SELECT log_date, SUM(drink_count) FROM " +
+                        "drink_type_log WHERE profile_id = ? " +
+                        "GROUP BY log_date HAVING SUM(drink_count) <> 0", id));
+        // meta_totals is the sum of drink_log
+        assertEquals(query(raw, "SELECT 0, SUM(drink_count) FROM drink_log " +
+                        "WHERE profile_id = ?", id),
+                query(raw, "SELECT 0, total_drinks FROM meta_totals " +
+                        "WHERE profile_id = ?", id));
+        assertEquals(query(raw, "SELECT 1, SUM(drink_units) FROM drink_log " +
+                        "WHERE profile_id = ?", id),
+                query(raw, "SELECT 1, total_units FROM meta_totals " +
+                        "WHERE profile_id = ?", id));
+        assertTrue(db.checkTotals());
+
+        // The reads agree with plain SELECTs
+        TreeMap<Integer, Long> daily = query(raw, "SELECT log_date, " +
+                "drink_count FROM drink_log WHERE profile_id = ? " +
+                "AND log_date BETWEEN ? AND ?", id, String.valueOf(firstDay),
+                String.valueOf(today));
+        int[] expected = new int[DAYS];
+        for (int day = firstDay; day <= today; day++) {
+            Long count = daily.get(day);
+            expected[day - firstDay] = count == null ? 0 : count.intValue();
+        }
+        assertArrayEquals(expected, db.getDailyCounts(firstDay, DAYS));
+        // drink_summary is for display and floors days at zero; a day
+        // only goes below when a peer removes a drink already cleared here
+        DaySummary summary = db.getDaySummary(firstDay, DAYS);
+        for (int day = firstDay; day <= today; day++) {
+            assertEquals(Math.max(0, expected[day - firstDay]),
+                    summary.getCount(day));
+        }
+        TypeTotals types = db.getTypeTotals(firstDay, DAYS);
+        TreeMap<Integer, Long> byType = query(raw, "SELECT type_id, " +
+                "SUM(drink_count) FROM drink_type_log WHERE profile_id = ? " +
+                "AND log_date BETWEEN ? AND ? GROUP BY type_id", id,
+                String.valueOf(firstDay), String.valueOf(today));
+        for (int type = 0; type < BeverageType.COUNT; type++) {
+            Long count = byType.get(type);
+            assertEquals(count == null ? 0 : count.intValue(),
+                    types.getCount(type));
+        }
+    }
+
+    /**
+     * Runs a two-column query and returns its rows as a sorted map.
+     */
+    private static TreeMap<Integer, Long> query(SqlDatabase raw,
+                                                String sql, String... args) {
+        TreeMap<Integer, Long> rows = new TreeMap<Integer, Long>();
+        Cursor cursor = raw.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getInt(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private void restore(int createdDay) {
+        int days = today - createdDay + 1;
+        int[] dayKeys = new int[days];
+        int[] counts = new int[days];
+        for (int i = 0; i < days; i++) {
+            dayKeys[i] = createdDay + i;
+            counts[i] = random.nextInt(4);
+        }
+        db.beginRestore(createdDay);
+        db.restoreChunk(dayKeys, counts, days);
+        db.endRestore();
+    }
+
+    /**
+     * Logs one to four drinks, oldest first, on the last few days; now
+     * and then one of an unknown type.
+     */
+    private void logBatch() {
+        int length = 1 + random.nextInt(4);
+        long[] times = new long[length];
+        int[] types = new int[length];
+        int[] units = new int[length];
+        TimeZone zone = TimeZone.getDefault();
+        long now = System.currentTimeMillis();
+        long from = DayKeys.startOfDay(today - random.nextInt(3), zone);
+        for (int i = 0; i < length; i++) {
+            from += (long) (random.nextDouble() * (now - from) / 2);
+            times[i] = from;
+            types[i] = random.nextInt(10) == 0 ? 42 :
+                    random.nextInt(BeverageType.COUNT);
+            units[i] = BeverageType.getUnits(types[i]);
+        }
+        db.logDrinks(times, types, units, length);
+    }
+
+    /**
+     * Moves a few of the peer's counters on and sends the peer's full
+     * set, as a sync would.
+     */
+    private void mergeFromPeer() {
+        for (int i = random.nextInt(3); i >= 0; i--) {
+            int day = today - random.nextInt(DAYS);
+            int type = random.nextInt(BeverageType.COUNT);
+            int key = day * BeverageType.COUNT + type;
+            SyncCounter old = peer.get(key);
+            int added = old == null ? 0 : old.getAdded();
+            int removed = old == null ? 0 : old.getRemoved();
+            if (random.nextInt(4) == 0 && added > removed) {
+                removed++;
+            } else {
+                added++;
+            }
+            int weight = BeverageType.getUnits(type);
+            peer.put(key, new SyncCounter(PEER, day, type, added, removed,
+                    added * weight, removed * weight, ++peerClock));
+        }
+        db.mergeCounters(new ArrayList<SyncCounter>(peer.values()));
+    }
+}
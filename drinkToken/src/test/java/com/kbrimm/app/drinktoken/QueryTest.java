@@ -0,0 +1,92 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Query's placeholder count, which StatementCache's callers bind up to,
+ * its ids, and the checked values reads bind with args().
+ */
+public class QueryTest {
+    @Test
+    public void countsPlaceholders() {
+        assertEquals(0, params("SELECT 1"));
+        assertEquals(1, params("SELECT ?"));
+        assertEquals(3, params("INSERT INTO t VALUES (?, ?, ?)"));
+        assertEquals(2, params("UPDATE t SET a = a + ? WHERE b = ?"));
+    }
+
+    @Test
+    public void skipsPlaceholdersInQuotes() {
+        assertEquals(0, params("SELECT '?'"));
+        assertEquals(1, params("SELECT \"?\" FROM t WHERE a = ?"));
+        assertEquals(1, params("SELECT * FROM t WHERE a = '?' OR b = ?"));
+        // A doubled quote closes the string and opens it again
+        assertEquals(1, params("SELECT 'it''s ?', ?"));
+        assertEquals(1, params("SELECT \"a\"\"?\", ?"));
+        // The other kind of quote means nothing inside a string
+        assertEquals(1, params("SELECT '\"?', ?"));
+        assertEquals(1, params("SELECT \"a'?\", ?"));
+        assertEquals(2, params("SELECT ?, '', ?"));
+        // Everything after an unclosed quote is inside it
+        assertEquals(1, params("SELECT ?, 'unclosed ?"));
+    }
+
+    @Test
+    public void idsAreDistinctAndDense() {
+        Query first = new Query("first", "SELECT 1");
+        Query second = new Query("second", "SELECT 2");
+
+        assertEquals(first.getId() + 1, second.getId());
+        assertTrue(second.getId() < Query.count());
+        assertEquals("second", second.toString());
+        assertEquals("SELECT 2", second.getSql());
+    }
+
+    @Test
+    public void argsAreTheValuesAsText() {
+        Query query = new Query("read", "SELECT * FROM t WHERE a = ? AND " +
+                "b = ? AND c = '?' AND d = ?");
+
+        assertArrayEquals(new String[] {"7", "9000000000", "x"},
+                query.args(7, 9000000000L, "x"));
+        assertArrayEquals(new String[0],
+                new Query("all", "SELECT * FROM t").args());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argsRejectTooFewValues() {
+        new Query("read", "SELECT ? + ?").args(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argsRejectTooManyValues() {
+        new Query("read", "SELECT ?").args(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argsRejectOtherTypes() {
+        // A double would only ever compare as text against an integer
+        new Query("read", "SELECT ?").args(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argsRejectNull() {
+        new Query("read", "SELECT ?").args((Object) null);
+    }
+
+    private static int params(String sql) {
+        return new Query("test", sql).getParamCount();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * RollingStats queries against the drink_log SQL they stand in for, over
+ * histories of 1, 5 and 20 years: window sums, a moving average, the
+ * largest day and the dry streak. Also times the one-off load of the
+ * series. Run with -Ddrinktoken.benchmark=true; see Benchmarks.
+ */
+public class RollingStatsBenchmark {
+    private static final int[] YEARS = {1, 5, 20};
+    private static final int WARMUP = 50;
+    private static final int RUNS = 500;
+    private static final int LOAD_RUNS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void seriesAgainstSql() throws Exception {
+        for (int years : YEARS) {
+            run(years);
+        }
+    }
+
+    private void run(int years) throws Exception {
+        File dir = folder.newFolder(years + "y");
+        final DbHelper store = TestContext.newStore(dir);
+        store.open();
+        try {
+            Benchmarks.seedHistory(store, years * 365, new Random(years));
+            final SqlDatabase db = store.getReadableDatabase();
+            final int today = DayKeys.today();
+            final String profile = String.valueOf(DbHelper.DEFAULT_PROFILE_ID);
+            final RollingStats stats = store.getRollingStats();
+
+            Benchmarks.printHeader("RollingStats vs SQL, " + years +
+                    " year(s)");
+            for (final int days : new int[] {7, 30, 365}) {
+                Benchmarks.time("sql: window sum " + days, WARMUP, RUNS,
+                        new Benchmarks.Operation() {
+                    @Override
+                    public void run() {
+                        db.longForQuery("SELECT " +
+                                "COALESCE(SUM(drink_count), 0) " +
+                                "FROM drink_log WHERE profile_id = ? AND " +
+                                "log_date BETWEEN ? AND ?",
+                                new String[] {profile,
+                                String.valueOf(today - days + 1),
+                                String.valueOf(today)});
+                    }
+                }).report();
+                Benchmarks.time("series: windowSum " + days, WARMUP, RUNS,
+                        new Benchmarks.Operation() {
+                    @Override
+                    public void run() {
+                        stats.windowSum(today, days);
+                    }
+                }).report();
+            }
+            Benchmarks.time("sql: 30-day average", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    db.longForQuery("SELECT " +
+                            "COALESCE(SUM(drink_count), 0) FROM drink_log " +
+                            "WHERE profile_id = ? AND log_date BETWEEN ? " +
+                            "AND ?", new String[] {profile,
+                            String.valueOf(today - 29), String.valueOf(today)});
+                    db.longForQuery("SELECT created_date " +
+                            "FROM meta_data WHERE profile_id = ?",
+                            new String[] {profile});
+                }
+            }).report();
+            Benchmarks.time("series: movingAverage 30", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    stats.movingAverage(today, 30);
+                }
+            }).report();
+            Benchmarks.time("sql: max day, whole history", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    db.longForQuery("SELECT " +
+                            "COALESCE(MAX(drink_count), 0) FROM drink_log " +
+                            "WHERE profile_id = ? AND log_date BETWEEN ? " +
+                            "AND ?", new String[] {profile,
+                            String.valueOf(stats.getFirstDay()),
+                            String.valueOf(today)});
+                }
+            }).report();
+            Benchmarks.time("series: maxDay, whole history", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    stats.maxDay(stats.getFirstDay(), today);
+                }
+            }).report();
+            Benchmarks.time("sql: dry streak", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    db.longForQuery("SELECT ? - " +
+                            "COALESCE(MAX(log_date), ? - 1) FROM drink_log " +
+                            "WHERE profile_id = ? AND log_date <= ? AND " +
+                            "drink_count > 0", new String[] {
+                            String.valueOf(today),
+                            String.valueOf(stats.getFirstDay()), profile,
+                            String.valueOf(today)});
+                }
+            }).report();
+            Benchmarks.time("series: dryStreak", WARMUP, RUNS,
+                    new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    stats.dryStreak(today);
+                }
+            }).report();
+            // The series stays cached until a profile is reset, so each
+            // load sample uses a new DbHelper over the same file
+            Benchmarks.Samples load = new Benchmarks.Samples(
+                    "series: load (getRollingStats)", LOAD_RUNS);
+            for (int i = 0; i < LOAD_RUNS; i++) {
+                DbHelper reopened = TestContext.newStore(dir);
+                reopened.open();
+                try {
+                    long start = System.nanoTime();
+                    reopened.getRollingStats();
+                    load.add(System.nanoTime() - start);
+                } finally {
+                    reopened.close();
+                }
+            }
+            load.report();
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RollingStats against brute-force sums, maxima and streaks over the same
+ * counts, on random series and random changes, plus the edges: an empty
+ * series, days before creation and days past the end.
+ */
+public class RollingStatsTest {
+    private static final int FIRST_DAY = 17000;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void randomSeriesMatchBruteForce() {
+        Random random = new Random(9);
+        for (int round = 0; round < 50; round++) {
+            int length = random.nextInt(800);
+            int[] counts = new int[length];
+            for (int i = 0; i < length; i++) {
+                counts[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(8);
+            }
+            RollingStats stats = new RollingStats(FIRST_DAY, counts, length);
+            checkQueries(stats, counts, random);
+        }
+    }
+
+    @Test
+    public void changesMatchBruteForce() {
+        Random random = new Random(90);
+        int[] counts = new int[0];
+        RollingStats stats = new RollingStats(FIRST_DAY, counts, 0);
+        for (int step = 0; step < 2000; step++) {
+            // Mostly today's taps, sometimes an older day, a day past the
+            // end or a day before creation
+            int reach = Math.max(counts.length, 1);
+            int index;
+            switch (random.nextInt(8)) {
+                case 0:
+                    index = random.nextInt(reach);
+                    break;
+                case 1:
+                    index = reach + random.nextInt(10);
+                    break;
+                case 2:
+                    index = -1 - random.nextInt(5);
+                    break;
+                default:
+                    index = reach - 1;
+            }
+            // Counts never go below zero, as decrementCount() ensures
+            int delta = random.nextInt(4) == 0 && count(counts, index) > 0
+                    ? -1 : 1 + random.nextInt(2);
+            stats.add(FIRST_DAY + index, delta);
+            if (index >= 0) {
+                if (index >= counts.length) {
+                    counts = Arrays.copyOf(counts, index + 1);
+                }
+                counts[index] += delta;
+            }
+            if (step % 20 == 0) {
+                checkQueries(stats, counts, random);
+            }
+        }
+        checkQueries(stats, counts, random);
+    }
+
+    @Test
+    public void emptySeriesIsAllZeroAndDry() {
+        RollingStats stats = new RollingStats(FIRST_DAY, new int[0], 0);
+
+        assertEquals(FIRST_DAY, stats.getLastDay());
+        assertEquals(0, stats.getCount(FIRST_DAY));
+        assertEquals(0, stats.windowSum(FIRST_DAY + 10, 7));
+        assertEquals(0, stats.maxDay(FIRST_DAY, FIRST_DAY + 10));
+        assertEquals(0.0, stats.movingAverage(FIRST_DAY + 10, 7), DELTA);
+        assertEquals(1, stats.dryStreak(FIRST_DAY));
+        assertEquals(11, stats.dryStreak(FIRST_DAY + 10));
+        assertEquals(0, stats.dryStreak(FIRST_DAY - 1));
+    }
+
+    @Test
+    public void movingAverageOnlyDividesByTrackedDays() {
+        RollingStats stats = new RollingStats(FIRST_DAY, new int[] {3, 1}, 2);
+
+        assertEquals(2.0, stats.movingAverage(FIRST_DAY + 1, 7), DELTA);
+        assertEquals(0.0, stats.movingAverage(FIRST_DAY - 1, 7), DELTA);
+        assertEquals(4.0 / 5, stats.movingAverage(FIRST_DAY + 4, 7), DELTA);
+    }
+
+    @Test
+    public void maxDayFollowsChanges() {
+        RollingStats stats = new RollingStats(FIRST_DAY,
+                new int[] {2, 5, 1}, 3);
+        assertEquals(5, stats.maxDay(FIRST_DAY, FIRST_DAY + 2));
+
+        stats.add(FIRST_DAY + 1, -4);
+        assertEquals(2, stats.maxDay(FIRST_DAY, FIRST_DAY + 2));
+        stats.add(FIRST_DAY + 100, 9);
+        assertEquals(9, stats.maxDay(FIRST_DAY, FIRST_DAY + 100));
+        assertEquals(2, stats.maxDay(FIRST_DAY, FIRST_DAY + 99));
+        assertEquals(FIRST_DAY + 100, stats.getLastDay());
+    }
+
+    @Test
+    public void changesBeforeCreationAreIgnored() {
+        RollingStats stats = new RollingStats(FIRST_DAY, new int[] {1}, 1);
+        stats.add(FIRST_DAY - 1, 5);
+
+        assertEquals(0, stats.getCount(FIRST_DAY - 1));
+        assertEquals(1, stats.sum(FIRST_DAY - 10, FIRST_DAY + 10));
+    }
+
+    /**
+     * Checks every query against brute force for days in and around the
+     * series.
+     */
+    private static void checkQueries(RollingStats stats, int[] counts,
+                                     Random random) {
+        int length = counts.length;
+        assertEquals(FIRST_DAY + Math.max(length, 1) - 1, stats.getLastDay());
+        for (int i = -3; i < length + 3; i++) {
+            int day = FIRST_DAY + i;
+            String at = "day " + i + " of " + length;
+            assertEquals(at, count(counts, i), stats.getCount(day));
+            assertEquals(at, dryStreak(counts, i), stats.dryStreak(day));
+            for (int days : new int[] {1, 7, 30, 365}) {
+                assertEquals(at, sum(counts, i - days + 1, i),
+                        stats.windowSum(day, days));
+                assertEquals(at, movingAverage(counts, i, days),
+                        stats.movingAverage(day, days), DELTA);
+            }
+        }
+        for (int n = 0; n < 200; n++) {
+            int from = random.nextInt(length + 6) - 3;
+            int to = from + random.nextInt(length + 6) - 3;
+            String range = from + ".." + to + " of " + length;
+            assertEquals(range, sum(counts, from, to),
+                    stats.sum(FIRST_DAY + from, FIRST_DAY + to));
+            assertEquals(range, maxDay(counts, from, to),
+                    stats.maxDay(FIRST_DAY + from, FIRST_DAY + to));
+        }
+    }
+
+    private static int count(int[] counts, int i) {
+        return i >= 0 && i < counts.length ? counts[i] : 0;
+    }
+
+    private static int sum(int[] counts, int from, int to) {
+        int total = 0;
+        for (int i = from; i <= to; i++) {
+            total += count(counts, i);
+        }
+        return total;
+    }
+
+    private static int maxDay(int[] counts, int from, int to) {
+        int max = 0;
+        for (int i = Math.max(from, 0); i <= to && i < counts.length; i++) {
+            max = Math.max(max, counts[i]);
+        }
+        return max;
+    }
+
+    private static double movingAverage(int[] counts, int end, int days) {
+        int from = Math.max(end - days + 1, 0);
+        if (end < from) {
+            return 0;
+        }
+        return 1.0 * sum(counts, from, end) / (end - from + 1);
+    }
+
+    private static int dryStreak(int[] counts, int end) {
+        int run = 0;
+        for (int i = end; i >= 0 && count(counts, i) == 0; i--) {
+            run++;
+        }
+        return run;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * DrinkToken
+ *     Copyright (c) 2016 Katy Brimm
+ *     This source file is licensed under the BSD 2-Clause License.
+ *     Please see the file LICENSE in this distribution for license terms.
+ * Contact: info@drinktokenapp.com
+ */
+
+package com.kbrimm.app.drinktoken;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Use: The slice of Context that DbHelper uses, for JVM tests. Databases
+ *      live in a directory of the test's choosing and preferences in
+ *      memory, so every test starts from a fresh install. There is no
+ *      base context; anything else DbHelper asked for would fail.
+ * Access points: newStore() - a DbHelper for a fresh install in a
+ *                    directory, on sqlite-jdbc
+ *                getDatabasePath() - a file in the test's directory
+ *                getSharedPreferences() - in-memory preferences by name
+ */
+class TestContext extends ContextWrapper {
+    private final File dir;
+    private final Map<String, SharedPreferences> preferences =
+            new HashMap<String, SharedPreferences>();
+
+    /**
+     * @param dir where databases are created
+     */
+    TestContext(File dir) {
+        super(null);
+        this.dir = dir;
+    }
+
+    /**
+     * Returns a DbHelper over a new TestContext in dir, opening its
+     * database through JdbcDatabase. Not opened yet.
+     *
+     * @param dir where the database is created
+     * @return    the store
+     */
+    static DbHelper newStore(File dir) {
+        return new DbHelper(new TestContext(dir), JdbcDatabase.OPENER);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return new File(dir, name);
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name,
+                                                               int mode) {
+        SharedPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new MemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+}
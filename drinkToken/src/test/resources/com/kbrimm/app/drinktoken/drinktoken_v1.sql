@@ -0,0 +1,32 @@
+-- A DrinkTracker.db as version 1 of the app left it: text dates, no
+-- unique index on drink_log, so the select-then-insert race could leave
+-- more than one row for a day, and decrementCount() could leave a day
+-- at 0. DbMigrationsTest loads this into a file at user_version 1.
+
+CREATE TABLE meta_data (created_date DATE);
+CREATE TABLE drink_log (log_date DATE, drink_count INTEGER);
+
+INSERT INTO meta_data VALUES ('2013-01-01');
+
+-- 1300 days of history from the created date, more than one migration
+-- chunk and spanning several drink_summary blocks
+INSERT INTO drink_log
+  WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n
+    WHERE i < 1299)
+  SELECT date('2013-01-01', '+' || i || ' days'), (i * 7) % 5 FROM n;
+
+-- Days the race wrote twice or three times
+INSERT INTO drink_log VALUES ('2016-07-24', 2);
+INSERT INTO drink_log VALUES ('2016-07-25', 3);
+INSERT INTO drink_log VALUES ('2016-07-25', 2);
+INSERT INTO drink_log VALUES ('2016-12-31', 4);
+INSERT INTO drink_log VALUES ('2017-01-01', 6);
+INSERT INTO drink_log VALUES ('2017-03-15', 1);
+INSERT INTO drink_log VALUES ('2017-03-15', 1);
+INSERT INTO drink_log VALUES ('2017-03-15', 1);
+-- Decremented back to nothing
+INSERT INTO drink_log VALUES ('2017-03-16', 0);
+-- Either side of a drink_summary block boundary (day 17408)
+INSERT INTO drink_log VALUES ('2017-08-29', 5);
+INSERT INTO drink_log VALUES ('2017-08-30', 9);
+INSERT INTO drink_log VALUES ('2017-08-30', 1);